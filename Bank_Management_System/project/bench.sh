@@ -0,0 +1,27 @@
+#!/bin/bash
+
+# Compile the application and benchmarks, then run one benchmark class
+# Usage: ./bench.sh MoneyBenchmark [args...]
+#        ./bench.sh all    runs BenchSuite and saves results under bench-results/
+# Compare two saved runs with: ./bench.sh BenchCompare <baseline.jsonl> <candidate.jsonl>
+if [ $# -eq 0 ]; then
+    echo "Usage: ./bench.sh <BenchmarkClass> [args...] | all"
+    exit 1
+fi
+
+echo "Compiling benchmarks..."
+mkdir -p out/bench
+javac -encoding UTF-8 -d out/bench src/main/java/*.java src/bench/java/*.java
+
+if [ $? -ne 0 ]; then
+    echo "Compilation failed!"
+    exit 1
+fi
+
+if [ "$1" = "all" ]; then
+    results="bench-results/$(date +%Y%m%d-%H%M%S)-$(git rev-parse --short HEAD 2>/dev/null || echo local).jsonl"
+    java -Dbench.results="$results" -cp out/bench BenchSuite
+    echo "Results saved to $results"
+else
+    java -cp out/bench "$@"
+fi
@@ -0,0 +1,102 @@
+/**
+ * Benchmark for deposits, withdrawals and transfers under contention
+ * Each posting type runs on disjoint accounts (one per thread) and on a
+ * small shared set, and the transfer runs check that money is conserved
+ */
+public class AccountBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int SHARED_ACCOUNTS = 4;
+    private static final long OPENING_BALANCE = Money.ofDollars(1_000_000);
+
+    public static void main(String[] args) throws Exception {
+        Bench.setBenchmarkLimits();
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 4_000_000;
+
+        System.out.println("=== Postings by thread count ===");
+        for (int threads : THREAD_COUNTS) {
+            Account[] disjoint = createAccounts(threads);
+            Account[] shared = createAccounts(SHARED_ACCOUNTS);
+
+            Bench.measureThreads("deposit, disjoint", threads, operations,
+                                 (thread, ops) -> deposit(disjoint[thread], ops));
+            Bench.measureThreads("deposit, shared", threads, operations,
+                                 (thread, ops) -> deposit(shared[thread % SHARED_ACCOUNTS], ops));
+            Bench.measureThreads("withdraw, disjoint", threads, operations,
+                                 (thread, ops) -> withdraw(disjoint[thread], ops));
+            Bench.measureThreads("withdraw, shared", threads, operations,
+                                 (thread, ops) -> withdraw(shared[thread % SHARED_ACCOUNTS], ops));
+
+            Account[] pairs = createAccounts(threads * 2);
+            long pairsTotal = total(pairs);
+            Bench.measureThreads("transferTo, disjoint pairs", threads, operations,
+                                 (thread, ops) -> transfer(new Account[] {pairs[thread * 2], pairs[thread * 2 + 1]},
+                                                              0, ops));
+            checkConserved("disjoint pairs", pairs, pairsTotal);
+
+            long sharedTotal = total(shared);
+            Bench.measureThreads("transferTo, shared", threads, operations,
+                                 (thread, ops) -> transfer(shared, thread, ops));
+            checkConserved("shared", shared, sharedTotal);
+        }
+    }
+
+    private static Account[] createAccounts(int count) {
+        Account[] accounts = new Account[count];
+        for (int i = 0; i < count; i++) {
+            accounts[i] = new Account("Holder " + i, OPENING_BALANCE);
+        }
+        return accounts;
+    }
+
+    private static long deposit(Account account, long operations) {
+        long accepted = 0;
+        for (long i = 0; i < operations; i++) {
+            if (account.deposit(1).isSuccess()) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static long withdraw(Account account, long operations) {
+        long accepted = 0;
+        for (long i = 0; i < operations; i++) {
+            if (account.withdraw(1).isSuccess()) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Move one cent to the next account around the ring, starting at an offset
+     */
+    private static long transfer(Account[] ring, int offset, long operations) {
+        long accepted = 0;
+        for (long i = 0; i < operations; i++) {
+            Account source = ring[(int) ((offset + i) % ring.length)];
+            Account target = ring[(int) ((offset + i + 1) % ring.length)];
+            if (source.transferTo(target, 1).isSuccess()) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static long total(Account[] accounts) {
+        long total = 0;
+        for (Account account : accounts) {
+            total = Money.add(total, account.getBalance());
+        }
+        return total;
+    }
+
+    private static void checkConserved(String name, Account[] accounts, long expected) {
+        long actual = total(accounts);
+        if (actual != expected) {
+            throw new IllegalStateException("Money not conserved for " + name + ": expected "
+                                            + Money.format(expected) + ", found " + Money.format(actual));
+        }
+        System.out.println("    money conserved: " + Money.format(actual));
+    }
+}
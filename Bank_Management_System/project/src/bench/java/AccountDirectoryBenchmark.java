@@ -0,0 +1,131 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmark of account lookups and memory per account: AccountDirectory
+ * against the String-keyed maps it replaced
+ * Lookups use typed-in account numbers such as " acc1234", so the map paths
+ * pay for trim and toUpperCase as the console and HTTP front ends did.
+ * The footprint step loads accounts with holder names from a shared pool,
+ * so it measures the directory itself rather than the name strings.
+ *
+ * Usage: AccountDirectoryBenchmark [lookups] [accounts]
+ * e.g.   java -Xmx3g AccountDirectoryBenchmark 1000000 50000000
+ * Map footprints are only measured up to 5M accounts.
+ */
+public class AccountDirectoryBenchmark {
+    private static final int FIRST_ID = 1_000_001;
+    private static final int MAP_FOOTPRINT_LIMIT = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        long lookups = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        String[] names = new String[1024];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Holder " + i;
+        }
+
+        System.out.printf("=== Lookups among %,d accounts ===%n", Math.min(accounts, MAP_FOOTPRINT_LIMIT));
+        lookups(lookups, Math.min(accounts, MAP_FOOTPRINT_LIMIT), names);
+
+        System.out.printf("=== Heap per account, %,d accounts ===%n", accounts);
+        if (accounts <= MAP_FOOTPRINT_LIMIT) {
+            footprint("HashMap<String, Account>", accounts, () -> {
+                Map<String, Account> map = new HashMap<>();
+                for (int i = 0; i < accounts; i++) {
+                    Account account = new Account(FIRST_ID + i, names[i & 1023], 100);
+                    map.put(account.getAccountNumber(), account);
+                }
+                return map;
+            });
+        }
+        footprint("AccountDirectory (loaded)", accounts, () -> {
+            AccountDirectory directory = new AccountDirectory();
+            for (int i = 0; i < accounts; i++) {
+                directory.load(FIRST_ID + i, names[i & 1023], 100);
+            }
+            return directory;
+        });
+    }
+
+    private static void lookups(long lookups, int accounts, String[] names) throws Exception {
+        Map<String, Account> hashMap = new HashMap<>();
+        Map<String, Account> concurrentMap = new ConcurrentHashMap<>();
+        AccountDirectory directory = new AccountDirectory();
+        for (int i = 0; i < accounts; i++) {
+            Account account = new Account(FIRST_ID + i, names[i & 1023], 100);
+            hashMap.put(account.getAccountNumber(), account);
+            concurrentMap.put(account.getAccountNumber(), account);
+            directory.add(account);
+        }
+
+        // Typed input as a user would enter it, in random order
+        SplittableRandom random = new SplittableRandom(7);
+        String[] typed = new String[1 << 16];
+        for (int i = 0; i < typed.length; i++) {
+            typed[i] = " acc" + (FIRST_ID + random.nextInt(accounts));
+        }
+        int mask = typed.length - 1;
+
+        Bench.measure("HashMap.get(trim().toUpperCase())", lookups, ops -> {
+            long found = 0;
+            for (long i = 0; i < ops; i++) {
+                found += hashMap.get(typed[(int) i & mask].trim().toUpperCase()).getAccountId();
+            }
+            return found;
+        });
+        Bench.measure("ConcurrentHashMap.get(trim().toUpperCase())", lookups, ops -> {
+            long found = 0;
+            for (long i = 0; i < ops; i++) {
+                found += concurrentMap.get(typed[(int) i & mask].trim().toUpperCase()).getAccountId();
+            }
+            return found;
+        });
+        Bench.measure("AccountDirectory.find(CharSequence)", lookups, ops -> {
+            long found = 0;
+            for (long i = 0; i < ops; i++) {
+                found += directory.find(typed[(int) i & mask]).getAccountId();
+            }
+            return found;
+        });
+
+        long[] ids = new long[typed.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = AccountDirectory.parseAccountNumber(typed[i]);
+        }
+        Bench.measure("AccountDirectory.find(long)", lookups, ops -> {
+            long found = 0;
+            for (long i = 0; i < ops; i++) {
+                found += directory.find(ids[(int) i & mask]).getAccountId();
+            }
+            return found;
+        });
+    }
+
+    private interface Builder {
+        Object build();
+    }
+
+    private static void footprint(String name, int accounts, Builder builder) {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Object built = builder.build();
+        long elapsed = System.nanoTime() - start;
+        long bytes = usedHeap() - before;
+        System.out.printf("%-28s %,8.1f bytes/account  %,8.1f MB total  built in %,.0f ms%n",
+                          name, (double) bytes / accounts, bytes / 1e6, elapsed / 1e6);
+        if (built.hashCode() == 42) {
+            System.out.println(); // Keeps the structure reachable until after the measurement
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
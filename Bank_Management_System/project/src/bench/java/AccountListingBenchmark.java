@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark of sorted, paged account listing
+ * Times building each order's index, fetching the first page and a page
+ * nine tenths of the way through against sorting every account, and the
+ * cost the balance index adds to a deposit. Finally pages through every
+ * account by balance to check the order and count.
+ *
+ * Usage: AccountListingBenchmark [accounts]
+ */
+public class AccountListingBenchmark {
+    private static final String[] NAMES = {"Rakshitha", "Chitra", "Sanvi", "Arjun", "Meera", "Kiran"};
+    private static final int PAGE_SIZE = 20;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        try (Ledger ledger = new Ledger()) {
+            SplittableRandom random = new SplittableRandom(23);
+            Account[] accounts = new Account[count];
+            for (int i = 0; i < count; i++) {
+                accounts[i] = ledger.openAccount(NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(count),
+                                                 Money.ofDollars(100 + random.nextInt(100_000)));
+            }
+
+            System.out.printf("=== Deposits, %,d accounts ===%n", count);
+            measureDeposits(ledger, accounts, "deposit, no balance index");
+
+            for (AccountListing.Order order : AccountListing.Order.values()) {
+                boolean descending = order == AccountListing.Order.BALANCE;
+                long buildStart = System.nanoTime();
+                ledger.listAccounts(order, descending, null, 1);
+                System.out.printf("=== By %s: index built in %,d ms ===%n", order.name().toLowerCase(),
+                                  (System.nanoTime() - buildStart) / 1_000_000);
+                Account deep = accounts[count / 10 * 9];
+                String cursor = order == AccountListing.Order.BALANCE
+                                ? deep.getBalance() + ":" + deep.getAccountId()
+                                : Integer.toString(deep.getAccountId());
+                Bench.measure("first page", 10_000, ops -> {
+                    long found = 0;
+                    for (long i = 0; i < ops; i++) {
+                        found += ledger.listAccounts(order, descending, null, PAGE_SIZE).getAccounts().size();
+                    }
+                    return found;
+                });
+                Bench.measure("page at 90%", 10_000, ops -> {
+                    long found = 0;
+                    for (long i = 0; i < ops; i++) {
+                        found += ledger.listAccounts(order, descending, cursor, PAGE_SIZE).getAccounts().size();
+                    }
+                    return found;
+                });
+                Comparator<Account> comparator = order == AccountListing.Order.NUMBER
+                    ? Comparator.comparingInt(Account::getAccountId)
+                    : order == AccountListing.Order.HOLDER
+                    ? Comparator.comparing(Account::getAccountHolderName, String.CASE_INSENSITIVE_ORDER)
+                                .thenComparingInt(Account::getAccountId)
+                    : Comparator.comparingLong(Account::getBalance).reversed().thenComparingInt(Account::getAccountId);
+                long sortStart = System.nanoTime();
+                List<Account> sorted = new ArrayList<>(ledger.getAccounts());
+                sorted.sort(comparator);
+                Bench.consume(sorted.get(count / 10 * 9).getAccountId());
+                System.out.printf("sorting every account for one page: %,d us%n",
+                                  (System.nanoTime() - sortStart) / 1000);
+            }
+
+            measureDeposits(ledger, accounts, "deposit, balance index");
+
+            long listed = 0;
+            long previous = Long.MAX_VALUE;
+            boolean ordered = true;
+            long pageStart = System.nanoTime();
+            AccountListing.Page page = ledger.listAccounts(AccountListing.Order.BALANCE, true, null, 1000);
+            while (true) {
+                for (Account account : page.getAccounts()) {
+                    ordered &= account.getBalance() <= previous;
+                    previous = account.getBalance();
+                    listed++;
+                }
+                if (!page.hasNext()) {
+                    break;
+                }
+                page = ledger.listAccounts(AccountListing.Order.BALANCE, true, page.getNextCursor(), 1000);
+            }
+            System.out.printf("all pages by balance: %,d ms, %,d of %,d accounts, %s%n",
+                              (System.nanoTime() - pageStart) / 1_000_000, listed, count,
+                              ordered ? "highest first" : "OUT OF ORDER");
+        }
+    }
+
+    private static void measureDeposits(Ledger ledger, Account[] accounts, String name) throws Exception {
+        SplittableRandom random = new SplittableRandom(24);
+        Bench.measure(name, 200_000, ops -> {
+            long accepted = 0;
+            for (long i = 0; i < ops; i++) {
+                Account account = accounts[random.nextInt(accounts.length)];
+                accepted += ledger.deposit(account, 1 + random.nextInt(10_000), "Cash deposit").isSuccess() ? 1 : 0;
+            }
+            return accepted;
+        });
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmark of the incremental aggregates
+ * Times the aggregate update on its own and the ledger postings that
+ * include it, times a snapshot, then runs transfers on four threads while
+ * the main thread takes snapshots and checks that the balance total and
+ * the account count never change
+ *
+ * Usage: AggregatesBenchmark [operations]
+ */
+public class AggregatesBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4};
+    private static final int ACCOUNTS = 10_000;
+    private static final int MASK = (1 << 16) - 1;
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        try (Ledger ledger = new Ledger()) {
+            Account[] accounts = new Account[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(1_000_000));
+            }
+            int[] picks = new int[MASK + 1];
+            SplittableRandom random = new SplittableRandom(9);
+            for (int i = 0; i < picks.length; i++) {
+                picks[i] = random.nextInt(ACCOUNTS);
+            }
+            LedgerAggregates aggregates = ledger.getAggregates();
+            long micros = System.currentTimeMillis() * 1000;
+
+            for (int threads : THREAD_COUNTS) {
+                System.out.printf("=== Posting cost, threads=%d ===%n", threads);
+                Bench.measureThreads("aggregates.posted alone", threads, operations, (thread, ops) -> {
+                    for (long i = 0; i < ops; i++) {
+                        Account account = accounts[picks[(int) (i + thread * 7919) & MASK]];
+                        aggregates.posted(account, Transaction.TransactionType.BALANCE_INQUIRY, 0, micros);
+                    }
+                    return ops;
+                });
+                Bench.measureThreads("ledger deposit + withdraw", threads, operations, (thread, ops) -> {
+                    long accepted = 0;
+                    for (long i = 0; i < ops; i++) {
+                        Account account = accounts[picks[(int) (i + thread * 7919) & MASK]];
+                        PostingStatus status = (i & 1) == 0 ? ledger.deposit(account, 100, "Cash deposit")
+                                                            : ledger.withdraw(account, 100, "Cash withdrawal");
+                        if (status.isSuccess()) {
+                            accepted++;
+                        }
+                    }
+                    return accepted;
+                });
+            }
+
+            System.out.println("=== Reading ===");
+            Bench.measure("snapshot", operations / 100, ops -> {
+                long total = 0;
+                for (long i = 0; i < ops; i++) {
+                    total += ledger.aggregates().totalBalance();
+                }
+                return total;
+            });
+
+            System.out.println("=== Snapshots during transfers on 4 threads ===");
+            LedgerAggregates.Snapshot before = ledger.aggregates();
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread[] workers = new Thread[4];
+            for (int t = 0; t < workers.length; t++) {
+                int thread = t;
+                workers[t] = new Thread(() -> {
+                    for (long i = 0; running.get(); i++) {
+                        Account source = accounts[picks[(int) (i + thread * 7919) & MASK]];
+                        Account target = accounts[picks[(int) (i + thread * 7919 + 1) & MASK]];
+                        ledger.transfer(source, target, 100 + (i & 1023));
+                    }
+                });
+                workers[t].start();
+            }
+            long snapshots = 0;
+            long inconsistent = 0;
+            long end = System.nanoTime() + 2_000_000_000L;
+            while (System.nanoTime() < end) {
+                LedgerAggregates.Snapshot snapshot = ledger.aggregates();
+                snapshots++;
+                if (snapshot.totalBalance() != before.totalBalance() || snapshot.accounts() != ACCOUNTS
+                    || snapshot.count(Transaction.TransactionType.TRANSFER_IN)
+                       != snapshot.count(Transaction.TransactionType.TRANSFER_OUT)) {
+                    inconsistent++;
+                }
+            }
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            LedgerAggregates.Snapshot after = ledger.aggregates();
+            long transfers = after.count(Transaction.TransactionType.TRANSFER_OUT)
+                             - before.count(Transaction.TransactionType.TRANSFER_OUT);
+            System.out.printf("%,d snapshots during %,d transfers, %,d inconsistent%n",
+                              snapshots, transfers, inconsistent);
+
+            long[] scanned = new long[LedgerAggregates.BUCKETS];
+            for (Account account : accounts) {
+                scanned[LedgerAggregates.bucketOf(account.getBalance())]++;
+            }
+            int differing = 0;
+            for (int bucket = 0; bucket < LedgerAggregates.BUCKETS; bucket++) {
+                if (scanned[bucket] != after.accountsInBucket(bucket)) {
+                    differing++;
+                }
+            }
+            System.out.printf("Balance histogram of %,d accounts: %d buckets differ from a full scan%n",
+                              after.accounts(), differing);
+            System.out.print(after.appendPrometheus(new StringBuilder()));
+        }
+    }
+}
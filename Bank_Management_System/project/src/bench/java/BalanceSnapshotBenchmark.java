@@ -0,0 +1,94 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmark for snapshot reads of balances under concurrent transfers
+ * Times transfers alone and while a reader repeatedly totals every
+ * balance, and counts how often that total is wrong when summed from live
+ * balances and when read from a BalanceSnapshot. Transfers conserve money,
+ * so every correct total equals the money the accounts opened with.
+ *
+ * Usage: BalanceSnapshotBenchmark [accounts] [transfers]
+ */
+public class BalanceSnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long operations = args.length > 1 ? Long.parseLong(args[1]) : 200_000;
+        int[] threadCounts = {1, 4};
+
+        try (Ledger ledger = new Ledger()) {
+            Account[] accounts = new Account[count];
+            for (int i = 0; i < count; i++) {
+                accounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(1000));
+            }
+            long expected = Money.ofDollars(1000) * count;
+
+            System.out.printf("=== Transfers, %,d accounts ===%n", count);
+            for (int threads : threadCounts) {
+                measureTransfers(ledger, accounts, "transfer, no reader", threads, operations);
+            }
+
+            for (int threads : threadCounts) {
+                for (boolean snapshots : new boolean[] {false, true}) {
+                    AtomicBoolean running = new AtomicBoolean(true);
+                    long[] totals = new long[2]; // Totals taken, totals wrong
+                    Thread reader = new Thread(() -> {
+                        while (running.get()) {
+                            long total = 0;
+                            if (snapshots) {
+                                try (BalanceSnapshot snapshot = ledger.snapshot()) {
+                                    total = snapshot.totalBalance();
+                                }
+                            } else {
+                                for (Account account : accounts) {
+                                    total += account.getBalance();
+                                }
+                            }
+                            totals[0]++;
+                            totals[1] += total != expected ? 1 : 0;
+                        }
+                    }, "snapshot-reader");
+                    reader.start();
+                    String name = snapshots ? "transfer, snapshot reader" : "transfer, live-sum reader";
+                    measureTransfers(ledger, accounts, name, threads, operations);
+                    running.set(false);
+                    reader.join();
+                    System.out.printf("    %s totals: %,d taken, %,d wrong%n", snapshots ? "snapshot" : "live-sum",
+                                      totals[0], totals[1]);
+                }
+            }
+
+            try (BalanceSnapshot snapshot = ledger.snapshot()) {
+                measureTransfers(ledger, accounts, "transfer, snapshot held open", 1, operations);
+                System.out.printf("    accounts keeping old versions: %,d, snapshot total %s%n",
+                                  BalanceVersions.retainingAccounts(),
+                                  snapshot.totalBalance() == expected ? "correct" : "WRONG");
+            }
+            long start = System.nanoTime();
+            while (BalanceVersions.retainingAccounts() > 0 && System.nanoTime() - start < 5_000_000_000L) {
+                Thread.sleep(1);
+            }
+            System.out.printf("    after close: %,d accounts keeping old versions, reclaimed in %,d ms%n",
+                              BalanceVersions.retainingAccounts(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static void measureTransfers(Ledger ledger, Account[] accounts, String name, int threads,
+                                         long operations) throws Exception {
+        SplittableRandom[] randoms = new SplittableRandom[threads];
+        for (int i = 0; i < threads; i++) {
+            randoms[i] = new SplittableRandom(25 + i);
+        }
+        Bench.measureThreads(name, threads, operations, (thread, ops) -> {
+            SplittableRandom random = randoms[thread];
+            long accepted = 0;
+            for (long n = 0; n < ops; n++) {
+                Account source = accounts[random.nextInt(accounts.length)];
+                Account target = accounts[random.nextInt(accounts.length)];
+                accepted += source.transferTo(target, 1 + random.nextInt(100)).isSuccess() ? 1 : 0;
+            }
+            return accepted;
+        });
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness shared by the benchmark classes
+ * Demonstrates warmup, timed measurement rounds and dead-code protection
+ *
+ * With -Dbench.results=<file> every measurement is also appended to the
+ * file as one JSON object per line, so runs from different releases can be
+ * compared with BenchCompare.
+ */
+public final class Bench {
+    private static final int WARMUP_ROUNDS = Integer.getInteger("bench.warmup", 5);
+    private static final int MEASURED_ROUNDS = Integer.getInteger("bench.rounds", 5);
+    private static final String RESULTS = System.getProperty("bench.results", "");
+    private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    private static volatile long sink;
+
+    private Bench() {
+    }
+
+    /**
+     * A unit of work that runs a number of operations and returns a checksum
+     */
+    public interface Workload {
+        long run(long operations) throws Exception;
+    }
+
+    /**
+     * The part of a workload run by one thread
+     */
+    public interface ThreadWorkload {
+        long run(int thread, long operations) throws Exception;
+    }
+
+    /**
+     * Raise every rolling limit to its maximum unless -Dbank.limits is set,
+     * so loops that post to a few accounts keep measuring accepted postings
+     * while still paying for the limit checks. Must run before the first
+     * Account is created.
+     */
+    public static void setBenchmarkLimits() {
+        if (System.getProperty("bank.limits") == null) {
+            System.setProperty("bank.limits", "deposit:24h:21474836.47,withdrawal:24h:21474836.47,"
+                                              + "transfer:24h:21474836.47");
+        }
+    }
+
+    /**
+     * Warm up, then time the workload and print the average cost per operation
+     * @param name Benchmark name shown in the report
+     * @param operations Operations per round
+     * @param workload Work to measure
+     * @return average nanoseconds per operation
+     */
+    public static double measure(String name, long operations, Workload workload) throws Exception {
+        return measure(WALKER.getCallerClass().getSimpleName(), name, name, 1, operations, workload);
+    }
+
+    /**
+     * Like measure, but the operations of each round are split across threads
+     * that start together, so the result shows throughput under contention
+     * @param threads Number of threads sharing each round
+     * @return average nanoseconds per operation, across all threads
+     */
+    public static double measureThreads(String name, int threads, long operations,
+                                        ThreadWorkload workload) throws Exception {
+        return measure(WALKER.getCallerClass().getSimpleName(), name, name + ", threads=" + threads,
+                       threads, operations, ops -> runThreads(threads, ops, workload));
+    }
+
+    private static double measure(String suite, String name, String label, int threads, long operations,
+                                  Workload workload) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            consume(workload.run(operations));
+        }
+
+        double[] nanosPerOp = new double[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            consume(workload.run(operations));
+            nanosPerOp[i] = (double) (System.nanoTime() - start) / operations;
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value;
+        }
+        mean /= nanosPerOp.length;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double stdev = Math.sqrt(variance / nanosPerOp.length);
+
+        System.out.printf("%-40s %12.2f ns/op  (+/- %.2f)  %,15.0f ops/s%n",
+                          label, mean, stdev, 1_000_000_000.0 / mean);
+        record(suite, name, threads, operations, MEASURED_ROUNDS, mean, stdev);
+        return mean;
+    }
+
+    /**
+     * Append one result measured outside measure(), such as a load test's
+     * throughput or latency percentile, to the -Dbench.results file
+     * @param nanosPerOp Cost per operation in nanoseconds, lower being better
+     */
+    public static void recordResult(String name, int threads, long operations, double nanosPerOp) {
+        record(WALKER.getCallerClass().getSimpleName(), name, threads, operations, 1, nanosPerOp, 0);
+    }
+
+    private static long runThreads(int threads, long operations, ThreadWorkload workload) throws Exception {
+        long perThread = operations / threads;
+        long[] checksums = new long[threads];
+        Exception[] failure = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    checksums[thread] = workload.run(thread, perThread);
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            }, "bench-" + i);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long checksum = 0;
+        for (int i = 0; i < threads; i++) {
+            workers[i].join();
+            checksum += checksums[i];
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        return checksum;
+    }
+
+    private static void record(String suite, String name, int threads, long operations, int rounds,
+                               double nanosPerOp, double stdev) {
+        if (RESULTS.isEmpty()) {
+            return;
+        }
+        String line = String.format(Locale.ROOT,
+            "{\"suite\":\"%s\",\"benchmark\":\"%s\",\"threads\":%d,\"operations\":%d,"
+                + "\"rounds\":%d,\"nsPerOp\":%.3f,\"stdev\":%.3f,\"opsPerSec\":%.1f,"
+                + "\"java\":\"%s\",\"time\":\"%s\"}%n",
+            escape(suite), escape(name), threads, operations, rounds, nanosPerOp, stdev,
+            1_000_000_000.0 / nanosPerOp, escape(System.getProperty("java.version")), Instant.now());
+        try {
+            Path file = Paths.get(RESULTS);
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Files.writeString(file, line, StandardCharsets.UTF_8,
+                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write benchmark results to " + RESULTS, e);
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Keep a result alive so the JIT cannot remove the work that produced it
+     */
+    public static void consume(long value) {
+        sink ^= value;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two benchmark result files written with -Dbench.results
+ * Prints the change in ns/op for every benchmark found in both files and
+ * exits with status 1 if any got slower by more than -Dbench.threshold percent
+ */
+public class BenchCompare {
+    private static final Pattern FIELD = Pattern.compile(
+        "\"(suite|benchmark|threads|nsPerOp)\":(?:\"([^\"]*)\"|([^,}]*))");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java BenchCompare <baseline.jsonl> <candidate.jsonl>");
+            System.exit(2);
+        }
+        double threshold = Double.parseDouble(System.getProperty("bench.threshold", "10"));
+        Map<String, Double> baseline = load(args[0]);
+        Map<String, Double> candidate = load(args[1]);
+
+        int regressions = 0;
+        System.out.printf("%-70s %12s %12s %9s%n", "benchmark", "base ns/op", "new ns/op", "change");
+        for (Map.Entry<String, Double> entry : candidate.entrySet()) {
+            Double before = baseline.get(entry.getKey());
+            if (before == null) {
+                continue;
+            }
+            double change = (entry.getValue() - before) / before * 100;
+            boolean regressed = change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-70s %12.2f %12.2f %+8.1f%%%s%n", entry.getKey(), before, entry.getValue(),
+                              change, regressed ? "  REGRESSION" : "");
+        }
+        System.out.println(regressions + " regression(s) above " + threshold + "%");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return ns/op keyed by "suite / benchmark / threads"; a later line for the same key wins
+     */
+    private static Map<String, Double> load(String file) throws IOException {
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            Matcher matcher = FIELD.matcher(line);
+            while (matcher.find()) {
+                fields.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+            }
+            if (fields.size() == 4) {
+                results.put(fields.get("suite") + " / " + fields.get("benchmark") + " / " + fields.get("threads"),
+                            Double.parseDouble(fields.get("nsPerOp")));
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Runs every benchmark with sizes that finish in a few minutes
+ * Use with -Dbench.results to record a run for BenchCompare
+ */
+public class BenchSuite {
+
+    public static void main(String[] args) throws Exception {
+        Bench.setBenchmarkLimits();
+        MoneyBenchmark.main(new String[] {"1000000"});
+        InputValidatorBenchmark.main(new String[] {"1000000"});
+        PostingOutputBenchmark.main(new String[] {"500000"});
+        TransactionBenchmark.main(new String[] {"500000"});
+        AccountBenchmark.main(new String[] {"2000000"});
+        IdempotencyBenchmark.main(new String[] {"500000"});
+        RollingLimitsBenchmark.main(new String[] {"2000000"});
+        RiskBenchmark.main(new String[] {"1000000"});
+        PipelineBenchmark.main(new String[] {"500000"});
+        ShardBenchmark.main(new String[] {"500000"});
+        MetricsBenchmark.main(new String[] {"500000"});
+        AggregatesBenchmark.main(new String[] {"500000"});
+        BalanceSnapshotBenchmark.main(new String[] {"10000", "200000"});
+        EndOfDayBenchmark.main(new String[] {"200000"});
+        AccountDirectoryBenchmark.main(new String[] {"2000000", "1000000"});
+        StatementExportBenchmark.main(new String[] {"100000", "10"});
+        AccountListingBenchmark.main(new String[] {"500000"});
+        HistoryBenchmark.main(new String[] {"1000000"});
+        SearchBenchmark.main(new String[] {"2000000"});
+        TransactionStoreBenchmark.main(new String[] {"1000000"});
+        JournalBenchmark.main(new String[] {"2000"});
+        ReplicationBenchmark.main(new String[] {"2000"});
+        LoadTest.main(new String[] {"--accounts", "200000", "--threads", "1,2", "--seconds", "5", "--warmup", "2"});
+    }
+}
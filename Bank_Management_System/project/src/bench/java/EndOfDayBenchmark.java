@@ -0,0 +1,47 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Benchmark of the end-of-day interest and fee batch
+ * Times a month-end run over every account with 1, 2, 4 ... worker threads,
+ * up to at least four and at least the number of cores, then reruns a
+ * checkpointed date to show that a finished run is not repeated
+ *
+ * Usage: EndOfDayBenchmark [accounts]
+ */
+public class EndOfDayBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        try (Ledger ledger = new Ledger()) {
+            for (int i = 0; i < accounts; i++) {
+                // Every fourth account is below the fee waiver balance
+                ledger.openAccount("Holder " + i, Money.ofDollars(i % 4 == 0 ? 500 : 5_000));
+            }
+            LocalDate[] date = {LocalDate.of(2026, 1, 31)};
+
+            System.out.println("=== Month-end run, " + cores + " cores ===");
+            for (int threads = 1; threads <= Math.max(cores, 4); threads *= 2) {
+                EndOfDayProcessor processor = new EndOfDayProcessor(ledger, null, threads, 150,
+                                                                    Money.ofDollars(5), Money.ofDollars(1_000));
+                Bench.measure("accounts, threads=" + threads, accounts, ops -> {
+                    EndOfDayProcessor.Summary summary = processor.run(date[0]);
+                    LocalDate next = date[0].plusMonths(1);
+                    date[0] = next.withDayOfMonth(next.lengthOfMonth());
+                    return summary.getInterestPostings() + summary.getFeePostings();
+                });
+            }
+
+            Path checkpoints = Files.createTempDirectory("eod");
+            EndOfDayProcessor processor = new EndOfDayProcessor(ledger, checkpoints, cores, 150,
+                                                                Money.ofDollars(5), Money.ofDollars(1_000));
+            LocalDate day = LocalDate.of(2030, 6, 30);
+            System.out.println("First run:  " + processor.run(day));
+            System.out.println("Rerun:      " + processor.run(day));
+            Files.deleteIfExists(checkpoints.resolve("eod-" + day + ".dat"));
+            Files.deleteIfExists(checkpoints);
+        }
+    }
+}
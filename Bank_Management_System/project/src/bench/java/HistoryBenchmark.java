@@ -0,0 +1,60 @@
+/**
+ * Benchmark for transaction history lookups as the bank-wide ledger grows
+ * Compares the per-account index against the old scan of every transaction
+ */
+public class HistoryBenchmark {
+    private static final int ACCOUNTS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        long maxLedgerSize = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+
+        try (Ledger ledger = new Ledger()) {
+            run(ledger, maxLedgerSize);
+        }
+    }
+
+    private static void run(Ledger ledger, long maxLedgerSize) throws Exception {
+        Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new Account("Holder " + i, Money.ofDollars(1000));
+            ledger.addAccount(accounts[i]);
+        }
+        Account probe = accounts[0];
+
+        System.out.println("=== History lookup (last 10) ===");
+        long ledgerSize = 0;
+        for (long target = 10_000; target <= maxLedgerSize; target *= 10) {
+            for (; ledgerSize < target; ledgerSize++) {
+                ledger.recordBalanceInquiry(accounts[(int) (ledgerSize % ACCOUNTS)]);
+            }
+
+            Bench.measure("index, ledger=" + target, 100_000, ops -> {
+                long checksum = 0;
+                for (long i = 0; i < ops; i++) {
+                    checksum += ledger.latestTransactions(probe, 10).size();
+                }
+                return checksum;
+            });
+            Bench.measure("index page 5, ledger=" + target, 100_000, ops -> {
+                long checksum = 0;
+                for (long i = 0; i < ops; i++) {
+                    checksum += ledger.transactionPage(probe, 5, 10).size();
+                }
+                return checksum;
+            });
+            if (target <= 1_000_000) {
+                Bench.measure("full scan, ledger=" + target, 10, ops -> {
+                    long[] checksum = new long[1];
+                    for (long i = 0; i < ops; i++) {
+                        ledger.getTransactionStore().forEach(transaction -> {
+                            if (transaction.getAccountId() == probe.getAccountId()) {
+                                checksum[0]++;
+                            }
+                        });
+                    }
+                    return checksum[0];
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Load generator for BankingServer
+ * Opens many keep-alive connections from one selector thread; each logs in,
+ * then loops over deposit, balance, withdraw and history calls until its
+ * share of requests is done. The client speaks just enough HTTP/1.1 to stay
+ * far cheaper per request than the server it measures.
+ * Reports throughput and p50/p90/p99/max latency.
+ *
+ * Usage: java HttpLoadClient [baseUrl] [connections] [requestsPerConnection] [accounts]
+ * e.g.   java HttpLoadClient http://localhost:8080 10000 20 3
+ * Accounts ACC1001 up to ACC1000+accounts must exist on the server.
+ */
+public class HttpLoadClient {
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final InetSocketAddress address;
+    private final String host;
+    private final int requestsPerConnection;
+    private final long[] latencies;
+    private int recorded;
+    private int failures;
+    private int rejected;
+
+    /**
+     * One client connection and its place in the request loop
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final String account;
+        String session;
+        int completed = -1; // -1 until the login response arrives
+        long sentAt;
+        ByteBuffer out;
+        ByteBuffer in = ByteBuffer.allocate(8192);
+
+        Connection(SocketChannel channel, String account) {
+            this.channel = channel;
+            this.account = account;
+        }
+    }
+
+    HttpLoadClient(URI baseUrl, int connections, int requestsPerConnection) {
+        int port = baseUrl.getPort() < 0 ? 80 : baseUrl.getPort();
+        this.address = new InetSocketAddress(baseUrl.getHost(), port);
+        this.host = baseUrl.getHost() + ":" + port;
+        this.requestsPerConnection = requestsPerConnection;
+        this.latencies = new long[connections * (requestsPerConnection + 1)];
+    }
+
+    public static void main(String[] args) throws IOException {
+        URI baseUrl = URI.create(args.length > 0 ? args[0] : "http://localhost:8080");
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int requestsPerConnection = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        HttpLoadClient load = new HttpLoadClient(baseUrl, connections, requestsPerConnection);
+        long start = System.nanoTime();
+        load.run(connections, accounts);
+        load.report(connections, (System.nanoTime() - start) / 1e9);
+    }
+
+    private void run(int connections, int accounts) throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, new Connection(channel, "ACC" + (1001 + i % accounts)));
+            }
+
+            int open = connections;
+            while (open > 0) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            connection.channel.finishConnect();
+                            send(key, connection, login(connection));
+                        } else if (key.isWritable()) {
+                            write(key, connection);
+                        } else if (key.isReadable() && read(key, connection)) {
+                            key.cancel();
+                            connection.channel.close();
+                            open--;
+                        }
+                    } catch (IOException e) {
+                        failures++;
+                        key.cancel();
+                        connection.channel.close();
+                        open--;
+                    }
+                }
+            }
+        }
+    }
+
+    private String login(Connection connection) {
+        return request("POST", "/login", null, "{\"account\":\"" + connection.account + "\"}");
+    }
+
+    private String next(Connection connection) {
+        String session = connection.session;
+        switch (connection.completed % 4) {
+            case 0:
+                return request("POST", "/deposit", session, "{\"amount\":\"1.00\"}");
+            case 1:
+                return request("GET", "/balance", session, null);
+            case 2:
+                return request("POST", "/withdraw", session, "{\"amount\":\"1.00\"}");
+            default:
+                return request("GET", "/history?size=10", session, null);
+        }
+    }
+
+    private String request(String method, String path, String session, String body) {
+        StringBuilder request = new StringBuilder(192)
+            .append(method).append(' ').append(path).append(" HTTP/1.1\r\nHost: ").append(host).append("\r\n");
+        if (session != null) {
+            request.append("X-Session: ").append(session).append("\r\n");
+        }
+        if (body != null) {
+            request.append("Content-Type: application/json\r\nContent-Length: ").append(body.length())
+                   .append("\r\n\r\n").append(body);
+        } else {
+            request.append("\r\n");
+        }
+        return request.toString();
+    }
+
+    private void send(SelectionKey key, Connection connection, String request) throws IOException {
+        connection.out = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+        connection.sentAt = System.nanoTime();
+        write(key, connection);
+    }
+
+    private void write(SelectionKey key, Connection connection) throws IOException {
+        connection.channel.write(connection.out);
+        key.interestOps(connection.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Read what has arrived; on a complete response record it and send the next request
+     * @return true when the connection has finished its requests
+     */
+    private boolean read(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        if (!in.hasRemaining()) {
+            connection.in = in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+        }
+        if (connection.channel.read(in) < 0) {
+            throw new IOException("Server closed the connection");
+        }
+
+        int headerEnd = indexOf(in.array(), in.position(), HEADER_END);
+        if (headerEnd < 0) {
+            return false;
+        }
+        String headers = new String(in.array(), 0, headerEnd, StandardCharsets.US_ASCII);
+        int bodyStart = headerEnd + HEADER_END.length;
+        int bodyLength = contentLength(headers);
+        if (in.position() < bodyStart + bodyLength) {
+            return false;
+        }
+
+        latencies[recorded++] = System.nanoTime() - connection.sentAt;
+        int status = Integer.parseInt(headers.substring(9, 12));
+        if (status >= 500 || status == 401) {
+            failures++;
+        } else if (status >= 400) {
+            rejected++;
+        }
+        String body = new String(in.array(), bodyStart, bodyLength, StandardCharsets.UTF_8);
+        in.clear();
+
+        if (connection.completed < 0) {
+            int start = body.indexOf("\"session\":\"");
+            if (start < 0) {
+                failures++;
+                return true;
+            }
+            connection.session = body.substring(start + 11, body.indexOf('"', start + 11));
+        }
+        connection.completed++;
+        if (connection.completed == requestsPerConnection) {
+            return true;
+        }
+        send(key, connection, next(connection));
+        return false;
+    }
+
+    private static int contentLength(String headers) {
+        for (String line : headers.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                return Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOf(byte[] data, int length, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void report(int connections, double seconds) {
+        long[] sorted = Arrays.copyOf(latencies, recorded);
+        Arrays.sort(sorted);
+        System.out.printf("%,d requests over %,d connections in %.2f s: %,.0f req/s, %,d failed, %,d rejected%n",
+                          recorded, connections, seconds, recorded / seconds, failures, rejected);
+        if (recorded > 0) {
+            System.out.printf("latency ms  p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+                              percentile(sorted, 0.50), percentile(sorted, 0.90),
+                              percentile(sorted, 0.99), sorted[recorded - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Benchmark of idempotent postings
+ * Compares ledger deposits without a key, with a new key each time and with
+ * repeated keys, then pushes many times the cache capacity of new keys
+ * through a small cache and reports the heap it holds
+ *
+ * Usage: IdempotencyBenchmark [operations]
+ */
+public class IdempotencyBenchmark {
+    private static final int ACCOUNTS = 1_000;
+    private static final int REPEATED_KEYS = 1 << 14;
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        String[] repeated = new String[REPEATED_KEYS];
+        for (int i = 0; i < repeated.length; i++) {
+            repeated[i] = "retry-" + i;
+        }
+
+        try (Ledger ledger = new Ledger()) {
+            Account[] accounts = new Account[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = ledger.openAccount("Holder " + i, 0);
+            }
+            long[] next = {0};
+
+            System.out.println("=== Ledger deposit ===");
+            Bench.measure("no key", operations, ops -> {
+                long accepted = 0;
+                for (long i = 0; i < ops; i++) {
+                    Account account = accounts[(int) (i % ACCOUNTS)];
+                    if (ledger.deposit(account, 1, "Cash deposit").isSuccess()) {
+                        accepted++;
+                    }
+                }
+                return accepted;
+            });
+            Bench.measure("new key each time", operations, ops -> {
+                long accepted = 0;
+                for (long i = 0; i < ops; i++) {
+                    Account account = accounts[(int) (i % ACCOUNTS)];
+                    String key = "request-" + next[0]++;
+                    if (ledger.deposit(account, 1, "Cash deposit", key).isSuccess()) {
+                        accepted++;
+                    }
+                }
+                return accepted;
+            });
+            Bench.measure("repeated key (replayed outcome)", operations, ops -> {
+                long accepted = 0;
+                for (long i = 0; i < ops; i++) {
+                    int pick = (int) i & (REPEATED_KEYS - 1);
+                    if (ledger.deposit(accounts[pick % ACCOUNTS], 1, "Cash deposit", repeated[pick]).isSuccess()) {
+                        accepted++;
+                    }
+                }
+                return accepted;
+            });
+        }
+
+        System.out.println("=== Bounded memory ===");
+        int capacity = 100_000;
+        IdempotencyCache cache = new IdempotencyCache(capacity, 3_600);
+        long before = usedHeap();
+        long keys = 20L * capacity;
+        for (long i = 0; i < keys; i++) {
+            cache.execute((int) (i % ACCOUNTS), "request-" + i, IdempotencyCache.Operation.DEPOSIT, 1, 0,
+                          () -> PostingStatus.SUCCESS);
+        }
+        long after = usedHeap();
+        System.out.printf("%,d keys through a cache of %,d: %,d kept, %,.1f MB held (%,.0f bytes per key)%n",
+                          keys, capacity, cache.size(), (after - before) / 1e6,
+                          (double) (after - before) / cache.size());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Benchmark for InputValidator.parseAmount on valid and rejected input
+ * Rejected input prints an error, so that run sends System.out to a null stream
+ */
+public class InputValidatorBenchmark {
+    private static final int INPUTS = 4096;
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        Random random = new Random(42);
+        String[] valid = new String[INPUTS];
+        String[] invalid = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            valid[i] = " " + Money.format(1 + random.nextInt(10_000_000)) + " ";
+            invalid[i] = random.nextBoolean() ? "12.345" : "abc" + i;
+        }
+
+        System.out.println("=== InputValidator.parseAmount ===");
+        Bench.measure("valid amounts", operations, ops -> {
+            long total = 0;
+            for (long i = 0; i < ops; i++) {
+                total += InputValidator.parseAmount(valid[(int) (i & (INPUTS - 1))]);
+            }
+            return total;
+        });
+
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        Bench.measure("rejected amounts (output discarded)", operations, ops -> {
+            long total = 0;
+            System.setOut(discard);
+            try {
+                for (long i = 0; i < ops; i++) {
+                    total += InputValidator.parseAmount(invalid[(int) (i & (INPUTS - 1))]);
+                }
+            } finally {
+                System.setOut(console);
+            }
+            return total;
+        });
+    }
+}
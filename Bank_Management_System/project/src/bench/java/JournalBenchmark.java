@@ -0,0 +1,36 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmark for journaled posting throughput at each durability level
+ * Every thread records postings against its own account through the ledger
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 20_000;
+        int[] threadCounts = {1, 4, 16};
+
+        System.out.println("=== Journaled postings ===");
+        for (Journal.Durability durability : Journal.Durability.values()) {
+            for (int threads : threadCounts) {
+                Path file = Files.createTempFile("bench", ".journal");
+                try (Ledger ledger = new Ledger(new Journal(file, durability, 10))) {
+                    Account[] accounts = new Account[threads];
+                    for (int i = 0; i < threads; i++) {
+                        accounts[i] = new Account("Holder " + i, Money.ofDollars(1000));
+                        ledger.addAccount(accounts[i]);
+                    }
+                    Bench.measureThreads(durability.toString(), threads, operations, (thread, ops) -> {
+                        for (long n = 0; n < ops; n++) {
+                            ledger.recordBalanceInquiry(accounts[thread]);
+                        }
+                        return ops;
+                    });
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test driving a WorkloadGenerator workload through the bank
+ * Demonstrates closed-loop and open-loop load, the standard way to judge
+ * whether a change made the bank faster
+ *
+ * Closed loop: every thread starts its next operation as soon as the last
+ * one returns, which measures peak throughput. Open loop: operations are
+ * scheduled at a fixed total rate whatever the bank does, and latency is
+ * measured from when each one was due, so a stall shows up in every
+ * operation that queued behind it rather than in one slow sample.
+ *
+ * Operations go through a Ledger, or straight to Account with --direct.
+ * Each run warms up, then reports throughput, latency percentiles and
+ * rejections per operation, garbage collections, and bytes allocated per
+ * operation by the worker threads. With -Dbench.results the throughput
+ * and percentiles are recorded for BenchCompare. Rolling limits are raised
+ * as in the other benchmarks unless -Dbank.limits is set.
+ *
+ * Usage: LoadTest [--accounts N] [--threads N[,N...]] [--mode closed|open]
+ *                 [--rate opsPerSecond] [--seconds N] [--warmup N]
+ *                 [--zipf exponent] [--mix deposit,withdrawal,transfer,inquiry]
+ *                 [--seed N] [--direct]
+ */
+public class LoadTest {
+    private static final WorkloadGenerator.Operation[] OPERATIONS = WorkloadGenerator.Operation.values();
+    private static final PostingStatus[] STATUSES = PostingStatus.values();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public static void main(String[] args) throws Exception {
+        int accounts = 1_000_000;
+        int[] threadCounts = {1};
+        boolean open = false;
+        double rate = 100_000;
+        int seconds = 10;
+        int warmup = 5;
+        double zipf = 1.1;
+        int[] mix = {30, 25, 25, 20};
+        long seed = 42;
+        boolean direct = false;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--direct")) {
+                direct = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            if (option.equals("--accounts")) {
+                accounts = Integer.parseInt(value);
+            } else if (option.equals("--threads")) {
+                threadCounts = parseList(value);
+            } else if (option.equals("--mode")) {
+                open = value.equals("open");
+            } else if (option.equals("--rate")) {
+                rate = Double.parseDouble(value);
+            } else if (option.equals("--seconds")) {
+                seconds = Integer.parseInt(value);
+            } else if (option.equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (option.equals("--zipf")) {
+                zipf = Double.parseDouble(value);
+            } else if (option.equals("--mix")) {
+                mix = parseList(value);
+            } else if (option.equals("--seed")) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        Bench.setBenchmarkLimits();
+        WorkloadGenerator generator = new WorkloadGenerator(seed, accounts, zipf, mix);
+        try (Ledger ledger = new Ledger()) {
+            long openStart = System.nanoTime();
+            Account[] opened = direct ? generator.createAccounts() : generator.openAccounts(ledger);
+            System.out.printf("Opened %,d accounts in %,d ms%n", accounts, (System.nanoTime() - openStart) / 1_000_000);
+            int stream = 0;
+            for (int threads : threadCounts) {
+                Run run = new Run(generator, direct ? null : ledger, opened, threads, open, rate, stream);
+                stream += threads;
+                System.out.printf("=== %s loop, %s, %d threads, %,d accounts, zipf %.2f, mix %s, seed %d%s ===%n",
+                                  open ? "Open" : "Closed", direct ? "Account" : "Ledger", threads, accounts, zipf,
+                                  join(mix), seed, open ? String.format(Locale.ROOT, ", %,.0f ops/s", rate) : "");
+                run.execute(warmup, seconds);
+                run.report(open ? "open loop" : "closed loop");
+            }
+        }
+    }
+
+    /**
+     * One timed run at a fixed thread count
+     */
+    private static final class Run {
+        private final WorkloadGenerator generator;
+        private final Ledger ledger;
+        private final Account[] accounts;
+        private final int threads;
+        private final boolean open;
+        private final double rate;
+        private final int firstStream;
+        private final LatencyHistogram[] latency = new LatencyHistogram[OPERATIONS.length];
+        private final LatencyHistogram allLatency = new LatencyHistogram();
+        private final long[][] statuses = new long[OPERATIONS.length][STATUSES.length];
+        private long allocatedBytes;
+        private long measuredNanos;
+        private long collections;
+        private long collectionMillis;
+
+        Run(WorkloadGenerator generator, Ledger ledger, Account[] accounts, int threads, boolean open,
+            double rate, int firstStream) {
+            this.generator = generator;
+            this.ledger = ledger;
+            this.accounts = accounts;
+            this.threads = threads;
+            this.open = open;
+            this.rate = rate;
+            this.firstStream = firstStream;
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LatencyHistogram();
+            }
+        }
+
+        void execute(int warmupSeconds, int seconds) throws Exception {
+            long start = System.nanoTime() + 10_000_000;
+            long measureStart = start + warmupSeconds * 1_000_000_000L;
+            long end = measureStart + seconds * 1_000_000_000L;
+            Worker[] workers = new Worker[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(firstStream + i, start, measureStart, end);
+                workers[i].start();
+            }
+            sleepUntil(measureStart);
+            long[] gcBefore = gcTotals();
+            for (Worker worker : workers) {
+                worker.join();
+            }
+            long[] gcAfter = gcTotals();
+            measuredNanos = end - measureStart;
+            collections = gcAfter[0] - gcBefore[0];
+            collectionMillis = gcAfter[1] - gcBefore[1];
+            for (Worker worker : workers) {
+                if (worker.failure != null) {
+                    throw new IllegalStateException("Load test worker failed", worker.failure);
+                }
+                allocatedBytes += worker.allocatedBytes;
+                for (int op = 0; op < OPERATIONS.length; op++) {
+                    for (int status = 0; status < STATUSES.length; status++) {
+                        statuses[op][status] += worker.statuses[op][status];
+                    }
+                }
+            }
+        }
+
+        void report(String mode) {
+            System.out.printf("%-16s %12s %12s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "ops/s",
+                              "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "rejected");
+            long total = 0;
+            long totalRejected = 0;
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                long count = 0;
+                for (long value : statuses[op]) {
+                    count += value;
+                }
+                long rejected = count - statuses[op][PostingStatus.SUCCESS.ordinal()];
+                printRow(OPERATIONS[op].name().toLowerCase(Locale.ROOT), count, rejected, latency[op].snapshot());
+                total += count;
+                totalRejected += rejected;
+            }
+            LatencyHistogram.Snapshot all = allLatency.snapshot();
+            printRow("all", total, totalRejected, all);
+
+            StringBuilder reasons = new StringBuilder();
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                for (int status = 0; status < STATUSES.length; status++) {
+                    if (status != PostingStatus.SUCCESS.ordinal() && statuses[op][status] > 0) {
+                        reasons.append(String.format(Locale.ROOT, "%n  %-16s %-26s %,12d", OPERATIONS[op]
+                            .name().toLowerCase(Locale.ROOT), STATUSES[status], statuses[op][status]));
+                    }
+                }
+            }
+            System.out.println("rejections:" + (reasons.length() == 0 ? " none" : reasons));
+
+            double opsPerSecond = total * 1e9 / measuredNanos;
+            if (open && opsPerSecond < rate * 0.99) {
+                System.out.printf("Fell behind: %,.0f of %,.0f ops/s scheduled were completed%n", opsPerSecond, rate);
+            }
+            System.out.printf("GC: %,d collections, %,d ms; allocated %,d MB, %,.0f bytes/op%n", collections,
+                              collectionMillis, allocatedBytes >> 20, (double) allocatedBytes / Math.max(1, total));
+            if (total > 0) {
+                Bench.recordResult(mode + " throughput", threads, total, 1e9 / opsPerSecond);
+                Bench.recordResult(mode + " p50 latency", threads, total, all.valueAt(0.5));
+                Bench.recordResult(mode + " p99 latency", threads, total, all.valueAt(0.99));
+            }
+        }
+
+        private void printRow(String name, long count, long rejected, LatencyHistogram.Snapshot snapshot) {
+            StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-16s %,12d %,12.0f", name, count,
+                                                                count * 1e9 / measuredNanos));
+            for (double quantile : QUANTILES) {
+                row.append(String.format(Locale.ROOT, " %,9.1f", snapshot.valueAt(quantile) / 1000.0));
+            }
+            row.append(String.format(Locale.ROOT, " %,9.1f %8.2f%%", snapshot.max() / 1000.0,
+                                     100.0 * rejected / Math.max(1, count)));
+            System.out.println(row);
+        }
+
+        /**
+         * A thread running one stream until the end of the run
+         */
+        private final class Worker extends Thread {
+            private final WorkloadGenerator.Stream stream;
+            private final long start;
+            private final long measureStart;
+            private final long end;
+            private final long[][] statuses = new long[OPERATIONS.length][STATUSES.length];
+            private long allocatedBytes;
+            private Throwable failure;
+
+            Worker(int streamNumber, long start, long measureStart, long end) {
+                super("load-" + streamNumber);
+                this.stream = generator.stream(streamNumber);
+                this.start = start;
+                this.measureStart = measureStart;
+                this.end = end;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    drive();
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+
+            private void drive() {
+                com.sun.management.ThreadMXBean threadBean =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                double interval = open ? threads * 1e9 / rate : 0;
+                long scheduled = 0;
+                boolean measuring = false;
+                long allocatedAtStart = 0;
+                sleepUntil(start);
+                while (true) {
+                    long begin;
+                    if (open) {
+                        begin = start + (long) (scheduled++ * interval);
+                        sleepUntil(begin);
+                    } else {
+                        begin = System.nanoTime();
+                    }
+                    if (begin >= end) {
+                        break;
+                    }
+                    if (!measuring && begin >= measureStart) {
+                        measuring = true;
+                        allocatedAtStart = threadBean.getCurrentThreadAllocatedBytes();
+                    }
+                    WorkloadGenerator.Operation operation = stream.next();
+                    PostingStatus status = perform(operation);
+                    if (measuring) {
+                        long nanos = System.nanoTime() - begin;
+                        latency[operation.ordinal()].record(nanos);
+                        allLatency.record(nanos);
+                        statuses[operation.ordinal()][status.ordinal()]++;
+                    }
+                }
+                if (measuring) {
+                    allocatedBytes = threadBean.getCurrentThreadAllocatedBytes() - allocatedAtStart;
+                }
+            }
+
+            private PostingStatus perform(WorkloadGenerator.Operation operation) {
+                Account account = accounts[stream.account()];
+                long amount = stream.amount();
+                switch (operation) {
+                    case DEPOSIT:
+                        return ledger != null ? ledger.deposit(account, amount, "Cash deposit")
+                                              : account.deposit(amount);
+                    case WITHDRAWAL:
+                        return ledger != null ? ledger.withdraw(account, amount, "Cash withdrawal")
+                                              : account.withdraw(amount);
+                    case TRANSFER:
+                        Account target = accounts[stream.target()];
+                        return ledger != null ? ledger.transfer(account, target, amount)
+                                              : account.transferTo(target, amount);
+                    default:
+                        if (ledger != null) {
+                            ledger.recordBalanceInquiry(account);
+                        }
+                        Bench.consume(account.getBalance());
+                        return PostingStatus.SUCCESS;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for a System.nanoTime() deadline, parking while it is far away
+     * and spinning for the last stretch
+     */
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 200_000) {
+                LockSupport.parkNanos(remaining - 100_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * @return collections and collection milliseconds so far, over every collector
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private static int[] parseList(String text) {
+        String[] parts = text.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static String join(int[] values) {
+        StringBuilder text = new StringBuilder();
+        for (int value : values) {
+            text.append(text.length() == 0 ? "" : "/").append(value);
+        }
+        return text.toString();
+    }
+}
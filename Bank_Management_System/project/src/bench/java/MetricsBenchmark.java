@@ -0,0 +1,115 @@
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark of the cost of Metrics on ledger operations
+ * Runs the same postings, lookups and history reads on a ledger recording
+ * into Metrics.DISABLED and on one recording into enabled metrics, prints
+ * the overhead of each, and ends with the Prometheus dump of the enabled run
+ *
+ * Usage: MetricsBenchmark [operations]
+ */
+public class MetricsBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4};
+    private static final int ACCOUNTS = 10_000;
+    private static final int MASK = (1 << 16) - 1;
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        Metrics metrics = new Metrics();
+
+        try (Ledger off = new Ledger(); Ledger on = new Ledger()) {
+            on.setMetrics(metrics);
+            Account[] offAccounts = open(off);
+            Account[] onAccounts = open(on);
+            int[] picks = new int[MASK + 1];
+            SplittableRandom random = new SplittableRandom(5);
+            for (int i = 0; i < picks.length; i++) {
+                picks[i] = random.nextInt(ACCOUNTS);
+            }
+
+            for (int threads : THREAD_COUNTS) {
+                System.out.printf("=== Metrics off vs on, threads=%d ===%n", threads);
+                compare("deposit + withdraw", threads, operations,
+                        (thread, ops) -> postings(off, offAccounts, picks, thread, ops),
+                        (thread, ops) -> postings(on, onAccounts, picks, thread, ops));
+                compare("transfer", threads, operations,
+                        (thread, ops) -> transfers(off, offAccounts, picks, thread, ops),
+                        (thread, ops) -> transfers(on, onAccounts, picks, thread, ops));
+                compare("findAccount(CharSequence)", threads, operations,
+                        (thread, ops) -> lookups(off, offAccounts, picks, thread, ops),
+                        (thread, ops) -> lookups(on, onAccounts, picks, thread, ops));
+                compare("transactionPage", threads, operations / 10,
+                        (thread, ops) -> pages(off, offAccounts, picks, thread, ops),
+                        (thread, ops) -> pages(on, onAccounts, picks, thread, ops));
+            }
+        }
+
+        System.out.println("=== Prometheus dump of the enabled run ===");
+        long start = System.nanoTime();
+        String dump = metrics.toString();
+        System.out.print(dump);
+        System.out.printf("(%,d bytes rendered in %,.1f us)%n", dump.length(), (System.nanoTime() - start) / 1e3);
+    }
+
+    private static Account[] open(Ledger ledger) {
+        Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(1_000_000));
+        }
+        return accounts;
+    }
+
+    private static void compare(String name, int threads, long operations, Bench.ThreadWorkload off,
+                                Bench.ThreadWorkload on) throws Exception {
+        double offNanos = Bench.measureThreads(name + ", metrics off", threads, operations, off);
+        double onNanos = Bench.measureThreads(name + ", metrics on", threads, operations, on);
+        System.out.printf("  overhead %+.1f%% (%+.1f ns/op)%n", (onNanos / offNanos - 1) * 100, onNanos - offNanos);
+    }
+
+    /**
+     * Alternate deposits and withdrawals, with one in 64 withdrawals over the limit
+     */
+    private static long postings(Ledger ledger, Account[] accounts, int[] picks, int thread, long operations) {
+        long accepted = 0;
+        for (long i = 0; i < operations; i++) {
+            Account account = accounts[picks[(int) (i + thread * 997L) & MASK]];
+            PostingStatus status = (i & 1) == 0
+                ? ledger.deposit(account, 100, "Cash deposit")
+                : ledger.withdraw(account, (i & 127) == 1 ? Money.ofDollars(1_000_000) : 100, "Cash withdrawal");
+            if (status.isSuccess()) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static long transfers(Ledger ledger, Account[] accounts, int[] picks, int thread, long operations) {
+        long accepted = 0;
+        for (long i = 0; i < operations; i++) {
+            int pick = (int) (i + thread * 997L) & MASK;
+            Account source = accounts[picks[pick]];
+            Account target = accounts[picks[(pick + 1) & MASK]];
+            if (ledger.transfer(source, target, 1).isSuccess()) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static long lookups(Ledger ledger, Account[] accounts, int[] picks, int thread, long operations) {
+        long found = 0;
+        for (long i = 0; i < operations; i++) {
+            String accountNumber = accounts[picks[(int) (i + thread * 997L) & MASK]].getAccountNumber();
+            found += ledger.findAccount(accountNumber).getAccountId();
+        }
+        return found;
+    }
+
+    private static long pages(Ledger ledger, Account[] accounts, int[] picks, int thread, long operations) {
+        long rows = 0;
+        for (long i = 0; i < operations; i++) {
+            rows += ledger.transactionPage(accounts[picks[(int) (i + thread * 997L) & MASK]], 0, 10).size();
+        }
+        return rows;
+    }
+}
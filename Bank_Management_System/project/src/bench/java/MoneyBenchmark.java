@@ -0,0 +1,57 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * Benchmark comparing the long-cents money path against double and BigDecimal
+ * Each workload parses an amount string and adds it to a running total
+ */
+public class MoneyBenchmark {
+    private static final int INPUTS = 4096;
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        String[] inputs = createInputs(new Random(42));
+
+        System.out.println("=== Money parse + add ===");
+        Bench.measure("double (Double.parseDouble)", operations, ops -> {
+            double total = 0;
+            for (long i = 0; i < ops; i++) {
+                total += Double.parseDouble(inputs[(int) (i & (INPUTS - 1))].trim());
+            }
+            return Double.doubleToLongBits(total);
+        });
+        Bench.measure("BigDecimal", operations, ops -> {
+            BigDecimal total = BigDecimal.ZERO;
+            for (long i = 0; i < ops; i++) {
+                total = total.add(new BigDecimal(inputs[(int) (i & (INPUTS - 1))].trim())
+                                      .setScale(2, RoundingMode.UNNECESSARY));
+            }
+            return total.unscaledValue().longValue();
+        });
+        Bench.measure("long cents (Money.parse)", operations, ops -> {
+            long total = 0;
+            for (long i = 0; i < ops; i++) {
+                total = Money.add(total, Money.parse(inputs[(int) (i & (INPUTS - 1))]));
+            }
+            return total;
+        });
+
+        System.out.println("=== Drift after " + operations + " postings of $0.10 ===");
+        double doubleTotal = 0;
+        long centsTotal = 0;
+        for (long i = 0; i < operations; i++) {
+            doubleTotal += 0.10;
+            centsTotal = Money.add(centsTotal, 10);
+        }
+        System.out.println("double: " + doubleTotal + "  cents: " + Money.format(centsTotal));
+    }
+
+    private static String[] createInputs(Random random) {
+        String[] inputs = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            inputs[i] = Money.format(1 + random.nextInt(10_000_000));
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark comparing the single-writer PostingPipeline with per-account
+ * locking for transfers between random pairs of accounts
+ * Both paths record every transfer in the store and history. The first
+ * runs have no journal, so they compare posting cost; the journaled runs
+ * show the pipeline appending and syncing once per batch
+ */
+public class PipelineBenchmark {
+    private static final int ACCOUNTS = 1000;
+    private static final long OPENING_BALANCE = Money.ofDollars(1_000_000);
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int[] threadCounts = {1, 2, 4};
+
+        System.out.println("=== Transfers between random accounts ===");
+        for (int threads : threadCounts) {
+            compare(threads, operations, null);
+        }
+
+        System.out.println("=== Journaled transfers (PER_BATCH) ===");
+        for (int threads : new int[] {4, 16}) {
+            Path file = Files.createTempFile("bench", ".journal");
+            try {
+                compare(threads, operations / 50, file);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void compare(int threads, long operations, Path journalFile) throws Exception {
+        try (Ledger ledger = createLedger(journalFile)) {
+            Account[] accounts = createAccounts(ledger);
+            Bench.measureThreads("Ledger.transfer (locking)", threads, operations, (thread, ops) -> {
+                SplittableRandom random = new SplittableRandom(thread);
+                long accepted = 0;
+                for (long i = 0; i < ops; i++) {
+                    Account source = accounts[random.nextInt(ACCOUNTS)];
+                    Account target = accounts[random.nextInt(ACCOUNTS)];
+                    if (ledger.transfer(source, target, 1).isSuccess()) {
+                        accepted++;
+                    }
+                }
+                return accepted;
+            });
+            checkConserved(accounts);
+        }
+
+        try (Ledger ledger = createLedger(journalFile)) {
+            Account[] accounts = createAccounts(ledger);
+            PostingPipeline pipeline = new PostingPipeline(ledger, 1 << 16, null);
+            Bench.measureThreads("PostingPipeline.transfer", threads, operations, (thread, ops) -> {
+                SplittableRandom random = new SplittableRandom(thread);
+                long last = -1;
+                for (long i = 0; i < ops; i++) {
+                    last = pipeline.transfer(accounts[random.nextInt(ACCOUNTS)],
+                                             accounts[random.nextInt(ACCOUNTS)], 1);
+                }
+                pipeline.awaitCompletion(last);
+                return last;
+            });
+            pipeline.close();
+            checkConserved(accounts);
+        }
+    }
+
+    private static Ledger createLedger(Path journalFile) throws IOException {
+        if (journalFile == null) {
+            return new Ledger();
+        }
+        Files.write(journalFile, new byte[0]);
+        return new Ledger(new Journal(journalFile, Journal.Durability.PER_BATCH, 10));
+    }
+
+    private static Account[] createAccounts(Ledger ledger) {
+        Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new Account("Holder " + i, OPENING_BALANCE);
+            ledger.addAccount(accounts[i]);
+        }
+        return accounts;
+    }
+
+    private static void checkConserved(Account[] accounts) {
+        long total = 0;
+        for (Account account : accounts) {
+            total = Money.add(total, account.getBalance());
+        }
+        long expected = OPENING_BALANCE * ACCOUNTS;
+        if (total != expected) {
+            throw new IllegalStateException("Money not conserved: expected " + Money.format(expected)
+                                            + ", found " + Money.format(total));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Benchmark for ledger deposits with and without console output
+ * Output goes to a PrintStream that discards its bytes, so the numbers show
+ * the cost of formatting and the synchronized stream, not of the terminal
+ */
+public class PostingOutputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Bench.setBenchmarkLimits();
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+        try (Ledger ledger = new Ledger()) {
+            Account account = new Account("Holder", 0);
+            ledger.addAccount(account);
+
+            System.out.println("=== Ledger deposit ===");
+            Bench.measure("output suppressed (status only)", operations, ops -> {
+                long accepted = 0;
+                for (long i = 0; i < ops; i++) {
+                    if (ledger.deposit(account, 1, "Cash deposit").isSuccess()) {
+                        accepted++;
+                    }
+                }
+                return accepted;
+            });
+            Bench.measure("output enabled (ConsoleView)", operations, ops -> {
+                ConsoleView view = new ConsoleView(discard);
+                long accepted = 0;
+                for (long i = 0; i < ops; i++) {
+                    if (view.printDeposit(ledger.deposit(account, 1, "Cash deposit"), 1)) {
+                        accepted++;
+                    }
+                }
+                return accepted;
+            });
+            Bench.measure("output enabled (printf per posting)", operations, ops -> {
+                long accepted = 0;
+                for (long i = 0; i < ops; i++) {
+                    if (ledger.deposit(account, 1, "Cash deposit").isSuccess()) {
+                        discard.printf("Successfully deposited $%s%n", Money.format(1));
+                        accepted++;
+                    }
+                }
+                return accepted;
+            });
+        }
+    }
+}
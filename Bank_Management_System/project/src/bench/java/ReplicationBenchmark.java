@@ -0,0 +1,87 @@
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Benchmark for replicated posting throughput
+ * A leader and a follower ledger run in this process and replicate over
+ * loopback TCP. Deposits are timed without replication, with the follower
+ * receiving them asynchronously (acks=0) and with each deposit waiting for
+ * the follower's fsync (acks=1), then the time the follower takes to apply
+ * everything is reported.
+ *
+ * Usage: ReplicationBenchmark [operations]
+ */
+public class ReplicationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 20_000;
+        int[] threadCounts = {1, 4, 16};
+
+        System.out.println("=== Replicated deposits ===");
+        for (int acks = -1; acks <= 1; acks++) {
+            for (int threads : threadCounts) {
+                measure(acks, threads, operations);
+            }
+        }
+    }
+
+    /**
+     * @param acks Acknowledgements each deposit waits for, -1 for no follower
+     */
+    private static void measure(int acks, int threads, long operations) throws Exception {
+        Path leaderFile = Files.createTempFile("bench-leader", ".journal");
+        Path followerFile = Files.createTempFile("bench-follower", ".journal");
+        try (Ledger leaderLedger = new Ledger(new Journal(leaderFile, Journal.Durability.PER_BATCH, 10));
+             Ledger followerLedger = new Ledger(new Journal(followerFile, Journal.Durability.PER_BATCH, 10))) {
+            ReplicationLeader leader = null;
+            ReplicationFollower follower = null;
+            if (acks >= 0) {
+                leader = new ReplicationLeader(leaderLedger.getJournal(),
+                                               new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                                               acks, 10_000);
+                follower = new ReplicationFollower(followerLedger, followerLedger.getJournal(), List.of(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), leader.getPort())));
+                while (leader.getFollowers().isEmpty()) {
+                    Thread.sleep(10);
+                }
+            }
+            try {
+                Account[] accounts = new Account[threads];
+                for (int i = 0; i < threads; i++) {
+                    accounts[i] = leaderLedger.openAccount("Holder " + i, Money.ofDollars(1000));
+                }
+                String name = acks < 0 ? "no follower" : "acks=" + acks;
+                Bench.measureThreads(name, threads, operations, (thread, ops) -> {
+                    long accepted = 0;
+                    for (long n = 0; n < ops; n++) {
+                        accepted += leaderLedger.deposit(accounts[thread], 1, "Cash deposit").isSuccess() ? 1 : 0;
+                    }
+                    return accepted;
+                });
+                if (follower != null) {
+                    long target = leaderLedger.getJournal().size();
+                    long start = System.nanoTime();
+                    while (follower.getAppliedPosition() < target) {
+                        Thread.sleep(1);
+                    }
+                    Account copy = followerLedger.findAccount(accounts[0].getAccountNumber());
+                    System.out.printf("%s, threads=%d: follower applied %,d journal bytes %,d ms after the last "
+                                      + "deposit, balances %s%n", name, threads, target,
+                                      (System.nanoTime() - start) / 1_000_000,
+                                      copy.getBalance() == accounts[0].getBalance() ? "match" : "DIFFER");
+                }
+            } finally {
+                if (follower != null) {
+                    follower.close();
+                    leader.close();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(leaderFile);
+            Files.deleteIfExists(followerFile);
+        }
+    }
+}
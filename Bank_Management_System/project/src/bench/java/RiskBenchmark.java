@@ -0,0 +1,171 @@
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark of the inline risk scorer
+ * Builds a synthetic week of postings over 10,000 accounts, each with its
+ * own usual amounts and payees, and salts it with three kinds of fraud:
+ * one unusually large posting, a burst of postings, and transfers to a
+ * string of new payees. The stream is replayed through a scorer with a
+ * simulated clock, timing every posting into a latency histogram and
+ * counting how much of the fraud was flagged, then the deposits,
+ * withdrawals and transfers are replayed through a Ledger, whose accounts
+ * screen with the -Dbank.risk settings; run with -Dbank.risk=false to
+ * compare. The ledger replay runs on the real clock, so a week of
+ * postings lands in seconds and most of them trip the velocity feature.
+ *
+ * Usage: RiskBenchmark [postings]
+ */
+public class RiskBenchmark {
+    private static final int ACCOUNTS = 10_000;
+    private static final int PAYEES = 4;
+    private static final long WEEK_MILLIS = 7 * 86_400_000L;
+    private static final int NORMAL = 0;
+    private static final int LARGE = 1;
+    private static final int BURST = 2;
+    private static final int NEW_PAYEES = 3;
+    private static final RollingLimits.Kind[] KINDS = RollingLimits.Kind.values();
+
+    private static int count;
+    private static int[] accounts;
+    private static byte[] kinds;
+    private static long[] amounts;
+    private static int[] counterparties;
+    private static long[] times;
+    private static byte[] labels;
+
+    public static void main(String[] args) throws Exception {
+        int postings = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        generate(postings);
+
+        System.out.printf("=== Scorer replay of %,d postings ===%n", count);
+        Bench.measure("assess + record", count, ops -> {
+            RiskScorer scorer = new RiskScorer(true, 50, 0, 20);
+            RiskScorer.Profile[] profiles = profiles(scorer);
+            long flagged = 0;
+            for (int i = 0; i < ops; i++) {
+                RollingLimits.Kind kind = KINDS[kinds[i]];
+                int reasons = scorer.assess(profiles[accounts[i]], kind, amounts[i], counterparties[i], times[i]);
+                scorer.record(profiles[accounts[i]], accounts[i], kind, amounts[i], counterparties[i], reasons,
+                              times[i]);
+                flagged += reasons;
+            }
+            return flagged;
+        });
+
+        RiskScorer scorer = new RiskScorer(true, 50, 0, 20);
+        RiskScorer.Profile[] profiles = profiles(scorer);
+        LatencyHistogram latency = new LatencyHistogram();
+        long[] flaggedByLabel = new long[4];
+        long[] totalByLabel = new long[4];
+        for (int i = 0; i < count; i++) {
+            RollingLimits.Kind kind = KINDS[kinds[i]];
+            long start = System.nanoTime();
+            int reasons = scorer.assess(profiles[accounts[i]], kind, amounts[i], counterparties[i], times[i]);
+            scorer.hold(profiles[accounts[i]], accounts[i], kind, amounts[i], reasons, times[i]);
+            scorer.record(profiles[accounts[i]], accounts[i], kind, amounts[i], counterparties[i], reasons, times[i]);
+            latency.record(System.nanoTime() - start);
+            totalByLabel[labels[i]]++;
+            if (RiskScorer.score(reasons) >= 50) {
+                flaggedByLabel[labels[i]]++;
+            }
+        }
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf("per posting: p50 %,d ns, p99 %,d ns, p99.9 %,d ns, max %,d ns (includes nanoTime)%n",
+                          snapshot.valueAt(0.5), snapshot.valueAt(0.99), snapshot.valueAt(0.999), snapshot.max());
+        String[] names = {"normal postings", "large amounts", "posting bursts", "new payee strings"};
+        for (int label = 0; label < names.length; label++) {
+            System.out.printf("%-18s %,9d, flagged %,7d (%.2f%%)%n", names[label], totalByLabel[label],
+                              flaggedByLabel[label], 100.0 * flaggedByLabel[label] / Math.max(1, totalByLabel[label]));
+        }
+
+        System.out.printf("=== Ledger replay, bank.risk=%s ===%n", Account.getRiskScorer().isEnabled());
+        try (Ledger ledger = new Ledger()) {
+            Account[] ledgerAccounts = new Account[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                ledgerAccounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(100_000));
+            }
+            LatencyHistogram postingLatency = new LatencyHistogram();
+            for (int i = 0; i < count; i++) {
+                Account account = ledgerAccounts[accounts[i]];
+                // Amounts are scaled down to stay inside the per-posting and rolling limits
+                long amount = 1 + amounts[i] / 100;
+                long start = System.nanoTime();
+                if (kinds[i] == RollingLimits.Kind.DEPOSIT.ordinal()) {
+                    ledger.deposit(account, amount, "Cash deposit");
+                } else if (kinds[i] == RollingLimits.Kind.WITHDRAWAL.ordinal()) {
+                    ledger.withdraw(account, amount, "Cash withdrawal");
+                } else {
+                    ledger.transfer(account, ledgerAccounts[counterparties[i] % ACCOUNTS], amount);
+                }
+                postingLatency.record(System.nanoTime() - start);
+            }
+            LatencyHistogram.Snapshot posting = postingLatency.snapshot();
+            System.out.printf("per posting: p50 %,d ns, p99 %,d ns, p99.9 %,d ns; %,d flagged, %,d held%n",
+                              posting.valueAt(0.5), posting.valueAt(0.99), posting.valueAt(0.999),
+                              Account.getRiskScorer().flaggedCount(), Account.getRiskScorer().heldCount());
+        }
+    }
+
+    private static RiskScorer.Profile[] profiles(RiskScorer scorer) {
+        RiskScorer.Profile[] profiles = new RiskScorer.Profile[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            profiles[i] = scorer.newProfile();
+        }
+        return profiles;
+    }
+
+    /**
+     * Fill the stream arrays: postings spread evenly over a week, with one
+     * posting in a thousand starting an injected fraud pattern
+     */
+    private static void generate(int postings) {
+        accounts = new int[postings];
+        kinds = new byte[postings];
+        amounts = new long[postings];
+        counterparties = new int[postings];
+        times = new long[postings];
+        labels = new byte[postings];
+        SplittableRandom random = new SplittableRandom(21);
+        long[] usualAmounts = new long[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            usualAmounts[i] = 1_000 + random.nextLong(50_000);
+        }
+        long start = System.currentTimeMillis();
+        count = 0;
+        while (count < postings) {
+            long time = start + WEEK_MILLIS * count / postings;
+            int account = random.nextInt(ACCOUNTS);
+            int pattern = random.nextInt(1000) == 0 ? 1 + random.nextInt(3) : NORMAL;
+            if (pattern == LARGE) {
+                add(account, RollingLimits.Kind.WITHDRAWAL, usualAmounts[account] * 20, 0, time, LARGE);
+            } else if (pattern == BURST) {
+                for (int i = 0; i < 30 && count < postings; i++) {
+                    add(account, RollingLimits.Kind.WITHDRAWAL, usualAmounts[account], 0, time + i * 1000, BURST);
+                }
+            } else if (pattern == NEW_PAYEES) {
+                for (int i = 0; i < 4 && count < postings; i++) {
+                    add(account, RollingLimits.Kind.TRANSFER, usualAmounts[account] * 3,
+                        ACCOUNTS + random.nextInt(1_000_000), time + i * 5000, NEW_PAYEES);
+                }
+            } else {
+                RollingLimits.Kind kind = KINDS[random.nextInt(KINDS.length)];
+                // Usual amounts vary by up to half either way
+                long amount = usualAmounts[account] / 2 + random.nextLong(usualAmounts[account]);
+                int payee = kind == RollingLimits.Kind.TRANSFER ? 1 + (account + 1 + random.nextInt(PAYEES)) % ACCOUNTS
+                                                               : 0;
+                add(account, kind, amount, payee, time, NORMAL);
+            }
+        }
+    }
+
+    private static void add(int account, RollingLimits.Kind kind, long amount, int counterparty, long time,
+                            int label) {
+        accounts[count] = account;
+        kinds[count] = (byte) kind.ordinal();
+        amounts[count] = amount;
+        counterparties[count] = counterparty;
+        times[count] = time;
+        labels[count] = (byte) label;
+        count++;
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark of the rolling limit counters
+ * Times a check and charge against one account and against a million
+ * accounts in random order, with the clock moving so windows keep rolling,
+ * reports the counter memory per active account, and shows ten $9,999
+ * withdrawals against the limits accounts are configured with
+ *
+ * Usage: RollingLimitsBenchmark [operations]
+ */
+public class RollingLimitsBenchmark {
+    private static final String SPEC = "deposit:24h:100000,withdrawal:24h:10000,withdrawal:1h:2500:12,"
+                                       + "transfer:24h:5000";
+    private static final int ACCOUNTS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 4_000_000;
+        RollingLimits limits = RollingLimits.parse(SPEC);
+        long start = System.currentTimeMillis();
+
+        System.out.println("=== Check and charge, " + SPEC + " ===");
+        int[] single = limits.newUsage(RollingLimits.Kind.WITHDRAWAL);
+        Bench.measure("admits + charge, one account", operations, ops -> {
+            long admitted = 0;
+            for (long i = 0; i < ops; i++) {
+                long now = start + i * 10; // A posting every 10 ms, so hourly slots roll
+                if (limits.admits(single, RollingLimits.Kind.WITHDRAWAL, 100, now)) {
+                    limits.charge(single, RollingLimits.Kind.WITHDRAWAL, 100, now);
+                    admitted++;
+                }
+            }
+            return admitted;
+        });
+
+        RollingLimits.Kind[] kinds = RollingLimits.Kind.values();
+        int[][][] usage = new int[ACCOUNTS][kinds.length][];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            for (RollingLimits.Kind kind : kinds) {
+                usage[i][kind.ordinal()] = limits.newUsage(kind);
+            }
+        }
+        int[] picks = new int[1 << 20];
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < picks.length; i++) {
+            picks[i] = random.nextInt(ACCOUNTS);
+        }
+        Bench.measure("admits + charge, 1M accounts", operations, ops -> {
+            long admitted = 0;
+            for (long i = 0; i < ops; i++) {
+                RollingLimits.Kind kind = kinds[(int) (i % kinds.length)];
+                int[] account = usage[picks[(int) i & (picks.length - 1)]][kind.ordinal()];
+                long now = start + i / 100;
+                if (limits.admits(account, kind, 2_500, now)) {
+                    limits.charge(account, kind, 2_500, now);
+                    admitted++;
+                }
+            }
+            return admitted;
+        });
+
+        for (RollingLimits.Kind kind : kinds) {
+            int ints = limits.newUsage(kind).length;
+            System.out.printf("Counters for %-10s %3d ints, %4d bytes with the array header%n",
+                              kind.name().toLowerCase() + ":", ints, (16 + ints * 4 + 7) / 8 * 8);
+        }
+        System.out.println("Plus 32 bytes per account that has posted; accounts that never post carry none");
+
+        RollingLimits configured = Account.getLimits();
+        Account account = new Account("Holder", Money.ofDollars(1_000_000));
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (account.withdraw(Money.ofDollars(9_999)).isSuccess()) {
+                accepted++;
+            }
+        }
+        System.out.printf("Ten $9,999 withdrawals under \"%s\": %d accepted%n",
+                          configured.describe(RollingLimits.Kind.WITHDRAWAL), accepted);
+    }
+}
@@ -0,0 +1,115 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.SplittableRandom;
+import java.util.function.LongPredicate;
+
+/**
+ * Benchmark of transaction search through the TransactionIndex
+ * Fills a store with a year of postings, times building the index, then
+ * times the first page of several searches against a full scan of the
+ * store, and pages through every result to check it against that scan
+ *
+ * Usage: SearchBenchmark [rows]
+ */
+public class SearchBenchmark {
+    private static final String[] NAMES = {"Asha", "Bharat", "Chitra", "Deepak", "Esha", "Farhan", "Gita", "Hari"};
+    private static final int HOLDERS = 1000;
+    private static final int PAGE_SIZE = 50;
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+        try (TransactionStore store = TransactionStore.temporary()) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate firstDay = LocalDate.of(2026, 1, 1);
+            long start = firstDay.atStartOfDay(zone).toEpochSecond() * 1_000_000;
+            long step = 365L * 86_400_000_000L / rows;
+            SplittableRandom random = new SplittableRandom(20);
+            for (long row = 0; row < rows; row++) {
+                String holder = NAMES[(int) (row % NAMES.length)] + " " + random.nextInt(HOLDERS);
+                int pick = random.nextInt(10);
+                Transaction.TransactionType type = pick < 4 ? Transaction.TransactionType.DEPOSIT
+                                                   : pick < 7 ? Transaction.TransactionType.WITHDRAWAL
+                                                   : pick < 9 ? Transaction.TransactionType.TRANSFER_OUT
+                                                   : Transaction.TransactionType.TRANSFER_IN;
+                String description = type == Transaction.TransactionType.DEPOSIT ? "Cash deposit"
+                                     : type == Transaction.TransactionType.WITHDRAWAL ? "Cash withdrawal"
+                                     : type == Transaction.TransactionType.TRANSFER_OUT ? "Transfer to " + holder
+                                     : "Transfer from " + holder;
+                // Timestamps jitter by up to a second, as concurrent appends do
+                long micros = start + row * step + random.nextLong(1_000_000);
+                store.put(row + TransactionStore.FIRST_TRANSACTION_NUMBER, random.nextInt(HOLDERS), type,
+                          1 + random.nextLong(1_000_000), 0, micros, description);
+            }
+
+            try (TransactionIndex index = new TransactionIndex(store)) {
+                long buildStart = System.nanoTime();
+                index.search(new TransactionQuery(), null, TransactionIndex.FIRST_PAGE, 1);
+                long buildNanos = System.nanoTime() - buildStart;
+                System.out.printf("Indexed %,d rows in %,d ms, %.0f ns/row%n",
+                                  index.indexedRows(), buildNanos / 1_000_000, (double) buildNanos / rows);
+
+                LocalDate day = firstDay.plusDays(200);
+                long dayStart = day.atStartOfDay(zone).toEpochSecond() * 1_000_000;
+                long dayEnd = day.plusDays(1).atStartOfDay(zone).toEpochSecond() * 1_000_000;
+                check(store, index, "text \"transfer to chitra 7\"",
+                      new TransactionQuery().text("transfer to chitra 7"),
+                      row -> store.description(row).equals("Transfer to Chitra 7"));
+                check(store, index, "withdrawals 500.00 to 505.00",
+                      new TransactionQuery().types(Transaction.TransactionType.WITHDRAWAL)
+                                            .amountBetween(50_000, 50_500),
+                      row -> store.type(row) == Transaction.TransactionType.WITHDRAWAL
+                             && store.amount(row) >= 50_000 && store.amount(row) <= 50_500);
+                check(store, index, "one day",
+                      new TransactionQuery().between(day, day),
+                      row -> store.epochMicros(row) >= dayStart && store.epochMicros(row) < dayEnd);
+                check(store, index, "transfers from Gita on one day",
+                      new TransactionQuery().text("from gita").between(day, day),
+                      row -> store.description(row).startsWith("Transfer from Gita ")
+                             && store.epochMicros(row) >= dayStart && store.epochMicros(row) < dayEnd);
+                check(store, index, "deposits of exactly 9,999.99",
+                      new TransactionQuery().types(Transaction.TransactionType.DEPOSIT)
+                                            .amountBetween(999_999, 999_999),
+                      row -> store.type(row) == Transaction.TransactionType.DEPOSIT && store.amount(row) == 999_999);
+            }
+        }
+    }
+
+    private static void check(TransactionStore store, TransactionIndex index, String name,
+                              TransactionQuery query, LongPredicate scan) throws Exception {
+        System.out.println("=== " + name + " ===");
+        Bench.measure("index, first page", 1000, ops -> {
+            long found = 0;
+            for (long i = 0; i < ops; i++) {
+                found += index.search(query, null, TransactionIndex.FIRST_PAGE, PAGE_SIZE).getTransactions().size();
+            }
+            return found;
+        });
+        long expected = 0;
+        long scanStart = System.nanoTime();
+        for (long row = 0; row < store.size(); row++) {
+            if (scan.test(row)) {
+                expected++;
+            }
+        }
+        System.out.printf("full scan: %,d us%n", (System.nanoTime() - scanStart) / 1000);
+
+        long found = 0;
+        long previous = Long.MAX_VALUE;
+        boolean ordered = true;
+        long pageStart = System.nanoTime();
+        TransactionIndex.Page page = index.search(query, null, TransactionIndex.FIRST_PAGE, 1000);
+        while (true) {
+            for (Transaction transaction : page.getTransactions()) {
+                ordered &= transaction.getRow() < previous && scan.test(transaction.getRow());
+                previous = transaction.getRow();
+                found++;
+            }
+            if (!page.hasNext()) {
+                break;
+            }
+            page = index.search(query, null, page.getNextCursor(), 1000);
+        }
+        System.out.printf("all pages: %,d us, %,d found, %,d by scan, %s%n", (System.nanoTime() - pageStart) / 1000,
+                          found, expected, ordered ? "newest first" : "OUT OF ORDER OR WRONG");
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of ShardedLedger transfers as the share of cross-shard traffic grows
+ * One producer thread per shard sends transfers from accounts of its own
+ * shard; a given percentage go to an account in another shard and take the
+ * two-phase path. The journaled runs give every shard its own PER_BATCH
+ * journal. Money is checked for conservation once every transfer has settled.
+ */
+public class ShardBenchmark {
+    private static final int ACCOUNTS_PER_SHARD = 1000;
+    private static final long OPENING_BALANCE = Money.ofDollars(1_000_000);
+    private static final int WINDOW = 1024; // Transfers each producer keeps outstanding
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int[] crossShardPercents = {0, 10, 50};
+
+        System.out.println("=== Sharded transfers, in memory ===");
+        for (int shards : new int[] {1, 2, 4}) {
+            for (int percent : crossShardPercents) {
+                if (shards > 1 || percent == 0) {
+                    try (ShardedLedger ledger = new ShardedLedger(shards)) {
+                        run(ledger, percent, operations);
+                    }
+                }
+            }
+        }
+
+        System.out.println("=== Sharded transfers, journaled (PER_BATCH) ===");
+        for (int percent : crossShardPercents) {
+            Path directory = Files.createTempDirectory("shards");
+            try (ShardedLedger ledger = ShardedLedger.open(directory, 4, Journal.Durability.PER_BATCH, 10)) {
+                run(ledger, percent, operations / 10);
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    private static void run(ShardedLedger ledger, int crossShardPercent, long operations) throws Exception {
+        int shards = ledger.getShardCount();
+        Account[][] accounts = createAccounts(ledger);
+        String name = "ShardedLedger.transfer, shards=" + shards + ", cross-shard=" + crossShardPercent + "%";
+        Bench.measureThreads(name, shards, operations, (thread, ops) -> {
+            SplittableRandom random = new SplittableRandom(thread);
+            List<CompletableFuture<PostingStatus>> window = new ArrayList<>(Collections.nCopies(WINDOW, null));
+            Account[] own = accounts[thread % shards];
+            long accepted = 0;
+            for (long i = 0; i < ops; i++) {
+                Account[] targets = own;
+                if (shards > 1 && random.nextInt(100) < crossShardPercent) {
+                    targets = accounts[(thread + 1 + random.nextInt(shards - 1)) % shards];
+                }
+                int slot = (int) (i % WINDOW);
+                CompletableFuture<PostingStatus> previous = window.set(slot, ledger.transfer(
+                    own[random.nextInt(own.length)], targets[random.nextInt(targets.length)], 1));
+                if (previous != null && previous.join().isSuccess()) {
+                    accepted++;
+                }
+            }
+            for (CompletableFuture<PostingStatus> pending : window) {
+                if (pending != null && pending.join().isSuccess()) {
+                    accepted++;
+                }
+            }
+            return accepted;
+        });
+        ledger.awaitSettled();
+        checkConserved(accounts);
+    }
+
+    /**
+     * Open accounts until every shard holds the same number
+     * @return accounts grouped by shard
+     */
+    private static Account[][] createAccounts(ShardedLedger ledger) {
+        int shards = ledger.getShardCount();
+        List<List<Account>> byShard = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        int full = 0;
+        while (full < shards) {
+            Account account = ledger.openAccount("Holder", OPENING_BALANCE);
+            List<Account> shard = byShard.get(ledger.shardOf(account.getAccountId()));
+            shard.add(account);
+            if (shard.size() == ACCOUNTS_PER_SHARD) {
+                full++;
+            }
+        }
+        Account[][] accounts = new Account[shards][];
+        for (int i = 0; i < shards; i++) {
+            accounts[i] = byShard.get(i).toArray(new Account[0]);
+        }
+        return accounts;
+    }
+
+    private static void checkConserved(Account[][] accounts) {
+        long total = 0;
+        long expected = 0;
+        for (Account[] shard : accounts) {
+            for (Account account : shard) {
+                total = Money.add(total, account.getBalance());
+                expected = Money.add(expected, OPENING_BALANCE);
+            }
+        }
+        if (total != expected) {
+            throw new IllegalStateException("Money not conserved: expected " + Money.format(expected)
+                                            + ", found " + Money.format(total));
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
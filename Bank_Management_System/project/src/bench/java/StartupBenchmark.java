@@ -0,0 +1,76 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark for startup time: full journal replay versus checkpoint plus tail
+ * Usage: StartupBenchmark [accounts] [postings before checkpoint] [tail postings]
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long postings = args.length > 1 ? Long.parseLong(args[1]) : 2_000_000;
+        long tail = args.length > 2 ? Long.parseLong(args[2]) : 10_000;
+        Path directory = Files.createTempDirectory("startup");
+
+        try {
+            System.out.printf("Building %,d accounts, %,d postings, then %,d tail postings...%n",
+                              accounts, postings, tail);
+            build(directory, accounts, postings, tail);
+
+            System.out.println("=== Startup ===");
+            recover(directory, false);
+            recover(directory, true);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    private static void build(Path directory, int accounts, long postings, long tail) throws Exception {
+        TransactionStore store = new TransactionStore(directory.resolve("transactions"));
+        Journal journal = new Journal(directory.resolve("bank.journal"), Journal.Durability.TIMED, 100);
+        Checkpointer checkpointer = new Checkpointer(directory.resolve("snapshots"), journal, store);
+        Ledger ledger = new Ledger(store, journal, checkpointer);
+
+        Account[] opened = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            opened[i] = new Account("Holder " + i, Money.ofDollars(100));
+            ledger.addAccount(opened[i]);
+        }
+        Random random = new Random(42);
+        for (long i = 0; i < postings; i++) {
+            ledger.recordBalanceInquiry(opened[random.nextInt(accounts)]);
+        }
+        checkpointer.checkpoint();
+        for (long i = 0; i < tail; i++) {
+            ledger.recordBalanceInquiry(opened[random.nextInt(accounts)]);
+        }
+
+        // Stop without the final checkpoint, as a crash would
+        journal.close();
+        store.close();
+    }
+
+    private static void recover(Path directory, boolean useCheckpoint) throws Exception {
+        System.gc();
+        long start = System.nanoTime();
+        TransactionStore store = new TransactionStore(directory.resolve("transactions"));
+        Journal journal = new Journal(directory.resolve("bank.journal"), Journal.Durability.TIMED, 100);
+        Checkpointer checkpointer = useCheckpoint
+            ? new Checkpointer(directory.resolve("snapshots"), journal, store) : null;
+        Ledger ledger = new Ledger(store, journal, checkpointer);
+        ledger.recover();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-28s %,10.1f ms  (%,d accounts)%n",
+                          useCheckpoint ? "checkpoint + journal tail" : "full journal replay",
+                          elapsed / 1e6, ledger.getAccounts().size());
+        journal.close();
+        store.close();
+    }
+}
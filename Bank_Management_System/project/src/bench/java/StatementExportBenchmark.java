@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of StatementExporter in every format
+ * Reports the cost per statement and the heap in use while exporting,
+ * sampled every few milliseconds, against the heap before it started
+ *
+ * Usage: StatementExportBenchmark [accounts] [postings per account] [threads]
+ */
+public class StatementExportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int postingsPerAccount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        Path directory = Files.createTempDirectory("statements");
+
+        try (Ledger ledger = new Ledger()) {
+            System.out.printf("Building %,d accounts with %,d postings each...%n", accounts, postingsPerAccount);
+            build(ledger, accounts, postingsPerAccount);
+
+            System.out.printf("=== Statements for %,d accounts ===%n", accounts);
+            for (StatementExporter.Format format : StatementExporter.Format.values()) {
+                StatementExporter exporter = new StatementExporter(ledger, format, threads);
+                Bench.measure("StatementExporter " + format + ", threads=" + threads, accounts,
+                              ops -> exporter.export(directory, today.minusDays(1), today).statements);
+                heapWhileExporting(exporter, directory, today);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void build(Ledger ledger, int accounts, int postingsPerAccount) {
+        Account[] opened = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            opened[i] = ledger.openAccount("Holder " + i, Money.ofDollars(1_000));
+        }
+        SplittableRandom random = new SplittableRandom(11);
+        for (int round = 1; round < postingsPerAccount; round++) {
+            for (Account account : opened) {
+                long amount = 1 + random.nextInt(10_000);
+                if (random.nextBoolean()) {
+                    ledger.deposit(account, amount, "Cash deposit");
+                } else {
+                    ledger.withdraw(account, amount, "Cash withdrawal");
+                }
+            }
+        }
+    }
+
+    /**
+     * Export once more while a sampler records the largest heap in use
+     */
+    private static void heapWhileExporting(StatementExporter exporter, Path directory, LocalDate today)
+            throws Exception {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        long[] peak = {before};
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+        StatementExporter.Summary summary = exporter.export(directory, today.minusDays(1), today);
+        sampler.interrupt();
+        sampler.join();
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("  %,.0f statements/s, %,.1f MB written; heap %,.1f MB before, peak %,.1f MB, "
+                          + "%,.1f MB after%n", summary.statementsPerSecond(), summary.bytes / 1e6,
+                          before / 1e6, peak[0] / 1e6, after / 1e6);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Benchmark for creating transactions and rendering them as text
+ * Compares per-call String.format with ConsoleView's cached formatter and
+ * reusable builder; printed output goes to a null stream
+ */
+public class TransactionBenchmark {
+    private static final int ROWS = 1 << 16;
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+
+        try (TransactionStore store = TransactionStore.temporary()) {
+            System.out.println("=== Transaction construction ===");
+            Bench.measure("store append", operations, ops -> {
+                long total = 0;
+                for (long i = 0; i < ops; i++) {
+                    total += store.append((int) (i & 1023), Transaction.TransactionType.DEPOSIT,
+                                          i, i * 2, "Cash deposit");
+                }
+                return total;
+            });
+            Bench.measure("view from row", operations, ops -> {
+                long total = 0;
+                for (long i = 0; i < ops; i++) {
+                    total += store.get(i & (ROWS - 1)).getAmount();
+                }
+                return total;
+            });
+
+            System.out.println("=== Transaction formatting ===");
+            Bench.measure("toString", operations, ops -> {
+                long total = 0;
+                for (long i = 0; i < ops; i++) {
+                    total += store.get(i & (ROWS - 1)).toString().length();
+                }
+                return total;
+            });
+            Bench.measure("ConsoleView.appendTransaction", operations, ops -> {
+                ConsoleView view = new ConsoleView(DISCARD);
+                StringBuilder line = new StringBuilder(128);
+                long total = 0;
+                for (long i = 0; i < ops; i++) {
+                    line.setLength(0);
+                    total += view.appendTransaction(line, store.get(i & (ROWS - 1))).length();
+                }
+                return total;
+            });
+            Bench.measure("ConsoleView.printTransaction", operations, ops -> {
+                ConsoleView view = new ConsoleView(DISCARD);
+                for (long i = 0; i < ops; i++) {
+                    view.printTransaction(store.get(i & (ROWS - 1)));
+                }
+                return ops;
+            });
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Benchmark for appending to and scanning the memory-mapped transaction store
+ * Also reports how little heap the stored transactions take
+ */
+public class TransactionStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+
+        try (TransactionStore store = TransactionStore.temporary()) {
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+            long start = System.nanoTime();
+            for (long i = 0; i < rows; i++) {
+                store.append((int) (i & 1023), Transaction.TransactionType.DEPOSIT, i, i * 2,
+                             (i & 1) == 0 ? "Cash deposit" : "Transfer from Chitra");
+            }
+            long appendNanos = System.nanoTime() - start;
+            System.gc();
+            long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+            System.out.printf("Appended %,d rows at %,.0f rows/s, heap growth %,d bytes (%.2f bytes/row)%n",
+                              rows, rows * 1e9 / appendNanos, heapAfter - heapBefore,
+                              (double) (heapAfter - heapBefore) / rows);
+
+            System.out.println("=== Sequential scan ===");
+            Bench.measure("scan amounts by row", rows, ops -> {
+                long total = 0;
+                for (long row = 0; row < ops; row++) {
+                    total += store.amount(row);
+                }
+                return total;
+            });
+            Bench.measure("scan with forEach view", rows, ops -> {
+                long[] total = new long[1];
+                store.forEach(transaction -> total[0] += transaction.getAmount());
+                return total[0];
+            });
+        }
+    }
+}
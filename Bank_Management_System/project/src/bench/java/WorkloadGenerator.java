@@ -0,0 +1,242 @@
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of synthetic banking workloads
+ * Demonstrates Zipf-skewed load: a few hot accounts take most of the
+ * traffic, as in production, drawn in O(1) per operation by
+ * rejection-inversion sampling (Hörmann and Derflinger)
+ *
+ * The seed fixes the accounts and every stream: stream n of a generator
+ * always yields the same operations, whichever thread runs it and however
+ * fast. Ranks are scattered over the accounts with a fixed stride, so the
+ * hot accounts are not simply the first ones opened.
+ */
+public final class WorkloadGenerator {
+    /**
+     * Operations a stream yields
+     */
+    public enum Operation {
+        DEPOSIT, WITHDRAWAL, TRANSFER, BALANCE_INQUIRY
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final String[] FIRST_NAMES = {"Rakshitha", "Chitra", "Sanvi", "Arjun", "Meera", "Kiran",
+                                                 "Priya", "Rahul", "Divya", "Vikram", "Ananya", "Rohan"};
+    private static final double MEDIAN_AMOUNT = 5_000;         // $50.00
+    private static final double MEDIAN_BALANCE = 200_000;      // $2,000.00
+    private static final long MAX_AMOUNT = Money.ofDollars(5_000);
+
+    private final long seed;
+    private final int accounts;
+    private final double exponent;
+    private final int[] mix; // Cumulative percentages by operation
+    private final long stride;
+
+    // Constants of the rejection-inversion sampler
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double squeeze;
+
+    /**
+     * @param seed Seed for the accounts and every stream
+     * @param accounts Number of accounts
+     * @param exponent Zipf exponent; 0 is uniform, around 1 is typical of real traffic
+     * @param mix Percentages of deposits, withdrawals, transfers and balance inquiries, summing to 100
+     */
+    public WorkloadGenerator(long seed, int accounts, double exponent, int... mix) {
+        if (accounts < 2 || exponent < 0) {
+            throw new IllegalArgumentException("Need at least two accounts and a non-negative exponent");
+        }
+        if (mix.length != OPERATIONS.length) {
+            throw new IllegalArgumentException("Mix needs one percentage per operation: " + OPERATIONS.length);
+        }
+        this.seed = seed;
+        this.accounts = accounts;
+        this.exponent = exponent;
+        this.mix = new int[mix.length];
+        int total = 0;
+        for (int i = 0; i < mix.length; i++) {
+            if (mix[i] < 0) {
+                throw new IllegalArgumentException("Mix percentages cannot be negative");
+            }
+            total += mix[i];
+            this.mix[i] = total;
+        }
+        if (total != 100) {
+            throw new IllegalArgumentException("Mix percentages must add up to 100, not " + total);
+        }
+        long step = (long) (accounts * 0.6180339887) | 1;
+        while (gcd(step, accounts) != 1) {
+            step += 2;
+        }
+        this.stride = step;
+        this.hIntegralX1 = hIntegral(1.5) - 1;
+        this.hIntegralN = hIntegral(accounts + 0.5);
+        this.squeeze = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    /**
+     * Open every account in a ledger, with names and balances fixed by the seed
+     * @return the accounts, indexed as stream account numbers
+     */
+    public Account[] openAccounts(Ledger ledger) {
+        return createAccounts(ledger);
+    }
+
+    /**
+     * Create every account without a ledger, for driving Account directly
+     */
+    public Account[] createAccounts() {
+        return createAccounts(null);
+    }
+
+    private Account[] createAccounts(Ledger ledger) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Account[] created = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + i;
+            long balance = logNormal(random, MEDIAN_BALANCE, Long.MAX_VALUE / 4);
+            created[i] = ledger != null ? ledger.openAccount(name, balance) : new Account(name, balance);
+        }
+        return created;
+    }
+
+    /**
+     * @return stream number n of this workload
+     */
+    public Stream stream(int n) {
+        return new Stream(new SplittableRandom(seed * 0x9E3779B97F4A7C15L + n + 1));
+    }
+
+    /**
+     * An endless sequence of operations; next() fills in the fields for one
+     */
+    public final class Stream {
+        private final SplittableRandom random;
+        private Operation operation;
+        private int account;
+        private int target;
+        private long amount;
+
+        private Stream(SplittableRandom random) {
+            this.random = random;
+        }
+
+        /**
+         * Draw the next operation
+         */
+        public Operation next() {
+            int pick = random.nextInt(100);
+            int index = 0;
+            while (pick >= mix[index]) {
+                index++;
+            }
+            operation = OPERATIONS[index];
+            account = nextAccount(random);
+            if (operation == Operation.TRANSFER) {
+                target = nextAccount(random);
+                if (target == account) {
+                    target = (account + 1) % accounts;
+                }
+            }
+            amount = operation == Operation.BALANCE_INQUIRY ? 0 : logNormal(random, MEDIAN_AMOUNT, MAX_AMOUNT);
+            return operation;
+        }
+
+        public Operation operation() {
+            return operation;
+        }
+
+        /**
+         * @return index of the account posting, or inquiring
+         */
+        public int account() {
+            return account;
+        }
+
+        /**
+         * @return index of a transfer's target account
+         */
+        public int target() {
+            return target;
+        }
+
+        /**
+         * @return amount in cents, 0 for an inquiry
+         */
+        public long amount() {
+            return amount;
+        }
+    }
+
+    /**
+     * Draw an account index, rank 1 being the hottest
+     */
+    private int nextAccount(SplittableRandom random) {
+        long rank;
+        if (exponent == 0) {
+            rank = 1 + random.nextInt(accounts);
+        } else {
+            rank = sampleRank(random);
+        }
+        return (int) ((rank - 1) * stride % accounts);
+    }
+
+    private long sampleRank(SplittableRandom random) {
+        while (true) {
+            double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            long k = (long) (x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > accounts) {
+                k = accounts;
+            }
+            if (k - x <= squeeze || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+
+    private static long logNormal(SplittableRandom random, double median, long max) {
+        long value = (long) (median * Math.exp(random.nextGaussian()));
+        return Math.max(1, Math.min(max, value));
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return expm1OverX((1 - exponent) * logX) * logX;
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = Math.max(-1, x * (1 - exponent));
+        return Math.exp(log1pOverX(t) * x);
+    }
+
+    /**
+     * @return expm1(x) / x, accurate near 0
+     */
+    private static double expm1OverX(double x) {
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x / 2 * (1 + x / 3 * (1 + x / 4));
+    }
+
+    /**
+     * @return log1p(x) / x, accurate near 0
+     */
+    private static double log1pOverX(double x) {
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
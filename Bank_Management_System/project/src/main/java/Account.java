@@ -1,15 +1,68 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Account class representing a bank account with basic operations
  * Demonstrates encapsulation and proper data validation
+ * Balances are updated with lock-free CAS so many sessions can post at once;
+ * each update installs a new BalanceVersions version, so snapshots read a
+ * consistent past balance without locking. A posting with a Recorder
+ * takes the account's monitor instead, so it can be journaled first.
+ * Operations return a PostingStatus and never print; ConsoleView renders them
+ * Besides the per-posting maximums, postings are held to the rolling limits
+ * of -Dbank.limits and screened by the RiskScorer; their counters and risk
+ * profile are guarded by the account's monitor
  */
 public class Account {
-    private String accountNumber;
-    private String accountHolderName;
-    private double balance;
-    private static int accountCounter = 1000; // For generating unique account numbers
+    private final int accountId;
+    private final String accountNumber;
+    private final String accountHolderName;
+    private volatile BalanceVersions.Version version; // Current balance in cents and the versions snapshots still read
+    private volatile boolean retainingVersions; // Queued for BalanceVersions to reclaim old versions
+    private final TransactionHistory transactionHistory = new TransactionHistory();
+    private int[][] limitUsage; // Rolling limit counters by kind, guarded by this; null until first needed
+    private RiskScorer.Profile riskProfile; // Guarded by this; null until the first screened posting
+    private volatile int balanceBucket = -1; // LedgerAggregates histogram bucket counting this account, -1 for none
+    private long listedBalance = Long.MIN_VALUE; // AccountListing balance key, guarded by this
+    private static final AtomicInteger accountCounter = new AtomicInteger(1000); // For generating unique account numbers
+    private static final VarHandle VERSION;
+    private static final VarHandle RETAINING_VERSIONS;
+    private static final VarHandle BALANCE_BUCKET;
+    private static final long MAX_DEPOSIT = Money.ofDollars(100_000);
+    private static final long MAX_WITHDRAWAL = Money.ofDollars(10_000);
+    private static final long MAX_TRANSFER = Money.ofDollars(5_000);
+    private static final RollingLimits LIMITS = RollingLimits.configured();
+    private static final RiskScorer RISK = RiskScorer.configured();
+    
+    /**
+     * Records a posting before its balances change, e.g. by writing its
+     * journal frame. It runs under the monitors of the posting's accounts,
+     * which every other recorded posting to them also holds, so the
+     * balances it is given are the ones the posting then installs.
+     */
+    interface Recorder {
+        /**
+         * @param balanceAfter Balance the posting account will have
+         * @param counterpartyBalanceAfter Balance a transfer's target will have, otherwise 0
+         * @throws RuntimeException to abandon the posting with nothing changed
+         */
+        void record(long balanceAfter, long counterpartyBalanceAfter);
+    }
+    
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(Account.class, "version", BalanceVersions.Version.class);
+            RETAINING_VERSIONS = MethodHandles.lookup().findVarHandle(Account.class, "retainingVersions",
+                                                                      boolean.class);
+            BALANCE_BUCKET = MethodHandles.lookup().findVarHandle(Account.class, "balanceBucket", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
     
     // Constructor
-    public Account(String accountHolderName, double initialBalance) {
+    public Account(String accountHolderName, long initialBalance) {
         if (accountHolderName == null || accountHolderName.trim().isEmpty()) {
             throw new IllegalArgumentException("Account holder name cannot be empty");
         }
@@ -17,12 +70,31 @@ public class Account {
             throw new IllegalArgumentException("Initial balance cannot be negative");
         }
         
-        this.accountNumber = "ACC" + (++accountCounter);
+        this.accountId = accountCounter.incrementAndGet();
+        this.accountNumber = "ACC" + accountId;
         this.accountHolderName = accountHolderName.trim();
-        this.balance = initialBalance;
+        // Snapshots taken before the account opened do not include it
+        this.version = new BalanceVersions.Version(initialBalance, BalanceVersions.currentEpoch(), null);
+    }
+    
+    // Constructor used when rebuilding an account from the journal; the
+    // ledger's aggregates already count it in the bucket of this balance,
+    // and its listing, once built, already has a key for this balance
+    Account(int accountId, String accountHolderName, long balance) {
+        this.accountId = accountId;
+        this.accountNumber = "ACC" + accountId;
+        this.accountHolderName = accountHolderName;
+        this.version = new BalanceVersions.Version(balance, 0, null);
+        this.balanceBucket = LedgerAggregates.bucketOf(balance);
+        this.listedBalance = balance;
+        accountCounter.accumulateAndGet(accountId, Math::max);
     }
     
     // Getter methods (Encapsulation)
+    public int getAccountId() {
+        return accountId;
+    }
+    
     public String getAccountNumber() {
         return accountNumber;
     }
@@ -31,108 +103,438 @@ public class Account {
         return accountHolderName;
     }
     
-    public double getBalance() {
-        return balance;
+    public TransactionHistory getTransactionHistory() {
+        return transactionHistory;
+    }
+    
+    /**
+     * @return the rolling limits every account is held to
+     */
+    public static RollingLimits getLimits() {
+        return LIMITS;
+    }
+    
+    /**
+     * @return the risk scorer every posting is screened by
+     */
+    public static RiskScorer getRiskScorer() {
+        return RISK;
+    }
+    
+    /**
+     * @return current balance in cents
+     */
+    public long getBalance() {
+        return version.balance;
+    }
+    
+    /**
+     * @return balance as of a BalanceVersions epoch, or Long.MIN_VALUE if the account did not exist then
+     */
+    long balanceAt(long epoch) {
+        return BalanceVersions.balanceAt(version, epoch);
     }
     
     /**
      * Deposit money into the account
-     * @param amount Amount to deposit
-     * @return true if successful, false otherwise
+     * @param amount Amount to deposit in cents
+     * @return SUCCESS, or the reason the deposit was rejected
+     */
+    public PostingStatus deposit(long amount) {
+        return deposit(amount, null);
+    }
+    
+    /**
+     * Deposit money, recording the deposit before the balance changes
+     * @param recorder Records the deposit, or null
+     */
+    PostingStatus deposit(long amount, Recorder recorder) {
+        PostingStatus status = validateDeposit(amount);
+        return status.isSuccess() ? creditWithinLimits(amount, recorder) : status;
+    }
+    
+    /**
+     * Withdraw money from the account
+     * @param amount Amount to withdraw in cents
+     * @return SUCCESS, or the reason the withdrawal was rejected
+     */
+    public PostingStatus withdraw(long amount) {
+        return withdraw(amount, null);
+    }
+    
+    /**
+     * Withdraw money, recording the withdrawal before the balance changes
+     * @param recorder Records the withdrawal, or null
      */
-    public boolean deposit(double amount) {
+    PostingStatus withdraw(long amount, Recorder recorder) {
         if (!InputValidator.isValidAmount(amount)) {
-            System.out.println("Error: Invalid deposit amount. Amount must be positive.");
-            return false;
+            return PostingStatus.INVALID_AMOUNT;
         }
         
-        if (amount > 100000) {
-            System.out.println("Error: Daily deposit limit exceeded. Maximum deposit: $100,000");
-            return false;
+        if (amount > getBalance()) {
+            return PostingStatus.INSUFFICIENT_FUNDS;
         }
         
-        this.balance += amount;
-        System.out.printf("Successfully deposited $%.2f%n", amount);
-        return true;
+        if (amount > MAX_WITHDRAWAL) {
+            return PostingStatus.WITHDRAWAL_LIMIT_EXCEEDED;
+        }
+        
+        return debitWithinLimits(RollingLimits.Kind.WITHDRAWAL, amount, null, false, recorder);
     }
     
     /**
-     * Withdraw money from the account
-     * @param amount Amount to withdraw
-     * @return true if successful, false otherwise
+     * Transfer money to another account
+     * @param targetAccount Account to transfer to
+     * @param amount Amount to transfer in cents
+     * @return SUCCESS, or the reason the transfer was rejected
+     */
+    public PostingStatus transferTo(Account targetAccount, long amount) {
+        return transferTo(targetAccount, amount, null);
+    }
+    
+    /**
+     * Transfer money, recording the transfer before either balance changes
+     * @param recorder Records the transfer, or null
      */
-    public boolean withdraw(double amount) {
+    PostingStatus transferTo(Account targetAccount, long amount, Recorder recorder) {
+        if (targetAccount == null) {
+            return PostingStatus.ACCOUNT_NOT_FOUND;
+        }
+        
+        if (targetAccount == this) {
+            return PostingStatus.SAME_ACCOUNT;
+        }
+        
         if (!InputValidator.isValidAmount(amount)) {
-            System.out.println("Error: Invalid withdrawal amount. Amount must be positive.");
-            return false;
+            return PostingStatus.INVALID_AMOUNT;
         }
         
-        if (amount > balance) {
-            System.out.printf("Error: Insufficient funds. Current balance: $%.2f%n", balance);
-            return false;
+        if (amount > getBalance()) {
+            return PostingStatus.INSUFFICIENT_FUNDS;
         }
         
-        if (amount > 10000) {
-            System.out.println("Error: Daily withdrawal limit exceeded. Maximum withdrawal: $10,000");
-            return false;
+        if (amount > MAX_TRANSFER) {
+            return PostingStatus.TRANSFER_LIMIT_EXCEEDED;
         }
         
-        this.balance -= amount;
-        System.out.printf("Successfully withdrawn $%.2f%n", amount);
-        return true;
+        return debitWithinLimits(RollingLimits.Kind.TRANSFER, amount, targetAccount, true, recorder);
     }
     
     /**
-     * Display current account balance
+     * Checks on a deposit that do not depend on the balance
      */
-    public void checkBalance() {
-        System.out.printf("Current Balance: $%.2f%n", balance);
+    static PostingStatus validateDeposit(long amount) {
+        if (!InputValidator.isValidAmount(amount)) {
+            return PostingStatus.INVALID_AMOUNT;
+        }
+        return amount > MAX_DEPOSIT ? PostingStatus.DEPOSIT_LIMIT_EXCEEDED : PostingStatus.SUCCESS;
     }
     
     /**
-     * Display account information
+     * Checks on a withdrawal that do not depend on the balance
      */
-    public void displayAccountInfo() {
-        System.out.println("=== Account Information ===");
-        System.out.println("Account Number: " + accountNumber);
-        System.out.println("Account Holder: " + accountHolderName);
-        System.out.printf("Current Balance: $%.2f%n", balance);
-        System.out.println("===========================");
+    static PostingStatus validateWithdrawal(long amount) {
+        if (!InputValidator.isValidAmount(amount)) {
+            return PostingStatus.INVALID_AMOUNT;
+        }
+        return amount > MAX_WITHDRAWAL ? PostingStatus.WITHDRAWAL_LIMIT_EXCEEDED : PostingStatus.SUCCESS;
     }
     
     /**
-     * Transfer money to another account
-     * @param targetAccount Account to transfer to
-     * @param amount Amount to transfer
-     * @return true if successful, false otherwise
+     * Checks on a transfer that do not depend on the balance
      */
-    public boolean transferTo(Account targetAccount, double amount) {
-        if (targetAccount == null) {
-            System.out.println("Error: Target account not found.");
-            return false;
+    static PostingStatus validateTransfer(Account source, Account target, long amount) {
+        if (source == null || target == null) {
+            return PostingStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (source == target) {
+            return PostingStatus.SAME_ACCOUNT;
         }
-        
         if (!InputValidator.isValidAmount(amount)) {
-            System.out.println("Error: Invalid transfer amount. Amount must be positive.");
-            return false;
+            return PostingStatus.INVALID_AMOUNT;
         }
-        
-        if (amount > balance) {
-            System.out.printf("Error: Insufficient funds for transfer. Current balance: $%.2f%n", balance);
-            return false;
+        return amount > MAX_TRANSFER ? PostingStatus.TRANSFER_LIMIT_EXCEEDED : PostingStatus.SUCCESS;
+    }
+    
+    /**
+     * Make sure new account numbers start after the given one
+     * @param accountId Highest account id already in use
+     */
+    static void advanceCounterTo(int accountId) {
+        accountCounter.accumulateAndGet(accountId, Math::max);
+    }
+    
+    /**
+     * Apply a recovered posting to the balance without any limit checks;
+     * the journal holds each account's postings in the order they were
+     * applied, so every balance replayed is one the account really had
+     * @param delta Signed change in cents
+     * @throws IllegalStateException if a debit is not covered, as the journal is then out of order
+     */
+    void applyRecovered(long delta) {
+        if (delta >= 0) {
+            credit(delta);
+        } else if (debitIfCovered(-delta) < 0) {
+            throw new IllegalStateException("Journal debits " + Money.format(-delta) + " from " + accountNumber
+                                            + " with only " + Money.format(getBalance()) + " available");
         }
-        
-        if (amount > 5000) {
-            System.out.println("Error: Transfer limit exceeded. Maximum transfer: $5,000");
+    }
+    
+    /**
+     * Credit a deposit if it fits the rolling deposit limits and passes
+     * risk screening
+     * @param amount Amount to add in cents, already validated
+     * @param recorder Records the deposit before the balance changes, or null
+     * @return SUCCESS, DEPOSIT_LIMIT_EXCEEDED or HELD_FOR_REVIEW
+     */
+    PostingStatus creditWithinLimits(long amount, Recorder recorder) {
+        boolean limited = LIMITS.limits(RollingLimits.Kind.DEPOSIT);
+        if (!limited && !RISK.isEnabled() && recorder == null) {
+            credit(amount);
+            return PostingStatus.SUCCESS;
+        }
+        long now = CoarseClock.currentMillis();
+        synchronized (this) {
+            int[] usage = limited ? limitUsage(RollingLimits.Kind.DEPOSIT) : null;
+            if (limited && !LIMITS.admits(usage, RollingLimits.Kind.DEPOSIT, amount, now)) {
+                return PostingStatus.DEPOSIT_LIMIT_EXCEEDED;
+            }
+            int reasons = 0;
+            if (RISK.isEnabled()) {
+                reasons = RISK.assess(riskProfile(), RollingLimits.Kind.DEPOSIT, amount, 0, now);
+                if (RISK.hold(riskProfile, accountId, RollingLimits.Kind.DEPOSIT, amount, reasons, now)) {
+                    return PostingStatus.HELD_FOR_REVIEW;
+                }
+            }
+            if (recorder != null) {
+                recorder.record(Money.add(getBalance(), amount), 0);
+            }
+            credit(amount);
+            if (limited) {
+                LIMITS.charge(usage, RollingLimits.Kind.DEPOSIT, amount, now);
+            }
+            if (RISK.isEnabled()) {
+                RISK.record(riskProfile, accountId, RollingLimits.Kind.DEPOSIT, amount, 0, reasons, now);
+            }
+        }
+        return PostingStatus.SUCCESS;
+    }
+    
+    /**
+     * Take a withdrawal or outgoing transfer if the balance covers it, it
+     * fits the rolling limits of its kind and it passes risk screening; the
+     * checks, the debit and the charge against the limits happen under one lock
+     * @param kind WITHDRAWAL or TRANSFER
+     * @param amount Amount to take in cents, already validated
+     * @param counterparty Target of a transfer, or null
+     * @param credit True to credit the counterparty too, as one version of
+     *               both balances under both accounts' monitors; false when
+     *               the credit is posted separately, as across shards
+     * @param recorder Records the posting before the balances change, or null
+     * @return SUCCESS, INSUFFICIENT_FUNDS, HELD_FOR_REVIEW or the kind's limit status
+     */
+    PostingStatus debitWithinLimits(RollingLimits.Kind kind, long amount, Account counterparty, boolean credit,
+                                    Recorder recorder) {
+        if (!credit) {
+            return takeWithinLimits(kind, amount, counterparty, null, recorder);
+        }
+        // Always locked in account id order
+        Account first = accountId < counterparty.accountId ? this : counterparty;
+        Account second = first == this ? counterparty : this;
+        synchronized (first) {
+            synchronized (second) {
+                return takeWithinLimits(kind, amount, counterparty, counterparty, recorder);
+            }
+        }
+    }
+    
+    private PostingStatus takeWithinLimits(RollingLimits.Kind kind, long amount, Account counterparty,
+                                           Account creditTo, Recorder recorder) {
+        boolean limited = LIMITS.limits(kind);
+        if (!limited && !RISK.isEnabled() && recorder == null) {
+            return take(amount, creditTo, null) ? PostingStatus.SUCCESS : PostingStatus.INSUFFICIENT_FUNDS;
+        }
+        long now = CoarseClock.currentMillis();
+        int counterpartyId = counterparty != null ? counterparty.accountId : 0;
+        synchronized (this) {
+            int[] usage = limited ? limitUsage(kind) : null;
+            if (limited && !LIMITS.admits(usage, kind, amount, now)) {
+                return kind == RollingLimits.Kind.WITHDRAWAL ? PostingStatus.WITHDRAWAL_LIMIT_EXCEEDED
+                                                             : PostingStatus.TRANSFER_LIMIT_EXCEEDED;
+            }
+            int reasons = 0;
+            if (RISK.isEnabled()) {
+                reasons = RISK.assess(riskProfile(), kind, amount, counterpartyId, now);
+                if (RISK.hold(riskProfile, accountId, kind, amount, reasons, now)) {
+                    return PostingStatus.HELD_FOR_REVIEW;
+                }
+            }
+            if (!take(amount, creditTo, recorder)) {
+                return PostingStatus.INSUFFICIENT_FUNDS;
+            }
+            if (limited) {
+                LIMITS.charge(usage, kind, amount, now);
+            }
+            if (RISK.isEnabled()) {
+                RISK.record(riskProfile, accountId, kind, amount, counterpartyId, reasons, now);
+            }
+        }
+        return PostingStatus.SUCCESS;
+    }
+    
+    /**
+     * Count a recovered posting against the rolling limits, without checking them
+     * @param atMillis When the posting was made
+     */
+    void restoreLimitUsage(RollingLimits.Kind kind, long amount, long atMillis) {
+        if (LIMITS.limits(kind)) {
+            synchronized (this) {
+                LIMITS.charge(limitUsage(kind), kind, amount, atMillis);
+            }
+        }
+    }
+    
+    private RiskScorer.Profile riskProfile() {
+        if (riskProfile == null) {
+            riskProfile = RISK.newProfile();
+        }
+        return riskProfile;
+    }
+    
+    private int[] limitUsage(RollingLimits.Kind kind) {
+        if (limitUsage == null) {
+            limitUsage = new int[RollingLimits.Kind.values().length][];
+        }
+        int[] usage = limitUsage[kind.ordinal()];
+        if (usage == null) {
+            usage = LIMITS.newUsage(kind);
+            limitUsage[kind.ordinal()] = usage;
+        }
+        return usage;
+    }
+    
+    /**
+     * Record the balance histogram bucket the account is now counted in
+     * @return the bucket it was counted in before, -1 for none
+     */
+    int swapBalanceBucket(int bucket) {
+        return (int) BALANCE_BUCKET.getAndSet(this, bucket);
+    }
+    
+    /**
+     * @return balance of this account's key in the AccountListing balance index; guarded by this
+     */
+    long getListedBalance() {
+        return listedBalance;
+    }
+    
+    void setListedBalance(long balance) {
+        listedBalance = balance;
+    }
+    
+    /**
+     * Trim versions no open snapshot reads
+     * @return true if only the current version is left
+     */
+    boolean trimVersions() {
+        return BalanceVersions.trim(version);
+    }
+    
+    /**
+     * @return true if the account was not already queued to have old versions reclaimed
+     */
+    boolean markRetaining() {
+        return !retainingVersions && RETAINING_VERSIONS.compareAndSet(this, false, true);
+    }
+    
+    void clearRetaining() {
+        retainingVersions = false;
+    }
+    
+    /**
+     * Atomically add money to the balance
+     * @param amount Amount to add in cents
+     * @return the balance this credit produced
+     */
+    long credit(long amount) {
+        BalanceVersions.Version credit = install(amount, false);
+        BalanceVersions.publish(this, credit);
+        return credit.balance;
+    }
+    
+    /**
+     * Atomically take money from the balance if it is covered
+     * @param amount Amount to take in cents
+     * @return the balance this debit produced, or -1 if the balance did not cover the amount
+     */
+    long debitIfCovered(long amount) {
+        BalanceVersions.Version debit = install(-amount, true);
+        if (debit == null) {
+            return -1;
+        }
+        BalanceVersions.publish(this, debit);
+        return debit.balance;
+    }
+    
+    /**
+     * Apply a change, without limits or risk screening, that the caller
+     * recorded while holding this account's monitor, which it still holds;
+     * e.g. end-of-day interest or a fee, journaled before it is applied
+     * @param delta Signed change in cents; a debit must be covered by the
+     *              balance the caller read under the monitor
+     * @return the balance the change produced
+     */
+    long applyRecorded(long delta) {
+        BalanceVersions.Version change = install(delta, false);
+        BalanceVersions.publish(this, change);
+        return change.balance;
+    }
+    
+    /**
+     * Take money if it is covered and, for a transfer, credit it to the
+     * target as one version of both balances
+     * @param target Account to credit, whose monitor the caller holds along with this one's, or null
+     * @param recorder Records the posting first, with this account's monitor held; or null
+     */
+    private boolean take(long amount, Account target, Recorder recorder) {
+        if (recorder != null) {
+            long balance = getBalance();
+            if (amount > balance) {
+                return false;
+            }
+            recorder.record(balance - amount, target != null ? Money.add(target.getBalance(), amount) : 0);
+        }
+        // Once recorded the posting must go ahead; the monitors keep the balance covered
+        BalanceVersions.Version debit = install(-amount, recorder == null);
+        if (debit == null) {
             return false;
         }
-        
-        // Perform the transfer
-        this.balance -= amount;
-        targetAccount.balance += amount;
-        
-        System.out.printf("Successfully transferred $%.2f to %s (Account: %s)%n", 
-                         amount, targetAccount.getAccountHolderName(), targetAccount.getAccountNumber());
+        if (target == null) {
+            BalanceVersions.publish(this, debit);
+        } else {
+            BalanceVersions.publish(this, debit, target, target.install(amount, false));
+        }
         return true;
     }
-}
\ No newline at end of file
+    
+    /**
+     * Install a pending version with the balance changed by a delta, after
+     * any pending version before it is stamped
+     * @param covered True to refuse a change that would make the balance negative
+     * @return the new version, or null if refused
+     */
+    private BalanceVersions.Version install(long delta, boolean covered) {
+        while (true) {
+            BalanceVersions.Version current = version;
+            BalanceVersions.awaitEpoch(current);
+            if (covered && -delta > current.balance) {
+                return null;
+            }
+            BalanceVersions.Version next = new BalanceVersions.Version(Money.add(current.balance, delta),
+                                                                       BalanceVersions.PENDING, current);
+            if (VERSION.compareAndSet(this, current, next)) {
+                return next;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Directory of accounts keyed by the numeric part of the account number
+ * Demonstrates a primitive open-addressing index over struct-of-arrays
+ * columns, so a lookup neither allocates nor hashes a String and a bulk
+ * loaded account costs a few dozen bytes instead of several objects
+ *
+ * The index maps an account id (a long) to a position with linear probing.
+ * Positions are handed out in insertion order and address chunked columns:
+ *   ids       account id
+ *   holders   holder name reference
+ *   balances  balance in cents while the account is not materialized
+ *   accounts  the Account object, created on first lookup
+ * Accounts loaded from a snapshot stay as column values until someone
+ * looks them up; from then on the Account object owns the balance.
+ *
+ * Lookups are lock-free. Writers are serialized on the directory and
+ * publish each entry by writing its key last.
+ */
+public class AccountDirectory {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_SHIFT);
+    private static final long EMPTY = 0; // Account ids start above 1000, so 0 never names an account
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ACCOUNTS = MethodHandles.arrayElementVarHandle(Account[].class);
+
+    /**
+     * Open-addressing table, replaced as a whole when it grows
+     */
+    private static final class Index {
+        final long[] keys;
+        final int[] positions;
+        final int mask;
+
+        Index(int capacity) {
+            keys = new long[capacity];
+            positions = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Index index = new Index(1024);
+    private final int[][] ids = new int[MAX_CHUNKS][];
+    private final String[][] holders = new String[MAX_CHUNKS][];
+    private final long[][] balances = new long[MAX_CHUNKS][];
+    private final Account[][] accounts = new Account[MAX_CHUNKS][];
+    private volatile int size;
+
+    /**
+     * Parse an account number such as "ACC1001" without allocating
+     * Surrounding whitespace is ignored and the prefix may be in any case.
+     * @return the account id, or -1 if the text is not an account number
+     */
+    public static long parseAccountNumber(CharSequence text) {
+        if (text == null) {
+            return -1;
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        int digits = end - start - 3;
+        if (digits <= 0 || digits > 18
+            || (text.charAt(start) | 0x20) != 'a'
+            || (text.charAt(start + 1) | 0x20) != 'c'
+            || (text.charAt(start + 2) | 0x20) != 'c') {
+            return -1;
+        }
+        long id = 0;
+        for (int i = start + 3; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            id = id * 10 + digit;
+        }
+        return id;
+    }
+
+    /**
+     * Find an account by account number, e.g. "ACC1001" or " acc1001"
+     * @return the account, or null if not found
+     */
+    public Account find(CharSequence accountNumber) {
+        return find(parseAccountNumber(accountNumber));
+    }
+
+    /**
+     * Find an account by id
+     * @return the account, or null if not found
+     */
+    public Account find(long accountId) {
+        int position = positionOf(accountId);
+        return position < 0 ? null : materialize(position);
+    }
+
+    /**
+     * Get the account at a position, creating its Account object on first use
+     * @param position Position from 0 to size() - 1, in insertion order
+     */
+    public Account at(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size);
+        }
+        return materialize(position);
+    }
+
+    /**
+     * @return the Account object at a position, or null if it has not been created yet
+     */
+    Account materializedAt(int position) {
+        return (Account) ACCOUNTS.getAcquire(accounts[position >>> CHUNK_SHIFT], position & CHUNK_MASK);
+    }
+
+    /**
+     * @return id of the account at a position
+     */
+    int idAt(int position) {
+        return ids[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+    }
+
+    /**
+     * @return holder name of the account at a position
+     */
+    String holderAt(int position) {
+        return holders[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+    }
+
+    /**
+     * @return balance an account was loaded with; current only while materializedAt returns null
+     */
+    long columnBalance(int position) {
+        return balances[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+    }
+
+    /**
+     * @return true if the directory holds an account with the given id
+     */
+    public boolean contains(long accountId) {
+        return positionOf(accountId) >= 0;
+    }
+
+    /**
+     * @return number of accounts in the directory
+     */
+    public int size() {
+        return size;
+    }
+
+    private int positionOf(long accountId) {
+        if (accountId <= 0) {
+            return -1;
+        }
+        Index current = index;
+        for (int slot = hash(accountId) & current.mask; ; slot = (slot + 1) & current.mask) {
+            long key = (long) KEYS.getAcquire(current.keys, slot);
+            if (key == accountId) {
+                return current.positions[slot];
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * Add a live account, or replace the entry with the same id
+     */
+    public synchronized void add(Account account) {
+        put(account.getAccountId(), account.getAccountHolderName(), account.getBalance(), account);
+    }
+
+    /**
+     * Add an account as column values only; its Account object is created
+     * the first time it is looked up
+     * @param accountId Account id
+     * @param accountHolderName Name of the account holder
+     * @param balance Balance in cents
+     */
+    public synchronized void load(int accountId, String accountHolderName, long balance) {
+        put(accountId, accountHolderName, balance, null);
+    }
+
+    private void put(int accountId, String accountHolderName, long balance, Account account) {
+        if (accountId <= 0) {
+            throw new IllegalArgumentException("Account id must be positive");
+        }
+        int existing = positionOf(accountId);
+        int position = existing >= 0 ? existing : size;
+        int chunk = position >>> CHUNK_SHIFT;
+        if (chunk == MAX_CHUNKS) {
+            throw new IllegalStateException("Account directory is full");
+        }
+        if (ids[chunk] == null) {
+            ids[chunk] = new int[CHUNK_SIZE];
+            holders[chunk] = new String[CHUNK_SIZE];
+            balances[chunk] = new long[CHUNK_SIZE];
+            accounts[chunk] = new Account[CHUNK_SIZE];
+        }
+        int offset = position & CHUNK_MASK;
+        ids[chunk][offset] = accountId;
+        holders[chunk][offset] = accountHolderName;
+        balances[chunk][offset] = balance;
+        // Set before a new key is published, so no reader materializes a second object
+        ACCOUNTS.setRelease(accounts[chunk], offset, account);
+        if (existing < 0) {
+            insert(accountId, position);
+            size = position + 1;
+        }
+    }
+
+    private void insert(long accountId, int position) {
+        Index current = index;
+        if ((long) (size + 1) * 4 > (long) current.keys.length * 3) {
+            current = grow(current);
+        }
+        int slot = hash(accountId) & current.mask;
+        while (current.keys[slot] != EMPTY) {
+            slot = (slot + 1) & current.mask;
+        }
+        current.positions[slot] = position;
+        KEYS.setRelease(current.keys, slot, accountId); // Publishes the position and column values
+    }
+
+    /**
+     * Rehash into a table twice the size; readers keep using the old one until it is published
+     */
+    private Index grow(Index current) {
+        if (current.keys.length == 1 << 30) {
+            throw new IllegalStateException("Account directory is full");
+        }
+        Index grown = new Index(current.keys.length * 2);
+        for (int i = 0; i < current.keys.length; i++) {
+            long key = current.keys[i];
+            if (key != EMPTY) {
+                int slot = hash(key) & grown.mask;
+                while (grown.keys[slot] != EMPTY) {
+                    slot = (slot + 1) & grown.mask;
+                }
+                grown.keys[slot] = key;
+                grown.positions[slot] = current.positions[i];
+            }
+        }
+        index = grown;
+        return grown;
+    }
+
+    /**
+     * Get the Account object at a position, creating it from the columns on first use
+     */
+    private Account materialize(int position) {
+        Account[] chunk = accounts[position >>> CHUNK_SHIFT];
+        int offset = position & CHUNK_MASK;
+        Account account = (Account) ACCOUNTS.getAcquire(chunk, offset);
+        if (account != null) {
+            return account;
+        }
+        int chunkIndex = position >>> CHUNK_SHIFT;
+        Account created = new Account(ids[chunkIndex][offset], holders[chunkIndex][offset],
+                                      balances[chunkIndex][offset]);
+        Account raced = (Account) ACCOUNTS.compareAndExchangeRelease(chunk, offset, null, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * @return a live view of every account in insertion order; iterating
+     *         materializes each account it reaches
+     */
+    public Collection<Account> accounts() {
+        return new AbstractCollection<Account>() {
+            @Override
+            public Iterator<Account> iterator() {
+                int end = size;
+                return new Iterator<Account>() {
+                    private int position;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < end;
+                    }
+
+                    @Override
+                    public Account next() {
+                        if (position >= end) {
+                            throw new NoSuchElementException();
+                        }
+                        return materialize(position++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
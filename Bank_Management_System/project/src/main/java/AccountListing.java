@@ -0,0 +1,263 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted, paged listing of a ledger's accounts
+ * Demonstrates keyset paging over skip lists: each sort order is a
+ * concurrent skip list of small keys, and a page starts from the key in
+ * its cursor, so page K costs a seek plus one page whatever K is
+ *
+ * Orders are by account number, by holder name (ignoring case), or by
+ * balance, each broken by account number. An order's index is built the
+ * first time it is listed, from the directory's columns without creating
+ * Account objects; only the accounts on a page are created. From then on
+ * new accounts join the number and name indexes, and the balance index
+ * follows every balance change the ledger's aggregates see. An account's
+ * balance key is moved under the account's monitor, adding the new key
+ * before removing the old, so a page skips any key that no longer matches
+ * the account's balance instead of showing the account twice.
+ *
+ * Accounts loaded by recovery after an index is built are not in it, so
+ * list only once the ledger is recovered.
+ */
+public class AccountListing {
+    /**
+     * Sort orders of a listing
+     */
+    public enum Order {
+        NUMBER, HOLDER, BALANCE
+    }
+
+    /**
+     * Index entry: the sort value and the account id that breaks ties
+     */
+    private static final class Key {
+        final long value;
+        final String name;
+        final int accountId;
+
+        Key(long value, String name, int accountId) {
+            this.value = value;
+            this.name = name;
+            this.accountId = accountId;
+        }
+    }
+
+    private static final Comparator<Key> BY_NUMBER = Comparator.comparingInt(key -> key.accountId);
+    private static final Comparator<Key> BY_HOLDER = (a, b) -> {
+        int order = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+        return order != 0 ? order : Integer.compare(a.accountId, b.accountId);
+    };
+    // Highest balance first, the usual way to list by balance, since a
+    // skip list walks backwards with a search per step
+    private static final Comparator<Key> BY_BALANCE = (a, b) -> {
+        int order = Long.compare(b.value, a.value);
+        return order != 0 ? order : Integer.compare(a.accountId, b.accountId);
+    };
+
+    private final AccountDirectory accounts;
+    private final LedgerAggregates aggregates;
+    private volatile ConcurrentSkipListSet<Key> byNumber;
+    private volatile ConcurrentSkipListSet<Key> byHolder;
+    private volatile ConcurrentSkipListSet<Key> byBalance;
+    private volatile int built; // Bit per order whose index is filled
+
+    /**
+     * One page of a listing
+     */
+    public static final class Page {
+        private final List<Account> accounts;
+        private final String nextCursor;
+
+        Page(List<Account> accounts, String nextCursor) {
+            this.accounts = accounts;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * @return the page's accounts, in listing order
+         */
+        public List<Account> getAccounts() {
+            return accounts;
+        }
+
+        /**
+         * @return cursor for the next page, or null if this is the last page
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean hasNext() {
+            return nextCursor != null;
+        }
+    }
+
+    AccountListing(AccountDirectory accounts, LedgerAggregates aggregates) {
+        this.accounts = accounts;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * List one page of accounts
+     * @param order Sort order
+     * @param descending True for highest first
+     * @param cursor null for the first page, or the next cursor of the previous page in the same order
+     * @param pageSize Most accounts to return
+     * @throws IllegalArgumentException if the cursor is not one of this order's
+     */
+    public Page list(Order order, boolean descending, String cursor, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        NavigableSet<Key> index = index(order);
+        if (descending != (order == Order.BALANCE)) {
+            index = index.descendingSet();
+        }
+        Iterator<Key> keys = cursor == null ? index.iterator() : index.tailSet(parseCursor(order, cursor), false)
+                                                                     .iterator();
+        List<Account> page = new ArrayList<>(Math.min(pageSize, 1024));
+        Key last = null;
+        while (page.size() < pageSize && keys.hasNext()) {
+            Key key = keys.next();
+            Account account = accounts.find(key.accountId);
+            if (account != null && (order != Order.BALANCE || account.getBalance() == key.value)) {
+                page.add(account);
+                last = key;
+            }
+        }
+        boolean more = page.size() == pageSize && keys.hasNext();
+        return new Page(Collections.unmodifiableList(page), more ? cursorOf(order, last) : null);
+    }
+
+    /**
+     * Add a new account to every built index but the balance index, which
+     * the aggregates keep up to date
+     */
+    void added(Account account) {
+        ConcurrentSkipListSet<Key> numbers = byNumber;
+        if (numbers != null) {
+            numbers.add(new Key(0, null, account.getAccountId()));
+        }
+        ConcurrentSkipListSet<Key> holders = byHolder;
+        if (holders != null) {
+            holders.add(new Key(0, account.getAccountHolderName(), account.getAccountId()));
+        }
+    }
+
+    /**
+     * Move an account's balance key to its current balance
+     */
+    private void balanceChanged(Account account) {
+        synchronized (account) {
+            long balance = account.getBalance();
+            long listed = account.getListedBalance();
+            if (listed != balance) {
+                byBalance.add(new Key(balance, null, account.getAccountId()));
+                byBalance.remove(new Key(listed, null, account.getAccountId()));
+                account.setListedBalance(balance);
+            }
+        }
+    }
+
+    private NavigableSet<Key> index(Order order) {
+        if ((built & 1 << order.ordinal()) == 0) {
+            build(order);
+        }
+        return order == Order.NUMBER ? byNumber : order == Order.HOLDER ? byHolder : byBalance;
+    }
+
+    /**
+     * Build an order's index from the directory. The index is published to
+     * writers before it is filled, so accounts added meanwhile are not
+     * missed, and to readers once it is full.
+     */
+    private synchronized void build(Order order) {
+        if ((built & 1 << order.ordinal()) == 0) {
+            fill(order);
+            built |= 1 << order.ordinal();
+        }
+    }
+
+    private void fill(Order order) {
+        if (order == Order.NUMBER) {
+            byNumber = new ConcurrentSkipListSet<>(BY_NUMBER);
+            for (int position = 0; position < accounts.size(); position++) {
+                byNumber.add(new Key(0, null, accounts.idAt(position)));
+            }
+        } else if (order == Order.HOLDER) {
+            byHolder = new ConcurrentSkipListSet<>(BY_HOLDER);
+            for (int position = 0; position < accounts.size(); position++) {
+                byHolder.add(new Key(0, accounts.holderAt(position), accounts.idAt(position)));
+            }
+        } else {
+            byBalance = new ConcurrentSkipListSet<>(BY_BALANCE);
+            aggregates.setBalanceListener(this::balanceChanged);
+            for (int position = 0; position < accounts.size(); position++) {
+                listBalance(position);
+            }
+        }
+    }
+
+    private void listBalance(int position) {
+        int accountId = accounts.idAt(position);
+        Account account = accounts.materializedAt(position);
+        if (account != null) {
+            synchronized (account) {
+                long balance = account.getBalance();
+                byBalance.add(new Key(balance, null, accountId));
+                if (account.getListedBalance() != balance) {
+                    byBalance.remove(new Key(account.getListedBalance(), null, accountId));
+                    account.setListedBalance(balance);
+                }
+            }
+            return;
+        }
+        // An account created from its columns starts out listed at its column balance
+        long balance = accounts.columnBalance(position);
+        byBalance.add(new Key(balance, null, accountId));
+        account = accounts.materializedAt(position);
+        if (account != null) {
+            synchronized (account) {
+                // Created meanwhile and already moved off the key just added
+                if (account.getListedBalance() != balance) {
+                    byBalance.remove(new Key(balance, null, accountId));
+                }
+            }
+        }
+    }
+
+    private static String cursorOf(Order order, Key key) {
+        return order == Order.BALANCE ? key.value + ":" + key.accountId : Integer.toString(key.accountId);
+    }
+
+    private Key parseCursor(Order order, String cursor) {
+        try {
+            if (order == Order.BALANCE) {
+                int colon = cursor.indexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("Not a balance cursor: " + cursor);
+                }
+                return new Key(Long.parseLong(cursor.substring(0, colon)), null,
+                               Integer.parseInt(cursor.substring(colon + 1)));
+            }
+            int accountId = Integer.parseInt(cursor);
+            if (order == Order.NUMBER) {
+                return new Key(0, null, accountId);
+            }
+            // Holder names never change, so the cursor's account gives its name
+            Account account = accounts.find(accountId);
+            if (account == null) {
+                throw new IllegalArgumentException("Unknown account in cursor: " + cursor);
+            }
+            return new Key(0, account.getAccountHolderName(), accountId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
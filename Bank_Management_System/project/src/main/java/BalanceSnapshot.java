@@ -0,0 +1,104 @@
+/**
+ * Point-in-time view of every balance in a ledger
+ * Demonstrates consistent reads without locks: balances are read from the
+ * BalanceVersions each account keeps, as of the epoch the snapshot opened
+ * at, so totals taken while money moves never show half a transfer and
+ * postings carry on at full speed
+ *
+ * The snapshot holds the accounts in the ledger when it opened; an account
+ * being opened at that moment may be left out. Accounts still held only as
+ * directory columns have had no posting, so their column balance is read.
+ * Close the snapshot to let postings drop the old versions it keeps alive.
+ * Transfers between ShardedLedger shards are two postings, so a snapshot
+ * may see the money in flight between them.
+ */
+public class BalanceSnapshot implements AutoCloseable {
+    private final AccountDirectory accounts;
+    private final long epoch;
+    private final int size;
+    private volatile boolean closed;
+    private boolean tallied;
+    private long totalBalance;
+    private int accountCount;
+
+    BalanceSnapshot(AccountDirectory accounts) {
+        this.accounts = accounts;
+        this.epoch = BalanceVersions.open();
+        this.size = accounts.size();
+    }
+
+    /**
+     * @return the global epoch the snapshot reads at; postings stamped later are not in it
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return true if the account existed when the snapshot was taken
+     */
+    public boolean includes(Account account) {
+        checkOpen();
+        return account.balanceAt(epoch) != Long.MIN_VALUE;
+    }
+
+    /**
+     * @return balance of an account in cents as of the snapshot
+     * @throws IllegalArgumentException if the account was opened after the snapshot
+     */
+    public long balanceOf(Account account) {
+        checkOpen();
+        long balance = account.balanceAt(epoch);
+        if (balance == Long.MIN_VALUE) {
+            throw new IllegalArgumentException(account.getAccountNumber() + " was opened after the snapshot");
+        }
+        return balance;
+    }
+
+    /**
+     * @return sum of every balance in cents as of the snapshot
+     */
+    public synchronized long totalBalance() {
+        tally();
+        return totalBalance;
+    }
+
+    /**
+     * @return number of accounts in the snapshot
+     */
+    public synchronized int accountCount() {
+        tally();
+        return accountCount;
+    }
+
+    private void tally() {
+        checkOpen();
+        if (tallied) {
+            return;
+        }
+        for (int position = 0; position < size; position++) {
+            Account account = accounts.materializedAt(position);
+            // An account created from its columns after this check posts at a later epoch
+            long balance = account != null ? account.balanceAt(epoch) : accounts.columnBalance(position);
+            if (balance != Long.MIN_VALUE) {
+                totalBalance = Money.add(totalBalance, balance);
+                accountCount++;
+            }
+        }
+        tallied = true;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Balance snapshot is closed");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            BalanceVersions.close(epoch);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-version balances for point-in-time reads
+ * Demonstrates epoch-stamped MVCC: every balance change installs a new
+ * immutable version on the account and stamps it with the current global
+ * epoch, and a snapshot reads each account's newest version stamped at or
+ * before its own epoch, so readers take no locks and never stall a posting
+ *
+ * Opening a snapshot takes the current epoch and advances the clock, so a
+ * posting stamped after that is invisible to it. A version is installed
+ * PENDING and stamped once in place; nothing is installed on top of a
+ * pending version, and a reader that meets one waits the few instructions
+ * until it is stamped. Both legs of a transfer are installed under both
+ * accounts' monitors and stamped together, so no snapshot sees half of one.
+ * Postings only read the clock; only opening a snapshot writes it.
+ *
+ * With no snapshot open, a posting drops the account's older versions at
+ * once. Otherwise it keeps those the oldest open snapshot can still read,
+ * at most one per epoch since a snapshot only reads an epoch's newest, and
+ * when that snapshot closes a background thread trims every account left
+ * holding old versions.
+ */
+public final class BalanceVersions {
+    static final long PENDING = Long.MAX_VALUE;
+    private static final long NONE = Long.MAX_VALUE;
+    private static final int SPINS = 64; // Spins before yielding to a stamping thread
+
+    private static final AtomicLong CLOCK = new AtomicLong(1);
+    private static final TreeMap<Long, Integer> OPEN = new TreeMap<>(); // Open snapshots by epoch, guarded by OPEN
+    private static volatile long oldestOpen = NONE;
+    private static final Set<Account> RETAINING = ConcurrentHashMap.newKeySet(); // Accounts with old versions
+    private static final AtomicBoolean RECLAIM_QUEUED = new AtomicBoolean();
+    private static final ExecutorService RECLAIMER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "version-reclaimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A release store is enough to stamp: readers wait for the stamp, and
+    // the install before it was already ordered by the account's CAS
+    private static final VarHandle EPOCH;
+
+    static {
+        try {
+            EPOCH = MethodHandles.lookup().findVarHandle(Version.class, "epoch", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BalanceVersions() {
+    }
+
+    /**
+     * One balance of an account, newest first
+     */
+    static final class Version {
+        final long balance;
+        long epoch; // Stamped with release and read with acquire, see EPOCH
+        Version older; // Cut by trimming; a stale read only walks further than needed
+
+        Version(long balance, long epoch, Version older) {
+            this.balance = balance;
+            this.epoch = epoch;
+            this.older = older;
+        }
+    }
+
+    /**
+     * @return the current epoch, which a version stamped now would get
+     */
+    static long currentEpoch() {
+        return CLOCK.get();
+    }
+
+    /**
+     * Stamp a newly installed version, making it visible to later snapshots
+     */
+    static void publish(Account account, Version version) {
+        EPOCH.setRelease(version, CLOCK.get());
+        retire(account, version);
+    }
+
+    /**
+     * Stamp both legs of a transfer with one epoch
+     */
+    static void publish(Account source, Version debit, Account target, Version credit) {
+        long epoch = CLOCK.get();
+        EPOCH.setRelease(credit, epoch);
+        EPOCH.setRelease(debit, epoch);
+        retire(source, debit);
+        retire(target, credit);
+    }
+
+    /**
+     * Wait until a version is stamped
+     * @return its epoch
+     */
+    static long awaitEpoch(Version version) {
+        long epoch = epochOf(version);
+        for (int spins = 0; epoch == PENDING; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            epoch = epochOf(version);
+        }
+        return epoch;
+    }
+
+    private static long epochOf(Version version) {
+        return (long) EPOCH.getAcquire(version);
+    }
+
+    /**
+     * @return balance of the newest version stamped at or before an epoch,
+     *         or Long.MIN_VALUE if the account did not exist then
+     */
+    static long balanceAt(Version head, long epoch) {
+        Version version = head;
+        if (awaitEpoch(version) <= epoch) {
+            return version.balance;
+        }
+        for (version = version.older; version != null; version = version.older) {
+            if (epochOf(version) <= epoch) {
+                return version.balance;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Drop the versions below a new head that no open snapshot can read
+     */
+    private static void retire(Account account, Version head) {
+        Version below = head.older;
+        if (below == null) {
+            return;
+        }
+        // A snapshot reads the newest version of an epoch, so one stamped the same is never read again
+        if (epochOf(below) == epochOf(head)) {
+            head.older = below.older;
+        }
+        if (!trim(head) && account.markRetaining()) {
+            RETAINING.add(account);
+        }
+    }
+
+    /**
+     * Cut a chain below its newest version stamped at or before the oldest
+     * open snapshot's epoch. The head must be read before the oldest epoch
+     * is, so a snapshot opened in between is stamped late enough to see it.
+     * @return true if only the head is left
+     */
+    static boolean trim(Version head) {
+        long oldest = oldestOpen;
+        Version keep = head;
+        if (epochOf(head) == PENDING) {
+            // It may yet be stamped after a snapshot opened now, which reads the version below
+            Version below = head.older;
+            keep = below != null ? below : head;
+        }
+        for (Version older = keep.older; older != null && epochOf(keep) > oldest; older = keep.older) {
+            keep = older;
+        }
+        if (keep.older != null) {
+            keep.older = null;
+        }
+        return head.older == null;
+    }
+
+    /**
+     * Register a snapshot
+     * @return the epoch it reads at
+     */
+    static long open() {
+        synchronized (OPEN) {
+            // Announce an epoch no later than the snapshot's before taking it,
+            // so a posting that missed the announcement is stamped in time to be seen
+            oldestOpen = Math.min(oldestOpen, CLOCK.get());
+            long epoch = CLOCK.getAndIncrement();
+            OPEN.merge(epoch, 1, Integer::sum);
+            oldestOpen = OPEN.firstKey();
+            return epoch;
+        }
+    }
+
+    /**
+     * Unregister a snapshot and reclaim what only it could read
+     */
+    static void close(long epoch) {
+        synchronized (OPEN) {
+            if (OPEN.merge(epoch, -1, Integer::sum) == 0) {
+                OPEN.remove(epoch);
+            }
+            long oldest = OPEN.isEmpty() ? NONE : OPEN.firstKey();
+            if (oldest == oldestOpen) {
+                return;
+            }
+            oldestOpen = oldest;
+        }
+        if (RECLAIM_QUEUED.compareAndSet(false, true)) {
+            RECLAIMER.execute(BalanceVersions::reclaim);
+        }
+    }
+
+    private static void reclaim() {
+        RECLAIM_QUEUED.set(false); // Snapshots closed from here on queue another pass
+        for (Account account : RETAINING) {
+            if (account.trimVersions()) {
+                account.clearRetaining();
+                RETAINING.remove(account);
+                // A posting that kept versions after the first check saw the mark still set
+                if (!account.trimVersions() && account.markRetaining()) {
+                    RETAINING.add(account);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of open snapshots
+     */
+    static int openSnapshots() {
+        synchronized (OPEN) {
+            int count = 0;
+            for (int snapshots : OPEN.values()) {
+                count += snapshots;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return number of accounts holding versions for open snapshots, or
+     *         waiting to have them reclaimed
+     */
+    static int retainingAccounts() {
+        return RETAINING.size();
+    }
+}
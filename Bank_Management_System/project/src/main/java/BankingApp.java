@@ -1,7 +1,4 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
 import java.util.Scanner;
 
 /**
@@ -10,17 +7,22 @@ import java.util.Scanner;
  */
 public class BankingApp {
     private static Scanner scanner = new Scanner(System.in);
-    private static Map<String, Account> accounts = new HashMap<>();
-    private static List<Transaction> allTransactions = new ArrayList<>();
+    private static Ledger ledger;
+    private static final ConsoleView view = new ConsoleView();
     private static Account currentAccount = null;
+    private static final int ACCOUNTS_PER_PAGE = 20;
     
     public static void main(String[] args) {
         System.out.println("==========================================");
         System.out.println("    Welcome to SecureBank Banking App    ");
         System.out.println("==========================================");
         
-        // Create some sample accounts for demonstration
-        createSampleAccounts();
+        openLedger();
+        
+        // Create some sample accounts for demonstration on a fresh ledger
+        if (ledger.getAccounts().isEmpty()) {
+            createSampleAccounts();
+        }
         
         boolean running = true;
         while (running) {
@@ -34,6 +36,39 @@ public class BankingApp {
         System.out.println("\nThank you for using SecureBank!");
         System.out.println("Have a great day!");
         scanner.close();
+        closeLedger();
+    }
+    
+    /**
+     * Open the data directory and rebuild the ledger from its journal
+     * The directory is set with -Dbank.data (empty keeps everything in
+     * memory), the fsync policy with
+     * -Dbank.durability=PER_TRANSACTION|PER_BATCH|TIMED and the checkpoint
+     * interval with -Dbank.checkpointSeconds
+     */
+    private static void openLedger() {
+        try {
+            ledger = Ledger.openConfigured();
+            if (!ledger.getAccounts().isEmpty()) {
+                System.out.printf("Restored %d accounts from %s%n", ledger.getAccounts().size(),
+                                  System.getProperty("bank.data", "bank-data"));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Warning: could not open data directory (" + e.getMessage()
+                               + "). Changes will not be saved.");
+            ledger = new Ledger();
+        }
+    }
+    
+    /**
+     * Flush and close the journal
+     */
+    private static void closeLedger() {
+        try {
+            ledger.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + e.getMessage());
+        }
     }
     
     /**
@@ -111,7 +146,7 @@ public class BankingApp {
                     viewTransactionHistory();
                     break;
                 case 6:
-                    currentAccount.displayAccountInfo();
+                    view.printAccountInfo(currentAccount);
                     break;
                 case 7:
                     logout();
@@ -133,13 +168,13 @@ public class BankingApp {
      */
     private static void createSampleAccounts() {
         try {
-            Account acc1 = new Account("Rakshitha", 1500.00);
-            Account acc2 = new Account("Chitra", 2500.00);
-            Account acc3 = new Account("Sanvi", 500.00);
+            Account acc1 = new Account("Rakshitha", Money.ofDollars(1500));
+            Account acc2 = new Account("Chitra", Money.ofDollars(2500));
+            Account acc3 = new Account("Sanvi", Money.ofDollars(500));
             
-            accounts.put(acc1.getAccountNumber(), acc1);
-            accounts.put(acc2.getAccountNumber(), acc2);
-            accounts.put(acc3.getAccountNumber(), acc3);
+            ledger.addAccount(acc1);
+            ledger.addAccount(acc2);
+            ledger.addAccount(acc3);
             
             System.out.println("Sample accounts created for demonstration:");
             System.out.println("- Rakshitha: " + acc1.getAccountNumber());
@@ -155,10 +190,11 @@ public class BankingApp {
      */
     private static void loginToAccount() {
         System.out.print("Enter Account Number: ");
-        String accountNumber = scanner.nextLine().trim().toUpperCase();
+        String accountNumber = scanner.nextLine();
         
-        if (accounts.containsKey(accountNumber)) {
-            currentAccount = accounts.get(accountNumber);
+        Account account = ledger.findAccount(accountNumber);
+        if (account != null) {
+            currentAccount = account;
             System.out.println("Login successful!");
             System.out.printf("Welcome back, %s!%n", currentAccount.getAccountHolderName());
         } else {
@@ -180,33 +216,23 @@ public class BankingApp {
         
         System.out.print("Enter Initial Deposit Amount: $");
         String amountStr = scanner.nextLine().trim();
-        double amount = InputValidator.parseAmount(amountStr);
+        long amount = InputValidator.parseAmount(amountStr);
         
         if (amount < 0) {
             return; // Error message already shown by parseAmount
         }
         
-        if (amount < 100) {
+        if (amount < Money.ofDollars(100)) {
             System.out.println("Minimum initial deposit is $100.00");
             return;
         }
         
         try {
-            Account newAccount = new Account(name, amount);
-            accounts.put(newAccount.getAccountNumber(), newAccount);
-            
-            // Record initial deposit transaction
-            Transaction initialDeposit = new Transaction(
-                newAccount.getAccountNumber(),
-                Transaction.TransactionType.DEPOSIT,
-                amount,
-                newAccount.getBalance(),
-                "Initial deposit - Account creation"
-            );
-            allTransactions.add(initialDeposit);
+            // Opening the account also records the initial deposit transaction
+            Account newAccount = ledger.openAccount(name, amount);
             
             System.out.println("\n=== Account Created Successfully! ===");
-            newAccount.displayAccountInfo();
+            view.printAccountInfo(newAccount);
             
             System.out.print("Would you like to login to this account now? (y/n): ");
             String loginChoice = scanner.nextLine().trim().toLowerCase();
@@ -220,20 +246,48 @@ public class BankingApp {
     }
     
     /**
-     * List all existing accounts
+     * List all existing accounts a page at a time, in a chosen order, with
+     * balances and the bank-wide total as of one moment
      */
     private static void listAllAccounts() {
-        if (accounts.isEmpty()) {
+        if (ledger.getAccounts().isEmpty()) {
             System.out.println("No accounts found.");
             return;
         }
         
-        System.out.println("\n=== All Accounts ===");
-        for (Account account : accounts.values()) {
-            System.out.printf("Account: %s | Holder: %s | Balance: $%.2f%n",
-                             account.getAccountNumber(),
-                             account.getAccountHolderName(),
-                             account.getBalance());
+        System.out.print("Sort by 1. Account number, 2. Holder name, 3. Balance (highest first) [1]: ");
+        String sortChoice = scanner.nextLine().trim();
+        AccountListing.Order order = sortChoice.equals("2") ? AccountListing.Order.HOLDER
+                                     : sortChoice.equals("3") ? AccountListing.Order.BALANCE
+                                     : AccountListing.Order.NUMBER;
+        boolean descending = order == AccountListing.Order.BALANCE;
+        
+        // Every page shows balances from one snapshot, however long the listing stays open;
+        // the balance order follows live balances, so it can differ slightly from the snapshot
+        try (BalanceSnapshot snapshot = ledger.snapshot()) {
+            System.out.println("\n=== All Accounts ===");
+            System.out.printf("%d accounts holding $%s in total%n", snapshot.accountCount(),
+                              Money.format(snapshot.totalBalance()));
+            String cursor = null;
+            while (true) {
+                AccountListing.Page page = ledger.listAccounts(order, descending, cursor, ACCOUNTS_PER_PAGE);
+                for (Account account : page.getAccounts()) {
+                    if (snapshot.includes(account)) {
+                        System.out.printf("Account: %s | Holder: %s | Balance: $%s%n",
+                                         account.getAccountNumber(),
+                                         account.getAccountHolderName(),
+                                         Money.format(snapshot.balanceOf(account)));
+                    }
+                }
+                if (!page.hasNext()) {
+                    return;
+                }
+                System.out.print("Press Enter for more, or q to stop: ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    return;
+                }
+                cursor = page.getNextCursor();
+            }
         }
     }
     
@@ -241,17 +295,10 @@ public class BankingApp {
      * Check current account balance
      */
     private static void checkBalance() {
-        currentAccount.checkBalance();
+        view.printBalance(currentAccount);
         
         // Record balance inquiry transaction
-        Transaction balanceCheck = new Transaction(
-            currentAccount.getAccountNumber(),
-            Transaction.TransactionType.BALANCE_INQUIRY,
-            0.0,
-            currentAccount.getBalance(),
-            "Balance inquiry"
-        );
-        allTransactions.add(balanceCheck);
+        ledger.recordBalanceInquiry(currentAccount);
     }
     
     /**
@@ -260,27 +307,18 @@ public class BankingApp {
     private static void depositMoney() {
         System.out.print("Enter deposit amount: $");
         String amountStr = scanner.nextLine().trim();
-        double amount = InputValidator.parseAmount(amountStr);
+        long amount = InputValidator.parseAmount(amountStr);
         
         if (amount <= 0) {
             return; // Error message already shown by parseAmount
         }
         
-        double balanceBefore = currentAccount.getBalance();
-        boolean success = currentAccount.deposit(amount);
+        // The ledger records the transaction when the deposit succeeds
+        PostingStatus status = ledger.deposit(currentAccount, amount, "Cash deposit");
+        boolean success = view.printDeposit(status, amount);
         
         if (success) {
-            // Record successful deposit transaction
-            Transaction deposit = new Transaction(
-                currentAccount.getAccountNumber(),
-                Transaction.TransactionType.DEPOSIT,
-                amount,
-                currentAccount.getBalance(),
-                "Cash deposit"
-            );
-            allTransactions.add(deposit);
-            
-            System.out.printf("New balance: $%.2f%n", currentAccount.getBalance());
+            System.out.printf("New balance: $%s%n", Money.format(currentAccount.getBalance()));
         }
     }
     
@@ -290,26 +328,18 @@ public class BankingApp {
     private static void withdrawMoney() {
         System.out.print("Enter withdrawal amount: $");
         String amountStr = scanner.nextLine().trim();
-        double amount = InputValidator.parseAmount(amountStr);
+        long amount = InputValidator.parseAmount(amountStr);
         
         if (amount <= 0) {
             return; // Error message already shown by parseAmount
         }
         
-        boolean success = currentAccount.withdraw(amount);
+        // The ledger records the transaction when the withdrawal succeeds
+        PostingStatus status = ledger.withdraw(currentAccount, amount, "Cash withdrawal");
+        boolean success = view.printWithdrawal(status, currentAccount, amount);
         
         if (success) {
-            // Record successful withdrawal transaction
-            Transaction withdrawal = new Transaction(
-                currentAccount.getAccountNumber(),
-                Transaction.TransactionType.WITHDRAWAL,
-                amount,
-                currentAccount.getBalance(),
-                "Cash withdrawal"
-            );
-            allTransactions.add(withdrawal);
-            
-            System.out.printf("New balance: $%.2f%n", currentAccount.getBalance());
+            System.out.printf("New balance: $%s%n", Money.format(currentAccount.getBalance()));
         }
     }
     
@@ -318,54 +348,37 @@ public class BankingApp {
      */
     private static void transferMoney() {
         System.out.print("Enter target account number: ");
-        String targetAccountNumber = scanner.nextLine().trim().toUpperCase();
+        String targetAccountNumber = scanner.nextLine();
         
-        if (!accounts.containsKey(targetAccountNumber)) {
+        Account targetAccount = ledger.findAccount(targetAccountNumber);
+        if (targetAccount == null) {
             System.out.println("Target account not found.");
             return;
         }
         
-        if (targetAccountNumber.equals(currentAccount.getAccountNumber())) {
+        if (targetAccount == currentAccount) {
             System.out.println("Cannot transfer to the same account.");
             return;
         }
         
-        Account targetAccount = accounts.get(targetAccountNumber);
         System.out.printf("Transfer to: %s (%s)%n", 
                          targetAccount.getAccountHolderName(), 
                          targetAccount.getAccountNumber());
         
         System.out.print("Enter transfer amount: $");
         String amountStr = scanner.nextLine().trim();
-        double amount = InputValidator.parseAmount(amountStr);
+        long amount = InputValidator.parseAmount(amountStr);
         
         if (amount <= 0) {
             return; // Error message already shown by parseAmount
         }
         
-        boolean success = currentAccount.transferTo(targetAccount, amount);
+        // The ledger records both sides of the transfer when it succeeds
+        PostingStatus status = ledger.transfer(currentAccount, targetAccount, amount);
+        boolean success = view.printTransfer(status, currentAccount, targetAccount, amount);
         
         if (success) {
-            // Record transfer transactions for both accounts
-            Transaction transferOut = new Transaction(
-                currentAccount.getAccountNumber(),
-                Transaction.TransactionType.TRANSFER_OUT,
-                amount,
-                currentAccount.getBalance(),
-                "Transfer to " + targetAccount.getAccountHolderName()
-            );
-            allTransactions.add(transferOut);
-            
-            Transaction transferIn = new Transaction(
-                targetAccount.getAccountNumber(),
-                Transaction.TransactionType.TRANSFER_IN,
-                amount,
-                targetAccount.getBalance(),
-                "Transfer from " + currentAccount.getAccountHolderName()
-            );
-            allTransactions.add(transferIn);
-            
-            System.out.printf("Your new balance: $%.2f%n", currentAccount.getBalance());
+            System.out.printf("Your new balance: $%s%n", Money.format(currentAccount.getBalance()));
         }
     }
     
@@ -378,14 +391,10 @@ public class BankingApp {
                          currentAccount.getAccountNumber(), 
                          currentAccount.getAccountHolderName());
         
-        List<Transaction> accountTransactions = new ArrayList<>();
-        for (Transaction transaction : allTransactions) {
-            if (transaction.getAccountNumber().equals(currentAccount.getAccountNumber())) {
-                accountTransactions.add(transaction);
-            }
-        }
+        // Read from the account's own index instead of scanning the whole ledger
+        int total = ledger.transactionCount(currentAccount);
         
-        if (accountTransactions.isEmpty()) {
+        if (total == 0) {
             System.out.println("No transactions found.");
             return;
         }
@@ -394,17 +403,16 @@ public class BankingApp {
         System.out.println("─".repeat(80));
         
         // Show last 10 transactions
-        int count = 0;
-        for (int i = accountTransactions.size() - 1; i >= 0 && count < 10; i--, count++) {
-            accountTransactions.get(i).displayTransaction();
+        for (Transaction transaction : ledger.latestTransactions(currentAccount, 10)) {
+            view.printTransaction(transaction);
         }
         
-        if (accountTransactions.size() > 10) {
-            System.out.printf("... and %d more transactions%n", accountTransactions.size() - 10);
+        if (total > 10) {
+            System.out.printf("... and %d more transactions%n", total - 10);
         }
         
         System.out.println("─".repeat(80));
-        System.out.printf("Total transactions: %d%n", accountTransactions.size());
+        System.out.printf("Total transactions: %d%n", total);
     }
     
     /**
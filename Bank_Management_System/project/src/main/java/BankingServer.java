@@ -0,0 +1,547 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/JSON front end for the ledger, built on the JDK's com.sun.net.httpserver
+ * Demonstrates many independent sessions sharing one thread-safe Ledger
+ *
+ * Every call except /login and /metrics needs the X-Session header returned by /login.
+ *   POST /login     {"account":"ACC1001"}
+ *   POST /logout
+ *   GET  /balance
+ *   POST /deposit   {"amount":"25.00"}
+ *   POST /withdraw  {"amount":"25.00"}
+ *   POST /transfer  {"target":"ACC1002","amount":"25.00"}
+ *   GET  /history?page=0&size=10
+ *   GET  /search?text=transfer+to+chitra&type=TRANSFER_OUT&min=10.00&max=99.99
+ *            &from=2026-01-01&to=2026-01-31&cursor=...&size=10
+ *                   the session account's transactions matching every given filter
+ *   GET  /metrics   operation counts, latencies, bank-wide totals and risk alerts in Prometheus text format
+ *
+ * Run by ReplicaNode, it also serves:
+ *   GET  /replication          role, journal position and each follower's or the leader's progress
+ *   POST /replication/promote  make this follower the leader; accepted from this machine only
+ * and a follower answers deposits, withdrawals and transfers with 503.
+ *
+ * A deposit, withdrawal or transfer sent with an Idempotency-Key header is
+ * posted once per key: a retry with the same key gets the original status.
+ * A posting applied but not confirmed durable or replicated is answered 500
+ * with status UNCONFIRMED, and a retry with its key gets UNCONFIRMED again.
+ *
+ * /login identifies the client by account number alone, so the server
+ * listens on the loopback address unless -Dbank.httpHost names another
+ * interface (e.g. 0.0.0.0 for all); only do that behind a trusted proxy or network.
+ *
+ * Connections are multiplexed by the server's selector thread; handlers run
+ * on virtual threads when the JVM has them (Java 21+), otherwise on a
+ * fixed pool of -Dbank.httpThreads platform threads.
+ *
+ * Usage: java BankingServer [port]   (ledger options as for BankingApp)
+ */
+public class BankingServer {
+    private static final String SESSION_HEADER = "X-Session";
+    private static final String IDEMPOTENCY_HEADER = "Idempotency-Key";
+    private static final int MAX_BODY = 4096;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private final Ledger ledger;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long sessionTimeoutNanos;
+
+    /**
+     * State of one logged-in client
+     */
+    private static final class Session {
+        final Account account;
+        volatile long lastUsed = System.nanoTime();
+
+        Session(Account account) {
+            this.account = account;
+        }
+    }
+
+    /**
+     * HTTP status and JSON body of a response
+     */
+    private static final class Response {
+        final int status;
+        final String body;
+        final String contentType;
+
+        Response(int status, String body) {
+            this(status, body, "application/json");
+        }
+
+        Response(int status, String body, String contentType) {
+            this.status = status;
+            this.body = body;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Error that maps straight to an HTTP status and message
+     */
+    private static final class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @param ledger Ledger to serve
+     * @param port Port to listen on, 0 for any free port, on the loopback
+     *             address or the interface named by -Dbank.httpHost
+     * @param sessionTimeoutSeconds Idle seconds before a session is dropped
+     */
+    public BankingServer(Ledger ledger, int port, long sessionTimeoutSeconds) throws IOException {
+        this.ledger = ledger;
+        this.sessionTimeoutNanos = TimeUnit.SECONDS.toNanos(sessionTimeoutSeconds);
+        // The JDK server closes keep-alive connections beyond 200 idle ones and
+        // leaves Nagle on; both must be set before the first server is created
+        setDefault("sun.net.httpserver.maxIdleConnections", "100000");
+        setDefault("sun.net.httpserver.nodelay", "true");
+        String host = System.getProperty("bank.httpHost");
+        InetSocketAddress address = host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                                                 : new InetSocketAddress(host, port);
+        this.server = HttpServer.create(address, Integer.getInteger("bank.httpBacklog", 4096));
+        this.executor = createExecutor(Integer.getInteger("bank.httpThreads", 256));
+        server.setExecutor(executor);
+
+        server.createContext("/login", handler("POST", this::login));
+        server.createContext("/logout", handler("POST", this::logout));
+        server.createContext("/balance", handler("GET", this::balance));
+        server.createContext("/deposit", handler("POST", this::deposit));
+        server.createContext("/withdraw", handler("POST", this::withdraw));
+        server.createContext("/transfer", handler("POST", this::transfer));
+        server.createContext("/history", handler("GET", this::history));
+        server.createContext("/search", handler("GET", this::search));
+        server.createContext("/metrics", handler("GET", this::metrics));
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::dropIdleSessions, 60, 60, TimeUnit.SECONDS);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("bank.port", 8080);
+        Ledger ledger = Ledger.openConfigured();
+        BankingServer bankingServer = new BankingServer(ledger, port, Long.getLong("bank.sessionTimeoutSeconds", 1800));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            bankingServer.stop();
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                System.err.println("Error closing ledger: " + e.getMessage());
+            }
+        }, "shutdown"));
+
+        bankingServer.start();
+        System.out.printf("SecureBank service listening on port %d (%d accounts, %s)%n",
+                          bankingServer.getPort(), ledger.getAccounts().size(), bankingServer.executorKind());
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    /**
+     * Prefer a virtual-thread-per-task executor, looked up reflectively so the
+     * code still compiles and runs on Java 17
+     */
+    private static ExecutorService createExecutor(int threads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private String executorKind() {
+        return executor instanceof ThreadPoolExecutor ? "platform thread pool" : "virtual threads";
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop accepting requests, give running ones a second to finish
+     */
+    public void stop() {
+        server.stop(1);
+        sweeper.shutdownNow();
+        executor.shutdown();
+    }
+
+    // Endpoint handlers
+
+    private Response login(HttpExchange exchange) throws IOException {
+        Map<String, String> body = readBody(exchange);
+        Account account = ledger.findAccount(required(body, "account"));
+        if (account == null) {
+            throw new RequestException(404, "Account not found");
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        sessions.put(token.toString(), new Session(account));
+
+        StringBuilder json = new StringBuilder(128).append("{\"session\":\"").append(token).append("\",");
+        return ok(appendAccount(json, account).append('}'));
+    }
+
+    private Response logout(HttpExchange exchange) {
+        sessions.remove(exchange.getRequestHeaders().getFirst(SESSION_HEADER));
+        return ok("{}");
+    }
+
+    private Response balance(HttpExchange exchange) {
+        Account account = session(exchange).account;
+        ledger.recordBalanceInquiry(account);
+        return ok(appendAccount(new StringBuilder(96).append('{'), account).append('}'));
+    }
+
+    private Response deposit(HttpExchange exchange) throws IOException {
+        Account account = session(exchange).account;
+        checkWritable();
+        long amount = amount(readBody(exchange));
+        return result(ledger.deposit(account, amount, "Online deposit", idempotencyKey(exchange)), account);
+    }
+
+    private Response withdraw(HttpExchange exchange) throws IOException {
+        Account account = session(exchange).account;
+        checkWritable();
+        long amount = amount(readBody(exchange));
+        return result(ledger.withdraw(account, amount, "Online withdrawal", idempotencyKey(exchange)), account);
+    }
+
+    private Response transfer(HttpExchange exchange) throws IOException {
+        Account account = session(exchange).account;
+        checkWritable();
+        Map<String, String> body = readBody(exchange);
+        Account target = ledger.findAccount(required(body, "target"));
+        return result(ledger.transfer(account, target, amount(body), idempotencyKey(exchange)), account);
+    }
+
+    private Response history(HttpExchange exchange) {
+        Account account = session(exchange).account;
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        int page = intParameter(query, "page", 0);
+        int size = Math.min(intParameter(query, "size", 10), MAX_PAGE_SIZE);
+        if (page < 0 || size <= 0) {
+            throw new RequestException(400, "page must be >= 0 and size > 0");
+        }
+
+        List<Transaction> transactions = ledger.transactionPage(account, page, size);
+        StringBuilder json = new StringBuilder(64 + transactions.size() * 160);
+        json.append("{\"account\":\"").append(account.getAccountNumber())
+            .append("\",\"total\":").append(ledger.transactionCount(account))
+            .append(",\"page\":").append(page).append(",\"transactions\":");
+        return ok(appendTransactions(json, transactions).append('}'));
+    }
+
+    private static StringBuilder appendTransactions(StringBuilder json, List<Transaction> transactions) {
+        json.append('[');
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"TXN").append(transaction.getTransactionNumber())
+                .append("\",\"epochMicros\":").append(transaction.getEpochMicros())
+                .append(",\"type\":\"").append(transaction.getType().name())
+                .append("\",\"amount\":\"");
+            Money.appendTo(json, transaction.getAmount()).append("\",\"balanceAfter\":\"");
+            Money.appendTo(json, transaction.getBalanceAfter()).append("\",\"description\":");
+            Json.appendString(json, transaction.getDescription()).append('}');
+        }
+        return json.append(']');
+    }
+
+    private Response search(HttpExchange exchange) {
+        Account account = session(exchange).account;
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI());
+        int size = Math.min(intParameter(parameters, "size", 10), MAX_PAGE_SIZE);
+        long cursor = parameters.containsKey("cursor") ? longParameter(parameters, "cursor")
+                                                       : TransactionIndex.FIRST_PAGE;
+        if (size <= 0) {
+            throw new RequestException(400, "size must be > 0");
+        }
+
+        TransactionQuery query = new TransactionQuery().account(account);
+        try {
+            if (parameters.containsKey("type")) {
+                String[] names = parameters.get("type").split(",");
+                Transaction.TransactionType[] types = new Transaction.TransactionType[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    types[i] = Transaction.TransactionType.valueOf(names[i]);
+                }
+                query.types(types);
+            }
+            if (parameters.containsKey("min") || parameters.containsKey("max")) {
+                query.amountBetween(parameters.containsKey("min") ? Money.parse(parameters.get("min")) : 0,
+                                    parameters.containsKey("max") ? Money.parse(parameters.get("max"))
+                                                                  : Long.MAX_VALUE);
+            }
+            if (parameters.containsKey("from") || parameters.containsKey("to")) {
+                query.between(parameters.containsKey("from") ? LocalDate.parse(parameters.get("from")) : null,
+                              parameters.containsKey("to") ? LocalDate.parse(parameters.get("to")) : null);
+            }
+            if (parameters.containsKey("text")) {
+                query.text(URLDecoder.decode(parameters.get("text"), StandardCharsets.UTF_8));
+            }
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new RequestException(400, "Invalid search: " + e.getMessage());
+        }
+
+        TransactionIndex.Page page = ledger.search(query, cursor, size);
+        StringBuilder json = new StringBuilder(64 + page.getTransactions().size() * 160);
+        json.append("{\"account\":\"").append(account.getAccountNumber()).append("\",\"transactions\":");
+        appendTransactions(json, page.getTransactions());
+        if (page.hasNext()) {
+            json.append(",\"nextCursor\":").append(page.getNextCursor());
+        }
+        return ok(json.append('}'));
+    }
+
+    private Response metrics(HttpExchange exchange) {
+        StringBuilder text = ledger.getMetrics().appendPrometheus(new StringBuilder(8192));
+        ledger.aggregates().appendPrometheus(text);
+        Account.getRiskScorer().appendPrometheus(text);
+        return new Response(200, text.toString(), "text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    /**
+     * Serve a replica's status and promotion
+     */
+    public void addReplicationEndpoints(ReplicaNode node) {
+        server.createContext("/replication", handler("GET", exchange -> {
+            if (!exchange.getRequestURI().getPath().equals("/replication")) {
+                throw new RequestException(404, "Not found");
+            }
+            return ok(node.appendStatus(new StringBuilder(256)));
+        }));
+        server.createContext("/replication/promote", handler("POST", exchange -> {
+            InetAddress client = exchange.getRemoteAddress().getAddress();
+            if (!client.isLoopbackAddress()) {
+                throw new RequestException(403, "Promote from the replica's own machine");
+            }
+            node.promote();
+            return ok(node.appendStatus(new StringBuilder(256)));
+        }));
+    }
+
+    // Helpers
+
+    /**
+     * Wrap an endpoint with method checking, error mapping and response writing
+     */
+    private HttpHandler handler(String method, Endpoint endpoint) {
+        return exchange -> {
+            Response response;
+            try {
+                if (!exchange.getRequestMethod().equals(method)) {
+                    throw new RequestException(405, "Use " + method);
+                }
+                response = endpoint.handle(exchange);
+            } catch (RequestException e) {
+                response = error(e.status, e.getMessage());
+            } catch (IllegalArgumentException e) {
+                response = error(400, e.getMessage());
+            } catch (UncheckedIOException e) {
+                // Journal or replication failure: the posting may not have survived
+                response = error(503, e.getMessage());
+            } catch (RuntimeException e) {
+                response = error(500, "Internal error");
+                System.err.println("Request " + exchange.getRequestURI() + " failed: " + e);
+            }
+            send(exchange, response);
+        };
+    }
+
+    /**
+     * One endpoint; runs on a handler thread
+     */
+    private interface Endpoint {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void checkWritable() {
+        if (ledger.isReadOnly()) {
+            throw new RequestException(503, "Read-only replica; send postings to the leader");
+        }
+    }
+
+    private Session session(HttpExchange exchange) {
+        String token = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            throw new RequestException(401, "Log in first and send the " + SESSION_HEADER + " header");
+        }
+        long now = System.nanoTime();
+        if (now - session.lastUsed > sessionTimeoutNanos) {
+            sessions.remove(token);
+            throw new RequestException(401, "Session expired");
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    private void dropIdleSessions() {
+        long now = System.nanoTime();
+        sessions.values().removeIf(session -> now - session.lastUsed > sessionTimeoutNanos);
+    }
+
+    private static Response ok(CharSequence body) {
+        return new Response(200, body.toString());
+    }
+
+    /**
+     * Posting outcome; a rejected posting is a 422 with the reason in
+     * "status", and one that could not be journaled a 500
+     */
+    private static Response result(PostingStatus status, Account account) {
+        StringBuilder json = new StringBuilder(128).append("{\"status\":\"").append(status.name()).append("\",");
+        int code = status.isSuccess() ? 200
+                   : status == PostingStatus.JOURNAL_FAILED || status == PostingStatus.UNCONFIRMED ? 500 : 422;
+        return new Response(code, appendAccount(json, account).append('}').toString());
+    }
+
+    private static StringBuilder appendAccount(StringBuilder json, Account account) {
+        json.append("\"account\":\"").append(account.getAccountNumber()).append("\",\"holder\":");
+        Json.appendString(json, account.getAccountHolderName()).append(",\"balance\":\"");
+        return Money.appendTo(json, account.getBalance()).append('"');
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, Json.appendString(new StringBuilder(64).append("{\"error\":"),
+                                                      String.valueOf(message)).append('}').toString());
+    }
+
+    private static String idempotencyKey(HttpExchange exchange) {
+        return exchange.getRequestHeaders().getFirst(IDEMPOTENCY_HEADER);
+    }
+
+    private static long amount(Map<String, String> body) {
+        try {
+            return Money.parse(required(body, "amount"));
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Invalid amount: " + e.getMessage());
+        }
+    }
+
+    private static String required(Map<String, String> body, String field) {
+        String value = body.get(field);
+        if (value == null) {
+            throw new RequestException(400, "Missing field: " + field);
+        }
+        return value;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY) {
+                throw new RequestException(413, "Request body too large");
+            }
+            return bytes.length == 0 ? new HashMap<>() : Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+        return parameters;
+    }
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, name + " must be a whole number");
+        }
+    }
+
+    private static long longParameter(Map<String, String> parameters, String name) {
+        try {
+            return Long.parseLong(parameters.get(name));
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, name + " must be a whole number");
+        }
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
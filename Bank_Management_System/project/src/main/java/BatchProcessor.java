@@ -0,0 +1,323 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-interactive batch engine for files of deposits, withdrawals and transfers
+ * Demonstrates streaming input, account-partitioned parallel posting and a
+ * results file with one line per instruction
+ *
+ * CSV input, one instruction per line (blank lines and # comments are skipped):
+ *   DEPOSIT,ACC1001,150.00
+ *   WITHDRAW,ACC1001,20
+ *   TRANSFER,ACC1001,75.50,ACC1002
+ *
+ * Binary input, 17-byte big-endian records:
+ *   byte operation (0 deposit, 1 withdraw, 2 transfer), int account id,
+ *   long amount in cents, int target account id (0 when unused)
+ *
+ * Output CSV: line,operation,account,amount,target,status
+ * Lines are written as partitions finish them, so use the line column to
+ * match results to input.
+ *
+ * Usage: java BatchProcessor <input> <output> [--binary] [--threads N]
+ * The ledger is opened from -Dbank.data like BankingApp.
+ */
+public class BatchProcessor {
+    private static final int BATCH_SIZE = 256;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final List<Instruction> END = new ArrayList<>();
+
+    /**
+     * Kind of instruction in a batch file
+     */
+    public enum Operation {
+        DEPOSIT, WITHDRAW, TRANSFER
+    }
+
+    /**
+     * One parsed instruction and, once applied, its result
+     */
+    private static final class Instruction {
+        long line;
+        Operation operation;
+        String account;
+        long amount;
+        String target;
+        String status;
+    }
+
+    private final Ledger ledger;
+    private final int partitions;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public BatchProcessor(Ledger ledger, int partitions) {
+        this.ledger = ledger;
+        this.partitions = partitions;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java BatchProcessor <input> <output> [--binary] [--threads N]");
+            System.exit(1);
+        }
+        boolean binary = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--binary")) {
+                binary = true;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+
+        String dataDirectory = System.getProperty("bank.data", "bank-data");
+        Journal.Durability durability = Journal.Durability.valueOf(
+            System.getProperty("bank.durability", Journal.Durability.TIMED.name()));
+        try (Ledger ledger = dataDirectory.isEmpty()
+                 ? new Ledger()
+                 : Ledger.open(Paths.get(dataDirectory), durability,
+                               Long.getLong("bank.flushIntervalMillis", 10), 0)) {
+            BatchProcessor processor = new BatchProcessor(ledger, threads);
+            long start = System.nanoTime();
+            long processed = processor.process(Paths.get(args[0]), Paths.get(args[1]), binary);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("Processed %,d instructions in %.2f s (%,.0f postings/s) with %d threads%n",
+                              processed, seconds, processed / seconds, threads);
+            System.out.printf("Accepted: %,d  Rejected: %,d%n", processor.accepted.get(), processor.rejected.get());
+        }
+    }
+
+    /**
+     * Apply every instruction in a file and write one result line for each
+     * @return number of instructions processed
+     */
+    public long process(Path input, Path output, boolean binary) throws IOException, InterruptedException {
+        List<BlockingQueue<List<Instruction>>> queues = new ArrayList<>();
+        BlockingQueue<List<Instruction>> results = new ArrayBlockingQueue<>(QUEUE_CAPACITY * partitions);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            BlockingQueue<List<Instruction>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            queues.add(queue);
+            Thread worker = new Thread(() -> work(queue, results), "batch-worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        IOException[] writeFailure = new IOException[1];
+        Thread writer = new Thread(() -> {
+            try {
+                writeResults(output, results);
+            } catch (IOException e) {
+                writeFailure[0] = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "batch-writer");
+        writer.start();
+
+        long count;
+        try {
+            count = binary ? readBinary(input, queues) : readCsv(input, queues);
+        } finally {
+            for (BlockingQueue<List<Instruction>> queue : queues) {
+                queue.put(END);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            results.put(END);
+            writer.join();
+        }
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+        return count;
+    }
+
+    private long readCsv(Path input, List<BlockingQueue<List<Instruction>>> queues)
+            throws IOException, InterruptedException {
+        Batcher batcher = new Batcher(queues);
+        long line = 0;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.isBlank() || text.startsWith("#")) {
+                    continue;
+                }
+                batcher.add(parseCsv(line, text));
+            }
+        }
+        return batcher.finish();
+    }
+
+    private static Instruction parseCsv(long line, String text) {
+        Instruction instruction = new Instruction();
+        instruction.line = line;
+        int first = text.indexOf(',');
+        int second = first < 0 ? -1 : text.indexOf(',', first + 1);
+        int third = second < 0 ? -1 : text.indexOf(',', second + 1);
+        if (second < 0) {
+            instruction.account = "";
+            instruction.status = "INVALID_INSTRUCTION";
+            return instruction;
+        }
+
+        instruction.account = text.substring(first + 1, second).trim().toUpperCase();
+        instruction.target = third < 0 ? "" : text.substring(third + 1).trim().toUpperCase();
+        try {
+            instruction.operation = Operation.valueOf(text.substring(0, first).trim().toUpperCase());
+            instruction.amount = Money.parse(text, second + 1, third < 0 ? text.length() : third);
+        } catch (IllegalArgumentException e) {
+            // Covers both an unknown operation and a malformed amount
+            instruction.status = instruction.operation == null ? "INVALID_INSTRUCTION"
+                                                               : PostingStatus.INVALID_AMOUNT.name();
+        }
+        return instruction;
+    }
+
+    private long readBinary(Path input, List<BlockingQueue<List<Instruction>>> queues)
+            throws IOException, InterruptedException {
+        Batcher batcher = new Batcher(queues);
+        Operation[] operations = Operation.values();
+        long record = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(input), 1 << 16))) {
+            while (true) {
+                int operation;
+                try {
+                    operation = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                Instruction instruction = new Instruction();
+                instruction.line = ++record;
+                instruction.account = "ACC" + in.readInt();
+                instruction.amount = in.readLong();
+                int target = in.readInt();
+                instruction.target = target == 0 ? "" : "ACC" + target;
+                if (operation < operations.length) {
+                    instruction.operation = operations[operation];
+                } else {
+                    instruction.status = "INVALID_INSTRUCTION";
+                }
+                batcher.add(instruction);
+            }
+        }
+        return batcher.finish();
+    }
+
+    /**
+     * Groups instructions by source account partition and hands full batches to workers
+     */
+    private final class Batcher {
+        private final List<BlockingQueue<List<Instruction>>> queues;
+        private final List<List<Instruction>> pending = new ArrayList<>();
+        private long count;
+
+        Batcher(List<BlockingQueue<List<Instruction>>> queues) {
+            this.queues = queues;
+            for (int i = 0; i < partitions; i++) {
+                pending.add(new ArrayList<>(BATCH_SIZE));
+            }
+        }
+
+        void add(Instruction instruction) throws InterruptedException {
+            int partition = Math.floorMod(instruction.account.hashCode(), partitions);
+            List<Instruction> batch = pending.get(partition);
+            batch.add(instruction);
+            count++;
+            if (batch.size() == BATCH_SIZE) {
+                queues.get(partition).put(batch);
+                pending.set(partition, new ArrayList<>(BATCH_SIZE));
+            }
+        }
+
+        long finish() throws InterruptedException {
+            for (int i = 0; i < partitions; i++) {
+                if (!pending.get(i).isEmpty()) {
+                    queues.get(i).put(pending.get(i));
+                }
+            }
+            return count;
+        }
+    }
+
+    private void work(BlockingQueue<List<Instruction>> queue, BlockingQueue<List<Instruction>> results) {
+        try {
+            while (true) {
+                List<Instruction> batch = queue.take();
+                if (batch == END) {
+                    return;
+                }
+                for (Instruction instruction : batch) {
+                    if (instruction.status == null) {
+                        instruction.status = apply(instruction).name();
+                    }
+                    if (instruction.status.equals(PostingStatus.SUCCESS.name())) {
+                        accepted.incrementAndGet();
+                    } else {
+                        rejected.incrementAndGet();
+                    }
+                }
+                results.put(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PostingStatus apply(Instruction instruction) {
+        Account account = ledger.findAccount(instruction.account);
+        if (account == null) {
+            return PostingStatus.ACCOUNT_NOT_FOUND;
+        }
+        switch (instruction.operation) {
+            case DEPOSIT:
+                return ledger.deposit(account, instruction.amount, "Batch deposit");
+            case WITHDRAW:
+                return ledger.withdraw(account, instruction.amount, "Batch withdrawal");
+            default:
+                return ledger.transfer(account, ledger.findAccount(instruction.target), instruction.amount);
+        }
+    }
+
+    private static void writeResults(Path output, BlockingQueue<List<Instruction>> results)
+            throws IOException, InterruptedException {
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write("line,operation,account,amount,target,status\n");
+            StringBuilder line = new StringBuilder(96);
+            while (true) {
+                List<Instruction> batch = results.take();
+                if (batch == END) {
+                    return;
+                }
+                for (Instruction instruction : batch) {
+                    line.setLength(0);
+                    line.append(instruction.line).append(',')
+                        .append(instruction.operation == null ? "" : instruction.operation.name()).append(',')
+                        .append(instruction.account).append(',');
+                    Money.appendTo(line, instruction.amount).append(',')
+                        .append(instruction.target).append(',')
+                        .append(instruction.status).append('\n');
+                    writer.append(line);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Wall clock that a daemon thread ticks every 100 ms
+ * Demonstrates trading precision for cost: reading it is one volatile load,
+ * while reading the system clock can cost more than the work it times
+ *
+ * Used where a time only needs to be right to well under a second, such as
+ * rolling limit slots and cache expiry.
+ */
+public final class CoarseClock {
+    private static final long TICK_MILLIS = 100;
+    private static volatile long millis = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                millis = System.currentTimeMillis();
+            }
+        }, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * @return the current time in milliseconds, at most one tick old
+     */
+    public static long currentMillis() {
+        return millis;
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+/**
+ * Console rendering of accounts, transactions and posting results
+ * Demonstrates keeping output out of the domain classes, with a cached
+ * formatter and one reusable StringBuilder instead of printf per line
+ *
+ * A view is meant for one console session and is not thread safe.
+ */
+public class ConsoleView {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String[] TYPE_LABELS = typeLabels();
+
+    private final Writer writer;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final StringBuilder line = new StringBuilder(128);
+    private char[] chars = new char[128];
+
+    // Timestamp text of the last second rendered, history rows often share it
+    private long cachedSecond = Long.MIN_VALUE;
+    private final StringBuilder cachedTimestamp = new StringBuilder(19);
+
+    /**
+     * Render to standard output
+     */
+    public ConsoleView() {
+        this(System.out);
+    }
+
+    /**
+     * @param out Stream to render to; text is flushed after every message so
+     *            it interleaves correctly with other writes to the same stream
+     */
+    public ConsoleView(PrintStream out) {
+        this.writer = new OutputStreamWriter(out, Charset.defaultCharset());
+    }
+
+    private static String[] typeLabels() {
+        Transaction.TransactionType[] types = Transaction.TransactionType.values();
+        String[] labels = new String[types.length];
+        for (Transaction.TransactionType type : types) {
+            labels[type.ordinal()] = type.name().replace('_', ' ');
+        }
+        return labels;
+    }
+
+    /**
+     * Show the current balance
+     */
+    public void printBalance(Account account) {
+        start().append("Current Balance: $");
+        Money.appendTo(line, account.getBalance()).append('\n');
+        emit();
+    }
+
+    /**
+     * Show account number, holder and balance
+     */
+    public void printAccountInfo(Account account) {
+        start().append("=== Account Information ===\n")
+               .append("Account Number: ").append(account.getAccountNumber()).append('\n')
+               .append("Account Holder: ").append(account.getAccountHolderName()).append('\n')
+               .append("Current Balance: $");
+        Money.appendTo(line, account.getBalance()).append('\n')
+            .append("===========================\n");
+        emit();
+    }
+
+    /**
+     * Show the outcome of a deposit
+     * @return true if the deposit succeeded
+     */
+    public boolean printDeposit(PostingStatus status, long amount) {
+        start();
+        switch (status) {
+            case SUCCESS:
+                Money.appendTo(line.append("Successfully deposited $"), amount);
+                break;
+            case INVALID_AMOUNT:
+                line.append("Error: Invalid deposit amount. Amount must be positive.");
+                break;
+            case HELD_FOR_REVIEW:
+                line.append("Error: Deposit held for review. Please contact the bank.");
+                break;
+            case JOURNAL_FAILED:
+                line.append("Error: Deposit could not be recorded. Please contact the bank.");
+                break;
+            case UNCONFIRMED:
+                line.append("Error: Deposit made but not confirmed as saved. Please contact the bank.");
+                break;
+            default:
+                appendLimits(line.append("Error: Deposit limit exceeded. Maximum deposit: $100,000"),
+                             RollingLimits.Kind.DEPOSIT);
+        }
+        line.append('\n');
+        emit();
+        return status.isSuccess();
+    }
+
+    /**
+     * Show the outcome of a withdrawal
+     * @return true if the withdrawal succeeded
+     */
+    public boolean printWithdrawal(PostingStatus status, Account account, long amount) {
+        start();
+        switch (status) {
+            case SUCCESS:
+                Money.appendTo(line.append("Successfully withdrawn $"), amount);
+                break;
+            case INVALID_AMOUNT:
+                line.append("Error: Invalid withdrawal amount. Amount must be positive.");
+                break;
+            case INSUFFICIENT_FUNDS:
+                Money.appendTo(line.append("Error: Insufficient funds. Current balance: $"), account.getBalance());
+                break;
+            case HELD_FOR_REVIEW:
+                line.append("Error: Withdrawal held for review. Please contact the bank.");
+                break;
+            case JOURNAL_FAILED:
+                line.append("Error: Withdrawal could not be recorded. Please contact the bank.");
+                break;
+            case UNCONFIRMED:
+                line.append("Error: Withdrawal made but not confirmed as saved. Please contact the bank.");
+                break;
+            default:
+                appendLimits(line.append("Error: Withdrawal limit exceeded. Maximum withdrawal: $10,000"),
+                             RollingLimits.Kind.WITHDRAWAL);
+        }
+        line.append('\n');
+        emit();
+        return status.isSuccess();
+    }
+
+    /**
+     * Show the outcome of a transfer
+     * @return true if the transfer succeeded
+     */
+    public boolean printTransfer(PostingStatus status, Account source, Account target, long amount) {
+        start();
+        switch (status) {
+            case SUCCESS:
+                Money.appendTo(line.append("Successfully transferred $"), amount)
+                    .append(" to ").append(target.getAccountHolderName())
+                    .append(" (Account: ").append(target.getAccountNumber()).append(')');
+                break;
+            case ACCOUNT_NOT_FOUND:
+                line.append("Error: Target account not found.");
+                break;
+            case SAME_ACCOUNT:
+                line.append("Error: Cannot transfer to the same account.");
+                break;
+            case INVALID_AMOUNT:
+                line.append("Error: Invalid transfer amount. Amount must be positive.");
+                break;
+            case INSUFFICIENT_FUNDS:
+                Money.appendTo(line.append("Error: Insufficient funds for transfer. Current balance: $"),
+                               source.getBalance());
+                break;
+            case HELD_FOR_REVIEW:
+                line.append("Error: Transfer held for review. Please contact the bank.");
+                break;
+            case JOURNAL_FAILED:
+                line.append("Error: Transfer could not be recorded. Please contact the bank.");
+                break;
+            case UNCONFIRMED:
+                line.append("Error: Transfer made but not confirmed as saved. Please contact the bank.");
+                break;
+            default:
+                appendLimits(line.append("Error: Transfer limit exceeded. Maximum transfer: $5,000"),
+                             RollingLimits.Kind.TRANSFER);
+        }
+        line.append('\n');
+        emit();
+        return status.isSuccess();
+    }
+
+    /**
+     * Append the rolling limits of a kind, e.g. "; in total $10000.00 per 24h"
+     */
+    private static void appendLimits(StringBuilder out, RollingLimits.Kind kind) {
+        String limits = Account.getLimits().describe(kind);
+        if (!limits.isEmpty()) {
+            out.append("; in total ").append(limits);
+        }
+    }
+
+    /**
+     * Show one line of transaction history
+     */
+    public void printTransaction(Transaction transaction) {
+        appendTransaction(start(), transaction).append('\n');
+        emit();
+    }
+
+    /**
+     * Append one line of transaction history, without a line break
+     * @return the builder, for chaining
+     */
+    public StringBuilder appendTransaction(StringBuilder out, Transaction transaction) {
+        out.append("ID: TXN").append(transaction.getTransactionNumber()).append(" | ");
+        appendTimestamp(out, transaction.getEpochMicros()).append(" | ")
+            .append(TYPE_LABELS[transaction.getType().ordinal()]).append(" | $");
+        Money.appendTo(out, transaction.getAmount()).append(" | Balance: $");
+        Money.appendTo(out, transaction.getBalanceAfter()).append(" | ")
+            .append(transaction.getDescription());
+        return out;
+    }
+
+    private StringBuilder appendTimestamp(StringBuilder out, long epochMicros) {
+        long second = Math.floorDiv(epochMicros, 1_000_000);
+        if (second != cachedSecond) {
+            cachedTimestamp.setLength(0);
+            TIMESTAMP_FORMAT.formatTo(LocalDateTime.ofInstant(Instant.ofEpochSecond(second), zone), cachedTimestamp);
+            cachedSecond = second;
+        }
+        return out.append(cachedTimestamp);
+    }
+
+    private StringBuilder start() {
+        line.setLength(0);
+        return line;
+    }
+
+    private void emit() {
+        int length = line.length();
+        if (length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(length, chars.length * 2));
+        }
+        line.getChars(0, length, chars, 0);
+        try {
+            writer.write(chars, 0, length);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to the console", e);
+        }
+    }
+}
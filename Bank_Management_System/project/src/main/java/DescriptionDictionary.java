@@ -0,0 +1,95 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary that interns transaction descriptions as small integer ids
+ * Demonstrates storing repeated text once instead of once per transaction
+ * New entries are appended to a file so ids stay valid after a restart
+ */
+public class DescriptionDictionary implements Closeable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final DataOutputStream out;
+    private volatile String[] values = new String[64];
+    private int count; // Guarded by this
+
+    /**
+     * Open (or create) a dictionary file and load its entries
+     * @param file Dictionary file
+     */
+    public DescriptionDictionary(Path file) throws IOException {
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    add(in.readUTF());
+                }
+            } catch (EOFException e) {
+                // End of the stored entries
+            }
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * Get the id for a description, adding it if it is new
+     * @param description Description text
+     * @return id of the description
+     */
+    public int intern(String description) {
+        Integer id = ids.get(description);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(description);
+            if (id != null) {
+                return id;
+            }
+            try {
+                out.writeUTF(description);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write to the description dictionary", e);
+            }
+            return add(description);
+        }
+    }
+
+    /**
+     * Get the description text for an id
+     * @param id Id returned by intern
+     * @return description text
+     */
+    public String get(int id) {
+        return values[id];
+    }
+
+    private synchronized int add(String description) {
+        String[] current = values;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        int id = count++;
+        current[id] = description;
+        values = current; // Publish the entry before its id becomes visible
+        ids.put(description, id);
+        return id;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
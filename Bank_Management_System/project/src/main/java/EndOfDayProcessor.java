@@ -0,0 +1,509 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * End-of-day batch that accrues interest and charges maintenance fees on every account
+ * Demonstrates fork/join over fixed chunks of the account directory, one
+ * journal commit per chunk, and a checkpoint of finished chunks so an
+ * interrupted run resumes without posting anything twice
+ *
+ * Every account gets a day's interest on its balance at the moment it is
+ * processed, rounded down to the cent. At month end, accounts below the fee
+ * waiver balance are also charged the maintenance fee, or their whole
+ * balance if that is less. Both postings of an account go in one journal
+ * frame, written under the account's monitor before its balance changes,
+ * as every recorded posting is; the chunk then waits once for its frames
+ * to commit. Postings bypass the per-posting and rolling limits, which
+ * apply to customer postings only; accounts opened during the run are
+ * left for the next day.
+ *
+ * With a checkpoint directory, the finished chunks of a business date are
+ * saved to eod-<date>.dat once their journal frames are on disk. A rerun of
+ * the date skips them, and checks the account history of every other chunk
+ * for postings the interrupted run made before it could save them. A run
+ * that completed is never repeated.
+ *
+ * Policy comes from -Dbank.interestBps (annual rate in basis points, 150 by
+ * default), -Dbank.maintenanceFee (5.00) and -Dbank.feeWaiverBalance (1000.00).
+ *
+ * Usage: java EndOfDayProcessor [yyyy-mm-dd] [--threads N]
+ * The ledger is opened from -Dbank.data like BankingApp.
+ */
+public class EndOfDayProcessor {
+    private static final long MAGIC = 0x42414E4B454F4431L; // "BANKEOD1"
+    private static final int CHUNK_SIZE = 4096;
+    private static final long CHECKPOINT_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long BASIS_POINTS_PER_YEAR = 10_000L * 365;
+    private static final String INTEREST_DESCRIPTION = "Interest for ";
+    private static final String FEE_DESCRIPTION = "Maintenance fee for ";
+
+    private final Ledger ledger;
+    private final TransactionStore store;
+    private final Journal journal;
+    private final LedgerAggregates aggregates;
+    private final Path checkpointDirectory;
+    private final int parallelism;
+    private final long interestBps;
+    private final long maintenanceFee;
+    private final long feeWaiverBalance;
+    private final ThreadLocal<Journal.Batch> batches = ThreadLocal.withInitial(Journal.Batch::new);
+
+    /**
+     * Totals of one run, or of the part of it done by this process after a resume
+     */
+    public static final class Summary {
+        private final int accounts;
+        private final int chunksSkipped;
+        private final long interestPostings;
+        private final long interestTotal;
+        private final long feePostings;
+        private final long feeTotal;
+
+        Summary(int accounts, int chunksSkipped, long interestPostings, long interestTotal,
+                long feePostings, long feeTotal) {
+            this.accounts = accounts;
+            this.chunksSkipped = chunksSkipped;
+            this.interestPostings = interestPostings;
+            this.interestTotal = interestTotal;
+            this.feePostings = feePostings;
+            this.feeTotal = feeTotal;
+        }
+
+        public int getAccounts() {
+            return accounts;
+        }
+
+        public int getChunksSkipped() {
+            return chunksSkipped;
+        }
+
+        public long getInterestPostings() {
+            return interestPostings;
+        }
+
+        public long getInterestTotal() {
+            return interestTotal;
+        }
+
+        public long getFeePostings() {
+            return feePostings;
+        }
+
+        public long getFeeTotal() {
+            return feeTotal;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("%,d accounts, %,d chunks already done; interest: %,d postings, $",
+                                     accounts, chunksSkipped, interestPostings));
+            Money.appendTo(out, interestTotal).append(String.format("; fees: %,d postings, $", feePostings));
+            return Money.appendTo(out, feeTotal).toString();
+        }
+    }
+
+    /**
+     * @param ledger Ledger whose accounts are processed
+     * @param checkpointDirectory Directory for run checkpoints, or null to keep no checkpoint
+     * @param parallelism Number of fork/join worker threads
+     * @param interestBps Annual interest rate in basis points
+     * @param maintenanceFee Month-end fee in cents
+     * @param feeWaiverBalance Balance in cents from which the fee is waived
+     */
+    public EndOfDayProcessor(Ledger ledger, Path checkpointDirectory, int parallelism, long interestBps,
+                             long maintenanceFee, long feeWaiverBalance) throws IOException {
+        if (parallelism < 1 || interestBps < 0 || maintenanceFee < 0) {
+            throw new IllegalArgumentException("Parallelism must be positive and rates not negative");
+        }
+        this.ledger = ledger;
+        this.store = ledger.getTransactionStore();
+        this.journal = ledger.getJournal();
+        this.aggregates = ledger.getAggregates();
+        this.checkpointDirectory = checkpointDirectory == null ? null : Files.createDirectories(checkpointDirectory);
+        this.parallelism = parallelism;
+        this.interestBps = interestBps;
+        this.maintenanceFee = maintenanceFee;
+        this.feeWaiverBalance = feeWaiverBalance;
+    }
+
+    /**
+     * Processor with the policy of -Dbank.interestBps, -Dbank.maintenanceFee and -Dbank.feeWaiverBalance
+     */
+    public static EndOfDayProcessor configured(Ledger ledger, Path checkpointDirectory, int parallelism)
+            throws IOException {
+        return new EndOfDayProcessor(ledger, checkpointDirectory, parallelism,
+                                     Long.getLong("bank.interestBps", 150),
+                                     Money.parse(System.getProperty("bank.maintenanceFee", "5.00")),
+                                     Money.parse(System.getProperty("bank.feeWaiverBalance", "1000.00")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        LocalDate date = LocalDate.now();
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                date = LocalDate.parse(args[i]);
+            }
+        }
+
+        String dataDirectory = System.getProperty("bank.data", "bank-data");
+        try (Ledger ledger = Ledger.openConfigured()) {
+            Path checkpoints = dataDirectory.isEmpty() ? null : Paths.get(dataDirectory, "eod");
+            EndOfDayProcessor processor = configured(ledger, checkpoints, threads);
+            long start = System.nanoTime();
+            Summary summary = processor.run(date);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("End of day %s with %d threads in %.2f s (%,.0f accounts/s)%n",
+                              date, threads, seconds, summary.getAccounts() / seconds);
+            System.out.println(summary);
+        }
+    }
+
+    /**
+     * Accrue interest, and at month end charge fees, for every account
+     * @param date Business date the postings are for
+     * @return totals of the postings made by this call
+     */
+    public Summary run(LocalDate date) throws IOException, InterruptedException {
+        Run run = new Run(date);
+        Path checkpoint = checkpointDirectory == null ? null : checkpointDirectory.resolve("eod-" + date + ".dat");
+        boolean resuming = checkpoint != null && run.load(checkpoint);
+        if (!resuming) {
+            run.start(ledger.accountCount());
+        }
+        int skipped = run.countDone();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(new Chunks(run, 0, run.chunks, resuming, checkpoint)).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        } finally {
+            pool.shutdown();
+        }
+        if (checkpoint != null) {
+            run.save(checkpoint);
+        }
+        return new Summary(run.accounts, skipped, run.interestPostings.get(), run.interestTotal.get(),
+                           run.feePostings.get(), run.feeTotal.get());
+    }
+
+    /**
+     * State of one business date's run: its account range, finished chunks and totals
+     */
+    private final class Run {
+        final LocalDate date;
+        final String interestDescription;
+        final String feeDescription;
+        final boolean monthEnd;
+        int accounts;
+        int chunks;
+        long startedMicros;
+        AtomicLongArray done; // One bit per finished chunk
+        final AtomicLong interestPostings = new AtomicLong();
+        final AtomicLong interestTotal = new AtomicLong();
+        final AtomicLong feePostings = new AtomicLong();
+        final AtomicLong feeTotal = new AtomicLong();
+        private volatile long lastSaveNanos = System.nanoTime();
+
+        Run(LocalDate date) {
+            this.date = date;
+            this.interestDescription = INTEREST_DESCRIPTION + date;
+            this.feeDescription = FEE_DESCRIPTION + date;
+            this.monthEnd = date.getDayOfMonth() == date.lengthOfMonth();
+        }
+
+        void start(int accountCount) {
+            accounts = accountCount;
+            chunks = (accountCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            Instant now = Instant.now();
+            startedMicros = now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+            done = new AtomicLongArray((chunks + 63) / 64);
+        }
+
+        boolean isDone(int chunk) {
+            return (done.get(chunk >>> 6) & (1L << chunk)) != 0;
+        }
+
+        void markDone(int chunk) {
+            done.getAndAccumulate(chunk >>> 6, 1L << chunk, (bits, bit) -> bits | bit);
+        }
+
+        int countDone() {
+            int count = 0;
+            for (int i = 0; i < done.length(); i++) {
+                count += Long.bitCount(done.get(i));
+            }
+            return count;
+        }
+
+        /**
+         * Save the finished chunks if the interval has passed; one thread saves at a time
+         */
+        void saveIfDue(Path checkpoint) throws IOException {
+            if (checkpoint == null || System.nanoTime() - lastSaveNanos < CHECKPOINT_INTERVAL_NANOS) {
+                return;
+            }
+            synchronized (this) {
+                if (System.nanoTime() - lastSaveNanos >= CHECKPOINT_INTERVAL_NANOS) {
+                    save(checkpoint);
+                }
+            }
+        }
+
+        /**
+         * Write the finished chunks, after forcing their journal frames to disk
+         */
+        synchronized void save(Path checkpoint) throws IOException {
+            long[] bits = new long[done.length()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = done.get(i);
+            }
+            if (journal != null) {
+                journal.flush();
+            }
+            Path temporary = checkpoint.resolveSibling("eod.tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeLong(MAGIC);
+                out.writeInt(accounts);
+                out.writeLong(startedMicros);
+                for (long word : bits) {
+                    out.writeLong(word);
+                }
+                out.writeLong(MAGIC);
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            lastSaveNanos = System.nanoTime();
+        }
+
+        /**
+         * Load an earlier run of the same date
+         * @return true if a complete checkpoint file was found
+         */
+        boolean load(Path checkpoint) throws IOException {
+            if (!Files.exists(checkpoint)) {
+                return false;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                     Files.newInputStream(checkpoint), 1 << 16))) {
+                if (in.readLong() != MAGIC) {
+                    return false;
+                }
+                int accountCount = in.readInt();
+                long started = in.readLong();
+                start(accountCount);
+                startedMicros = started;
+                for (int i = 0; i < done.length(); i++) {
+                    done.set(i, in.readLong());
+                }
+                return in.readLong() == MAGIC;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Range of chunks, split in halves until one chunk is left
+     */
+    private final class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Run run;
+        private final int from;
+        private final int to;
+        private final boolean resuming;
+        private final Path checkpoint;
+
+        Chunks(Run run, int from, int to, boolean resuming, Path checkpoint) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+            this.resuming = resuming;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Chunks(run, from, middle, resuming, checkpoint),
+                          new Chunks(run, middle, to, resuming, checkpoint));
+                return;
+            }
+            if (from == to || run.isDone(from)) {
+                return;
+            }
+            try {
+                processChunk(run, from, resuming);
+                run.markDone(from);
+                run.saveIfDue(checkpoint);
+            } catch (IOException e) {
+                throw new UncheckedIOException("End of day failed in chunk " + from, e);
+            }
+        }
+    }
+
+    /**
+     * Post interest and fees for one chunk of accounts, waiting once for their journal frames to commit
+     * @param resuming Skip accounts that already have postings for the date
+     */
+    private void processChunk(Run run, int chunk, boolean resuming) throws IOException {
+        Journal.Batch batch = batches.get();
+        long interestPostings = 0;
+        long interestTotal = 0;
+        long feePostings = 0;
+        long feeTotal = 0;
+        long written = -1;
+        int end = Math.min((chunk + 1) * CHUNK_SIZE, run.accounts);
+        for (int position = chunk * CHUNK_SIZE; position < end; position++) {
+            Account account = ledger.accountAt(position);
+            if (resuming && alreadyPosted(run, account)) {
+                continue;
+            }
+            // Every recorded posting to the account holds its monitor, so the balance read
+            // here is the one the postings change, and their frame precedes any later one
+            synchronized (account) {
+                long balance = account.getBalance();
+                long interest = dailyInterest(balance);
+                long afterInterest = Money.add(balance, interest);
+                long fee = run.monthEnd && afterInterest < feeWaiverBalance
+                           ? Math.min(maintenanceFee, afterInterest) : 0;
+                if (interest == 0 && fee == 0) {
+                    continue;
+                }
+                long interestRow = interest > 0 ? store.append(account.getAccountId(),
+                                                               Transaction.TransactionType.INTEREST, interest,
+                                                               afterInterest, run.interestDescription) : -1;
+                long feeRow = fee > 0 ? store.append(account.getAccountId(), Transaction.TransactionType.FEE, fee,
+                                                     afterInterest - fee, run.feeDescription) : -1;
+                long frame = write(batch, interestRow, feeRow);
+                if (frame >= 0) {
+                    written = frame;
+                }
+                if (interestRow >= 0) {
+                    apply(account, interestRow, interest);
+                    interestPostings++;
+                    interestTotal += interest;
+                }
+                if (feeRow >= 0) {
+                    apply(account, feeRow, -fee);
+                    feePostings++;
+                    feeTotal += fee;
+                }
+            }
+        }
+        if (written >= 0) {
+            journal.awaitCommitted(written);
+        }
+        run.interestPostings.addAndGet(interestPostings);
+        run.interestTotal.addAndGet(interestTotal);
+        run.feePostings.addAndGet(feePostings);
+        run.feeTotal.addAndGet(feeTotal);
+    }
+
+    /**
+     * Write one account's postings as a frame before its balance changes; if
+     * it cannot be written the rows are discarded, so nothing has changed
+     * @param feeRow Row of the fee, or -1
+     * @return journal position to commit, or -1 without a journal
+     */
+    private long write(Journal.Batch batch, long interestRow, long feeRow) throws IOException {
+        if (journal == null) {
+            return -1;
+        }
+        try {
+            batch.clear(); // Drop a frame left by a write that failed
+            batch.beginFrame();
+            if (interestRow >= 0) {
+                batch.posting(store, interestRow);
+            }
+            if (feeRow >= 0) {
+                batch.posting(store, feeRow);
+            }
+            batch.endFrame();
+            return journal.write(batch);
+        } catch (IOException e) {
+            if (interestRow >= 0) {
+                store.discard(interestRow);
+            }
+            if (feeRow >= 0) {
+                store.discard(feeRow);
+            }
+            throw e;
+        }
+    }
+
+    private void apply(Account account, long row, long delta) {
+        account.applyRecorded(delta);
+        account.getTransactionHistory().add(row);
+        aggregates.posted(account, store.type(row), store.amount(row), store.epochMicros(row));
+    }
+
+    /**
+     * @return true if the account has an interest or fee posting for the
+     *         run's date, made since the run first started
+     */
+    private boolean alreadyPosted(Run run, Account account) {
+        TransactionHistory history = ledger.historyOf(account);
+        for (int i = history.size() - 1; i >= 0; i--) {
+            long row = history.get(i);
+            if (store.epochMicros(row) < run.startedMicros) {
+                return false;
+            }
+            Transaction.TransactionType type = store.type(row);
+            String description = type == Transaction.TransactionType.INTEREST ? run.interestDescription
+                                 : type == Transaction.TransactionType.FEE ? run.feeDescription : null;
+            if (description != null && description.equals(store.description(row))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One day's interest on a balance, rounded down to the cent
+     */
+    long dailyInterest(long balance) {
+        if (balance <= 0 || interestBps == 0) {
+            return 0;
+        }
+        if (balance <= Long.MAX_VALUE / interestBps) {
+            return balance * interestBps / BASIS_POINTS_PER_YEAR;
+        }
+        return BigInteger.valueOf(balance).multiply(BigInteger.valueOf(interestBps))
+                         .divide(BigInteger.valueOf(BASIS_POINTS_PER_YEAR)).longValueExact();
+    }
+}
@@ -0,0 +1,324 @@
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of recent idempotency keys and the outcome of the posting
+ * each one started, so a retried request gets the original result instead
+ * of posting twice
+ * Demonstrates a fixed-size primitive cache: keys are spread over segments,
+ * each a ring of column arrays under its own lock with an open-addressing
+ * index, so a lookup allocates nothing, entries are not objects the garbage
+ * collector has to trace, and memory is fixed however fast keys arrive
+ *
+ * Keys are scoped to the account that makes the posting. Reusing a key for
+ * a different operation, amount or target gets IDEMPOTENCY_KEY_REUSED.
+ * A repeat that arrives while the first request is still posting waits for
+ * its outcome. If the first request fails with an exception its key is
+ * released, so the retry posts; a posting must therefore throw only before
+ * it changes anything, and report a later failure as its outcome, as
+ * Ledger does with UNCONFIRMED.
+ *
+ * Each segment overwrites its oldest settled entry when full, and a settled
+ * entry older than the time to live counts as absent. An entry still
+ * posting is never dropped, or a retry of its request could post twice;
+ * a new key arriving while every entry of its segment is posting waits.
+ * Keys are stored as two 64-bit hashes of the text, seeded differently per
+ * process, next to the exact account id. Both hashes use one multiplier, so
+ * they are not independent and together are weaker than a true 128-bit
+ * fingerprint; two keys of one account that collide in both share an entry.
+ * Entries are not journaled; after a restart earlier keys are forgotten.
+ */
+public class IdempotencyCache {
+    public static final int MAX_KEY_LENGTH = 255;
+    private static final int SEGMENTS = 64;
+    private static final byte PENDING = -1;
+    private static final long SEED_HIGH;
+    private static final long SEED_LOW;
+
+    static {
+        SplittableRandom random = new SplittableRandom();
+        SEED_HIGH = random.nextLong();
+        SEED_LOW = random.nextLong();
+    }
+
+    /**
+     * Operations a key can be used for
+     */
+    public enum Operation {
+        DEPOSIT, WITHDRAWAL, TRANSFER
+    }
+
+    private static final PostingStatus[] STATUSES = PostingStatus.values();
+
+    /**
+     * One lock's worth of entries: a ring of columns, oldest overwritten first,
+     * and an index from key to ring position. Arrays are allocated on first use.
+     */
+    private static final class Segment {
+        final int capacity;
+        long[] keyHigh;
+        long[] keyLow;
+        int[] accountIds;
+        int[] targetIds;
+        long[] amounts;
+        long[] expiresAt;      // Millis; 0 for an empty position
+        byte[] operations;
+        byte[] statuses;       // PostingStatus ordinal, or PENDING
+        int[] index;           // Ring position + 1, 0 for an empty slot
+        int indexMask;
+        int next;              // Position written next, holding the oldest entry once the ring is full
+        int size;
+        int waiters;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void allocate() {
+            keyHigh = new long[capacity];
+            keyLow = new long[capacity];
+            accountIds = new int[capacity];
+            targetIds = new int[capacity];
+            amounts = new long[capacity];
+            expiresAt = new long[capacity];
+            operations = new byte[capacity];
+            statuses = new byte[capacity];
+            int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+            index = new int[slots];
+            indexMask = slots - 1;
+        }
+
+        int find(int accountId, long high, long low) {
+            if (index == null) {
+                return -1;
+            }
+            for (int slot = home(accountId, low); ; slot = (slot + 1) & indexMask) {
+                int position = index[slot] - 1;
+                if (position < 0) {
+                    return -1;
+                }
+                if (keyLow[position] == low && keyHigh[position] == high && accountIds[position] == accountId) {
+                    return position;
+                }
+            }
+        }
+
+        int home(int accountId, long low) {
+            long mixed = (low ^ accountId) * 0x9E3779B97F4A7C15L;
+            return (int) (mixed >>> 32) & indexMask;
+        }
+
+        /**
+         * Store a pending entry in the oldest position not still pending,
+         * evicting what was there
+         * @return the position, or -1 if every position is pending
+         */
+        int insert(int accountId, long high, long low, Operation operation, long amount, int targetId,
+                   long expires) {
+            if (index == null) {
+                allocate();
+            }
+            int position = next;
+            for (int scanned = 1; expiresAt[position] != 0 && statuses[position] == PENDING; scanned++) {
+                if (scanned == capacity) {
+                    return -1;
+                }
+                position = position + 1 == capacity ? 0 : position + 1;
+            }
+            next = position + 1 == capacity ? 0 : position + 1;
+            if (expiresAt[position] != 0) {
+                remove(position);
+            }
+            keyHigh[position] = high;
+            keyLow[position] = low;
+            accountIds[position] = accountId;
+            targetIds[position] = targetId;
+            amounts[position] = amount;
+            expiresAt[position] = expires;
+            operations[position] = (byte) operation.ordinal();
+            statuses[position] = PENDING;
+            int slot = home(accountId, low);
+            while (index[slot] != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+            index[slot] = position + 1;
+            size++;
+            return position;
+        }
+
+        /**
+         * Drop an entry, closing the gap in its probe run by shifting later entries back
+         */
+        void remove(int position) {
+            int slot = home(accountIds[position], keyLow[position]);
+            while (index[slot] != position + 1) {
+                slot = (slot + 1) & indexMask;
+            }
+            int hole = slot;
+            for (int probe = (hole + 1) & indexMask; index[probe] != 0; probe = (probe + 1) & indexMask) {
+                int moved = index[probe] - 1;
+                int wanted = home(accountIds[moved], keyLow[moved]);
+                // Move back unless its home lies cyclically after the hole, up to where it sits
+                if (((probe - wanted) & indexMask) >= ((probe - hole) & indexMask)) {
+                    index[hole] = index[probe];
+                    hole = probe;
+                }
+            }
+            index[hole] = 0;
+            expiresAt[position] = 0;
+            size--;
+        }
+
+        boolean holds(int position, int accountId, long high, long low) {
+            return expiresAt[position] != 0 && keyLow[position] == low && keyHigh[position] == high
+                   && accountIds[position] == accountId;
+        }
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long timeToLiveMillis;
+
+    /**
+     * @param capacity Most keys remembered at once
+     * @param timeToLiveSeconds Seconds a key is remembered for
+     */
+    public IdempotencyCache(int capacity, long timeToLiveSeconds) {
+        if (capacity < SEGMENTS || timeToLiveSeconds <= 0) {
+            throw new IllegalArgumentException("Capacity must be at least " + SEGMENTS
+                                               + " and the time to live positive");
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / SEGMENTS);
+        }
+        this.timeToLiveMillis = timeToLiveSeconds * 1000;
+    }
+
+    /**
+     * Cache sized by -Dbank.idempotencyKeys (1,000,000 by default) and
+     * -Dbank.idempotencySeconds (86,400 by default)
+     */
+    public static IdempotencyCache configured() {
+        return new IdempotencyCache(Integer.getInteger("bank.idempotencyKeys", 1_000_000),
+                                    Long.getLong("bank.idempotencySeconds", 86_400));
+    }
+
+    /**
+     * Run a posting once per key
+     * @param accountId Account making the posting; keys are scoped to it
+     * @param key Client-chosen key, at most MAX_KEY_LENGTH characters
+     * @param operation What the posting does
+     * @param amount Amount in cents
+     * @param targetId Target account id of a transfer, otherwise 0
+     * @param posting Makes the posting; called only for a key not seen recently. An
+     *        exception from it releases the key, so it must not throw once applied.
+     * @return the posting's outcome, the outcome of the earlier request with
+     *         the key, or IDEMPOTENCY_KEY_REUSED if that request differed
+     * @throws IllegalArgumentException if the key is empty or too long
+     */
+    public PostingStatus execute(int accountId, String key, Operation operation, long amount, int targetId,
+                                 Supplier<PostingStatus> posting) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        long high = hash(key, SEED_HIGH);
+        long low = hash(key, SEED_LOW);
+        Segment segment = segments[(int) (high >>> 58)]; // Top 6 bits pick one of the 64 segments
+        int position;
+        synchronized (segment) {
+            while (true) {
+                long now = CoarseClock.currentMillis();
+                position = segment.find(accountId, high, low);
+                if (position >= 0 && segment.expiresAt[position] <= now && segment.statuses[position] != PENDING) {
+                    segment.remove(position);
+                    position = -1;
+                }
+                if (position < 0) {
+                    position = segment.insert(accountId, high, low, operation, amount, targetId,
+                                              now + timeToLiveMillis);
+                    if (position >= 0) {
+                        break; // This request is the first with the key
+                    }
+                    awaitOutcome(segment); // Every entry is still posting, so none can be evicted yet
+                    continue;
+                }
+                if (segment.operations[position] != operation.ordinal() || segment.amounts[position] != amount
+                    || segment.targetIds[position] != targetId) {
+                    return PostingStatus.IDEMPOTENCY_KEY_REUSED;
+                }
+                if (segment.statuses[position] != PENDING) {
+                    return STATUSES[segment.statuses[position]];
+                }
+                awaitOutcome(segment);
+            }
+        }
+
+        PostingStatus status;
+        try {
+            status = posting.get();
+        } catch (RuntimeException | Error e) {
+            synchronized (segment) {
+                if (segment.holds(position, accountId, high, low)) {
+                    segment.remove(position);
+                }
+                wakeWaiters(segment);
+            }
+            throw e;
+        }
+        synchronized (segment) {
+            if (segment.holds(position, accountId, high, low)) {
+                segment.statuses[position] = (byte) status.ordinal();
+            }
+            wakeWaiters(segment);
+        }
+        return status;
+    }
+
+    /**
+     * Wait on the segment for some pending posting in it to finish
+     */
+    private static void awaitOutcome(Segment segment) {
+        segment.waiters++;
+        try {
+            segment.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the first request with this idempotency key");
+        } finally {
+            segment.waiters--;
+        }
+    }
+
+    private static void wakeWaiters(Segment segment) {
+        if (segment.waiters > 0) {
+            segment.notifyAll();
+        }
+    }
+
+    /**
+     * Seeded 64-bit hash of a key, finished with the MurmurHash3 mixer
+     */
+    private static long hash(String key, long seed) {
+        long hash = seed ^ key.length();
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * @return number of keys currently remembered, including expired ones not yet dropped
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+}
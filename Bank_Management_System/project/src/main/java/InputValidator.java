@@ -6,11 +6,11 @@ public class InputValidator {
     
     /**
      * Validate if the amount is positive and not zero
-     * @param amount Amount to validate
+     * @param amount Amount to validate in cents
      * @return true if valid, false otherwise
      */
-    public static boolean isValidAmount(double amount) {
-        return amount > 0 && !Double.isNaN(amount) && !Double.isInfinite(amount);
+    public static boolean isValidAmount(long amount) {
+        return amount > 0;
     }
     
     /**
@@ -36,18 +36,18 @@ public class InputValidator {
     /**
      * Clean and validate numeric input
      * @param input String input to parse
-     * @return parsed double value, or -1 if invalid
+     * @return parsed amount in cents, or -1 if invalid
      */
-    public static double parseAmount(String input) {
+    public static long parseAmount(String input) {
         try {
-            double amount = Double.parseDouble(input.trim());
+            long amount = Money.parse(input);
             if (amount < 0) {
                 System.out.println("Error: Amount cannot be negative.");
                 return -1;
             }
             return amount;
         } catch (NumberFormatException e) {
-            System.out.println("Error: Invalid number format. Please enter a valid amount.");
+            System.out.println("Error: Invalid number format. Please enter a valid amount with at most two decimals.");
             return -1;
         }
     }
@@ -0,0 +1,598 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary write-ahead journal of ledger events
+ * Demonstrates durable logging with group commit across concurrent writers
+ *
+ * File layout: a sequence of frames, each [int length][int crc32][payload].
+ * A frame is written in one call and is the unit of atomicity, so both legs
+ * of a transfer are either replayed together or not at all.
+ */
+public class Journal implements Closeable {
+    private static final byte ACCOUNT_OPENED = 1;
+    private static final byte POSTING = 2;
+    private static final byte TRANSFER_SENT = 3;
+    private static final byte TRANSFER_RECEIVED = 4;
+    private static final byte TRANSFER_ACKNOWLEDGED = 5;
+    private static final int FRAME_HEADER = 8;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * When appended frames are forced to disk
+     */
+    public enum Durability {
+        PER_TRANSACTION, // fsync before every append returns
+        PER_BATCH,       // concurrent appends share one fsync (group commit)
+        TIMED            // fsync in the background every flush interval
+    }
+
+    /**
+     * Receives journal events during replay
+     */
+    public interface Handler {
+        void accountOpened(int accountId, String accountHolderName, long openingBalance);
+
+        void posted(long transactionNumber, int accountId, Transaction.TransactionType type, long amount,
+                    long balanceAfter, long epochMicros, String description);
+
+        /**
+         * The deposit an account was opened with, from the account's opening
+         * frame; handled like any other posting unless overridden
+         */
+        default void openingPosted(long transactionNumber, int accountId, Transaction.TransactionType type,
+                                   long amount, long balanceAfter, long epochMicros, String description) {
+            posted(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description);
+        }
+
+        /**
+         * A transfer left this journal's shard for another; see ShardedLedger
+         */
+        default void transferSent(int targetShard, long sequence, int sourceAccountId, int targetAccountId,
+                                  long amount) {
+        }
+
+        /**
+         * A transfer from another shard was credited in this journal's shard
+         */
+        default void transferReceived(int sourceShard, long sequence) {
+        }
+
+        /**
+         * Another shard confirmed it has credited every transfer up to a sequence
+         */
+        default void transferAcknowledged(int targetShard, long sequence) {
+        }
+    }
+
+    /**
+     * Holds back each append until the frames it wrote are replicated; see ReplicationLeader
+     */
+    public interface Replicator {
+        /**
+         * Frames up to a position are written and can be shipped, while the
+         * appending thread goes on to force them to disk
+         */
+        void appended(long position);
+
+        /**
+         * Wait until the journal up to a position is acknowledged by enough followers
+         * @throws IOException if they do not acknowledge it in time
+         */
+        void awaitReplicated(long position) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final Durability durability;
+    private volatile Replicator replicator;
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private volatile long writtenPosition;
+    private long durablePosition; // Guarded by syncLock
+    private boolean syncing;      // Guarded by syncLock
+
+    /**
+     * Open (or create) a journal file
+     * @param path Journal file
+     * @param durability When appends are forced to disk
+     * @param flushIntervalMillis Background fsync interval, used by TIMED only
+     */
+    public Journal(Path path, Durability durability, long flushIntervalMillis) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.durability = durability;
+        this.writtenPosition = channel.size();
+        this.durablePosition = writtenPosition;
+
+        if (durability == Durability.TIMED) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis,
+                                           flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return number of bytes appended to the journal so far
+     */
+    public long size() {
+        return writtenPosition;
+    }
+
+    /**
+     * Record an account opening, plus any postings made with it, in one frame
+     */
+    public void accountOpened(Account account, long openingBalance, Transaction... postings) throws IOException {
+        awaitCommitted(writeAccountOpened(account, openingBalance, postings));
+    }
+
+    /**
+     * Write an account opening frame without waiting for it to commit
+     * @return position after the frame, for awaitCommitted
+     */
+    long writeAccountOpened(Account account, long openingBalance, Transaction... postings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 96 * postings.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ACCOUNT_OPENED);
+        out.writeInt(account.getAccountId());
+        out.writeUTF(account.getAccountHolderName());
+        out.writeLong(openingBalance);
+        writePostings(out, postings);
+        return append(bytes.toByteArray());
+    }
+
+    /**
+     * Record one or more postings in a single frame
+     */
+    public void posted(Transaction... postings) throws IOException {
+        awaitCommitted(writePosted(postings));
+    }
+
+    /**
+     * Write a frame of postings without waiting for it to commit
+     * @return position after the frame, for awaitCommitted
+     */
+    long writePosted(Transaction... postings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96 * postings.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writePostings(out, postings);
+        return append(bytes.toByteArray());
+    }
+
+    private static void writePostings(DataOutputStream out, Transaction... postings) throws IOException {
+        for (Transaction posting : postings) {
+            out.writeByte(POSTING);
+            out.writeLong(posting.getTransactionNumber());
+            out.writeInt(posting.getAccountId());
+            out.writeByte(posting.getType().ordinal());
+            out.writeLong(posting.getAmount());
+            out.writeLong(posting.getBalanceAfter());
+            out.writeLong(posting.getEpochMicros());
+            out.writeUTF(posting.getDescription());
+        }
+    }
+
+    private long append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return write(frame);
+    }
+
+    /**
+     * Append every frame collected in a batch with one write and, for
+     * PER_TRANSACTION and PER_BATCH, one fsync, then clear the batch
+     */
+    public void append(Batch batch) throws IOException {
+        if (batch.bytes.size() > 0) {
+            awaitCommitted(write(batch));
+        }
+        batch.clear();
+    }
+
+    /**
+     * Write every frame collected in a batch without waiting for it to commit,
+     * then clear the batch
+     * @return position after the frames, for awaitCommitted
+     */
+    long write(Batch batch) throws IOException {
+        long position = write(ByteBuffer.wrap(batch.bytes.buffer(), 0, batch.bytes.size()));
+        batch.clear();
+        return position;
+    }
+
+    /**
+     * Write frames and hand them to the replicator, without waiting for either
+     * @return position after the frames
+     */
+    private long write(ByteBuffer frames) throws IOException {
+        long end;
+        synchronized (appendLock) {
+            long start = writtenPosition;
+            while (frames.hasRemaining()) {
+                channel.write(frames, start + frames.position());
+            }
+            end = start + frames.limit();
+            writtenPosition = end;
+            if (durability == Durability.PER_TRANSACTION) {
+                channel.force(false);
+            }
+        }
+        Replicator current = replicator;
+        if (current != null) {
+            current.appended(end);
+        }
+        return end;
+    }
+
+    /**
+     * Wait until the journal up to a position is committed: forced to disk
+     * for PER_TRANSACTION and PER_BATCH, and acknowledged by enough
+     * followers while replicating. Writers that wait together share one fsync.
+     */
+    void awaitCommitted(long position) throws IOException {
+        if (durability == Durability.PER_BATCH) {
+            awaitDurable(position);
+        }
+        Replicator current = replicator;
+        if (current != null) {
+            current.awaitReplicated(position);
+        }
+    }
+
+    /**
+     * Hold every later append until it is replicated, or stop with null
+     */
+    public void setReplicator(Replicator replicator) {
+        this.replicator = replicator;
+    }
+
+    /**
+     * Copy journal bytes, whole frames or not, for shipping to a follower
+     * @param position Position of the first byte
+     * @param target Buffer to fill, up to its limit or the end of the journal
+     * @return number of bytes copied
+     */
+    int readBytes(long position, ByteBuffer target) throws IOException {
+        int wanted = (int) Math.min(target.remaining(), writtenPosition - position);
+        int limit = target.limit();
+        target.limit(target.position() + Math.max(0, wanted));
+        int copied = 0;
+        try {
+            while (target.hasRemaining()) {
+                int read = channel.read(target, position + copied);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of journal");
+                }
+                copied += read;
+            }
+        } finally {
+            target.limit(limit);
+        }
+        return copied;
+    }
+
+    /**
+     * Append bytes shipped from a leader's journal at the same position, so
+     * both journals hold the same bytes; they are forced by the next flush
+     * @throws IOException if the bytes do not start at the end of this journal
+     */
+    void appendReplicated(long position, ByteBuffer bytes) throws IOException {
+        synchronized (appendLock) {
+            if (position != writtenPosition) {
+                throw new IOException("Replicated bytes start at " + position + ", journal ends at "
+                                      + writtenPosition);
+            }
+            long end = position + bytes.remaining();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, end - bytes.remaining());
+            }
+            writtenPosition = end;
+        }
+    }
+
+    /**
+     * Wait until everything up to the given position is on disk. The first
+     * waiter forces the file for every frame written so far; writers that
+     * arrive while it runs wait and are covered by the next force.
+     */
+    private void awaitDurable(long position) throws IOException {
+        while (true) {
+            long target;
+            synchronized (syncLock) {
+                while (syncing && durablePosition < position) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for journal sync");
+                    }
+                }
+                if (durablePosition >= position) {
+                    return;
+                }
+                syncing = true;
+                target = writtenPosition;
+            }
+
+            boolean forced = false;
+            try {
+                channel.force(false);
+                forced = true;
+            } finally {
+                synchronized (syncLock) {
+                    syncing = false;
+                    if (forced) {
+                        durablePosition = Math.max(durablePosition, target);
+                    }
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Force everything appended so far to disk
+     */
+    public void flush() throws IOException {
+        awaitDurable(writtenPosition);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Journal flush failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replay every complete frame from the start of the journal. A torn or
+     * corrupt frame at the tail (from a crash mid-write) ends the replay and
+     * is cut off so new frames follow the last good one.
+     * @return journal position after the last replayed frame
+     */
+    public long replay(Handler handler) throws IOException {
+        return replay(0, handler);
+    }
+
+    /**
+     * Replay every complete frame starting at the given journal position
+     * @return journal position after the last replayed frame
+     */
+    public long replay(long fromPosition, Handler handler) throws IOException {
+        synchronized (appendLock) {
+            long fileSize = channel.size();
+            long position = read(fromPosition, fileSize, handler);
+            if (position < fileSize) {
+                System.err.printf("Journal: discarding %d bytes of incomplete data at offset %d%n",
+                                  fileSize - position, position);
+                channel.truncate(position);
+                channel.force(false);
+            }
+            writtenPosition = Math.max(position, fromPosition);
+            synchronized (syncLock) {
+                durablePosition = writtenPosition;
+            }
+            return writtenPosition;
+        }
+    }
+
+    /**
+     * Read the complete frames between two positions without changing the
+     * journal, e.g. to fold them into a checkpoint while writers keep appending
+     * @param fromPosition Position of the first frame
+     * @param toPosition Position to stop at, at most size()
+     * @return position after the last complete frame read
+     */
+    public long read(long fromPosition, long toPosition, Handler handler) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        buffer.limit(0);
+        long bufferStart = fromPosition;
+        CRC32 crc = new CRC32();
+        long position = fromPosition;
+        while (position + FRAME_HEADER <= toPosition) {
+            if (position + FRAME_HEADER > bufferStart + buffer.limit()) {
+                bufferStart = position;
+                fill(buffer, position, toPosition);
+            }
+            int length = buffer.getInt((int) (position - bufferStart));
+            int expectedCrc = buffer.getInt((int) (position - bufferStart) + 4);
+            if (length <= 0 || position + FRAME_HEADER + length > toPosition) {
+                break;
+            }
+            if (position + FRAME_HEADER + length > bufferStart + buffer.limit()) {
+                if (FRAME_HEADER + length > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(FRAME_HEADER + length);
+                }
+                bufferStart = position;
+                fill(buffer, position, toPosition);
+            }
+            int offset = (int) (position - bufferStart) + FRAME_HEADER;
+            crc.reset();
+            crc.update(buffer.array(), offset, length);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            decode(buffer.array(), offset, length, handler);
+            position += FRAME_HEADER + length;
+        }
+        return position;
+    }
+
+    private void fill(ByteBuffer buffer, long position, long toPosition) throws IOException {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), toPosition - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void decode(byte[] bytes, int offset, int length, Handler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        Transaction.TransactionType[] types = Transaction.TransactionType.values();
+        boolean opening = false; // Postings in an account's opening frame are its opening deposit
+        while (in.available() > 0) {
+            byte kind = in.readByte();
+            if (kind == ACCOUNT_OPENED) {
+                handler.accountOpened(in.readInt(), in.readUTF(), in.readLong());
+                opening = true;
+            } else if (kind == POSTING && opening) {
+                handler.openingPosted(in.readLong(), in.readInt(), types[in.readByte()], in.readLong(),
+                                      in.readLong(), in.readLong(), in.readUTF());
+            } else if (kind == POSTING) {
+                handler.posted(in.readLong(), in.readInt(), types[in.readByte()], in.readLong(),
+                               in.readLong(), in.readLong(), in.readUTF());
+            } else if (kind == TRANSFER_SENT) {
+                handler.transferSent(in.readInt(), in.readLong(), in.readInt(), in.readInt(), in.readLong());
+            } else if (kind == TRANSFER_RECEIVED) {
+                handler.transferReceived(in.readInt(), in.readLong());
+            } else if (kind == TRANSFER_ACKNOWLEDGED) {
+                handler.transferAcknowledged(in.readInt(), in.readLong());
+            } else {
+                throw new IOException("Unknown journal record type " + kind);
+            }
+        }
+    }
+
+    /**
+     * Reusable buffer of posting frames that are appended together
+     * Frames are encoded straight from store rows, so building a batch
+     * allocates nothing once the buffer has grown to its working size
+     */
+    public static final class Batch {
+        private final FrameBuffer bytes = new FrameBuffer();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final CRC32 crc = new CRC32();
+        private int frameStart = -1;
+
+        /**
+         * Start a frame; postings added until endFrame are replayed together
+         */
+        public void beginFrame() throws IOException {
+            frameStart = bytes.size();
+            out.writeLong(0); // Length and CRC, filled in by endFrame
+        }
+
+        /**
+         * Add the posting stored at a row to the current frame
+         */
+        public void posting(TransactionStore store, long row) throws IOException {
+            out.writeByte(POSTING);
+            out.writeLong(store.transactionNumber(row));
+            out.writeInt(store.accountId(row));
+            out.writeByte(store.type(row).ordinal());
+            out.writeLong(store.amount(row));
+            out.writeLong(store.balanceAfter(row));
+            out.writeLong(store.epochMicros(row));
+            out.writeUTF(store.description(row));
+        }
+
+        /**
+         * Mark the current frame's postings as the sending side of a cross-shard transfer
+         */
+        public void transferSent(int targetShard, long sequence, int sourceAccountId, int targetAccountId,
+                                 long amount) throws IOException {
+            out.writeByte(TRANSFER_SENT);
+            out.writeInt(targetShard);
+            out.writeLong(sequence);
+            out.writeInt(sourceAccountId);
+            out.writeInt(targetAccountId);
+            out.writeLong(amount);
+        }
+
+        /**
+         * Mark the current frame's postings as the receiving side of a cross-shard transfer
+         */
+        public void transferReceived(int sourceShard, long sequence) throws IOException {
+            out.writeByte(TRANSFER_RECEIVED);
+            out.writeInt(sourceShard);
+            out.writeLong(sequence);
+        }
+
+        /**
+         * Record that another shard has credited every transfer up to a sequence
+         */
+        public void transferAcknowledged(int targetShard, long sequence) throws IOException {
+            out.writeByte(TRANSFER_ACKNOWLEDGED);
+            out.writeInt(targetShard);
+            out.writeLong(sequence);
+        }
+
+        public void endFrame() {
+            int payloadStart = frameStart + FRAME_HEADER;
+            int length = bytes.size() - payloadStart;
+            crc.reset();
+            crc.update(bytes.buffer(), payloadStart, length);
+            putInt(bytes.buffer(), frameStart, length);
+            putInt(bytes.buffer(), frameStart + 4, (int) crc.getValue());
+            frameStart = -1;
+        }
+
+        private static void putInt(byte[] buffer, int offset, int value) {
+            buffer[offset] = (byte) (value >>> 24);
+            buffer[offset + 1] = (byte) (value >>> 16);
+            buffer[offset + 2] = (byte) (value >>> 8);
+            buffer[offset + 3] = (byte) value;
+        }
+
+        public boolean isEmpty() {
+            return bytes.size() == 0;
+        }
+
+        void clear() {
+            bytes.reset();
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream that exposes its buffer instead of copying it
+     */
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+        FrameBuffer() {
+            super(1 << 16);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        if (channel.isOpen()) {
+            flush();
+            channel.close();
+        }
+    }
+}
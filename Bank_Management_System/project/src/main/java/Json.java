@@ -0,0 +1,178 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the banking service
+ * Demonstrates reading flat request objects and escaping response text
+ * without a library; nested objects and arrays are not accepted as input
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Parse a flat JSON object whose values are strings, numbers, booleans or null
+     * @param text JSON text such as {"account":"ACC1001","amount":"25.00"}
+     * @return field values as text, numbers exactly as written
+     * @throws IllegalArgumentException if the text is not such an object
+     */
+    public static Map<String, String> parseObject(String text) {
+        Map<String, String> fields = new HashMap<>();
+        int[] position = {skipWhitespace(text, 0)};
+        expect(text, position, '{');
+        if (peek(text, position) == '}') {
+            position[0]++;
+            return fields;
+        }
+        while (true) {
+            String name = readString(text, position);
+            expect(text, position, ':');
+            fields.put(name, readValue(text, position));
+            char next = peek(text, position);
+            position[0]++;
+            if (next == '}') {
+                break;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Expected , or } at " + (position[0] - 1));
+            }
+        }
+        if (skipWhitespace(text, position[0]) != text.length()) {
+            throw new IllegalArgumentException("Unexpected text after the object");
+        }
+        return fields;
+    }
+
+    /**
+     * Append a string as a quoted JSON string
+     * @return the builder, for chaining
+     */
+    public static StringBuilder appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    private static String readValue(String text, int[] position) {
+        char first = peek(text, position);
+        if (first == '"') {
+            return readString(text, position);
+        }
+        if (first == '{' || first == '[') {
+            throw new IllegalArgumentException("Nested values are not supported at " + position[0]);
+        }
+        int start = position[0];
+        int end = start;
+        while (end < text.length() && ",}".indexOf(text.charAt(end)) < 0 && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        if (end == start) {
+            throw new IllegalArgumentException("Missing value at " + start);
+        }
+        position[0] = end;
+        String value = text.substring(start, end);
+        return value.equals("null") ? null : value;
+    }
+
+    private static String readString(String text, int[] position) {
+        expect(text, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (true) {
+            if (i >= text.length()) {
+                throw new IllegalArgumentException("Unterminated string");
+            }
+            char c = text.charAt(i++);
+            if (c == '"') {
+                break;
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (i >= text.length()) {
+                throw new IllegalArgumentException("Unterminated string");
+            }
+            char escaped = text.charAt(i++);
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > text.length()) {
+                        throw new IllegalArgumentException("Bad unicode escape");
+                    }
+                    value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default:
+                    value.append(escaped); // \" \\ and \/
+            }
+        }
+        position[0] = i;
+        return value.toString();
+    }
+
+    private static void expect(String text, int[] position, char expected) {
+        if (peek(text, position) != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " at " + position[0]);
+        }
+        position[0]++;
+    }
+
+    /**
+     * Skip whitespace and return the next character without consuming it
+     */
+    private static char peek(String text, int[] position) {
+        position[0] = skipWhitespace(text, position[0]);
+        if (position[0] >= text.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        return text.charAt(position[0]);
+    }
+
+    private static int skipWhitespace(String text, int position) {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram with log-linear buckets, in the style of HdrHistogram
+ * Demonstrates striped recording: each thread counts into the stripe its
+ * thread id maps to, so threads recording at once rarely touch the same
+ * cache lines, and stripes are only summed when someone reads the histogram
+ *
+ * Values below 128 ns get a bucket each. Above that every power of two is
+ * split into 64 buckets, so any value is reported within 1.6% of what was
+ * recorded, up to about an hour. Each stripe also keeps the sum of its values.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;         // Buckets per power of two
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;             // Values below this are exact
+    private static final int MAX_SHIFT = 36;                             // Top bucket starts near 2^42 ns
+    static final int BUCKETS = LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS;
+    private static final int SUM = BUCKETS;                              // Slot after the buckets
+    private static final int STRIPE_LENGTH = SUM + 16;                   // Padding keeps stripes off shared lines
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    public LatencyHistogram() {
+        stripes = new AtomicLongArray[stripeCount()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+        }
+        stripeMask = stripes.length - 1;
+    }
+
+    /**
+     * @return a power of two of at least twice the processor count, and at least 8
+     */
+    static int stripeCount() {
+        return Integer.highestOneBit(Math.max(8, Runtime.getRuntime().availableProcessors() * 2) - 1) << 1;
+    }
+
+    /**
+     * Record one value
+     * @param nanos Latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        stripe.getAndIncrement(bucketOf(nanos));
+        stripe.getAndAdd(SUM, Math.max(0, nanos));
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the highest value that falls in a bucket
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Sum the stripes into a point-in-time copy
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+            sum += stripe.get(SUM);
+        }
+        return new Snapshot(counts, sum);
+    }
+
+    /**
+     * Summed bucket counts of a histogram at one moment
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long total;
+        private final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long recorded = 0;
+            for (long count : counts) {
+                recorded += count;
+            }
+            this.total = recorded;
+        }
+
+        /**
+         * @return number of values recorded
+         */
+        public long count() {
+            return total;
+        }
+
+        /**
+         * @return sum of the recorded values
+         */
+        public long sum() {
+            return sum;
+        }
+
+        /**
+         * @param quantile Fraction from 0 to 1, e.g. 0.99
+         * @return the value at or below which that fraction of recorded values fall, 0 if none
+         */
+        public long valueAt(double quantile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValueIn(i);
+                }
+            }
+            return highestValueIn(counts.length - 1);
+        }
+
+        /**
+         * @return the largest recorded value, to bucket precision, 0 if none
+         */
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValueIn(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,846 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Ledger class holding every account and every recorded transaction
+ * Demonstrates thread-safe shared state so many sessions can post at once
+ * When a journal is attached every change is logged so it survives a restart;
+ * a posting's frame is written before its balances change, so a failed
+ * write leaves nothing applied and the journal holds each account's
+ * postings in the order they were applied
+ * A read-only ledger is a replication follower: it refuses new accounts and
+ * postings and only changes by applying frames of the leader's journal
+ */
+public class Ledger implements Closeable {
+    private static final String OPENING_DESCRIPTION = "Initial deposit - Account creation";
+    private static final long LIMIT_SCAN_MARGIN_MICROS = 60_000_000; // How far out of order rows may be stamped
+
+    private final AccountDirectory accounts = new AccountDirectory();
+    private final TransactionStore store;
+    private final Journal journal;
+    private final Checkpointer checkpointer;
+    private volatile CountDownLatch historyLoaded = new CountDownLatch(0);
+    private Metrics metrics = Metrics.DISABLED;
+    private final IdempotencyCache idempotency = IdempotencyCache.configured();
+    private final LedgerAggregates aggregates = new LedgerAggregates();
+    private final AccountListing listing = new AccountListing(accounts, aggregates);
+    private volatile TransactionIndex searchIndex; // Built on the first search
+    private volatile boolean readOnly;
+
+    /**
+     * Create a ledger with a temporary transaction store and no journal
+     */
+    public Ledger() {
+        this(TransactionStore.temporary(), null);
+    }
+
+    /**
+     * Create a ledger with a temporary transaction store
+     * @param journal Journal to write to, or null for no journal
+     */
+    public Ledger(Journal journal) {
+        this(TransactionStore.temporary(), journal);
+    }
+
+    /**
+     * Create a ledger that logs every change to the given journal
+     * @param store Store that holds every transaction
+     * @param journal Journal to write to, or null for no journal
+     */
+    public Ledger(TransactionStore store, Journal journal) {
+        this(store, journal, null);
+    }
+
+    /**
+     * Create a ledger that logs every change and recovers from checkpoints
+     * @param store Store that holds every transaction
+     * @param journal Journal to write to, or null for no journal
+     * @param checkpointer Checkpointer for the journal, or null to always replay it all
+     */
+    public Ledger(TransactionStore store, Journal journal, Checkpointer checkpointer) {
+        this.store = store;
+        this.journal = journal;
+        this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Open a durable ledger in a data directory and recover its contents
+     * @param directory Directory for the journal, transaction store and snapshots
+     * @param durability When journal appends are forced to disk
+     * @param flushIntervalMillis Background fsync interval for TIMED durability
+     * @param checkpointSeconds Seconds between checkpoints, 0 for only on close
+     * @return the recovered ledger
+     */
+    public static Ledger open(Path directory, Journal.Durability durability, long flushIntervalMillis,
+                              long checkpointSeconds) throws IOException {
+        TransactionStore store = new TransactionStore(directory.resolve("transactions"));
+        Journal journal = new Journal(directory.resolve("bank.journal"), durability, flushIntervalMillis);
+        Checkpointer checkpointer = new Checkpointer(directory.resolve("snapshots"), journal, store);
+        Ledger ledger = new Ledger(store, journal, checkpointer);
+        ledger.recover();
+        checkpointer.start(checkpointSeconds);
+        return ledger;
+    }
+
+    /**
+     * Open the ledger described by system properties: -Dbank.data for the
+     * directory (empty keeps everything in memory), -Dbank.durability,
+     * -Dbank.flushIntervalMillis, -Dbank.checkpointSeconds and -Dbank.metrics
+     * @return the recovered ledger
+     */
+    public static Ledger openConfigured() throws IOException {
+        return openConfigured(System.getProperty("bank.data", "bank-data"));
+    }
+
+    /**
+     * Open a ledger in the given data directory, otherwise configured as by openConfigured()
+     * @param dataDirectory Data directory, or empty to keep everything in memory
+     */
+    public static Ledger openConfigured(String dataDirectory) throws IOException {
+        Ledger ledger;
+        if (dataDirectory.isEmpty()) {
+            ledger = new Ledger();
+        } else {
+            Journal.Durability durability = Journal.Durability.valueOf(
+                System.getProperty("bank.durability", Journal.Durability.PER_BATCH.name()));
+            ledger = open(Paths.get(dataDirectory), durability,
+                          Long.getLong("bank.flushIntervalMillis", 10),
+                          Long.getLong("bank.checkpointSeconds", 60));
+        }
+        ledger.setMetrics(Metrics.configured());
+        return ledger;
+    }
+
+    /**
+     * Record operation counts and latencies into the given metrics; call
+     * before the ledger is shared between threads
+     * @param metrics Metrics to record into, or Metrics.DISABLED
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Read the bank-wide totals, waiting for background history loading
+     * after a restart, which also counts the postings covered by the checkpoint
+     */
+    public LedgerAggregates.Snapshot aggregates() {
+        awaitHistory();
+        return aggregates.snapshot();
+    }
+
+    LedgerAggregates getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Rebuild accounts and balances from the newest checkpoint plus the
+     * journal written after it. History rows already covered by the
+     * checkpoint are indexed in the background, so startup time depends on
+     * the journal tail only. Rows neither the checkpoint nor the journal
+     * covers, written to the store before a crash cut off their frame, are
+     * discarded first, so history, limits and search see only postings in
+     * the balances. Rolling limit counters are rebuilt from the postings
+     * still inside the longest limit window, and the aggregates' balance
+     * totals from the recovered accounts.
+     */
+    public void recover() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        RecoveryHandler handler = new RecoveryHandler();
+        long position = 0;
+        if (checkpointer != null) {
+            position = checkpointer.restore(handler);
+            handler.checkpointRows = store.size();
+            handler.uncoveredRows = checkpointer.uncoveredRows();
+        }
+        journal.replay(position, handler);
+        handler.discardUncovered();
+        restoreLimitUsage();
+        aggregates.recountBalances(accounts);
+
+        long checkpointRows = handler.checkpointRows;
+        if (checkpointRows == 0) {
+            return;
+        }
+        historyLoaded = new CountDownLatch(1);
+        Thread loader = new Thread(() -> loadHistory(checkpointRows), "history-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Applies recovered accounts and postings to the ledger
+     */
+    private class RecoveryHandler implements Journal.Handler {
+        private long checkpointRows; // Rows below this are indexed by loadHistory
+        private long[] uncoveredRows = new long[0]; // Below checkpointRows, not in the checkpoint, ascending
+        private final BitSet replayedUncovered = new BitSet(); // Indexes into uncoveredRows
+        private final BitSet replayedRows = new BitSet(); // From checkpointRows on
+
+        @Override
+        public void accountOpened(int accountId, String accountHolderName, long openingBalance) {
+            // Kept as directory columns until a posting or a lookup needs the Account object
+            accounts.load(accountId, accountHolderName, openingBalance);
+            Account.advanceCounterTo(accountId);
+        }
+
+        @Override
+        public void posted(long transactionNumber, int accountId, Transaction.TransactionType type,
+                           long amount, long balanceAfter, long epochMicros, String description) {
+            apply(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description, (byte) 0);
+        }
+
+        @Override
+        public void openingPosted(long transactionNumber, int accountId, Transaction.TransactionType type,
+                                  long amount, long balanceAfter, long epochMicros, String description) {
+            apply(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description,
+                  TransactionStore.OPENING);
+        }
+
+        private void apply(long transactionNumber, int accountId, Transaction.TransactionType type,
+                           long amount, long balanceAfter, long epochMicros, String description, byte flags) {
+            Account account = accounts.find(accountId);
+            if (account == null) {
+                throw new IllegalStateException("Journal posting for unknown account ACC" + accountId);
+            }
+            account.applyRecovered(type.balanceEffect(amount));
+            long row = store.put(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description,
+                                 flags);
+            if (row >= checkpointRows) {
+                replayedRows.set(Math.toIntExact(row - checkpointRows));
+                account.getTransactionHistory().add(row);
+                aggregates.replayed(type, amount, epochMicros);
+            } else {
+                int uncovered = Arrays.binarySearch(uncoveredRows, row);
+                if (uncovered >= 0) {
+                    replayedUncovered.set(uncovered);
+                }
+            }
+        }
+
+        /**
+         * Discard the store rows that neither the checkpoint nor the replay
+         * covered, including any left beyond the last row replayed
+         */
+        void discardUncovered() {
+            for (int i = replayedUncovered.nextClearBit(0); i < uncoveredRows.length;
+                 i = replayedUncovered.nextClearBit(i + 1)) {
+                store.discard(uncoveredRows[i]);
+            }
+            for (long row = checkpointRows; row < store.size(); row++) {
+                if (!replayedRows.get(Math.toIntExact(row - checkpointRows))) {
+                    store.discard(row);
+                }
+            }
+            store.truncate();
+        }
+    }
+
+    /**
+     * Charge the rolling limits with every posting inside the longest window,
+     * scanning back from the newest row until postings are older than that
+     * by LIMIT_SCAN_MARGIN_MICROS, as concurrent writers stamp rows only
+     * roughly in row order
+     */
+    private void restoreLimitUsage() {
+        RollingLimits limits = Account.getLimits();
+        long cutoffMicros = (System.currentTimeMillis() - limits.longestWindowMillis()) * 1000;
+        for (long row = store.size() - 1; row >= 0; row--) {
+            if (!store.isComplete(row)) {
+                continue;
+            }
+            long epochMicros = store.epochMicros(row);
+            if (epochMicros < cutoffMicros - LIMIT_SCAN_MARGIN_MICROS) {
+                break;
+            }
+            if (epochMicros < cutoffMicros) {
+                continue;
+            }
+            RollingLimits.Kind kind;
+            switch (store.type(row)) {
+                case DEPOSIT:
+                    kind = RollingLimits.Kind.DEPOSIT;
+                    break;
+                case WITHDRAWAL:
+                    kind = RollingLimits.Kind.WITHDRAWAL;
+                    break;
+                case TRANSFER_OUT:
+                    kind = RollingLimits.Kind.TRANSFER;
+                    break;
+                default:
+                    continue;
+            }
+            if (!limits.limits(kind) || store.isOpening(row)) {
+                continue;
+            }
+            Account account = accounts.find(store.accountId(row));
+            if (account != null) {
+                account.restoreLimitUsage(kind, store.amount(row), epochMicros / 1000);
+            }
+        }
+    }
+
+    /**
+     * Index the rows covered by the checkpoint, and count them in the
+     * aggregates, with one sequential store scan
+     */
+    private void loadHistory(long rows) {
+        try {
+            Map<Integer, TransactionHistory> older = new HashMap<>();
+            for (long row = 0; row < rows; row++) {
+                if (store.isComplete(row)) {
+                    older.computeIfAbsent(store.accountId(row), id -> new TransactionHistory()).add(row);
+                    aggregates.replayed(store.type(row), store.amount(row), store.epochMicros(row));
+                }
+            }
+            for (Map.Entry<Integer, TransactionHistory> entry : older.entrySet()) {
+                Account account = accounts.find(entry.getKey());
+                if (account != null) {
+                    account.getTransactionHistory().prependAll(entry.getValue());
+                }
+            }
+        } finally {
+            historyLoaded.countDown();
+        }
+    }
+
+    private void awaitHistory() {
+        try {
+            historyLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Register an existing account with the ledger
+     * @param account Account to register
+     */
+    public void addAccount(Account account) {
+        checkWritable();
+        long position = write(journal -> journal.writeAccountOpened(account, account.getBalance()));
+        accounts.add(account);
+        listing.added(account);
+        aggregates.added(account);
+        commit(position);
+    }
+
+    /**
+     * Open a new account and record its initial deposit
+     * @param accountHolderName Name of the account holder
+     * @param initialDeposit Opening balance in cents
+     * @return the newly opened account
+     */
+    public Account openAccount(String accountHolderName, long initialDeposit) {
+        return open(new Account(accountHolderName, initialDeposit));
+    }
+
+    /**
+     * Register a newly created account and record its balance as the initial deposit
+     * @return the account
+     */
+    Account open(Account account) {
+        checkWritable();
+        long initialDeposit = account.getBalance();
+        long row = store.append(account.getAccountId(), Transaction.TransactionType.DEPOSIT, initialDeposit,
+                                initialDeposit, OPENING_DESCRIPTION, TransactionStore.OPENING);
+        // Journaled as an empty account plus the deposit, so replay adds the money once
+        long position = write(journal -> journal.writeAccountOpened(account, 0, store.get(row)), row);
+        account.getTransactionHistory().add(row);
+        accounts.add(account);
+        listing.added(account);
+        aggregates.posted(account, Transaction.TransactionType.DEPOSIT, initialDeposit, store.epochMicros(row));
+        commit(position);
+        return account;
+    }
+
+    /**
+     * Look up an account by its account number, ignoring case and surrounding whitespace
+     * @param accountNumber Account number, e.g. ACC1001
+     * @return the account, or null if not found
+     */
+    public Account findAccount(CharSequence accountNumber) {
+        long start = metrics.start();
+        return lookedUp(accounts.find(accountNumber), start);
+    }
+
+    /**
+     * Look up an account by its account id
+     * @param accountId Numeric part of the account number, e.g. 1001
+     * @return the account, or null if not found
+     */
+    public Account findAccount(long accountId) {
+        long start = metrics.start();
+        return lookedUp(accounts.find(accountId), start);
+    }
+
+    private Account lookedUp(Account account, long start) {
+        metrics.record(Metrics.Operation.LOOKUP, account != null ? PostingStatus.SUCCESS
+                                                                 : PostingStatus.ACCOUNT_NOT_FOUND, start);
+        return account;
+    }
+
+    /**
+     * @return every account, in the order they were added; iterating creates
+     *         the Account objects of accounts restored from a snapshot
+     */
+    public Collection<Account> getAccounts() {
+        return accounts.accounts();
+    }
+
+    /**
+     * List one page of accounts in a sort order; each order's index is
+     * built on its first listing and then kept up to date, so any page
+     * costs about the same
+     * @param cursor null for the first page, or the next cursor of the previous page
+     * @throws IllegalArgumentException if the cursor is not one of this order's
+     */
+    public AccountListing.Page listAccounts(AccountListing.Order order, boolean descending, String cursor,
+                                            int pageSize) {
+        return listing.list(order, descending, cursor, pageSize);
+    }
+
+    /**
+     * Take a point-in-time view of every balance for consistent reports;
+     * it never blocks postings. Close it when done.
+     */
+    public BalanceSnapshot snapshot() {
+        return new BalanceSnapshot(accounts);
+    }
+
+    /**
+     * @return number of accounts, the bound for accountAt
+     */
+    int accountCount() {
+        return accounts.size();
+    }
+
+    /**
+     * Get an account by position in the order accounts were added, creating
+     * its Account object if it was restored from a snapshot
+     */
+    Account accountAt(int position) {
+        return accounts.at(position);
+    }
+
+    Journal getJournal() {
+        return journal;
+    }
+
+    public TransactionStore getTransactionStore() {
+        return store;
+    }
+
+    /**
+     * Get an account's full history index, waiting for background history loading
+     */
+    public TransactionHistory historyOf(Account account) {
+        awaitHistory();
+        return account.getTransactionHistory();
+    }
+
+    /**
+     * @return number of transactions recorded for an account
+     */
+    public int transactionCount(Account account) {
+        awaitHistory();
+        return account.getTransactionHistory().size();
+    }
+
+    /**
+     * Get the most recent transactions of an account
+     * @return transactions, newest first
+     */
+    public List<Transaction> latestTransactions(Account account, int count) {
+        long start = metrics.start();
+        awaitHistory();
+        List<Transaction> transactions = account.getTransactionHistory().latest(store, count);
+        metrics.record(Metrics.Operation.HISTORY, PostingStatus.SUCCESS, start);
+        return transactions;
+    }
+
+    /**
+     * Get one page of an account's history, page 0 being the newest
+     * @return transactions on the page, newest first
+     */
+    public List<Transaction> transactionPage(Account account, int pageNumber, int pageSize) {
+        long start = metrics.start();
+        awaitHistory();
+        List<Transaction> transactions = account.getTransactionHistory().page(store, pageNumber, pageSize);
+        metrics.record(Metrics.Operation.HISTORY, PostingStatus.SUCCESS, start);
+        return transactions;
+    }
+
+    /**
+     * Find one page of transactions matching a query, newest first. A query
+     * for one account filters that account's history; any other query uses
+     * the search index, which is built on the first search and then
+     * follows every posting.
+     * @param cursor TransactionIndex.FIRST_PAGE, or the next cursor of the previous page
+     * @return matching transactions and the cursor of the next page
+     */
+    public TransactionIndex.Page search(TransactionQuery query, long cursor, int pageSize) {
+        long start = metrics.start();
+        TransactionHistory history = null;
+        if (query.getAccountId() >= 0) {
+            Account account = accounts.find(query.getAccountId());
+            if (account != null) {
+                history = historyOf(account);
+            }
+        }
+        TransactionIndex.Page page = searchIndex().search(query, history, cursor, pageSize);
+        metrics.record(Metrics.Operation.SEARCH, PostingStatus.SUCCESS, start);
+        return page;
+    }
+
+    /**
+     * @return the search index over the transaction store, built on first use
+     */
+    public TransactionIndex searchIndex() {
+        TransactionIndex index = searchIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = searchIndex;
+                if (index == null) {
+                    index = new TransactionIndex(store);
+                    searchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Deposit money and record the transaction
+     * @return SUCCESS, UNCONFIRMED if the deposit was applied but its journal
+     *         frame could not be confirmed, or the reason it was rejected
+     */
+    public PostingStatus deposit(Account account, long amount, String description) {
+        checkWritable();
+        long start = metrics.start();
+        PostingRecord posting = new PostingRecord(account, null, Transaction.TransactionType.DEPOSIT, amount,
+                                                  description);
+        PostingStatus status = account.deposit(amount, posting);
+        if (status.isSuccess()) {
+            status = posting.commit();
+        }
+        metrics.record(Metrics.Operation.DEPOSIT, status, start);
+        return status;
+    }
+
+    /**
+     * Withdraw money and record the transaction
+     * @return SUCCESS, UNCONFIRMED if the withdrawal was applied but its journal
+     *         frame could not be confirmed, or the reason it was rejected
+     */
+    public PostingStatus withdraw(Account account, long amount, String description) {
+        checkWritable();
+        long start = metrics.start();
+        PostingRecord posting = new PostingRecord(account, null, Transaction.TransactionType.WITHDRAWAL, amount,
+                                                  description);
+        PostingStatus status = account.withdraw(amount, posting);
+        if (status.isSuccess()) {
+            status = posting.commit();
+        }
+        metrics.record(Metrics.Operation.WITHDRAWAL, status, start);
+        return status;
+    }
+
+    /**
+     * Transfer money between two accounts and record both sides
+     * @return SUCCESS, UNCONFIRMED if the transfer was applied but its journal
+     *         frame could not be confirmed, or the reason it was rejected
+     */
+    public PostingStatus transfer(Account source, Account target, long amount) {
+        checkWritable();
+        long start = metrics.start();
+        PostingRecord posting = new PostingRecord(source, target, Transaction.TransactionType.TRANSFER_OUT, amount,
+                                                  null);
+        PostingStatus status = source.transferTo(target, amount, posting);
+        if (status.isSuccess()) {
+            status = posting.commit();
+        }
+        metrics.record(Metrics.Operation.TRANSFER, status, start);
+        return status;
+    }
+
+    /**
+     * Deposit money once per idempotency key; a repeat of the key gets the original outcome
+     * @param idempotencyKey Client-chosen key, or null to post unconditionally
+     * @return SUCCESS, UNCONFIRMED if the deposit was applied but its journal
+     *         frame could not be confirmed, or the reason it was rejected
+     */
+    public PostingStatus deposit(Account account, long amount, String description, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return deposit(account, amount, description);
+        }
+        return idempotency.execute(account.getAccountId(), idempotencyKey, IdempotencyCache.Operation.DEPOSIT,
+                                   amount, 0, () -> deposit(account, amount, description));
+    }
+
+    /**
+     * Withdraw money once per idempotency key; a repeat of the key gets the original outcome
+     * @param idempotencyKey Client-chosen key, or null to post unconditionally
+     * @return SUCCESS, UNCONFIRMED if the withdrawal was applied but its journal
+     *         frame could not be confirmed, or the reason it was rejected
+     */
+    public PostingStatus withdraw(Account account, long amount, String description, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return withdraw(account, amount, description);
+        }
+        return idempotency.execute(account.getAccountId(), idempotencyKey, IdempotencyCache.Operation.WITHDRAWAL,
+                                   amount, 0, () -> withdraw(account, amount, description));
+    }
+
+    /**
+     * Transfer money once per idempotency key, scoped to the source account;
+     * a repeat of the key gets the original outcome
+     * @param idempotencyKey Client-chosen key, or null to post unconditionally
+     * @return SUCCESS, UNCONFIRMED if the transfer was applied but its journal
+     *         frame could not be confirmed, or the reason it was rejected
+     */
+    public PostingStatus transfer(Account source, Account target, long amount, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return transfer(source, target, amount);
+        }
+        int targetId = target != null ? target.getAccountId() : 0;
+        return idempotency.execute(source.getAccountId(), idempotencyKey, IdempotencyCache.Operation.TRANSFER,
+                                   amount, targetId, () -> transfer(source, target, amount));
+    }
+
+    /**
+     * Record a balance inquiry against the account
+     */
+    public void recordBalanceInquiry(Account account) {
+        if (readOnly) {
+            return; // A replica's store and journal hold only the leader's transactions
+        }
+        long row = store.append(account.getAccountId(), Transaction.TransactionType.BALANCE_INQUIRY, 0,
+                                account.getBalance(), "Balance inquiry");
+        long position = write(journal -> journal.writePosted(store.get(row)), row);
+        account.getTransactionHistory().add(row);
+        aggregates.posted(account, Transaction.TransactionType.BALANCE_INQUIRY, 0, store.epochMicros(row));
+        commit(position);
+    }
+
+    /**
+     * Appends the store rows of one posting and writes its journal frame
+     * before its balances change, then commits the frame once they have
+     */
+    private final class PostingRecord implements Account.Recorder {
+        private final Account account;
+        private final Account target; // Null unless a transfer
+        private final Transaction.TransactionType type;
+        private final long amount;
+        private final String description;
+        private long row = -1;
+        private long targetRow = -1;
+        private long position = -1;
+
+        PostingRecord(Account account, Account target, Transaction.TransactionType type, long amount,
+                      String description) {
+            this.account = account;
+            this.target = target;
+            this.type = type;
+            this.amount = amount;
+            this.description = description;
+        }
+
+        @Override
+        public void record(long balanceAfter, long counterpartyBalanceAfter) {
+            if (target == null) {
+                row = store.append(account.getAccountId(), type, amount, balanceAfter, description);
+                position = write(journal -> journal.writePosted(store.get(row)), row);
+                account.getTransactionHistory().add(row);
+                return;
+            }
+            row = store.append(account.getAccountId(), Transaction.TransactionType.TRANSFER_OUT, amount,
+                               balanceAfter, "Transfer to " + target.getAccountHolderName());
+            targetRow = store.append(target.getAccountId(), Transaction.TransactionType.TRANSFER_IN, amount,
+                                     counterpartyBalanceAfter, "Transfer from " + account.getAccountHolderName());
+            position = write(journal -> journal.writePosted(store.get(row), store.get(targetRow)), row, targetRow);
+            account.getTransactionHistory().add(row);
+            target.getTransactionHistory().add(targetRow);
+        }
+
+        /**
+         * Count the applied posting in the aggregates and wait for its frame to commit
+         * @return SUCCESS, or UNCONFIRMED if the frame could not be forced or
+         *         replicated; the posting stands either way, so this is not thrown
+         */
+        PostingStatus commit() {
+            if (target == null) {
+                aggregates.posted(account, type, amount, store.epochMicros(row));
+            } else {
+                aggregates.transferred(account, target, amount, store.epochMicros(row));
+            }
+            try {
+                Ledger.this.commit(position);
+            } catch (UncheckedIOException e) {
+                return PostingStatus.UNCONFIRMED;
+            }
+            return PostingStatus.SUCCESS;
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("Read-only replica; send postings to the leader");
+        }
+    }
+
+    /**
+     * Make this ledger a read-only follower, or a writable leader again
+     * after a promotion; a promoted ledger recharges its rolling limits
+     * with the postings it applied
+     */
+    public void setReadOnly(boolean readOnly) {
+        if (this.readOnly && !readOnly) {
+            restoreLimitUsage();
+        }
+        if (checkpointer != null) {
+            checkpointer.limitTo(readOnly ? journal.size() : Long.MAX_VALUE);
+        }
+        this.readOnly = readOnly;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Apply the complete journal frames between two positions, written by
+     * a ReplicationFollower from its leader, to the accounts, store,
+     * aggregates and listing
+     * @return position after the last frame applied; a partial frame waits for the rest of its bytes
+     */
+    long applyReplicated(long fromPosition, long toPosition) throws IOException {
+        long applied = journal.read(fromPosition, toPosition, new ReplicaHandler());
+        if (checkpointer != null) {
+            checkpointer.limitTo(applied);
+        }
+        return applied;
+    }
+
+    /**
+     * Apply the complete frames after a position and cut off a partial
+     * frame at the end, once replication has stopped
+     * @return journal position after the last frame, where new appends go
+     */
+    long finishReplicated(long fromPosition) throws IOException {
+        long applied = journal.replay(fromPosition, new ReplicaHandler());
+        if (checkpointer != null) {
+            checkpointer.limitTo(applied);
+        }
+        return applied;
+    }
+
+    /**
+     * Applies a leader's accounts and postings as they arrive
+     */
+    private class ReplicaHandler implements Journal.Handler {
+        @Override
+        public void accountOpened(int accountId, String accountHolderName, long openingBalance) {
+            accounts.load(accountId, accountHolderName, openingBalance);
+            Account.advanceCounterTo(accountId);
+            Account account = accounts.find(accountId);
+            listing.added(account);
+            aggregates.added(account);
+        }
+
+        @Override
+        public void posted(long transactionNumber, int accountId, Transaction.TransactionType type,
+                           long amount, long balanceAfter, long epochMicros, String description) {
+            apply(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description, (byte) 0);
+        }
+
+        @Override
+        public void openingPosted(long transactionNumber, int accountId, Transaction.TransactionType type,
+                                  long amount, long balanceAfter, long epochMicros, String description) {
+            apply(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description,
+                  TransactionStore.OPENING);
+        }
+
+        private void apply(long transactionNumber, int accountId, Transaction.TransactionType type,
+                           long amount, long balanceAfter, long epochMicros, String description, byte flags) {
+            Account account = accounts.find(accountId);
+            if (account == null) {
+                throw new IllegalStateException("Replicated posting for unknown account ACC" + accountId);
+            }
+            account.applyRecovered(type.balanceEffect(amount));
+            long row = store.put(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description,
+                                 flags);
+            account.getTransactionHistory().add(row);
+            aggregates.posted(account, type, amount, epochMicros);
+        }
+    }
+
+    /**
+     * Write a frame for rows already in the store; if it cannot be written
+     * the rows are discarded, so the change can be abandoned
+     * @return journal position to commit, or -1 without a journal
+     */
+    private long write(JournalWrite write, long... rows) {
+        if (journal == null) {
+            return -1;
+        }
+        try {
+            return write.writeTo(journal);
+        } catch (IOException e) {
+            for (long row : rows) {
+                store.discard(row);
+            }
+            throw new UncheckedIOException("Could not write to the journal", e);
+        }
+    }
+
+    /**
+     * Wait for a written frame to be forced to disk and replicated as the
+     * journal requires. A failure here leaves the change applied and in the
+     * journal, so it is reported but not undone.
+     */
+    private void commit(long position) {
+        if (position < 0) {
+            return;
+        }
+        try {
+            journal.awaitCommitted(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not commit the journal", e);
+        }
+    }
+
+    private interface JournalWrite {
+        long writeTo(Journal journal) throws IOException;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (searchIndex != null) {
+            searchIndex.close();
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,470 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Bank-wide totals kept up to date by every posting, so reports never scan
+ * accounts or transactions
+ * Demonstrates striped seqlock cells: each thread updates the cell its
+ * thread id picks, writing every total a posting changes between two
+ * increments of the cell's sequence number, and a reader sums the cells,
+ * retrying any cell it saw mid-update
+ *
+ * Kept per transaction type: count and sum of amounts, overall and for each
+ * of the last DAYS days in the system time zone. Kept across accounts: the
+ * sum of balances and a histogram of balances by number of digits in cents.
+ * Each posting, and both legs of a transfer, lands in one cell in one
+ * update, so a snapshot never shows part of one. Concurrent postings are
+ * seen independently; a snapshot is not a single instant across cells.
+ *
+ * An account counts in the balance bucket it was last moved to. After a
+ * posting the account is moved to the bucket of its balance, and moved
+ * again if the balance changed meanwhile, so the histogram settles on the
+ * current balances once postings stop and always adds up to the accounts.
+ */
+public final class LedgerAggregates {
+    public static final int DAYS = 64;
+    public static final int BUCKETS = 20; // 0, then 1 to 19 digits of cents
+    private static final Transaction.TransactionType[] TYPES = Transaction.TransactionType.values();
+    private static final int PADDING = 8; // Longs on each side, so neighbouring cells do not share a cache line
+    private static final int SEQUENCE = PADDING;
+    private static final int TYPE_COUNTS = SEQUENCE + 1;
+    private static final int TYPE_SUMS = TYPE_COUNTS + TYPES.length;
+    private static final int BALANCE_TOTAL = TYPE_SUMS + TYPES.length;
+    private static final int BALANCE_BUCKETS = BALANCE_TOTAL + 1;
+    private static final int DAY_SLOTS = BALANCE_BUCKETS + BUCKETS;
+    private static final int DAY_LENGTH = 1 + 2 * TYPES.length; // [epoch day][counts][sums]
+    private static final int CELL_LENGTH = DAY_SLOTS + DAYS * DAY_LENGTH + PADDING;
+    private static final long[] BUCKET_BOUNDS = new long[BUCKETS];
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static {
+        long bound = 1;
+        for (int bucket = 1; bucket < BUCKETS; bucket++) {
+            BUCKET_BOUNDS[bucket] = bound;
+            bound *= 10;
+        }
+    }
+
+    /**
+     * Start and end of one calendar day in epoch microseconds
+     */
+    private static final class Day {
+        final long epochDay;
+        final long startMicros;
+        final long endMicros;
+
+        Day(LocalDate date, ZoneId zone) {
+            this.epochDay = date.toEpochDay();
+            this.startMicros = date.atStartOfDay(zone).toEpochSecond() * 1_000_000;
+            this.endMicros = date.plusDays(1).atStartOfDay(zone).toEpochSecond() * 1_000_000;
+        }
+    }
+
+    /**
+     * Told about each account whose balance a counted posting changed
+     */
+    interface BalanceListener {
+        void balanceChanged(Account account);
+    }
+
+    private final long[][] cells;
+    private final int mask;
+    private volatile BalanceListener balanceListener;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private volatile Day today = new Day(LocalDate.now(zone), zone);
+
+    public LedgerAggregates() {
+        cells = new long[LatencyHistogram.stripeCount()][];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new long[CELL_LENGTH];
+        }
+        mask = cells.length - 1;
+    }
+
+    /**
+     * @return balance bucket of an amount: 0 for zero or less, otherwise its number of digits in cents
+     */
+    public static int bucketOf(long cents) {
+        int bucket = 0;
+        while (bucket + 1 < BUCKETS && cents >= BUCKET_BOUNDS[bucket + 1]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * @return smallest balance in cents of a bucket, 0 for bucket 0
+     */
+    public static long bucketLowerBound(int bucket) {
+        return BUCKET_BOUNDS[bucket];
+    }
+
+    /**
+     * Count a recorded posting
+     * @param epochMicros Time the posting was recorded with
+     */
+    void posted(Account account, Transaction.TransactionType type, long amount, long epochMicros) {
+        long day = epochDay(epochMicros);
+        long[] cell = lock();
+        try {
+            count(cell, type, amount, day);
+            cell[BALANCE_TOTAL] += type.balanceEffect(amount);
+            moveBucket(cell, account);
+        } finally {
+            unlock(cell);
+        }
+        notifyBalanceChanged(account);
+    }
+
+    /**
+     * Count both legs of a transfer in one update
+     */
+    void transferred(Account source, Account target, long amount, long epochMicros) {
+        long day = epochDay(epochMicros);
+        long[] cell = lock();
+        try {
+            count(cell, Transaction.TransactionType.TRANSFER_OUT, amount, day);
+            count(cell, Transaction.TransactionType.TRANSFER_IN, amount, day);
+            moveBucket(cell, source);
+            moveBucket(cell, target);
+        } finally {
+            unlock(cell);
+        }
+        notifyBalanceChanged(source);
+        notifyBalanceChanged(target);
+    }
+
+    /**
+     * Count an account added with its balance, without a posting
+     */
+    void added(Account account) {
+        long[] cell = lock();
+        try {
+            cell[BALANCE_TOTAL] += account.getBalance();
+            moveBucket(cell, account);
+        } finally {
+            unlock(cell);
+        }
+        notifyBalanceChanged(account);
+    }
+
+    /**
+     * Have a listener told about every balance change counted from now on
+     */
+    void setBalanceListener(BalanceListener listener) {
+        balanceListener = listener;
+    }
+
+    private void notifyBalanceChanged(Account account) {
+        BalanceListener listener = balanceListener;
+        if (listener != null) {
+            listener.balanceChanged(account);
+        }
+    }
+
+    /**
+     * Count a posting's type totals only, for postings read back during
+     * recovery; balances are counted afterwards by recountBalances
+     */
+    void replayed(Transaction.TransactionType type, long amount, long epochMicros) {
+        long day = epochDay(epochMicros);
+        long[] cell = lock();
+        try {
+            count(cell, type, amount, day);
+        } finally {
+            unlock(cell);
+        }
+    }
+
+    /**
+     * Recount the balance total and histogram from every account in a
+     * directory; call after recovery, before the ledger is shared
+     */
+    void recountBalances(AccountDirectory accounts) {
+        for (long[] cell : cells) {
+            lock(cell);
+            cell[BALANCE_TOTAL] = 0;
+            Arrays.fill(cell, BALANCE_BUCKETS, BALANCE_BUCKETS + BUCKETS, 0);
+            unlock(cell);
+        }
+        long[] cell = lock();
+        try {
+            for (int position = 0; position < accounts.size(); position++) {
+                Account account = accounts.materializedAt(position);
+                long balance = account != null ? account.getBalance() : accounts.columnBalance(position);
+                int bucket = bucketOf(balance);
+                if (account != null) {
+                    account.swapBalanceBucket(bucket);
+                }
+                cell[BALANCE_TOTAL] += balance;
+                cell[BALANCE_BUCKETS + bucket]++;
+            }
+        } finally {
+            unlock(cell);
+        }
+    }
+
+    private static void count(long[] cell, Transaction.TransactionType type, long amount, long epochDay) {
+        cell[TYPE_COUNTS + type.ordinal()]++;
+        cell[TYPE_SUMS + type.ordinal()] += amount;
+        int slot = DAY_SLOTS + (int) Math.floorMod(epochDay, (long) DAYS) * DAY_LENGTH;
+        if (cell[slot] != epochDay) {
+            if (cell[slot] > epochDay) {
+                return; // Older than the days kept
+            }
+            Arrays.fill(cell, slot + 1, slot + DAY_LENGTH, 0);
+            cell[slot] = epochDay;
+        }
+        cell[slot + 1 + type.ordinal()]++;
+        cell[slot + 1 + TYPES.length + type.ordinal()] += amount;
+    }
+
+    /**
+     * Move an account to the bucket of its balance, repeating while postings
+     * on other threads change the balance under it
+     */
+    private static void moveBucket(long[] cell, Account account) {
+        while (true) {
+            long balance = account.getBalance();
+            int bucket = bucketOf(balance);
+            int previous = account.swapBalanceBucket(bucket);
+            if (previous != bucket) {
+                if (previous >= 0) {
+                    cell[BALANCE_BUCKETS + previous]--;
+                }
+                cell[BALANCE_BUCKETS + bucket]++;
+            }
+            if (account.getBalance() == balance) {
+                return;
+            }
+        }
+    }
+
+    private long epochDay(long epochMicros) {
+        Day day = today;
+        if (epochMicros >= day.startMicros && epochMicros < day.endMicros) {
+            return day.epochDay;
+        }
+        LocalDate date = LocalDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000)), zone)
+                                      .toLocalDate();
+        if (date.toEpochDay() > day.epochDay) {
+            today = new Day(date, zone);
+        }
+        return date.toEpochDay();
+    }
+
+    /**
+     * Take the cell of the current thread: an odd sequence number marks it as being written
+     */
+    private long[] lock() {
+        return lock(cells[(int) Thread.currentThread().getId() & mask]);
+    }
+
+    private static long[] lock(long[] cell) {
+        while (true) {
+            long sequence = (long) CELLS.getOpaque(cell, SEQUENCE);
+            if ((sequence & 1) == 0 && CELLS.compareAndSet(cell, SEQUENCE, sequence, sequence + 1)) {
+                return cell;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void unlock(long[] cell) {
+        CELLS.setRelease(cell, SEQUENCE, cell[SEQUENCE] + 1);
+    }
+
+    /**
+     * Read every total; the cost depends on the number of cells, not on accounts or postings
+     */
+    public Snapshot snapshot() {
+        long[] totals = new long[CELL_LENGTH];
+        long[] days = new long[DAYS * DAY_LENGTH];
+        long[] copy = new long[CELL_LENGTH];
+        long newestDay = 0;
+        for (long[] cell : cells) {
+            read(cell, copy);
+            for (int i = TYPE_COUNTS; i < DAY_SLOTS; i++) {
+                totals[i] += copy[i];
+            }
+            for (int slot = 0; slot < DAYS; slot++) {
+                newestDay = Math.max(newestDay, copy[DAY_SLOTS + slot * DAY_LENGTH]);
+            }
+            addDays(copy, DAY_SLOTS, days);
+        }
+        return new Snapshot(totals, days, newestDay);
+    }
+
+    /**
+     * Copy a cell as it was between two updates
+     */
+    private static void read(long[] cell, long[] copy) {
+        while (true) {
+            long sequence = (long) CELLS.getAcquire(cell, SEQUENCE);
+            if ((sequence & 1) == 0) {
+                System.arraycopy(cell, 0, copy, 0, CELL_LENGTH);
+                VarHandle.loadLoadFence();
+                if ((long) CELLS.getOpaque(cell, SEQUENCE) == sequence) {
+                    return;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Add day slots starting at an offset to the combined ones, keeping the newer day where they differ
+     */
+    private static void addDays(long[] cell, int offset, long[] days) {
+        for (int slot = 0; slot < DAYS; slot++) {
+            int from = offset + slot * DAY_LENGTH;
+            int to = slot * DAY_LENGTH;
+            if (cell[from] > days[to]) {
+                System.arraycopy(cell, from, days, to, DAY_LENGTH);
+            } else if (cell[from] == days[to]) {
+                for (int i = 1; i < DAY_LENGTH; i++) {
+                    days[to + i] += cell[from + i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Totals as read by one call to snapshot
+     */
+    public static final class Snapshot {
+        private final long[] totals;
+        private final long[] days;
+        private final long newestDay;
+
+        private Snapshot(long[] totals, long[] days, long newestDay) {
+            this.totals = totals;
+            this.days = days;
+            this.newestDay = newestDay;
+        }
+
+        /**
+         * Combine with the totals of another ledger, e.g. another shard
+         */
+        public Snapshot plus(Snapshot other) {
+            long[] combined = totals.clone();
+            for (int i = TYPE_COUNTS; i < DAY_SLOTS; i++) {
+                combined[i] += other.totals[i];
+            }
+            long[] combinedDays = days.clone();
+            addDays(other.days, 0, combinedDays);
+            return new Snapshot(combined, combinedDays, Math.max(newestDay, other.newestDay));
+        }
+
+        /**
+         * @return number of postings of a type
+         */
+        public long count(Transaction.TransactionType type) {
+            return totals[TYPE_COUNTS + type.ordinal()];
+        }
+
+        /**
+         * @return sum in cents of the postings of a type
+         */
+        public long sum(Transaction.TransactionType type) {
+            return totals[TYPE_SUMS + type.ordinal()];
+        }
+
+        /**
+         * @return sum of every account balance in cents, the deposits the bank holds
+         */
+        public long totalBalance() {
+            return totals[BALANCE_TOTAL];
+        }
+
+        /**
+         * @return number of accounts counted in the balance histogram
+         */
+        public long accounts() {
+            long accounts = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                accounts += totals[BALANCE_BUCKETS + bucket];
+            }
+            return accounts;
+        }
+
+        /**
+         * @return number of accounts whose balance is in a bucket, see bucketOf
+         */
+        public long accountsInBucket(int bucket) {
+            return totals[BALANCE_BUCKETS + bucket];
+        }
+
+        /**
+         * @return number of postings of a type on a day, 0 for days older than the last DAYS
+         */
+        public long count(LocalDate date, Transaction.TransactionType type) {
+            int slot = slotOf(date);
+            return slot < 0 ? 0 : days[slot + 1 + type.ordinal()];
+        }
+
+        /**
+         * @return sum in cents of the postings of a type on a day, 0 for days older than the last DAYS
+         */
+        public long sum(LocalDate date, Transaction.TransactionType type) {
+            int slot = slotOf(date);
+            return slot < 0 ? 0 : days[slot + 1 + TYPES.length + type.ordinal()];
+        }
+
+        /**
+         * @return newest day with a posting, or null if there is none
+         */
+        public LocalDate newestDay() {
+            return newestDay == 0 ? null : LocalDate.ofEpochDay(newestDay);
+        }
+
+        /**
+         * Append the totals as Prometheus gauges, amounts in dollars; today is the day in the system time zone
+         * @return the builder, for chaining
+         */
+        public StringBuilder appendPrometheus(StringBuilder out) {
+            LocalDate today = LocalDate.now();
+            out.append("# HELP bank_postings Postings by transaction type, in total and today\n")
+               .append("# TYPE bank_postings gauge\n");
+            for (Transaction.TransactionType type : TYPES) {
+                String name = type.name().toLowerCase();
+                out.append("bank_postings{type=\"").append(name).append("\",day=\"all\"} ")
+                   .append(count(type)).append('\n')
+                   .append("bank_postings{type=\"").append(name).append("\",day=\"today\"} ")
+                   .append(count(today, type)).append('\n');
+            }
+            out.append("# HELP bank_posted_dollars Sum of postings by transaction type, in total and today\n")
+               .append("# TYPE bank_posted_dollars gauge\n");
+            for (Transaction.TransactionType type : TYPES) {
+                String name = type.name().toLowerCase();
+                Money.appendTo(out.append("bank_posted_dollars{type=\"").append(name).append("\",day=\"all\"} "),
+                               sum(type)).append('\n');
+                Money.appendTo(out.append("bank_posted_dollars{type=\"").append(name).append("\",day=\"today\"} "),
+                               sum(today, type)).append('\n');
+            }
+            out.append("# HELP bank_balance_dollars Sum of every account balance\n")
+               .append("# TYPE bank_balance_dollars gauge\n");
+            Money.appendTo(out.append("bank_balance_dollars "), totalBalance()).append('\n');
+            out.append("# HELP bank_accounts Accounts by balance, from the given balance up to ten times it\n")
+               .append("# TYPE bank_accounts gauge\n");
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                if (accountsInBucket(bucket) != 0) {
+                    Money.appendTo(out.append("bank_accounts{from_dollars=\""), bucketLowerBound(bucket))
+                        .append("\"} ").append(accountsInBucket(bucket)).append('\n');
+                }
+            }
+            return out;
+        }
+
+        private int slotOf(LocalDate date) {
+            long epochDay = date.toEpochDay();
+            int slot = (int) Math.floorMod(epochDay, (long) DAYS) * DAY_LENGTH;
+            return days[slot] == epochDay && epochDay > newestDay - DAYS ? slot : -1;
+        }
+    }
+}
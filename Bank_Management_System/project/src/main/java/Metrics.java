@@ -0,0 +1,209 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics class counting banking operations by outcome and timing them
+ * Demonstrates low-overhead instrumentation: outcome counters are striped
+ * by thread, so threads recording at the same time do not contend on one
+ * cache line, and stripes are only summed when a reader asks for a dump
+ *
+ * Every operation is counted. Reading the clock costs more than many
+ * operations do, so only a random sample of operations is timed, one in
+ * -Dbank.metricsSampling (16 by default, 1 times every one). Quantiles
+ * come from the sample; the latency sum is the sample mean scaled up to
+ * the exact count.
+ *
+ * A ledger records into Metrics.DISABLED unless it is given an enabled
+ * instance; the disabled one skips the clock reads as well as the counting.
+ * Dumps use the Prometheus text exposition format, with each latency
+ * distribution written as a summary of quantiles in seconds.
+ */
+public class Metrics {
+    /**
+     * Instrumented operations
+     */
+    public enum Operation {
+        DEPOSIT, WITHDRAWAL, TRANSFER, LOOKUP, HISTORY, SEARCH
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final PostingStatus[] STATUSES = PostingStatus.values();
+    private static final int COUNTERS = OPERATIONS.length * STATUSES.length;
+
+    public static final Metrics DISABLED = new Metrics(false, 1);
+
+    private final boolean enabled;
+    private final int sampleMask;
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+    private final LatencyHistogram[] latencies;
+
+    /**
+     * Create enabled metrics that time one in -Dbank.metricsSampling operations
+     */
+    public Metrics() {
+        this(Integer.getInteger("bank.metricsSampling", 16));
+    }
+
+    /**
+     * Create enabled metrics
+     * @param sampling Time one in this many operations; rounded up to a power of two
+     */
+    public Metrics(int sampling) {
+        this(true, sampling);
+    }
+
+    private Metrics(boolean enabled, int sampling) {
+        if (sampling < 1 || sampling > 1 << 30) {
+            throw new IllegalArgumentException("Sampling must be between 1 and 2^30");
+        }
+        this.enabled = enabled;
+        this.sampleMask = Integer.highestOneBit(sampling * 2 - 1) - 1;
+        this.stripes = new AtomicLongArray[enabled ? LatencyHistogram.stripeCount() : 0];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(COUNTERS + 16); // Padding keeps stripes off shared lines
+        }
+        this.stripeMask = stripes.length - 1;
+        this.latencies = new LatencyHistogram[OPERATIONS.length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = enabled ? new LatencyHistogram() : null;
+        }
+    }
+
+    /**
+     * Metrics as set by -Dbank.metrics (true by default)
+     */
+    public static Metrics configured() {
+        return Boolean.parseBoolean(System.getProperty("bank.metrics", "true")) ? new Metrics() : DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Mark the start of an operation
+     * @return a start time to pass to record, or 0 if this operation is not timed
+     */
+    public long start() {
+        if (!enabled || (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Count an operation's outcome and, if it was sampled, record how long it took
+     * @param operation Operation that finished
+     * @param status Its outcome
+     * @param startNanos Value returned by start
+     */
+    public void record(Operation operation, PostingStatus status, long startNanos) {
+        if (!enabled) {
+            return;
+        }
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        stripes[stripe].getAndIncrement(operation.ordinal() * STATUSES.length + status.ordinal());
+        if (startNanos != 0) {
+            latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * @return how many times an operation ended with a status
+     */
+    public long count(Operation operation, PostingStatus status) {
+        int index = operation.ordinal() * STATUSES.length + status.ordinal();
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            count += stripe.get(index);
+        }
+        return count;
+    }
+
+    /**
+     * @return how many times an operation ran, whatever the outcome
+     */
+    public long count(Operation operation) {
+        long count = 0;
+        for (PostingStatus status : STATUSES) {
+            count += count(operation, status);
+        }
+        return count;
+    }
+
+    /**
+     * @return a point-in-time copy of an operation's sampled latencies, in nanoseconds
+     */
+    public LatencyHistogram.Snapshot latency(Operation operation) {
+        LatencyHistogram histogram = latencies[operation.ordinal()];
+        return histogram != null ? histogram.snapshot() : new LatencyHistogram().snapshot();
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format
+     */
+    public StringBuilder appendPrometheus(StringBuilder out) {
+        out.append("# HELP bank_operations_total Banking operations by outcome\n")
+           .append("# TYPE bank_operations_total counter\n");
+        for (Operation operation : OPERATIONS) {
+            for (PostingStatus status : STATUSES) {
+                long count = count(operation, status);
+                if (count > 0 || status.isSuccess()) {
+                    out.append("bank_operations_total{operation=\"").append(label(operation))
+                       .append("\",status=\"").append(status.name()).append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+
+        out.append("# HELP bank_operation_latency_seconds Time spent in banking operations, sampled\n")
+           .append("# TYPE bank_operation_latency_seconds summary\n");
+        long[] max = new long[OPERATIONS.length];
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram.Snapshot sample = latency(operation);
+            long count = count(operation);
+            long sum = sample.count() == 0 ? 0 : (long) ((double) sample.sum() / sample.count() * count);
+            max[operation.ordinal()] = sample.max();
+            String name = label(operation);
+            for (double quantile : QUANTILES) {
+                out.append("bank_operation_latency_seconds{operation=\"").append(name)
+                   .append("\",quantile=\"").append(quantile).append("\"} ");
+                appendSeconds(out, sample.valueAt(quantile)).append('\n');
+            }
+            out.append("bank_operation_latency_seconds_sum{operation=\"").append(name).append("\"} ");
+            appendSeconds(out, sum).append('\n');
+            out.append("bank_operation_latency_seconds_count{operation=\"").append(name).append("\"} ")
+               .append(count).append('\n');
+        }
+
+        out.append("# HELP bank_operation_latency_max_seconds Slowest sampled banking operation\n")
+           .append("# TYPE bank_operation_latency_max_seconds gauge\n");
+        for (Operation operation : OPERATIONS) {
+            out.append("bank_operation_latency_max_seconds{operation=\"").append(label(operation)).append("\"} ");
+            appendSeconds(out, max[operation.ordinal()]).append('\n');
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return appendPrometheus(new StringBuilder(4096)).toString();
+    }
+
+    private static String label(Operation operation) {
+        return operation.name().toLowerCase();
+    }
+
+    /**
+     * Append nanoseconds as seconds with nine decimals, without going through a double
+     */
+    private static StringBuilder appendSeconds(StringBuilder out, long nanos) {
+        out.append(nanos / 1_000_000_000L).append('.');
+        String fraction = Long.toString(nanos % 1_000_000_000L);
+        for (int i = fraction.length(); i < 9; i++) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Utility class for money amounts held as a long number of cents
+ * Demonstrates fixed-point arithmetic without rounding drift or allocation
+ */
+public final class Money {
+    public static final long CENTS_PER_DOLLAR = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Convert whole dollars to cents
+     * @param dollars Whole dollar amount
+     * @return amount in cents
+     */
+    public static long ofDollars(long dollars) {
+        return Math.multiplyExact(dollars, CENTS_PER_DOLLAR);
+    }
+
+    /**
+     * Add two amounts, failing instead of wrapping around on overflow
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * Subtract two amounts, failing instead of wrapping around on overflow
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Parse a decimal amount such as "1,500.25", "$20" or "-3.5" into cents
+     * Grouping separators must split the dollars into groups of three, so
+     * "1,5" and "1,,500" are rejected rather than read as other amounts.
+     * Works directly on the characters, so no BigDecimal or boxed value is created
+     * @param text Amount text, surrounding whitespace is ignored
+     * @return amount in cents
+     * @throws NumberFormatException if the text is not an amount with at most two decimals
+     *         and well-placed grouping separators
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parse the amount between two positions of a longer text, e.g. one field of a CSV line
+     * @param text Text holding the amount
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return amount in cents
+     * @throws NumberFormatException if the field is not an amount with at most two decimals
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        if (i < end && text.charAt(i) == '$') {
+            i++;
+        }
+
+        long dollars = 0;
+        int digits = 0;
+        int run = 0;              // Digits since the start or the last grouping separator
+        boolean grouped = false;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                dollars = dollars * 10 + (c - '0');
+                if (dollars > Long.MAX_VALUE / CENTS_PER_DOLLAR) {
+                    throw invalid(text, start, end, "amount is too large");
+                }
+                digits++;
+                run++;
+            } else if (c == ',') {
+                // Grouping separator, e.g. 1,500.00: one to three digits before the first, three after each
+                if (run == 0 || run > 3 || (grouped && run != 3)) {
+                    throw invalid(text, start, end, "misplaced grouping separator");
+                }
+                grouped = true;
+                run = 0;
+            } else {
+                break;
+            }
+            i++;
+        }
+        if (grouped && run != 3) {
+            throw invalid(text, start, end, "misplaced grouping separator");
+        }
+
+        long cents = 0;
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            int decimals = 0;
+            while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                if (++decimals > 2) {
+                    throw invalid(text, start, end, "more than two decimal places");
+                }
+                cents = cents * 10 + (text.charAt(i) - '0');
+                digits++;
+                i++;
+            }
+            if (decimals == 1) {
+                cents *= 10;
+            }
+        }
+
+        if (digits == 0 || i != end) {
+            throw invalid(text, start, end, "not a number");
+        }
+        if (dollars * CENTS_PER_DOLLAR > Long.MAX_VALUE - cents) {
+            throw invalid(text, start, end, "amount is too large");
+        }
+        long amount = dollars * CENTS_PER_DOLLAR + cents;
+        return negative ? -amount : amount;
+    }
+
+    /**
+     * Format cents as a plain decimal string, e.g. 150025 becomes "1500.25"
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Append cents as a plain decimal to an existing builder
+     * @return the same builder
+     */
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+        }
+        long dollars = Math.abs(cents / CENTS_PER_DOLLAR);
+        int fraction = (int) Math.abs(cents % CENTS_PER_DOLLAR);
+        sb.append(dollars).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    private static NumberFormatException invalid(CharSequence text, int start, int end, String reason) {
+        return new NumberFormatException("Invalid amount \"" + text.subSequence(start, end) + "\": " + reason);
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer posting pipeline over a pre-allocated ring buffer
+ * Demonstrates the LMAX Disruptor pattern: producers claim and fill mutable
+ * command slots, and three stages each consume them in order on their own
+ * thread, taking every slot that is ready as one batch
+ *
+ *   validate  amount and limit checks that do not need the balance
+ *   apply     balance changes and rolling limits; the only thread that posts to the accounts
+ *   record    store rows, history and one journal append per batch
+ *
+ * Commands are applied in the order they were claimed, and nothing is
+ * allocated per command apart from the transfer description text. Accounts
+ * posted through a pipeline should not also be posted through the Ledger's
+ * locking methods, or the recorded balance-after values can interleave.
+ *
+ * If a journal append fails, the pipeline stops: every command of that
+ * batch, and every later one, completes with JOURNAL_FAILED, later
+ * commands are no longer applied, and publish and awaitCompletion throw.
+ * The commands already applied stay in the balances but may not survive a
+ * restart.
+ */
+public class PostingPipeline implements Closeable {
+    private static final int DEPOSIT = 0;
+    private static final int WITHDRAWAL = 1;
+    private static final int TRANSFER = 2;
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * Receives the outcome of each command, on the record stage's thread
+     */
+    public interface Listener {
+        void completed(long sequence, PostingStatus status);
+    }
+
+    /**
+     * One reusable command slot in the ring; it receives the balances its
+     * command leaves, just before they are installed, for the balance-after
+     * of its rows
+     */
+    private static final class Slot implements Account.Recorder {
+        int kind;
+        Account source;
+        Account target;
+        long amount;
+        String description;
+        PostingStatus status;
+        long sourceBalanceAfter;
+        long targetBalanceAfter;
+
+        @Override
+        public void record(long balanceAfter, long counterpartyBalanceAfter) {
+            sourceBalanceAfter = balanceAfter;
+            targetBalanceAfter = counterpartyBalanceAfter;
+        }
+    }
+
+    /**
+     * Stage progress counter padded onto its own cache line, so stages
+     * publishing progress do not slow each other down through false sharing
+     */
+    private static class LeftPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class SequenceValue extends LeftPadding {
+        volatile long value = -1;
+    }
+
+    private static final class Sequence extends SequenceValue {
+        long p9, p10, p11, p12, p13, p14, p15;
+
+        long get() {
+            return value;
+        }
+
+        void set(long sequence) {
+            value = sequence;
+        }
+    }
+
+    private final TransactionStore store;
+    private final Journal journal;
+    private final Journal.Batch batch = new Journal.Batch();
+    private final LedgerAggregates aggregates;
+    private final Listener listener;
+    private final Slot[] slots;
+    private final int[] published; // Round number of the command in each slot, -1 before the first
+    private final int mask;
+    private final int shift;
+
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final Sequence validated = new Sequence();
+    private final Sequence applied = new Sequence();
+    private final Sequence recorded = new Sequence();
+    private final Thread[] stages;
+    private volatile boolean running = true;
+    private volatile IOException failure; // First journal failure, after which nothing more is applied
+    private long failedSequence;          // First command that failed, written before failure
+
+    /**
+     * Start a pipeline posting to a ledger's accounts, store and journal
+     * @param ledger Ledger to post to
+     * @param bufferSize Number of command slots, a power of two
+     * @param listener Receives every command's outcome, or null
+     */
+    public PostingPipeline(Ledger ledger, int bufferSize, Listener listener) {
+        if (Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("Buffer size must be a power of two");
+        }
+        this.store = ledger.getTransactionStore();
+        this.journal = ledger.getJournal();
+        this.aggregates = ledger.getAggregates();
+        this.listener = listener;
+        this.slots = new Slot[bufferSize];
+        this.published = new int[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            slots[i] = new Slot();
+            published[i] = -1;
+        }
+        this.mask = bufferSize - 1;
+        this.shift = Integer.numberOfTrailingZeros(bufferSize);
+
+        stages = new Thread[] {
+            new Thread(() -> run(null, validated, this::validate), "pipeline-validate"),
+            new Thread(() -> run(validated, applied, this::apply), "pipeline-apply"),
+            new Thread(() -> run(applied, recorded, this::record), "pipeline-record")
+        };
+        for (Thread stage : stages) {
+            stage.setDaemon(true);
+            stage.start();
+        }
+    }
+
+    /**
+     * Queue a deposit
+     * @return sequence of the command, for awaitCompletion
+     */
+    public long deposit(Account account, long amount, String description) {
+        return publish(DEPOSIT, account, null, amount, description);
+    }
+
+    /**
+     * Queue a withdrawal
+     * @return sequence of the command, for awaitCompletion
+     */
+    public long withdraw(Account account, long amount, String description) {
+        return publish(WITHDRAWAL, account, null, amount, description);
+    }
+
+    /**
+     * Queue a transfer
+     * @return sequence of the command, for awaitCompletion
+     */
+    public long transfer(Account source, Account target, long amount) {
+        return publish(TRANSFER, source, target, amount, null);
+    }
+
+    private long publish(int kind, Account source, Account target, long amount, String description) {
+        if (!running) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+        checkFailure();
+        long sequence = claimed.incrementAndGet();
+        // Wait until the slot's previous command has been recorded
+        long wrapPoint = sequence - slots.length;
+        for (int idle = 0; wrapPoint > recorded.get(); idle++) {
+            idle(idle);
+        }
+
+        Slot slot = slots[(int) sequence & mask];
+        slot.kind = kind;
+        slot.source = source;
+        slot.target = target;
+        slot.amount = amount;
+        slot.description = description;
+        slot.status = null;
+        PUBLISHED.setRelease(published, (int) sequence & mask, (int) (sequence >>> shift));
+        return sequence;
+    }
+
+    /**
+     * Wait until a command and every command before it have been recorded
+     * @throws UncheckedIOException if the journal failed at or before the command, so it was not recorded
+     */
+    public void awaitCompletion(long sequence) {
+        for (int idle = 0; recorded.get() < sequence; idle++) {
+            idle(idle);
+        }
+        if (failure != null && sequence >= failedSequence) {
+            checkFailure();
+        }
+    }
+
+    private void checkFailure() {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new UncheckedIOException("Pipeline stopped after a journal failure", cause);
+        }
+    }
+
+    /**
+     * @return sequence of the last recorded command, -1 before the first
+     */
+    public long completedSequence() {
+        return recorded.get();
+    }
+
+    /**
+     * A stage's work on one batch of slots, in sequence order
+     */
+    private interface Stage {
+        void process(long first, long last);
+    }
+
+    private void run(Sequence upstream, Sequence own, Stage stage) {
+        Thread upstreamThread = upstream == validated ? stages[0] : upstream == applied ? stages[1] : null;
+        long next = own.get() + 1;
+        int idle = 0;
+        while (true) {
+            long available = upstream == null ? highestPublished(next) : upstream.get();
+            if (available >= next) {
+                idle = 0;
+                stage.process(next, available);
+                own.set(available);
+                next = available + 1;
+            } else if (!running && drained(upstream, upstreamThread, next)) {
+                return;
+            } else {
+                idle(idle++);
+            }
+        }
+    }
+
+    /**
+     * @return true once nothing more can arrive for a stage after close
+     */
+    private boolean drained(Sequence upstream, Thread upstreamThread, long next) {
+        if (upstream == null) {
+            return claimed.get() < next;
+        }
+        // A finished thread's last progress is visible once isAlive returns false
+        return !upstreamThread.isAlive() && upstream.get() < next;
+    }
+
+    /**
+     * @return highest sequence from next onwards with every slot up to it published
+     */
+    private long highestPublished(long next) {
+        long limit = claimed.get();
+        long sequence = next;
+        while (sequence <= limit
+               && (int) PUBLISHED.getAcquire(published, (int) sequence & mask) == (int) (sequence >>> shift)) {
+            sequence++;
+        }
+        return sequence - 1;
+    }
+
+    private void validate(long first, long last) {
+        for (long sequence = first; sequence <= last; sequence++) {
+            Slot slot = slots[(int) sequence & mask];
+            switch (slot.kind) {
+                case DEPOSIT:
+                    slot.status = Account.validateDeposit(slot.amount);
+                    break;
+                case WITHDRAWAL:
+                    slot.status = Account.validateWithdrawal(slot.amount);
+                    break;
+                default:
+                    slot.status = Account.validateTransfer(slot.source, slot.target, slot.amount);
+            }
+        }
+    }
+
+    private void apply(long first, long last) {
+        for (long sequence = first; sequence <= last; sequence++) {
+            Slot slot = slots[(int) sequence & mask];
+            if (!slot.status.isSuccess()) {
+                continue;
+            }
+            if (failure != null) {
+                slot.status = PostingStatus.JOURNAL_FAILED;
+                continue;
+            }
+            if (slot.kind == DEPOSIT) {
+                slot.status = slot.source.creditWithinLimits(slot.amount, slot);
+            } else {
+                RollingLimits.Kind kind = slot.kind == WITHDRAWAL ? RollingLimits.Kind.WITHDRAWAL
+                                                                  : RollingLimits.Kind.TRANSFER;
+                slot.status = slot.source.debitWithinLimits(kind, slot.amount,
+                                                            slot.kind == TRANSFER ? slot.target : null,
+                                                            slot.kind == TRANSFER, slot);
+            }
+        }
+    }
+
+    /**
+     * Record a batch and report its outcomes. A journal failure is kept
+     * rather than thrown, so the stage goes on reporting and close and
+     * awaitCompletion still return.
+     */
+    private void record(long first, long last) {
+        if (failure == null) {
+            try {
+                for (long sequence = first; sequence <= last; sequence++) {
+                    Slot slot = slots[(int) sequence & mask];
+                    if (slot.status.isSuccess()) {
+                        recordSlot(slot);
+                    }
+                }
+                if (journal != null && !batch.isEmpty()) {
+                    journal.append(batch);
+                }
+            } catch (IOException e) {
+                failedSequence = first;
+                failure = e;
+            } finally {
+                batch.clear();
+            }
+        }
+
+        for (long sequence = first; sequence <= last; sequence++) {
+            Slot slot = slots[(int) sequence & mask];
+            if (failure != null && slot.status.isSuccess()) {
+                slot.status = PostingStatus.JOURNAL_FAILED;
+            }
+            if (listener != null) {
+                listener.completed(sequence, slot.status);
+            }
+            slot.source = null; // Let closed accounts and descriptions be collected
+            slot.target = null;
+            slot.description = null;
+        }
+    }
+
+    private void recordSlot(Slot slot) throws IOException {
+        if (journal != null) {
+            batch.beginFrame();
+        }
+        if (slot.kind == TRANSFER) {
+            long row = recordRow(slot.source, Transaction.TransactionType.TRANSFER_OUT, slot.amount,
+                                 slot.sourceBalanceAfter, "Transfer to " + slot.target.getAccountHolderName());
+            recordRow(slot.target, Transaction.TransactionType.TRANSFER_IN, slot.amount, slot.targetBalanceAfter,
+                      "Transfer from " + slot.source.getAccountHolderName());
+            aggregates.transferred(slot.source, slot.target, slot.amount, store.epochMicros(row));
+        } else {
+            Transaction.TransactionType type = slot.kind == DEPOSIT ? Transaction.TransactionType.DEPOSIT
+                                                                    : Transaction.TransactionType.WITHDRAWAL;
+            long row = recordRow(slot.source, type, slot.amount, slot.sourceBalanceAfter, slot.description);
+            aggregates.posted(slot.source, type, slot.amount, store.epochMicros(row));
+        }
+        if (journal != null) {
+            batch.endFrame();
+        }
+    }
+
+    private long recordRow(Account account, Transaction.TransactionType type, long amount, long balanceAfter,
+                           String description) throws IOException {
+        long row = store.append(account.getAccountId(), type, amount, balanceAfter, description);
+        account.getTransactionHistory().add(row);
+        if (journal != null) {
+            batch.posting(store, row);
+        }
+        return row;
+    }
+
+    /**
+     * Back off while waiting: spin briefly, then yield, then sleep, so an
+     * idle pipeline does not hold a core
+     */
+    private static void idle(int iteration) {
+        if (iteration < 100) {
+            Thread.onSpinWait();
+        } else if (iteration < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    /**
+     * Finish every command already queued, then stop the stage threads.
+     * Call it once producers have stopped publishing; the ledger stays open.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread stage : stages) {
+            try {
+                stage.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
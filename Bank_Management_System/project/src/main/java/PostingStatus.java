@@ -0,0 +1,22 @@
+/**
+ * Outcome of a deposit, withdrawal or transfer
+ * Demonstrates reporting results as values instead of console output
+ */
+public enum PostingStatus {
+    SUCCESS,
+    INVALID_AMOUNT,
+    INSUFFICIENT_FUNDS,
+    DEPOSIT_LIMIT_EXCEEDED,
+    WITHDRAWAL_LIMIT_EXCEEDED,
+    TRANSFER_LIMIT_EXCEEDED,
+    ACCOUNT_NOT_FOUND,
+    SAME_ACCOUNT,
+    IDEMPOTENCY_KEY_REUSED,
+    HELD_FOR_REVIEW,
+    JOURNAL_FAILED, // Not made durable: the journal could not be written, so a restart may not keep it
+    UNCONFIRMED;    // Applied and journaled, but not confirmed on disk or replicated; it stands, so do not repost
+
+    public boolean isSuccess() {
+        return this == SUCCESS;
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReplicaNode class running one process of a replicated bank
+ * Demonstrates leader/follower replication of the journal with failover:
+ * the leader takes every posting and serves it over HTTP like
+ * BankingServer, followers serve balances, history and search from their
+ * copy, and a follower can be promoted to lead when the leader is lost
+ *
+ * A posting succeeds once the required number of followers have it on
+ * disk, so promoting the follower with the highest acknowledged position
+ * (see GET /replication) loses no posting that succeeded. With --acks equal
+ * to the number of followers, any follower can be promoted. The other
+ * followers list the promoted one among their leaders and move to it.
+ *
+ * Promote with POST /replication/promote, accepted from this machine only.
+ * Replication listens on the loopback address unless -Dbank.replicationHost
+ * is set, and an append waits -Dbank.replicaTimeoutMillis for its
+ * acknowledgements. Ledger options are as for BankingApp.
+ *
+ * Usage: java ReplicaNode leader --data DIR --replication-port PORT [--http-port PORT] [--acks N]
+ *        java ReplicaNode follower --data DIR --replication-port PORT --leader HOST:PORT[,HOST:PORT...]
+ *                                  [--http-port PORT] [--acks N]
+ */
+public class ReplicaNode implements Closeable {
+    private final Ledger ledger;
+    private final InetSocketAddress replicationAddress;
+    private final int requiredAcks;
+    private final long timeoutMillis;
+    private ReplicationLeader leader;     // Guarded by this; null while following
+    private ReplicationFollower follower; // Guarded by this; null while leading
+
+    private ReplicaNode(Ledger ledger, InetSocketAddress replicationAddress, int requiredAcks, long timeoutMillis) {
+        this.ledger = ledger;
+        this.replicationAddress = replicationAddress;
+        this.requiredAcks = requiredAcks;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Lead replication of a recovered, journaled ledger
+     * @param requiredAcks Followers that must acknowledge a posting before it succeeds
+     */
+    public static ReplicaNode leader(Ledger ledger, InetSocketAddress replicationAddress, int requiredAcks,
+                                     long timeoutMillis) throws IOException {
+        ReplicaNode node = new ReplicaNode(ledger, replicationAddress, requiredAcks, timeoutMillis);
+        synchronized (node) {
+            node.leader = new ReplicationLeader(journalOf(ledger), replicationAddress, requiredAcks, timeoutMillis);
+        }
+        return node;
+    }
+
+    /**
+     * Follow a leader with a recovered, journaled ledger, which becomes read-only
+     * @param leaders Replication addresses of the leader and of peers that may be promoted
+     * @param requiredAcks Acknowledgements to require once promoted
+     */
+    public static ReplicaNode follower(Ledger ledger, InetSocketAddress replicationAddress,
+                                       List<InetSocketAddress> leaders, int requiredAcks, long timeoutMillis) {
+        ReplicaNode node = new ReplicaNode(ledger, replicationAddress, requiredAcks, timeoutMillis);
+        synchronized (node) {
+            node.follower = new ReplicationFollower(ledger, journalOf(ledger), leaders);
+        }
+        return node;
+    }
+
+    private static Journal journalOf(Ledger ledger) {
+        if (ledger.getJournal() == null) {
+            throw new IllegalArgumentException("Replication needs a ledger with a journal");
+        }
+        return ledger.getJournal();
+    }
+
+    public Ledger getLedger() {
+        return ledger;
+    }
+
+    public synchronized boolean isLeader() {
+        return leader != null;
+    }
+
+    /**
+     * Stop following, apply everything received and start leading; does
+     * nothing on a leader
+     */
+    public synchronized void promote() throws IOException {
+        if (leader != null) {
+            return;
+        }
+        follower.close();
+        follower = null;
+        ledger.setReadOnly(false);
+        leader = new ReplicationLeader(ledger.getJournal(), replicationAddress, requiredAcks, timeoutMillis);
+        System.out.printf("Promoted to leader at journal position %d%n", ledger.getJournal().size());
+    }
+
+    /**
+     * Append this node's replication state as a JSON object
+     */
+    public synchronized StringBuilder appendStatus(StringBuilder json) {
+        json.append("{\"role\":\"").append(leader != null ? "leader" : "follower")
+            .append("\",\"journal\":").append(ledger.getJournal().size());
+        if (leader != null) {
+            json.append(",\"requiredAcks\":").append(leader.getRequiredAcks()).append(",\"followers\":[");
+            List<ReplicationLeader.Follower> followers = leader.getFollowers();
+            for (int i = 0; i < followers.size(); i++) {
+                ReplicationLeader.Follower peer = followers.get(i);
+                json.append(i == 0 ? "" : ",").append("{\"address\":");
+                Json.appendString(json, peer.getAddress()).append(",\"sent\":").append(peer.getSentPosition())
+                    .append(",\"acknowledged\":").append(peer.getAcknowledgedPosition()).append('}');
+            }
+            json.append(']');
+        } else {
+            InetSocketAddress following = follower.getLeader();
+            json.append(",\"acknowledged\":").append(follower.getAcknowledgedPosition())
+                .append(",\"applied\":").append(follower.getAppliedPosition()).append(",\"leader\":");
+            if (following == null) {
+                json.append("null");
+            } else {
+                Json.appendString(json, following.getHostString() + ":" + following.getPort());
+            }
+            json.append(",\"diverged\":").append(follower.hasDiverged());
+        }
+        return json.append('}');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (leader != null) {
+            leader.close();
+        }
+        if (follower != null) {
+            follower.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || !(args[0].equals("leader") || args[0].equals("follower"))) {
+            throw new IllegalArgumentException("Usage: ReplicaNode leader|follower --data DIR --replication-port PORT "
+                                               + "[--leader HOST:PORT,...] [--http-port PORT] [--acks N]");
+        }
+        String data = null;
+        int replicationPort = -1;
+        int httpPort = Integer.getInteger("bank.port", 8080);
+        int acks = Integer.getInteger("bank.replicaAcks", 1);
+        List<InetSocketAddress> leaders = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            if (option.equals("--data")) {
+                data = value;
+            } else if (option.equals("--replication-port")) {
+                replicationPort = Integer.parseInt(value);
+            } else if (option.equals("--http-port")) {
+                httpPort = Integer.parseInt(value);
+            } else if (option.equals("--acks")) {
+                acks = Integer.parseInt(value);
+            } else if (option.equals("--leader")) {
+                for (String address : value.split(",")) {
+                    int colon = address.lastIndexOf(':');
+                    leaders.add(new InetSocketAddress(address.substring(0, colon),
+                                                      Integer.parseInt(address.substring(colon + 1))));
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        if (data == null || data.isEmpty() || replicationPort < 0) {
+            throw new IllegalArgumentException("--data and --replication-port are required");
+        }
+
+        String host = System.getProperty("bank.replicationHost");
+        InetSocketAddress replicationAddress = host == null
+            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), replicationPort)
+            : new InetSocketAddress(host, replicationPort);
+        long timeoutMillis = Long.getLong("bank.replicaTimeoutMillis", 5000);
+        Ledger ledger = Ledger.openConfigured(data);
+        ReplicaNode node = args[0].equals("leader")
+            ? leader(ledger, replicationAddress, acks, timeoutMillis)
+            : follower(ledger, replicationAddress, leaders, acks, timeoutMillis);
+        BankingServer bankingServer = new BankingServer(ledger, httpPort,
+                                                        Long.getLong("bank.sessionTimeoutSeconds", 1800));
+        bankingServer.addReplicationEndpoints(node);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            bankingServer.stop();
+            try {
+                node.close();
+                ledger.close();
+            } catch (IOException e) {
+                System.err.println("Error closing ledger: " + e.getMessage());
+            }
+        }, "shutdown"));
+
+        bankingServer.start();
+        System.out.printf("SecureBank %s listening on port %d, replication on %s (%d accounts)%n", args[0],
+                          bankingServer.getPort(), replicationAddress, ledger.getAccounts().size());
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Follower side of journal replication: copies a leader's journal and
+ * applies it to a read-only ledger
+ * Demonstrates batched acknowledgement: everything that arrived together
+ * is written, forced to disk with one fsync and acknowledged with one
+ * message, then applied while the leader goes on sending
+ *
+ * The follower's journal holds exactly the leader's bytes, so it resumes
+ * from its own journal size after a restart and can itself lead after a
+ * promotion. When the connection drops it tries each leader address in
+ * turn, so followers find a promoted peer on their own. A follower whose
+ * journal no longer matches the leader's, because it received postings a
+ * promoted peer never had, stops; clear its data directory to resync it.
+ */
+public class ReplicationFollower implements Closeable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long RETRY_MILLIS = 200;
+    private static final int ACK_BYTES = 4 << 20; // Acknowledge at least this often while a backlog streams in
+
+    private final Ledger ledger;
+    private final Journal journal;
+    private final List<InetSocketAddress> leaders;
+    private final Thread thread;
+    private volatile Socket socket;
+    private volatile InetSocketAddress leader;
+    private volatile long appliedPosition;
+    private volatile long acknowledgedPosition;
+    private volatile boolean diverged;
+    private volatile boolean closed;
+
+    /**
+     * Start following the first reachable leader
+     * @param ledger Recovered ledger to apply to; it is made read-only
+     * @param journal The ledger's journal
+     * @param leaders Replication addresses of the leader and of any peer that may be promoted
+     */
+    public ReplicationFollower(Ledger ledger, Journal journal, List<InetSocketAddress> leaders) {
+        if (leaders.isEmpty()) {
+            throw new IllegalArgumentException("No leader address to follow");
+        }
+        this.ledger = ledger;
+        this.journal = journal;
+        this.leaders = List.copyOf(leaders);
+        this.appliedPosition = journal.size();
+        this.acknowledgedPosition = journal.size();
+        ledger.setReadOnly(true);
+        thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return address of the leader being followed, or null while disconnected
+     */
+    public InetSocketAddress getLeader() {
+        return leader;
+    }
+
+    /**
+     * @return journal position of the last frame applied to the ledger
+     */
+    public long getAppliedPosition() {
+        return appliedPosition;
+    }
+
+    /**
+     * @return journal position on disk and acknowledged to the leader
+     */
+    public long getAcknowledgedPosition() {
+        return acknowledgedPosition;
+    }
+
+    /**
+     * @return true if this follower stopped because its journal does not match the leader's
+     */
+    public boolean hasDiverged() {
+        return diverged;
+    }
+
+    private void run() {
+        int next = 0;
+        while (!closed && !diverged) {
+            InetSocketAddress address = leaders.get(next++ % leaders.size());
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(address, CONNECT_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                // Several missed heartbeats mean the leader is gone
+                connection.setSoTimeout((int) (ReplicationLeader.HEARTBEAT_MILLIS * 20));
+                follow(connection, address);
+            } catch (IOException e) {
+                if (leader != null && !closed) {
+                    System.err.printf("Replication: lost leader %s: %s%n", leader, ReplicationLeader.describe(e));
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Replication: could not apply the leader's journal: " + e);
+                diverged = true;
+            } finally {
+                leader = null;
+            }
+            if (!closed && !diverged && next % leaders.size() == 0) {
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void follow(Socket connection, InetSocketAddress address) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        long position = journal.size();
+        out.writeInt(ReplicationLeader.MAGIC);
+        out.writeLong(position);
+        out.writeInt(ReplicationLeader.checksum(journal, position));
+        out.flush();
+        if (in.readInt() != ReplicationLeader.ACCEPTED) {
+            System.err.printf("Replication: journal diverged from leader %s at or before %d; "
+                              + "clear the data directory to resync%n", address, position);
+            diverged = true;
+            return;
+        }
+        leader = address;
+        byte[] chunk = new byte[0];
+        while (!closed) {
+            long chunkPosition = in.readLong();
+            int length = in.readInt();
+            if (length > 0) {
+                if (chunk.length < length) {
+                    chunk = new byte[length];
+                }
+                in.readFully(chunk, 0, length);
+                journal.appendReplicated(chunkPosition, ByteBuffer.wrap(chunk, 0, length));
+            }
+            long received = journal.size();
+            if (received > acknowledgedPosition
+                && (in.available() == 0 || received - acknowledgedPosition >= ACK_BYTES)) {
+                journal.flush();
+                out.writeLong(received);
+                out.flush();
+                acknowledgedPosition = received;
+                appliedPosition = ledger.applyReplicated(appliedPosition, received);
+            }
+        }
+    }
+
+    /**
+     * Stop following, apply every complete frame received and cut off a
+     * partial one, so the journal can take appends of its own
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appliedPosition = ledger.finishReplicated(appliedPosition);
+    }
+}
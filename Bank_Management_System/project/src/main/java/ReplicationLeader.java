@@ -0,0 +1,318 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Leader side of journal replication to follower processes over TCP
+ * Demonstrates log shipping with pipelined sends and batched acknowledgement
+ *
+ * The journal is the replication log. Each follower gets a sender thread
+ * that streams the journal's bytes from the follower's position as soon as
+ * they are written, without waiting for acknowledgements, and a reader
+ * thread for the positions the follower has forced to disk. An append
+ * returns once requiredAcks followers have acknowledged its frames, so a
+ * posting that succeeded survives the loss of the leader; one
+ * acknowledgement releases every append it covers, like a group commit.
+ *
+ * Protocol, all big-endian:
+ *   follower: int MAGIC, long journal position, int CRC-32 of the CHECK_BYTES before it
+ *   leader:   int ACCEPTED, or DIVERGED if the follower's journal is not a prefix of the leader's
+ *   leader:   repeated long position, int length, length journal bytes; length 0 is a heartbeat
+ *   follower: repeated long position acknowledged as durable
+ */
+public class ReplicationLeader implements Journal.Replicator, Closeable {
+    static final int MAGIC = 0x424B5250; // "BKRP"
+    static final int ACCEPTED = 1;
+    static final int DIVERGED = 2;
+    static final int CHECK_BYTES = 4096;
+    static final long HEARTBEAT_MILLIS = 100;
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final Journal journal;
+    private final int requiredAcks;
+    private final long timeoutNanos;
+    private final ServerSocket server;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private final Object shipping = new Object();         // Senders wait here for new frames
+    private final Object acknowledgements = new Object(); // Appends wait here for followers
+    private volatile boolean closed;
+
+    /**
+     * State of one connected follower
+     */
+    public static final class Follower {
+        private final Socket socket;
+        private volatile long sentPosition;
+        private volatile long acknowledgedPosition;
+
+        Follower(Socket socket, long position) {
+            this.socket = socket;
+            this.sentPosition = position;
+            this.acknowledgedPosition = position;
+        }
+
+        public String getAddress() {
+            return socket.getRemoteSocketAddress().toString();
+        }
+
+        /**
+         * @return journal position shipped to the follower so far
+         */
+        public long getSentPosition() {
+            return sentPosition;
+        }
+
+        /**
+         * @return journal position the follower has on disk
+         */
+        public long getAcknowledgedPosition() {
+            return acknowledgedPosition;
+        }
+    }
+
+    /**
+     * Listen for followers and hold every later append of the journal until
+     * it is replicated
+     * @param address Address to listen on, port 0 for any free port
+     * @param requiredAcks Followers that must acknowledge an append before it returns, 0 to not wait
+     * @param timeoutMillis Longest an append waits for them before it fails
+     */
+    public ReplicationLeader(Journal journal, InetSocketAddress address, int requiredAcks,
+                             long timeoutMillis) throws IOException {
+        if (requiredAcks < 0) {
+            throw new IllegalArgumentException("Required acknowledgements cannot be negative");
+        }
+        this.journal = journal;
+        this.requiredAcks = requiredAcks;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(address);
+        Thread acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        journal.setReplicator(this);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getRequiredAcks() {
+        return requiredAcks;
+    }
+
+    /**
+     * @return the connected followers
+     */
+    public List<Follower> getFollowers() {
+        return new ArrayList<>(followers);
+    }
+
+    @Override
+    public void appended(long position) {
+        synchronized (shipping) {
+            shipping.notifyAll();
+        }
+    }
+
+    @Override
+    public void awaitReplicated(long position) throws IOException {
+        if (requiredAcks == 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (acknowledgements) {
+            while (acknowledged(position) < requiredAcks) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) {
+                    throw new IOException(String.format("Journal position %d acknowledged by %d of %d followers",
+                                                        position, acknowledged(position), requiredAcks));
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(acknowledgements, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for replication", e);
+                }
+            }
+        }
+    }
+
+    private int acknowledged(long position) {
+        int count = 0;
+        for (Follower follower : followers) {
+            if (follower.acknowledgedPosition >= position) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread sender = new Thread(() -> serve(socket), "replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Replication: accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Check a new follower's journal, then ship it every byte after its position
+     */
+    private void serve(Socket socket) {
+        Follower follower = null;
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                                                                                  CHUNK_SIZE + 16));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            long position = in.readLong();
+            int checksum = in.readInt();
+            if (position > journal.size() || checksum(journal, position) != checksum) {
+                out.writeInt(DIVERGED);
+                out.flush();
+                System.err.printf("Replication: %s diverged from this journal at or before %d%n",
+                                  socket.getRemoteSocketAddress(), position);
+                return;
+            }
+            out.writeInt(ACCEPTED);
+            out.flush();
+            follower = new Follower(socket, position);
+            followers.add(follower);
+            Follower acknowledging = follower;
+            Thread reader = new Thread(() -> readAcknowledgements(acknowledging, in), "replication-acks");
+            reader.setDaemon(true);
+            reader.start();
+            ship(follower, out);
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.printf("Replication: lost %s: %s%n", socket.getRemoteSocketAddress(), describe(e));
+            }
+        } finally {
+            if (follower != null) {
+                followers.remove(follower);
+            }
+        }
+    }
+
+    private void ship(Follower follower, DataOutputStream out) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long position = follower.sentPosition;
+        while (!closed && !follower.socket.isClosed()) {
+            if (journal.size() > position) {
+                buffer.clear();
+                int length = journal.readBytes(position, buffer);
+                out.writeLong(position);
+                out.writeInt(length);
+                out.write(chunk, 0, length);
+                position += length;
+                if (journal.size() == position) {
+                    out.flush();
+                }
+                follower.sentPosition = position;
+                continue;
+            }
+            synchronized (shipping) {
+                if (journal.size() == position) {
+                    try {
+                        shipping.wait(HEARTBEAT_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            if (journal.size() == position) {
+                out.writeLong(position);
+                out.writeInt(0);
+                out.flush();
+            }
+        }
+    }
+
+    private void readAcknowledgements(Follower follower, DataInputStream in) {
+        try {
+            while (true) {
+                long position = in.readLong();
+                if (position > follower.acknowledgedPosition) {
+                    follower.acknowledgedPosition = position;
+                    synchronized (acknowledgements) {
+                        acknowledgements.notifyAll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The sender sees the broken connection too and drops the follower
+            closeQuietly(follower.socket);
+        }
+    }
+
+    /**
+     * @return CRC-32 of the CHECK_BYTES of a journal before a position, or
+     *         fewer at its start; equal checksums mean the journals agree there
+     */
+    static int checksum(Journal journal, long position) throws IOException {
+        long start = Math.max(0, position - CHECK_BYTES);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (position - start));
+        journal.readBytes(start, bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array(), 0, bytes.position());
+        return (int) crc.getValue();
+    }
+
+    static String describe(IOException e) {
+        return e instanceof EOFException ? "connection closed" : e.getMessage();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already broken
+        }
+    }
+
+    /**
+     * Stop accepting and shipping; appends no longer wait for followers
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        journal.setReplicator(null);
+        server.close();
+        for (Follower follower : followers) {
+            closeQuietly(follower.socket);
+        }
+        synchronized (acknowledgements) {
+            acknowledgements.notifyAll();
+        }
+        synchronized (shipping) {
+            shipping.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Inline risk scoring of deposits, withdrawals and transfers
+ * Demonstrates streaming features: every account keeps a fixed-size
+ * Profile that each posting updates in O(1), so screening a posting never
+ * reads the transaction history
+ *
+ * The features, guarded by the account like its rolling limit counters:
+ *   - velocity: postings in the last ten minutes, in a ring of one-minute slots
+ *   - amount: z-score against an exponentially weighted mean and variance
+ *     of the account's amounts of the same kind
+ *   - counterparty: a transfer to an account outside the last 16 payees,
+ *     and how many such transfers the last ten minutes hold
+ * Every feature over its threshold adds the points of its Reason. A posting
+ * scoring at least the flag score is counted, and one scoring at least the
+ * hold score is refused with HELD_FOR_REVIEW; either way the first such
+ * posting of an account in each minute is kept among the recent alerts.
+ * The amount and counterparty features wait for a few postings, so a new
+ * account, or any account after a restart, is not flagged for having no
+ * history yet.
+ *
+ * -Dbank.risk=false turns screening off. -Dbank.riskFlagScore (50) and
+ * -Dbank.riskHoldScore (0, never hold) set the scores, and
+ * -Dbank.riskVelocity (20) the postings allowed in ten minutes.
+ */
+public final class RiskScorer {
+    /**
+     * Features that add to a score, with their points
+     */
+    public enum Reason {
+        VELOCITY(50), UNUSUAL_AMOUNT(30), VERY_UNUSUAL_AMOUNT(60), NEW_COUNTERPARTY(20), NEW_COUNTERPARTY_BURST(40);
+
+        private final int points;
+
+        Reason(int points) {
+            this.points = points;
+        }
+
+        public int getPoints() {
+            return points;
+        }
+
+        int bit() {
+            return 1 << ordinal();
+        }
+    }
+
+    private static final Reason[] REASONS = Reason.values();
+    private static final int KINDS = RollingLimits.Kind.values().length;
+    private static final long SLOT_MILLIS = 60_000;
+    private static final int SLOTS = 10;
+    private static final int PAYEES = 16;
+    private static final int PAYEE_BURST = 3;       // New payees in the window that make a burst
+    private static final int MIN_SAMPLES = 8;       // Postings of a kind before its amounts are scored
+    private static final double WEIGHT = 1.0 / 16;  // Weight of the newest amount in the mean and variance
+    private static final double MIN_SPREAD = 0.25;  // Standard deviation floor, as a fraction of the mean
+    private static final int ALERTS = 1024;
+
+    private final boolean enabled;
+    private final int flagScore;
+    private final int holdScore;
+    private final int velocityLimit;
+    private final LongAdder flagged = new LongAdder();
+    private final LongAdder held = new LongAdder();
+    private final LongAdder[] byReason = new LongAdder[REASONS.length];
+    private final Alert[] alerts = new Alert[ALERTS]; // Ring of the newest alerts, guarded by itself
+    private long alertCount;
+
+    /**
+     * @param enabled False to admit every posting without looking at it
+     * @param flagScore Score from which a posting is flagged
+     * @param holdScore Score from which a posting is held, or 0 to never hold
+     * @param velocityLimit Postings allowed in ten minutes before velocity counts
+     */
+    public RiskScorer(boolean enabled, int flagScore, int holdScore, int velocityLimit) {
+        if (flagScore <= 0 || holdScore < 0 || velocityLimit <= 0) {
+            throw new IllegalArgumentException("Risk scores and velocity limit must be positive");
+        }
+        this.enabled = enabled;
+        this.flagScore = flagScore;
+        this.holdScore = holdScore;
+        this.velocityLimit = velocityLimit;
+        for (int i = 0; i < byReason.length; i++) {
+            byReason[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Scorer set up by -Dbank.risk, -Dbank.riskFlagScore, -Dbank.riskHoldScore and -Dbank.riskVelocity
+     */
+    public static RiskScorer configured() {
+        return new RiskScorer(Boolean.parseBoolean(System.getProperty("bank.risk", "true")),
+                              Integer.getInteger("bank.riskFlagScore", 50),
+                              Integer.getInteger("bank.riskHoldScore", 0),
+                              Integer.getInteger("bank.riskVelocity", 20));
+    }
+
+    /**
+     * Features of one account
+     */
+    static final class Profile {
+        private final int[] postings = new int[SLOTS];  // Postings per slot
+        private final int[] newPayees = new int[SLOTS]; // Transfers to new payees per slot
+        private long newestSlot;
+        private int postingTotal;
+        private int newPayeeTotal;
+        private final double[] means = new double[KINDS];
+        private final double[] variances = new double[KINDS];
+        private final int[] samples = new int[KINDS];
+        private final int[] payees = new int[PAYEES];   // Ring of recent payee account ids, 0 for none
+        private int nextPayee;
+        private long alertedSlot = -1;
+    }
+
+    /**
+     * One flagged or held posting
+     */
+    public static final class Alert {
+        private final int accountId;
+        private final RollingLimits.Kind kind;
+        private final long amount;
+        private final int reasons;
+        private final boolean held;
+        private final long epochMillis;
+
+        Alert(int accountId, RollingLimits.Kind kind, long amount, int reasons, boolean held, long epochMillis) {
+            this.accountId = accountId;
+            this.kind = kind;
+            this.amount = amount;
+            this.reasons = reasons;
+            this.held = held;
+            this.epochMillis = epochMillis;
+        }
+
+        public int getAccountId() {
+            return accountId;
+        }
+
+        public RollingLimits.Kind getKind() {
+            return kind;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public Set<Reason> getReasons() {
+            Set<Reason> set = EnumSet.noneOf(Reason.class);
+            for (Reason reason : REASONS) {
+                if ((reasons & reason.bit()) != 0) {
+                    set.add(reason);
+                }
+            }
+            return set;
+        }
+
+        public int getScore() {
+            return score(reasons);
+        }
+
+        public boolean isHeld() {
+            return held;
+        }
+
+        public long getEpochMillis() {
+            return epochMillis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder(96).append(held ? "Held " : "Flagged ")
+                .append(kind.name().toLowerCase()).append(" of $");
+            return Money.appendTo(out, amount).append(" on ACC").append(accountId)
+                .append(", score ").append(getScore()).append(' ').append(getReasons()).toString();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a new, empty profile for one account
+     */
+    Profile newProfile() {
+        return new Profile();
+    }
+
+    /**
+     * Work out which features a posting trips, without recording it
+     * The caller must hold the lock that guards the profile.
+     * @param counterpartyId Account id of the transfer's target, or 0
+     * @return bits of the Reasons that apply
+     */
+    int assess(Profile profile, RollingLimits.Kind kind, long amount, int counterpartyId, long nowMillis) {
+        advance(profile, nowMillis / SLOT_MILLIS);
+        int reasons = 0;
+        if (profile.postingTotal + 1 > velocityLimit) {
+            reasons |= Reason.VELOCITY.bit();
+        }
+        int k = kind.ordinal();
+        if (profile.samples[k] >= MIN_SAMPLES) {
+            double mean = profile.means[k];
+            double deviation = amount - mean;
+            double floor = mean * MIN_SPREAD;
+            double variance = Math.max(profile.variances[k], floor * floor);
+            if (deviation > 0 && deviation * deviation >= 36 * variance) {
+                reasons |= Reason.VERY_UNUSUAL_AMOUNT.bit();
+            } else if (deviation > 0 && deviation * deviation >= 9 * variance) {
+                reasons |= Reason.UNUSUAL_AMOUNT.bit();
+            }
+        }
+        if (counterpartyId != 0 && isNewPayee(profile, counterpartyId) && seenEnough(profile)) {
+            reasons |= Reason.NEW_COUNTERPARTY.bit();
+            if (profile.newPayeeTotal + 1 >= PAYEE_BURST) {
+                reasons |= Reason.NEW_COUNTERPARTY_BURST.bit();
+            }
+        }
+        return reasons;
+    }
+
+    /**
+     * Hold a posting if its reasons reach the hold score, counting it and
+     * keeping an alert
+     * @return true if the posting must be refused
+     */
+    boolean hold(Profile profile, int accountId, RollingLimits.Kind kind, long amount, int reasons,
+                 long nowMillis) {
+        if (holdScore == 0 || score(reasons) < holdScore) {
+            return false;
+        }
+        held.increment();
+        alert(profile, new Alert(accountId, kind, amount, reasons, true, nowMillis));
+        return true;
+    }
+
+    /**
+     * Add a posting that went through to the profile, and flag it if its
+     * reasons reach the flag score
+     * The caller must hold the lock that guards the profile.
+     */
+    void record(Profile profile, int accountId, RollingLimits.Kind kind, long amount, int counterpartyId,
+                int reasons, long nowMillis) {
+        int slot = (int) (profile.newestSlot % SLOTS);
+        profile.postings[slot]++;
+        profile.postingTotal++;
+        if (counterpartyId != 0 && isNewPayee(profile, counterpartyId)) {
+            profile.payees[profile.nextPayee] = counterpartyId;
+            profile.nextPayee = (profile.nextPayee + 1) % PAYEES;
+            profile.newPayees[slot]++;
+            profile.newPayeeTotal++;
+        }
+
+        int k = kind.ordinal();
+        if (profile.samples[k] == 0) {
+            profile.means[k] = amount;
+        } else {
+            double difference = amount - profile.means[k];
+            double increment = WEIGHT * difference;
+            profile.means[k] += increment;
+            profile.variances[k] = (1 - WEIGHT) * (profile.variances[k] + difference * increment);
+        }
+        if (profile.samples[k] < MIN_SAMPLES) {
+            profile.samples[k]++;
+        }
+
+        if (score(reasons) >= flagScore) {
+            flagged.increment();
+            alert(profile, new Alert(accountId, kind, amount, reasons, false, nowMillis));
+        }
+    }
+
+    private static boolean isNewPayee(Profile profile, int counterpartyId) {
+        for (int payee : profile.payees) {
+            if (payee == counterpartyId) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean seenEnough(Profile profile) {
+        int seen = 0;
+        for (int count : profile.samples) {
+            seen += count;
+        }
+        return seen >= MIN_SAMPLES;
+    }
+
+    /**
+     * Move the rings forward to a slot, clearing the slots that fell out of the window
+     */
+    private static void advance(Profile profile, long slot) {
+        long newest = profile.newestSlot;
+        if (slot <= newest) {
+            return;
+        }
+        long stale = Math.min(slot - newest, SLOTS);
+        for (long i = 1; i <= stale; i++) {
+            int index = (int) ((newest + i) % SLOTS);
+            profile.postingTotal -= profile.postings[index];
+            profile.newPayeeTotal -= profile.newPayees[index];
+            profile.postings[index] = 0;
+            profile.newPayees[index] = 0;
+        }
+        profile.newestSlot = slot;
+    }
+
+    /**
+     * @return the points of every reason in the bits
+     */
+    static int score(int reasons) {
+        int score = 0;
+        for (Reason reason : REASONS) {
+            if ((reasons & reason.bit()) != 0) {
+                score += reason.points;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Count an alert's reasons and keep it, unless the account already has
+     * an alert in this slot; a burst would otherwise fill the ring and make
+     * every posting of it contend for the ring's lock
+     */
+    private void alert(Profile profile, Alert alert) {
+        int reasons = alert.reasons;
+        for (Reason reason : REASONS) {
+            if ((reasons & reason.bit()) != 0) {
+                byReason[reason.ordinal()].increment();
+            }
+        }
+        if (profile.alertedSlot == profile.newestSlot) {
+            return;
+        }
+        profile.alertedSlot = profile.newestSlot;
+        synchronized (alerts) {
+            alerts[(int) (alertCount++ % ALERTS)] = alert;
+        }
+    }
+
+    /**
+     * @return up to the last 1024 flagged or held postings, newest first
+     */
+    public List<Alert> recentAlerts() {
+        synchronized (alerts) {
+            int count = (int) Math.min(alertCount, ALERTS);
+            List<Alert> recent = new ArrayList<>(count);
+            for (long i = alertCount - 1; i >= alertCount - count; i--) {
+                recent.add(alerts[(int) (i % ALERTS)]);
+            }
+            return recent;
+        }
+    }
+
+    public long flaggedCount() {
+        return flagged.sum();
+    }
+
+    public long heldCount() {
+        return held.sum();
+    }
+
+    /**
+     * Write the flag and hold counters in the Prometheus text exposition format
+     */
+    public StringBuilder appendPrometheus(StringBuilder out) {
+        out.append("# HELP bank_risk_alerts_total Postings flagged or held by the risk scorer\n")
+           .append("# TYPE bank_risk_alerts_total counter\n")
+           .append("bank_risk_alerts_total{action=\"flagged\"} ").append(flagged.sum()).append('\n')
+           .append("bank_risk_alerts_total{action=\"held\"} ").append(held.sum()).append('\n')
+           .append("# HELP bank_risk_reasons_total Reasons given for flagged or held postings\n")
+           .append("# TYPE bank_risk_reasons_total counter\n");
+        for (Reason reason : REASONS) {
+            out.append("bank_risk_reasons_total{reason=\"").append(reason.name().toLowerCase()).append("\"} ")
+               .append(byReason[reason.ordinal()].sum()).append('\n');
+        }
+        return out;
+    }
+}
@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Rolling limits on how much an account may deposit, withdraw or transfer
+ * within a time window, e.g. $10,000 of withdrawals per 24 hours
+ * Demonstrates time-bucketed counters: each window is a ring of slots of
+ * equal length, so charging and checking an amount is O(1) amortized and
+ * never looks at the transaction history
+ *
+ * The policy is shared; the counters live in a small int[] per account and
+ * kind, allocated on the account's first posting of that kind and guarded
+ * by the account. For every window of the kind the array holds the newest
+ * slot number, the running total and the ring:
+ *   [newest slot][total][slot 0] ... [slot steps]
+ * A window of length W split into n steps keeps n + 1 slots of W / n, so an
+ * amount counts against the limit for at least W and at most W + W / n.
+ * Totals are never more than the limit, so cents fit in an int.
+ * Postings read the time from CoarseClock; reading the system clock costs
+ * more than the check itself, and slots are at least a minute long.
+ *
+ * Windows are written as kind:length:limit[:steps], comma separated, e.g.
+ *   withdrawal:24h:10000.00,withdrawal:1h:2500.00:12,transfer:7d:20000
+ * Lengths take s, m, h or d; each slot must be at least a minute long.
+ */
+public final class RollingLimits {
+    /**
+     * Postings that limits apply to
+     */
+    public enum Kind {
+        DEPOSIT, WITHDRAWAL, TRANSFER
+    }
+
+    public static final String DEFAULT_SPEC = "deposit:24h:100000,withdrawal:24h:10000,transfer:24h:5000";
+    private static final int DEFAULT_STEPS = 24;
+    private static final long MIN_SLOT_MILLIS = 60_000;
+    private static final int NEWEST = 0;
+    private static final int TOTAL = 1;
+    private static final int HEADER = 2;
+
+    /**
+     * One window of one kind, and where its counters sit in the usage array
+     */
+    private static final class Window {
+        final long lengthMillis;
+        final long slotMillis;
+        final int slots;
+        final int limit;
+        final int offset;
+
+        Window(long lengthMillis, int steps, int limit, int offset) {
+            this.lengthMillis = lengthMillis;
+            this.slotMillis = lengthMillis / steps;
+            this.slots = steps + 1;
+            this.limit = limit;
+            this.offset = offset;
+        }
+    }
+
+    private final Window[][] windows;
+    private final int[] usageLengths;
+    private final long longestMillis;
+
+    private RollingLimits(Window[][] windows, int[] usageLengths) {
+        this.windows = windows;
+        this.usageLengths = usageLengths;
+        long longest = 0;
+        for (Window[] ofKind : windows) {
+            for (Window window : ofKind) {
+                longest = Math.max(longest, window.lengthMillis + window.slotMillis);
+            }
+        }
+        this.longestMillis = longest;
+    }
+
+    /**
+     * Limits set by -Dbank.limits, or DEFAULT_SPEC; an empty value turns them off
+     */
+    public static RollingLimits configured() {
+        return parse(System.getProperty("bank.limits", DEFAULT_SPEC));
+    }
+
+    /**
+     * Parse a comma separated list of windows
+     * @throws IllegalArgumentException if a window is malformed
+     */
+    public static RollingLimits parse(String spec) {
+        List<List<Window>> byKind = new ArrayList<>();
+        for (int i = 0; i < Kind.values().length; i++) {
+            byKind.add(new ArrayList<>());
+        }
+        int[] usageLengths = new int[byKind.size()];
+        for (String part : spec.split(",")) {
+            String entry = part.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            String[] fields = entry.split(":");
+            if (fields.length < 3 || fields.length > 4) {
+                throw new IllegalArgumentException("Limit must be kind:length:limit[:steps]: " + entry);
+            }
+            Kind kind;
+            try {
+                kind = Kind.valueOf(fields[0].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown limit kind: " + fields[0]);
+            }
+            long lengthMillis = parseLength(fields[1].trim());
+            long limit;
+            try {
+                limit = Money.parse(fields[2].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit amount: " + fields[2]);
+            }
+            if (limit <= 0 || limit > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Limit must be between $0.01 and $21,474,836.47: " + entry);
+            }
+            int steps = fields.length == 4 ? Integer.parseInt(fields[3].trim()) : DEFAULT_STEPS;
+            if (steps < 1 || lengthMillis / steps < MIN_SLOT_MILLIS) {
+                throw new IllegalArgumentException("Each step must be at least a minute: " + entry);
+            }
+            Window window = new Window(lengthMillis, steps, (int) limit, usageLengths[kind.ordinal()]);
+            byKind.get(kind.ordinal()).add(window);
+            usageLengths[kind.ordinal()] += HEADER + window.slots;
+        }
+
+        Window[][] windows = new Window[byKind.size()][];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = byKind.get(i).toArray(new Window[0]);
+        }
+        return new RollingLimits(windows, usageLengths);
+    }
+
+    private static long parseLength(String text) {
+        if (text.length() < 2) {
+            throw new IllegalArgumentException("Invalid window length: " + text);
+        }
+        long unit;
+        switch (text.charAt(text.length() - 1)) {
+            case 's':
+                unit = 1_000;
+                break;
+            case 'm':
+                unit = 60_000;
+                break;
+            case 'h':
+                unit = 3_600_000;
+                break;
+            case 'd':
+                unit = 86_400_000;
+                break;
+            default:
+                throw new IllegalArgumentException("Window length needs a unit of s, m, h or d: " + text);
+        }
+        try {
+            return Math.multiplyExact(Long.parseLong(text.substring(0, text.length() - 1)), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid window length: " + text);
+        }
+    }
+
+    /**
+     * @return true if any window applies to the kind
+     */
+    public boolean limits(Kind kind) {
+        return windows[kind.ordinal()].length > 0;
+    }
+
+    /**
+     * @return length of the longest window plus its last slot; older postings never count
+     */
+    public long longestWindowMillis() {
+        return longestMillis;
+    }
+
+    /**
+     * @return a new, empty usage array for one account and kind
+     */
+    int[] newUsage(Kind kind) {
+        return new int[usageLengths[kind.ordinal()]];
+    }
+
+    /**
+     * Check whether an amount fits under every window of a kind
+     * The caller must hold the lock that guards the usage array.
+     * @param usage Usage array of the account for the kind
+     * @param nowMillis Current time
+     */
+    boolean admits(int[] usage, Kind kind, long amount, long nowMillis) {
+        for (Window window : windows[kind.ordinal()]) {
+            advance(usage, window, nowMillis / window.slotMillis);
+            if (usage[window.offset + TOTAL] + amount > window.limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count an amount against every window of a kind, at the given time
+     * Times older than a window's ring are ignored for that window, so
+     * postings can be replayed in any order after a restart.
+     * The caller must hold the lock that guards the usage array.
+     */
+    void charge(int[] usage, Kind kind, long amount, long atMillis) {
+        for (Window window : windows[kind.ordinal()]) {
+            long slot = atMillis / window.slotMillis;
+            advance(usage, window, slot);
+            if (slot > usage[window.offset + NEWEST] - window.slots) {
+                int index = window.offset + HEADER + (int) (slot % window.slots);
+                usage[index] = saturatedAdd(usage[index], amount);
+                usage[window.offset + TOTAL] = saturatedAdd(usage[window.offset + TOTAL], amount);
+            }
+        }
+    }
+
+    /**
+     * Add without wrapping; only replayed postings made under a higher limit can get near the top
+     */
+    private static int saturatedAdd(int counter, long amount) {
+        return (int) Math.min(Integer.MAX_VALUE, counter + amount);
+    }
+
+    /**
+     * Move a window forward to a slot, clearing the slots that fell out of it
+     */
+    private static void advance(int[] usage, Window window, long slot) {
+        int base = window.offset;
+        long newest = usage[base + NEWEST];
+        if (slot <= newest) {
+            return;
+        }
+        long stale = Math.min(slot - newest, window.slots);
+        for (long i = 1; i <= stale; i++) {
+            int index = base + HEADER + (int) ((newest + i) % window.slots);
+            usage[base + TOTAL] -= usage[index];
+            usage[index] = 0;
+        }
+        usage[base + NEWEST] = (int) slot;
+    }
+
+    /**
+     * Describe the windows of a kind, e.g. "$10000.00 per 24h, $2500.00 per 1h"
+     * @return the description, or an empty string if none apply
+     */
+    public String describe(Kind kind) {
+        StringBuilder out = new StringBuilder();
+        for (Window window : windows[kind.ordinal()]) {
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            Money.appendTo(out.append('$'), window.limit).append(" per ");
+            long millis = window.lengthMillis;
+            if (millis % 86_400_000 == 0 && millis != 86_400_000) {
+                out.append(millis / 86_400_000).append('d');
+            } else if (millis % 3_600_000 == 0) {
+                out.append(millis / 3_600_000).append('h');
+            } else if (millis % 60_000 == 0) {
+                out.append(millis / 60_000).append('m');
+            } else {
+                out.append(millis / 1000).append('s');
+            }
+        }
+        return out.toString();
+    }
+}
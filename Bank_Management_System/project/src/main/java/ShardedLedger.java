@@ -0,0 +1,759 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Ledger split into shards by account number, each owned by one worker thread
+ * Demonstrates partitioned single-writer state: only a shard's own worker
+ * posts to its accounts, store and journal. Commands arrive through a
+ * lock-free queue, and each batch is journaled with one append.
+ *
+ * A transfer inside one shard is posted like any other command. A transfer
+ * between shards is a two-phase exchange of messages:
+ *   1. The source shard debits the source. It journals the debit together
+ *      with a TRANSFER_SENT marker carrying a sequence number for the pair
+ *      of shards. The caller's future completes here, with the money in flight.
+ *   2. Once that is durable, the source shard sends a credit to the target
+ *      shard. The target shard credits the account and journals the credit
+ *      with a TRANSFER_RECEIVED marker. It skips a sequence it has already
+ *      received.
+ *   3. Once that is durable, the target shard acknowledges it. The source
+ *      shard journals TRANSFER_ACKNOWLEDGED and forgets the transfer.
+ * After a crash every shard replays its own journal. Transfers that were
+ * sent but not acknowledged are sent again, and receivers skip those already
+ * credited. Each transfer is therefore credited exactly once and no money
+ * is lost. Messages between two shards stay in order, so a receiver only
+ * needs the last sequence it received from each sending shard.
+ *
+ * A shard whose journal append fails stops. It applies nothing more and
+ * fails every command sent to it. Messages from the failed batch are not
+ * sent, because they depend on changes that are not durable. Credits it
+ * had already journaled are still acknowledged. awaitSettled and close
+ * then throw instead of waiting for transfers that cannot settle.
+ * Balances in memory may include the failed batch; restarting recovers
+ * every shard from its journal, which stays consistent.
+ *
+ * Each shard's Ledger is used for recovery, account lookup and history. Post
+ * only through this class, never through a shard's own posting methods.
+ * Transaction numbers are per shard.
+ */
+public class ShardedLedger implements Closeable {
+    private static final int DEPOSIT = 0;
+    private static final int WITHDRAWAL = 1;
+    private static final int TRANSFER = 2;
+    private static final int CREDIT = 3;
+    private static final int ACKNOWLEDGE = 4;
+    private static final int BARRIER = 5;
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * A posting request, or a message between shards; it receives the
+     * balances it leaves, just before they are installed, for the
+     * balance-after of its rows
+     */
+    private static final class Command implements Account.Recorder {
+        final int kind;
+        final Account source;
+        final Account target;
+        final long amount;
+        final String description;
+        final int peerShard;   // CREDIT: sending shard, ACKNOWLEDGE: acknowledging shard
+        final long sequence;   // CREDIT and ACKNOWLEDGE: transfer sequence for the pair of shards
+        final CompletableFuture<PostingStatus> result; // Null for messages between shards
+        PostingStatus status = PostingStatus.SUCCESS;
+        long balanceAfter;
+        long targetBalanceAfter;
+
+        Command(int kind, Account source, Account target, long amount, String description,
+                int peerShard, long sequence, CompletableFuture<PostingStatus> result) {
+            this.kind = kind;
+            this.source = source;
+            this.target = target;
+            this.amount = amount;
+            this.description = description;
+            this.peerShard = peerShard;
+            this.sequence = sequence;
+            this.result = result;
+        }
+
+        @Override
+        public void record(long balanceAfter, long counterpartyBalanceAfter) {
+            this.balanceAfter = balanceAfter;
+            this.targetBalanceAfter = counterpartyBalanceAfter;
+        }
+    }
+
+    private final Shard[] shards;
+    private volatile boolean running = true;
+
+    /**
+     * Create an in-memory sharded ledger with no journals and start its workers
+     * @param shardCount Number of shards and worker threads
+     */
+    public ShardedLedger(int shardCount) {
+        this(createLedgers(shardCount));
+        start();
+    }
+
+    private ShardedLedger(Ledger[] ledgers) {
+        shards = new Shard[ledgers.length];
+        for (int i = 0; i < ledgers.length; i++) {
+            shards[i] = new Shard(i, ledgers[i]);
+        }
+    }
+
+    private static Ledger[] createLedgers(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        Ledger[] ledgers = new Ledger[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            ledgers[i] = new Ledger();
+        }
+        return ledgers;
+    }
+
+    /**
+     * Open a durable sharded ledger with one journal and store per shard,
+     * recover every shard and resend transfers left in flight
+     * @param directory Directory holding one shard-N subdirectory per shard
+     * @param shardCount Number of shards; must match the directory once written
+     * @param durability When journal appends are forced to disk
+     * @param flushIntervalMillis Background fsync interval for TIMED durability
+     * @return the recovered, running ledger
+     */
+    public static ShardedLedger open(Path directory, int shardCount, Journal.Durability durability,
+                                     long flushIntervalMillis) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        Files.createDirectories(directory);
+        long existing;
+        try (Stream<Path> files = Files.list(directory)) {
+            existing = files.filter(file -> file.getFileName().toString().matches("shard-\\d+")).count();
+        }
+        if (existing > 0 && existing != shardCount) {
+            throw new IllegalStateException(directory + " holds " + existing + " shards, not " + shardCount);
+        }
+
+        // Shards replay their own journals in parallel, each on its own thread
+        Ledger[] ledgers = new Ledger[shardCount];
+        List<CompletableFuture<Void>> recoveries = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            int index = i;
+            Path shardDirectory = directory.resolve("shard-" + index);
+            recoveries.add(CompletableFuture.runAsync(() -> {
+                try {
+                    Files.createDirectories(shardDirectory);
+                    TransactionStore store = new TransactionStore(shardDirectory.resolve("transactions"));
+                    Journal journal = new Journal(shardDirectory.resolve("bank.journal"), durability,
+                                                  flushIntervalMillis);
+                    ledgers[index] = new Ledger(store, journal);
+                    ledgers[index].recover();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not recover shard " + index, e);
+                }
+            }));
+        }
+        try {
+            CompletableFuture.allOf(recoveries.toArray(new CompletableFuture<?>[0])).join();
+        } catch (RuntimeException e) {
+            for (Ledger ledger : ledgers) {
+                if (ledger != null) {
+                    ledger.close();
+                }
+            }
+            throw e;
+        }
+
+        ShardedLedger sharded = new ShardedLedger(ledgers);
+        // Transfer markers name accounts in other shards, so read them once every shard is loaded
+        for (Shard shard : sharded.shards) {
+            shard.recoverTransfers();
+        }
+        for (Shard shard : sharded.shards) {
+            shard.resendUnacknowledged();
+        }
+        return sharded.start();
+    }
+
+    private ShardedLedger start() {
+        for (Shard shard : shards) {
+            shard.worker.start();
+        }
+        return this;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return index of the shard that owns an account id
+     */
+    public int shardOf(long accountId) {
+        long mixed = accountId * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (mixed >>> 32), shards.length);
+    }
+
+    private Shard shardOf(Account account) {
+        return shards[shardOf(account.getAccountId())];
+    }
+
+    /**
+     * Get one shard's ledger, e.g. to read the history of its accounts
+     */
+    public Ledger getShard(int index) {
+        return shards[index].ledger;
+    }
+
+    /**
+     * Read the bank-wide totals, combined from every shard; a transfer
+     * between shards shows its debit and its credit as they happen
+     */
+    public LedgerAggregates.Snapshot aggregates() {
+        LedgerAggregates.Snapshot combined = shards[0].ledger.aggregates();
+        for (int i = 1; i < shards.length; i++) {
+            combined = combined.plus(shards[i].ledger.aggregates());
+        }
+        return combined;
+    }
+
+    /**
+     * Open a new account in the shard its account number hashes to
+     * @param accountHolderName Name of the account holder
+     * @param initialDeposit Opening balance in cents
+     * @return the newly opened account
+     */
+    public Account openAccount(String accountHolderName, long initialDeposit) {
+        Account account = new Account(accountHolderName, initialDeposit);
+        return shardOf(account).ledger.open(account);
+    }
+
+    /**
+     * Look up an account by its account number
+     * @return the account, or null if not found
+     */
+    public Account findAccount(CharSequence accountNumber) {
+        return findAccount(AccountDirectory.parseAccountNumber(accountNumber));
+    }
+
+    /**
+     * Look up an account by its account id
+     * @return the account, or null if not found
+     */
+    public Account findAccount(long accountId) {
+        return accountId <= 0 ? null : shards[shardOf(accountId)].ledger.findAccount(accountId);
+    }
+
+    /**
+     * @return every account, shard by shard
+     */
+    public List<Account> getAccounts() {
+        List<Account> accounts = new ArrayList<>();
+        for (Shard shard : shards) {
+            accounts.addAll(shard.ledger.getAccounts());
+        }
+        return accounts;
+    }
+
+    /**
+     * Queue a deposit on the account's shard
+     * @return SUCCESS once journaled, or the reason the deposit was rejected
+     */
+    public CompletableFuture<PostingStatus> deposit(Account account, long amount, String description) {
+        return submit(shardOf(account), DEPOSIT, account, null, amount, description);
+    }
+
+    /**
+     * Queue a withdrawal on the account's shard
+     * @return SUCCESS once journaled, or the reason the withdrawal was rejected
+     */
+    public CompletableFuture<PostingStatus> withdraw(Account account, long amount, String description) {
+        return submit(shardOf(account), WITHDRAWAL, account, null, amount, description);
+    }
+
+    /**
+     * Queue a transfer on the source account's shard. For a target in
+     * another shard, SUCCESS means the debit is journaled and the credit
+     * is guaranteed to follow, even across a crash.
+     * @return SUCCESS, or the reason the transfer was rejected
+     */
+    public CompletableFuture<PostingStatus> transfer(Account source, Account target, long amount) {
+        return submit(shardOf(source), TRANSFER, source, target, amount, null);
+    }
+
+    private CompletableFuture<PostingStatus> submit(Shard shard, int kind, Account source, Account target,
+                                                    long amount, String description) {
+        if (!running) {
+            throw new IllegalStateException("Ledger is closed");
+        }
+        CompletableFuture<PostingStatus> result = new CompletableFuture<>();
+        shard.submit(new Command(kind, source, target, amount, description, -1, 0, result));
+        return result;
+    }
+
+    /**
+     * Wait until every command queued so far has been posted and every
+     * transfer between shards has been credited and acknowledged. Call it
+     * once producers have stopped, e.g. before checking that money is conserved.
+     * @throws UncheckedIOException if a shard stopped after a journal failure
+     */
+    public void awaitSettled() {
+        while (true) {
+            List<CompletableFuture<PostingStatus>> barriers = new ArrayList<>(shards.length);
+            for (Shard shard : shards) {
+                barriers.add(submit(shard, BARRIER, null, null, 0, null));
+            }
+            int unacknowledged = 0;
+            for (int i = 0; i < shards.length; i++) {
+                barriers.get(i).join();
+                unacknowledged += shards[i].unacknowledgedCount;
+            }
+            for (Shard shard : shards) {
+                if (shard.failure != null) {
+                    throw new UncheckedIOException("Shard " + shard.index + " stopped after a journal failure",
+                                                   shard.failure);
+                }
+            }
+            if (unacknowledged == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * One partition of the accounts and the worker thread that owns it
+     */
+    private final class Shard implements Runnable {
+        final int index;
+        final Ledger ledger;
+        final TransactionStore store;
+        final Journal journal;
+        final Journal.Batch batch = new Journal.Batch();
+        final LedgerAggregates aggregates;
+        final ConcurrentLinkedQueue<Command> inbox = new ConcurrentLinkedQueue<>();
+        final Thread worker;
+        volatile boolean parked;
+        volatile IOException failure; // First journal failure, after which the shard applies nothing
+
+        // Transfer protocol state, only touched by the worker (and by recovery before it starts)
+        final long[] lastSent;                          // By target shard
+        final long[] lastReceived;                      // By source shard
+        final long[] journaledReceived;                 // lastReceived as of the last journal append
+        final long[] toAcknowledge;                     // By source shard, for the current batch
+        final List<ArrayDeque<Command>> unacknowledged; // Credits sent, by target shard
+        final List<Command> outgoing = new ArrayList<>();  // Messages to send once the batch is durable
+        final List<Shard> destinations = new ArrayList<>(); // Shard each outgoing message goes to
+        volatile int unacknowledgedCount;
+
+        Shard(int index, Ledger ledger) {
+            this.index = index;
+            this.ledger = ledger;
+            this.store = ledger.getTransactionStore();
+            this.journal = ledger.getJournal();
+            this.aggregates = ledger.getAggregates();
+            int shardCount = shards.length;
+            this.lastSent = new long[shardCount];
+            this.lastReceived = new long[shardCount];
+            this.journaledReceived = new long[shardCount];
+            this.toAcknowledge = new long[shardCount];
+            this.unacknowledged = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                unacknowledged.add(new ArrayDeque<>());
+            }
+            this.worker = new Thread(this, "shard-" + index);
+            worker.setDaemon(true);
+        }
+
+        void submit(Command command) {
+            inbox.offer(command);
+            if (parked) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        @Override
+        public void run() {
+            Command[] commands = new Command[MAX_BATCH];
+            int idle = 0;
+            while (true) {
+                int count = 0;
+                Command command;
+                while (count < MAX_BATCH && (command = inbox.poll()) != null) {
+                    commands[count++] = command;
+                }
+                if (count > 0) {
+                    idle = 0;
+                    processBatch(commands, count);
+                } else if (!running) {
+                    return;
+                } else if (idle++ < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    // Producers unpark the worker after offering if they see this flag set
+                    parked = true;
+                    if (inbox.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+
+        private void processBatch(Command[] commands, int count) {
+            if (failure != null) {
+                rejectBatch(commands, count);
+                return;
+            }
+            try {
+                for (int i = 0; i < count; i++) {
+                    process(commands[i]);
+                }
+                queueAcknowledgements();
+                if (journal != null && !batch.isEmpty()) {
+                    journal.append(batch);
+                }
+                System.arraycopy(lastReceived, 0, journaledReceived, 0, lastReceived.length);
+            } catch (IOException e) {
+                // Balances are already changed in memory, but nothing that was not journaled is sent on
+                failure = e;
+                batch.clear();
+                discardOutgoing();
+            }
+
+            // Messages go out only once what they depend on is durable
+            sendOutgoing();
+            for (int i = 0; i < count; i++) {
+                Command command = commands[i];
+                commands[i] = null;
+                if (command.result == null) {
+                    continue;
+                }
+                if (failure == null || command.kind == BARRIER) {
+                    command.result.complete(command.status);
+                } else {
+                    command.result.completeExceptionally(
+                        new UncheckedIOException("Could not write to the journal of shard " + index, failure));
+                }
+            }
+        }
+
+        private void process(Command command) throws IOException {
+            switch (command.kind) {
+                case DEPOSIT:
+                    command.status = Account.validateDeposit(command.amount);
+                    if (command.status.isSuccess()) {
+                        command.status = command.source.creditWithinLimits(command.amount, command);
+                    }
+                    if (command.status.isSuccess()) {
+                        beginFrame();
+                        long row = record(command.source, Transaction.TransactionType.DEPOSIT, command.amount,
+                                          command.balanceAfter, command.description);
+                        endFrame();
+                        aggregates.posted(command.source, Transaction.TransactionType.DEPOSIT, command.amount,
+                                          store.epochMicros(row));
+                    }
+                    break;
+                case WITHDRAWAL:
+                    command.status = Account.validateWithdrawal(command.amount);
+                    if (command.status.isSuccess()) {
+                        command.status = command.source.debitWithinLimits(RollingLimits.Kind.WITHDRAWAL,
+                                                                          command.amount, null, false, command);
+                    }
+                    if (command.status.isSuccess()) {
+                        beginFrame();
+                        long row = record(command.source, Transaction.TransactionType.WITHDRAWAL, command.amount,
+                                          command.balanceAfter, command.description);
+                        endFrame();
+                        aggregates.posted(command.source, Transaction.TransactionType.WITHDRAWAL, command.amount,
+                                          store.epochMicros(row));
+                    }
+                    break;
+                case TRANSFER:
+                    transfer(command);
+                    break;
+                case CREDIT:
+                    credit(command);
+                    break;
+                case ACKNOWLEDGE:
+                    acknowledge(command);
+                    break;
+                default:
+                    break; // BARRIER: completes once everything queued before it is done
+            }
+        }
+
+        private void transfer(Command command) throws IOException {
+            Account source = command.source;
+            Account target = command.target;
+            command.status = Account.validateTransfer(source, target, command.amount);
+            if (!command.status.isSuccess()) {
+                return;
+            }
+            // Within a shard both legs change together; across shards the credit follows as its own posting
+            int targetShard = shardOf(target.getAccountId());
+            command.status = source.debitWithinLimits(RollingLimits.Kind.TRANSFER, command.amount, target,
+                                                      targetShard == index, command);
+            if (!command.status.isSuccess()) {
+                return;
+            }
+
+            beginFrame();
+            long row = record(source, Transaction.TransactionType.TRANSFER_OUT, command.amount, command.balanceAfter,
+                              "Transfer to " + target.getAccountHolderName());
+            if (targetShard == index) {
+                record(target, Transaction.TransactionType.TRANSFER_IN, command.amount, command.targetBalanceAfter,
+                       "Transfer from " + source.getAccountHolderName());
+                aggregates.transferred(source, target, command.amount, store.epochMicros(row));
+            } else {
+                aggregates.posted(source, Transaction.TransactionType.TRANSFER_OUT, command.amount,
+                                  store.epochMicros(row));
+                long sequence = ++lastSent[targetShard];
+                if (journal != null) {
+                    batch.transferSent(targetShard, sequence, source.getAccountId(), target.getAccountId(),
+                                       command.amount);
+                }
+                Command credit = new Command(CREDIT, source, target, command.amount, null, index, sequence, null);
+                unacknowledged.get(targetShard).add(credit);
+                unacknowledgedCount++;
+                send(shards[targetShard], credit);
+            }
+            endFrame();
+        }
+
+        private void credit(Command command) throws IOException {
+            int sourceShard = command.peerShard;
+            if (command.sequence > lastReceived[sourceShard]) {
+                // Limits were checked by the sending shard
+                long balanceAfter = command.target.credit(command.amount);
+                beginFrame();
+                long row = record(command.target, Transaction.TransactionType.TRANSFER_IN, command.amount,
+                                  balanceAfter, "Transfer from " + command.source.getAccountHolderName());
+                aggregates.posted(command.target, Transaction.TransactionType.TRANSFER_IN, command.amount,
+                                  store.epochMicros(row));
+                if (journal != null) {
+                    batch.transferReceived(sourceShard, command.sequence);
+                }
+                endFrame();
+                lastReceived[sourceShard] = command.sequence;
+            }
+            toAcknowledge[sourceShard] = Math.max(toAcknowledge[sourceShard], command.sequence);
+        }
+
+        /**
+         * One acknowledgement per sending shard covers every credit from it in the batch
+         */
+        private void queueAcknowledgements() {
+            for (int sourceShard = 0; sourceShard < toAcknowledge.length; sourceShard++) {
+                if (toAcknowledge[sourceShard] > 0) {
+                    send(shards[sourceShard], new Command(ACKNOWLEDGE, null, null, 0, null, index,
+                                                          toAcknowledge[sourceShard], null));
+                    toAcknowledge[sourceShard] = 0;
+                }
+            }
+        }
+
+        private void send(Shard destination, Command message) {
+            outgoing.add(message);
+            destinations.add(destination);
+        }
+
+        private void sendOutgoing() {
+            for (int i = 0; i < outgoing.size(); i++) {
+                destinations.get(i).submit(outgoing.get(i));
+            }
+            outgoing.clear();
+            destinations.clear();
+        }
+
+        /**
+         * Hold back the messages of a batch that could not be journaled,
+         * but acknowledge the credits that earlier batches journaled
+         */
+        private void discardOutgoing() {
+            for (int i = 0; i < outgoing.size(); i++) {
+                Command message = outgoing.get(i);
+                if (message.kind == CREDIT
+                    && unacknowledged.get(destinations.get(i).index).removeLastOccurrence(message)) {
+                    unacknowledgedCount--;
+                }
+            }
+            outgoing.clear();
+            destinations.clear();
+            for (int sourceShard = 0; sourceShard < toAcknowledge.length; sourceShard++) {
+                toAcknowledge[sourceShard] = Math.min(toAcknowledge[sourceShard], journaledReceived[sourceShard]);
+            }
+            queueAcknowledgements();
+        }
+
+        /**
+         * Fail every command sent to a stopped shard. Credits it journaled
+         * before it stopped are acknowledged again, and others are left to
+         * the sender to resend after a restart.
+         */
+        private void rejectBatch(Command[] commands, int count) {
+            for (int i = 0; i < count; i++) {
+                Command command = commands[i];
+                commands[i] = null;
+                if (command.kind == CREDIT && command.sequence <= journaledReceived[command.peerShard]) {
+                    toAcknowledge[command.peerShard] = Math.max(toAcknowledge[command.peerShard], command.sequence);
+                }
+                if (command.kind == BARRIER) {
+                    command.result.complete(PostingStatus.SUCCESS);
+                } else if (command.result != null) {
+                    command.result.completeExceptionally(
+                        new UncheckedIOException("Shard " + index + " stopped after a journal failure", failure));
+                }
+            }
+            queueAcknowledgements();
+            sendOutgoing();
+        }
+
+        private void acknowledge(Command command) throws IOException {
+            int targetShard = command.peerShard;
+            if (forget(targetShard, command.sequence) && journal != null) {
+                batch.beginFrame();
+                batch.transferAcknowledged(targetShard, command.sequence);
+                batch.endFrame();
+            }
+        }
+
+        /**
+         * Drop the credits to a shard up to an acknowledged sequence
+         * @return true if any were still unacknowledged
+         */
+        private boolean forget(int targetShard, long sequence) {
+            ArrayDeque<Command> pending = unacknowledged.get(targetShard);
+            boolean forgotten = false;
+            while (!pending.isEmpty() && pending.peekFirst().sequence <= sequence) {
+                pending.pollFirst();
+                unacknowledgedCount--;
+                forgotten = true;
+            }
+            return forgotten;
+        }
+
+        /**
+         * Append a posting to the store, history and batch; the caller counts it in the aggregates
+         */
+        private long record(Account account, Transaction.TransactionType type, long amount, long balanceAfter,
+                            String description) throws IOException {
+            long row = store.append(account.getAccountId(), type, amount, balanceAfter, description);
+            account.getTransactionHistory().add(row);
+
+            if (journal != null) {
+                batch.posting(store, row);
+            }
+            return row;
+        }
+
+        private void beginFrame() throws IOException {
+            if (journal != null) {
+                batch.beginFrame();
+            }
+        }
+
+        private void endFrame() {
+            if (journal != null) {
+                batch.endFrame();
+            }
+        }
+
+        /**
+         * Rebuild the transfer protocol state from this shard's journal
+         */
+        void recoverTransfers() throws IOException {
+            journal.read(0, journal.size(), new Journal.Handler() {
+                @Override
+                public void accountOpened(int accountId, String accountHolderName, long openingBalance) {
+                }
+
+                @Override
+                public void posted(long transactionNumber, int accountId, Transaction.TransactionType type,
+                                   long amount, long balanceAfter, long epochMicros, String description) {
+                }
+
+                @Override
+                public void transferSent(int targetShard, long sequence, int sourceAccountId, int targetAccountId,
+                                         long amount) {
+                    Account source = findAccount(sourceAccountId);
+                    Account target = findAccount(targetAccountId);
+                    if (source == null || target == null) {
+                        throw new IllegalStateException("Transfer " + index + "-" + targetShard + "#" + sequence
+                                                        + " names an unknown account");
+                    }
+                    lastSent[targetShard] = Math.max(lastSent[targetShard], sequence);
+                    unacknowledged.get(targetShard).add(
+                        new Command(CREDIT, source, target, amount, null, index, sequence, null));
+                    unacknowledgedCount++;
+                }
+
+                @Override
+                public void transferReceived(int sourceShard, long sequence) {
+                    lastReceived[sourceShard] = Math.max(lastReceived[sourceShard], sequence);
+                }
+
+                @Override
+                public void transferAcknowledged(int targetShard, long sequence) {
+                    forget(targetShard, sequence);
+                }
+            });
+        }
+
+        /**
+         * Queue every unacknowledged credit again, in sequence order, ahead of any new work
+         */
+        void resendUnacknowledged() {
+            for (int targetShard = 0; targetShard < shards.length; targetShard++) {
+                for (Command credit : unacknowledged.get(targetShard)) {
+                    shards[targetShard].inbox.offer(credit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Settle transfers in flight, stop the workers and close every shard
+     */
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        IOException failure = null;
+        try {
+            awaitSettled();
+        } catch (UncheckedIOException e) {
+            failure = e.getCause(); // Still stop the workers and close the shards
+        }
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.worker);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                shard.ledger.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
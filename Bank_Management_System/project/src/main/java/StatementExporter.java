@@ -0,0 +1,458 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statement export for every account over a date range
+ * Demonstrates streaming straight from the store to buffered NIO channels:
+ * each worker walks its accounts' history indexes row by row, formats each
+ * line into one reused builder and encodes it into one reused buffer, so
+ * memory use does not grow with the number of accounts or transactions
+ *
+ * Workers claim blocks of accounts and each writes its own part file,
+ * statements-<worker>.<csv|json|txt>. Every account gets a statement with
+ * its opening and closing balance for the period, even with no activity.
+ * Balance inquiries are left out. Dates and times are UTC.
+ *
+ *   CSV    header line, then per statement an OPENING row, one row per
+ *          transaction and a CLOSING row
+ *   JSON   one object per statement per line (JSON Lines), amounts as
+ *          strings as in the HTTP API
+ *   FIXED  printable statements with fixed-width columns
+ *
+ * Usage: java StatementExporter <outputDir> <from yyyy-MM-dd> <to yyyy-MM-dd>
+ *                               [--format csv|json|fixed] [--threads N]
+ * Both dates are inclusive. The ledger is opened from -Dbank.data like BankingApp.
+ */
+public class StatementExporter {
+    private static final int ACCOUNTS_PER_CLAIM = 256;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int DESCRIPTION_WIDTH = 40;
+    private static final int LABEL_WIDTH = 67; // Fixed-width summary labels end where the amount column does
+
+    /**
+     * Output file format
+     */
+    public enum Format {
+        CSV("csv"), JSON("json"), FIXED("txt");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Totals of one export run
+     */
+    public static final class Summary {
+        public final long statements;
+        public final long transactions;
+        public final long bytes;
+        public final long elapsedNanos;
+
+        Summary(long statements, long transactions, long bytes, long elapsedNanos) {
+            this.statements = statements;
+            this.transactions = transactions;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double statementsPerSecond() {
+            return statements / (elapsedNanos / 1e9);
+        }
+    }
+
+    private final Ledger ledger;
+    private final Format format;
+    private final int threads;
+
+    public StatementExporter(Ledger ledger, Format format, int threads) {
+        this.ledger = ledger;
+        this.format = format;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java StatementExporter <outputDir> <from yyyy-MM-dd> <to yyyy-MM-dd> "
+                               + "[--format csv|json|fixed] [--threads N]");
+            System.exit(1);
+        }
+        Format format = Format.CSV;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--format") && i + 1 < args.length) {
+                format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+
+        try (Ledger ledger = Ledger.openConfigured()) {
+            StatementExporter exporter = new StatementExporter(ledger, format, threads);
+            Summary summary = exporter.export(Paths.get(args[0]), LocalDate.parse(args[1]), LocalDate.parse(args[2]));
+            double seconds = summary.elapsedNanos / 1e9;
+            Runtime runtime = Runtime.getRuntime();
+            System.out.printf("Exported %,d statements with %,d transactions (%,.1f MB) in %.2f s%n",
+                              summary.statements, summary.transactions, summary.bytes / 1e6, seconds);
+            System.out.printf("%,.0f statements/s, %,.0f transactions/s with %d threads, heap in use %,.1f MB%n",
+                              summary.statementsPerSecond(), summary.transactions / seconds, threads,
+                              (runtime.totalMemory() - runtime.freeMemory()) / 1e6);
+        }
+    }
+
+    /**
+     * Write a statement for every account covering whole days from one date to another
+     * @param directory Directory for the part files, created if missing
+     * @param from First day of the period
+     * @param to Last day of the period, inclusive
+     * @return totals of the run
+     */
+    public Summary export(Path directory, LocalDate from, LocalDate to) throws IOException, InterruptedException {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Statement period ends before it starts");
+        }
+        Files.createDirectories(directory);
+        long fromMicros = from.toEpochDay() * 86_400_000_000L;
+        long toMicros = (to.toEpochDay() + 1) * 86_400_000_000L;
+        Account[] accounts = ledger.getAccounts().toArray(new Account[0]);
+
+        AtomicInteger nextAccount = new AtomicInteger();
+        AtomicLong statements = new AtomicLong();
+        AtomicLong transactions = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        List<IOException> failures = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < threads; i++) {
+            Path file = directory.resolve(String.format("statements-%03d.%s", i, format.extension));
+            Thread worker = new Thread(() -> {
+                try (Writer writer = new Writer(file, from, to, fromMicros, toMicros)) {
+                    int first;
+                    while ((first = nextAccount.getAndAdd(ACCOUNTS_PER_CLAIM)) < accounts.length) {
+                        int end = Math.min(first + ACCOUNTS_PER_CLAIM, accounts.length);
+                        for (int a = first; a < end; a++) {
+                            writer.statement(accounts[a]);
+                        }
+                    }
+                    writer.finish();
+                    statements.addAndGet(writer.statements);
+                    transactions.addAndGet(writer.transactions);
+                    bytes.addAndGet(writer.bytes);
+                } catch (IOException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }, "statement-worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        return new Summary(statements.get(), transactions.get(), bytes.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * One worker's part file with its reused line builder and output buffer
+     */
+    private final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder(256);
+        private final TransactionStore store = ledger.getTransactionStore();
+        private final String from;
+        private final String to;
+        private final long fromMicros;
+        private final long toMicros;
+        private long cachedDay = Long.MIN_VALUE;
+        private final char[] cachedDate = new char[10];
+        long statements;
+        long transactions;
+        long bytes;
+
+        Writer(Path file, LocalDate from, LocalDate to, long fromMicros, long toMicros) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+            this.from = from.toString();
+            this.to = to.toString();
+            this.fromMicros = fromMicros;
+            this.toMicros = toMicros;
+            if (format == Format.CSV) {
+                line.append("account,holder,transaction,timestamp,type,amount,balance_after,description\n");
+                emit();
+            }
+        }
+
+        void statement(Account account) throws IOException {
+            TransactionHistory history = ledger.historyOf(account);
+            int size = history.size();
+            int first = firstAtOrAfter(history, size, fromMicros);
+
+            long opening;
+            if (first > 0) {
+                opening = store.balanceAfter(history.get(first - 1));
+            } else if (size > 0) {
+                long row = history.get(0);
+                opening = Money.subtract(store.balanceAfter(row), store.type(row).balanceEffect(store.amount(row)));
+            } else {
+                opening = account.getBalance();
+            }
+
+            long closing = opening;
+            boolean firstRow = true;
+            startStatement(account, opening);
+            for (int i = first; i < size; i++) {
+                long row = history.get(i);
+                if (store.epochMicros(row) >= toMicros) {
+                    break;
+                }
+                if (store.type(row) == Transaction.TransactionType.BALANCE_INQUIRY) {
+                    continue;
+                }
+                closing = store.balanceAfter(row);
+                transactionLine(account, row, firstRow);
+                firstRow = false;
+                transactions++;
+            }
+            endStatement(account, closing);
+            statements++;
+        }
+
+        /**
+         * Binary search the history, which is in posting order, for the first row at or after a time
+         */
+        private int firstAtOrAfter(TransactionHistory history, int size, long micros) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (store.epochMicros(history.get(middle)) < micros) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private void startStatement(Account account, long opening) throws IOException {
+            line.setLength(0);
+            switch (format) {
+                case CSV:
+                    csvBalanceRow(account, "OPENING", opening);
+                    break;
+                case JSON:
+                    line.append("{\"account\":\"").append(account.getAccountNumber()).append("\",\"holder\":");
+                    Json.appendString(line, account.getAccountHolderName())
+                        .append(",\"from\":\"").append(from).append("\",\"to\":\"").append(to)
+                        .append("\",\"openingBalance\":\"");
+                    Money.appendTo(line, opening).append("\",\"transactions\":[");
+                    break;
+                default:
+                    line.append("STATEMENT ").append(account.getAccountNumber()).append("  ");
+                    pad(account.getAccountHolderName(), 40).append(from).append(" to ").append(to).append('\n');
+                    pad("OPENING BALANCE", LABEL_WIDTH);
+                    padMoney(opening, 15).append('\n');
+            }
+            emit();
+        }
+
+        private void transactionLine(Account account, long row, boolean firstRow) throws IOException {
+            line.setLength(0);
+            Transaction.TransactionType type = store.type(row);
+            switch (format) {
+                case CSV:
+                    csvTransactionRow(account, row, type);
+                    break;
+                case JSON:
+                    if (!firstRow) {
+                        line.append(',');
+                    }
+                    line.append("{\"id\":\"TXN").append(store.transactionNumber(row))
+                        .append("\",\"timestamp\":\"");
+                    appendTimestamp(store.epochMicros(row)).append("\",\"type\":\"").append(type.name())
+                        .append("\",\"amount\":\"");
+                    Money.appendTo(line, store.amount(row)).append("\",\"balanceAfter\":\"");
+                    Money.appendTo(line, store.balanceAfter(row)).append("\",\"description\":");
+                    Json.appendString(line, store.description(row)).append('}');
+                    break;
+                default:
+                    appendTimestamp(store.epochMicros(row)).append("  ");
+                    int start = line.length();
+                    line.append("TXN").append(store.transactionNumber(row));
+                    pad("", 16 - (line.length() - start));
+                    pad(type.name(), 14);
+                    padMoney(store.amount(row), 15);
+                    padMoney(store.balanceAfter(row), 15).append("  ");
+                    String description = store.description(row);
+                    line.append(description, 0, Math.min(description.length(), DESCRIPTION_WIDTH)).append('\n');
+            }
+            emit();
+        }
+
+        private void endStatement(Account account, long closing) throws IOException {
+            line.setLength(0);
+            switch (format) {
+                case CSV:
+                    csvBalanceRow(account, "CLOSING", closing);
+                    break;
+                case JSON:
+                    line.append("],\"closingBalance\":\"");
+                    Money.appendTo(line, closing).append("\"}\n");
+                    break;
+                default:
+                    pad("CLOSING BALANCE", LABEL_WIDTH);
+                    padMoney(closing, 15).append("\n\n");
+            }
+            emit();
+        }
+
+        private void csvTransactionRow(Account account, long row, Transaction.TransactionType type) {
+            line.append(account.getAccountNumber()).append(',');
+            appendCsv(account.getAccountHolderName()).append(",TXN").append(store.transactionNumber(row)).append(',');
+            appendTimestamp(store.epochMicros(row)).append(',').append(type.name()).append(',');
+            Money.appendTo(line, store.amount(row)).append(',');
+            Money.appendTo(line, store.balanceAfter(row)).append(',');
+            appendCsv(store.description(row)).append('\n');
+        }
+
+        private void csvBalanceRow(Account account, String label, long balance) {
+            line.append(account.getAccountNumber()).append(',');
+            appendCsv(account.getAccountHolderName()).append(",,,").append(label).append(",,");
+            Money.appendTo(line, balance).append(",\n");
+        }
+
+        private StringBuilder appendCsv(String value) {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                return line.append(value);
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                line.append(c);
+                if (c == '"') {
+                    line.append('"');
+                }
+            }
+            return line.append('"');
+        }
+
+        /**
+         * Append a value cut or padded on the right to a column width
+         */
+        private StringBuilder pad(String value, int width) {
+            int length = Math.min(value.length(), width);
+            line.append(value, 0, length);
+            for (int i = length; i < width; i++) {
+                line.append(' ');
+            }
+            return line;
+        }
+
+        /**
+         * Append an amount right-aligned in a column width
+         */
+        private StringBuilder padMoney(long cents, int width) {
+            int length = 3; // Point and two decimals
+            for (long dollars = Math.abs(cents / 100); dollars >= 10; dollars /= 10) {
+                length++;
+            }
+            length += cents < 0 ? 2 : 1;
+            for (int i = length; i < width; i++) {
+                line.append(' ');
+            }
+            return Money.appendTo(line, cents);
+        }
+
+        /**
+         * Append an ISO-8601 UTC timestamp to the second, e.g. 2026-10-17T04:07:31Z
+         */
+        private StringBuilder appendTimestamp(long epochMicros) {
+            long second = Math.floorDiv(epochMicros, 1_000_000);
+            long day = Math.floorDiv(second, 86_400);
+            if (day != cachedDay) {
+                LocalDate.ofEpochDay(day).format(DateTimeFormatter.ISO_LOCAL_DATE)
+                         .getChars(0, 10, cachedDate, 0);
+                cachedDay = day;
+            }
+            int secondOfDay = (int) (second - day * 86_400);
+            line.append(cachedDate).append('T');
+            twoDigits(secondOfDay / 3600).append(':');
+            twoDigits(secondOfDay / 60 % 60).append(':');
+            return twoDigits(secondOfDay % 60).append('Z');
+        }
+
+        private StringBuilder twoDigits(int value) {
+            return line.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+        }
+
+        /**
+         * Encode the line as UTF-8 into the buffer, writing the buffer out when it fills
+         */
+        private void emit() throws IOException {
+            int length = line.length();
+            if (buffer.remaining() < length * 3) {
+                drain();
+            }
+            for (int i = 0; i < length; i++) {
+                char c = line.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                           && Character.isLowSurrogate(line.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, line.charAt(++i));
+                    buffer.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                          .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F))
+                          .put((byte) (0x80 | c & 0x3F));
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            bytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void finish() throws IOException {
+            drain();
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -1,87 +1,102 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 /**
  * Transaction class to represent individual transactions
  * Demonstrates composition and data encapsulation
+ * A Transaction is a lightweight view over one record of a TransactionStore
  */
 public class Transaction {
-    private String transactionId;
-    private String accountNumber;
-    private TransactionType type;
-    private double amount;
-    private double balanceAfter;
-    private LocalDateTime timestamp;
-    private String description;
-    private static int transactionCounter = 1000;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private final TransactionStore store;
+    private long row;
     
-    // Enum for transaction types
+    // Enum for transaction types, with the sign each type applies to the balance
+    // Stored by ordinal in the journal and transaction store, so new types go at the end
     public enum TransactionType {
-        DEPOSIT, WITHDRAWAL, TRANSFER_IN, TRANSFER_OUT, BALANCE_INQUIRY
+        DEPOSIT(1), WITHDRAWAL(-1), TRANSFER_IN(1), TRANSFER_OUT(-1), BALANCE_INQUIRY(0), INTEREST(1), FEE(-1);
+        
+        private final int sign;
+        
+        TransactionType(int sign) {
+            this.sign = sign;
+        }
+        
+        /**
+         * @return the change this type makes to a balance for the given amount
+         */
+        public long balanceEffect(long amount) {
+            return sign * amount;
+        }
     }
     
-    // Constructor
-    public Transaction(String accountNumber, TransactionType type, double amount, 
-                      double balanceAfter, String description) {
-        this.transactionId = "TXN" + (++transactionCounter);
-        this.accountNumber = accountNumber;
-        this.type = type;
-        this.amount = amount;
-        this.balanceAfter = balanceAfter;
-        this.description = description != null ? description : "";
-        this.timestamp = LocalDateTime.now();
+    // Constructor, transactions are created by TransactionStore
+    Transaction(TransactionStore store, long row) {
+        this.store = store;
+        this.row = row;
+    }
+    
+    // Point a reused view at another row during a scan
+    void moveTo(long row) {
+        this.row = row;
     }
     
     // Getters
+    public long getRow() {
+        return row;
+    }
+    
+    public long getTransactionNumber() {
+        return store.transactionNumber(row);
+    }
+    
     public String getTransactionId() {
-        return transactionId;
+        return "TXN" + getTransactionNumber();
+    }
+    
+    public int getAccountId() {
+        return store.accountId(row);
     }
     
     public String getAccountNumber() {
-        return accountNumber;
+        return "ACC" + getAccountId();
     }
     
     public TransactionType getType() {
-        return type;
+        return store.type(row);
     }
     
-    public double getAmount() {
-        return amount;
+    public long getAmount() {
+        return store.amount(row);
     }
     
-    public double getBalanceAfter() {
-        return balanceAfter;
+    public long getBalanceAfter() {
+        return store.balanceAfter(row);
     }
     
-    public LocalDateTime getTimestamp() {
-        return timestamp;
+    public long getEpochMicros() {
+        return store.epochMicros(row);
     }
     
-    public String getDescription() {
-        return description;
+    public LocalDateTime getTimestamp() {
+        long micros = getEpochMicros();
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                                                             Math.floorMod(micros, 1_000_000) * 1000),
+                                       ZoneId.systemDefault());
     }
     
-    /**
-     * Display transaction details
-     */
-    public void displayTransaction() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        System.out.printf("ID: %s | %s | %s | $%.2f | Balance: $%.2f | %s%n",
-                         transactionId,
-                         timestamp.format(formatter),
-                         type.toString().replace("_", " "),
-                         amount,
-                         balanceAfter,
-                         description);
+    public String getDescription() {
+        return store.description(row);
     }
     
     @Override
     public String toString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        return String.format("%s - %s: $%.2f (Balance: $%.2f)",
-                           timestamp.format(formatter),
-                           type.toString().replace("_", " "),
-                           amount,
-                           balanceAfter);
+        return String.format("%s - %s: $%s (Balance: $%s)",
+                           getTimestamp().format(TIMESTAMP_FORMAT),
+                           getType().toString().replace("_", " "),
+                           Money.format(getAmount()),
+                           Money.format(getBalanceAfter()));
     }
 }
\ No newline at end of file
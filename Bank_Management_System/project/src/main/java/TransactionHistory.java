@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-account transaction index, kept in fixed-size chunks of store rows
+ * Demonstrates constant-time access to the newest entries and to any page,
+ * no matter how large the bank-wide ledger grows
+ */
+public class TransactionHistory {
+    private static final int CHUNK_SHIFT = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private long[][] chunks; // Allocated on first use, most accounts in a snapshot never need it
+    private volatile int size;
+
+    /**
+     * Append a transaction to the end of the history
+     * @param row Row of the transaction in the TransactionStore
+     */
+    public synchronized void add(long row) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        if (chunks == null) {
+            chunks = new long[4][];
+        } else if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new long[CHUNK_SIZE];
+        }
+        chunks[chunk][index & CHUNK_MASK] = row;
+        size = index + 1; // Publishes the new entry to readers
+    }
+
+    /**
+     * Put older transactions in front of the ones already recorded
+     * @param older History holding the older rows, oldest first
+     */
+    public synchronized void prependAll(TransactionHistory older) {
+        int olderSize = older.size();
+        if (olderSize == 0) {
+            return;
+        }
+        int currentSize = size;
+        long[] rows = new long[olderSize + currentSize];
+        for (int i = 0; i < olderSize; i++) {
+            rows[i] = older.get(i);
+        }
+        for (int i = 0; i < currentSize; i++) {
+            rows[olderSize + i] = get(i);
+        }
+        chunks = null;
+        size = 0;
+        for (long row : rows) {
+            add(row);
+        }
+    }
+
+    /**
+     * @return number of transactions recorded for the account
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the store row of a transaction by position, oldest first
+     * @param index Position from 0 to size() - 1
+     * @return row of the transaction at that position
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Get the most recent transactions
+     * @param store Store holding the transactions
+     * @param count Maximum number of transactions to return
+     * @return transactions, newest first
+     */
+    public List<Transaction> latest(TransactionStore store, int count) {
+        return page(store, 0, count);
+    }
+
+    /**
+     * Get one page of the history counting back from the newest transaction
+     * @param store Store holding the transactions
+     * @param pageNumber Page number, 0 is the newest page
+     * @param pageSize Number of transactions per page
+     * @return transactions on the page, newest first
+     */
+    public List<Transaction> page(TransactionStore store, int pageNumber, int pageSize) {
+        if (pageNumber < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Page number must be >= 0 and page size > 0");
+        }
+        int newest = size - 1 - (int) Math.min((long) pageNumber * pageSize, Integer.MAX_VALUE);
+        int oldest = Math.max(newest - pageSize + 1, 0);
+        List<Transaction> page = new ArrayList<>(Math.max(newest - oldest + 1, 0));
+        for (int i = newest; i >= oldest; i--) {
+            page.add(store.get(get(i)));
+        }
+        return page;
+    }
+}
@@ -0,0 +1,583 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search index over every row of a TransactionStore
+ * Demonstrates secondary indexes kept beside an append-only log, so a
+ * search touches the rows it returns instead of scanning the whole ledger
+ *
+ * A background thread follows the store in row order and adds each
+ * complete row to:
+ *   - a posting list per type and amount bucket, with the 1.6%-wide
+ *     buckets of LatencyHistogram
+ *   - a posting list per description, plus a list of descriptions per word
+ *   - a zone map per block of 1024 rows holding the newest timestamp up to
+ *     the block and the oldest timestamp from the block on, so a time range
+ *     maps to a row range with two binary searches
+ * Posting lists hold rows in ascending order, about 8 bytes per row in all.
+ *
+ * A search picks whichever of these gives the fewest candidate rows,
+ * merges them newest first and checks every filter against the store, so
+ * a page costs about its size plus the candidates it skips. Rows the
+ * follower has not reached yet, and rows left empty by a crash, are
+ * checked directly.
+ */
+public class TransactionIndex implements Closeable {
+    public static final long FIRST_PAGE = Long.MAX_VALUE;
+
+    private static final int BLOCK_SHIFT = 10;
+    private static final int AMOUNT_BUCKETS = LatencyHistogram.BUCKETS;
+    private static final Transaction.TransactionType[] TYPES = Transaction.TransactionType.values();
+    private static final int MAX_LISTS = 4096;               // Posting lists one search will merge
+    private static final int MAX_BATCH = 1 << 20;            // Rows the follower indexes per lock hold
+    private static final long STALL_NANOS = 1_000_000_000L;  // In-flight time before a row counts as empty
+    private static final long POLL_MILLIS = 10;
+
+    private final TransactionStore store;
+    private final ScheduledExecutorService follower;
+
+    // Everything below is guarded by this; Postings contents may be read without it
+    private final Postings[] byTypeAndAmount = new Postings[TYPES.length * AMOUNT_BUCKETS];
+    private Postings[] byDescription = new Postings[64];
+    private final Map<String, Postings> descriptionsByWord = new HashMap<>();
+    private int tokenizedDescriptions;
+    private long[] newestUpTo = new long[64];
+    private long[] oldestFrom = new long[64];
+    private int blocks;
+    private long[] emptyRows = new long[0];
+    private long stalledRow = -1;
+    private long stalledSince;
+    private volatile long indexedRows;
+
+    /**
+     * Index a store and keep following it on a background thread
+     * @param store Store to index
+     */
+    public TransactionIndex(TransactionStore store) {
+        this.store = store;
+        this.follower = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        follower.scheduleWithFixedDelay(() -> {
+            try {
+                catchUp(Math.min(store.size(), indexedRows + MAX_BATCH));
+            } catch (RuntimeException e) {
+                System.err.println("Transaction indexing failed: " + e.getMessage());
+            }
+        }, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One page of search results
+     */
+    public static final class Page {
+        private final List<Transaction> transactions;
+        private final long nextCursor;
+
+        Page(List<Transaction> transactions, long nextCursor) {
+            this.transactions = transactions;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * @return matching transactions, newest first
+         */
+        public List<Transaction> getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return cursor for the next page, or -1 if this is the last page
+         */
+        public long getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean hasNext() {
+            return nextCursor >= 0;
+        }
+    }
+
+    /**
+     * Find one page of matching transactions, newest first
+     * @param query Filters to apply
+     * @param history History of the query's account, or null to search the whole store
+     * @param cursor FIRST_PAGE, or the next cursor of the previous page
+     * @param pageSize Most transactions to return
+     */
+    public Page search(TransactionQuery query, TransactionHistory history, long cursor, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        if (cursor < 0) {
+            return new Page(Collections.emptyList(), -1);
+        }
+        Filter filter;
+        Source source = null;
+        synchronized (this) {
+            if (history == null) {
+                catchUp(store.size());
+            }
+            filter = new Filter(query);
+            if (history == null) {
+                source = plan(filter, cursor);
+            }
+        }
+        List<Transaction> found = new ArrayList<>(Math.min(pageSize, 64));
+        if (history != null) {
+            // Positions in the history are the cursor, as in Ledger.transactionPage
+            for (int position = (int) Math.min(cursor, history.size()) - 1; position >= 0; position--) {
+                long row = history.get(position);
+                if (filter.matches(row)) {
+                    found.add(store.get(row));
+                    if (found.size() == pageSize) {
+                        return new Page(found, position);
+                    }
+                }
+            }
+            return new Page(found, -1);
+        }
+        for (long row = source.row; row >= 0; row = source.row) {
+            source.advance();
+            if (filter.matches(row)) {
+                found.add(store.get(row));
+                if (found.size() == pageSize) {
+                    return new Page(found, row);
+                }
+            }
+        }
+        return new Page(found, -1);
+    }
+
+    /**
+     * @return rows the follower has indexed so far
+     */
+    public long indexedRows() {
+        return indexedRows;
+    }
+
+    /**
+     * Pick the candidate source with the fewest rows below the cursor
+     */
+    private Source plan(Filter filter, long cursor) {
+        TransactionQuery query = filter.query;
+        long indexed = indexedRows;
+        long lowRow = 0;
+        long highRow = Math.min(cursor, indexed);
+        if (query.getFromMicros() != Long.MIN_VALUE) {
+            lowRow = (long) firstBlock(newestUpTo, query.getFromMicros()) << BLOCK_SHIFT;
+        }
+        if (query.getToMicros() != Long.MAX_VALUE) {
+            highRow = Math.min(highRow, (long) firstBlock(oldestFrom, query.getToMicros()) << BLOCK_SHIFT);
+        }
+
+        List<Source> sources = new ArrayList<>();
+        sources.add(new RangeSource(Math.min(cursor, store.size()), indexed));
+        int empty = emptyRows.length;
+        while (empty > 0 && emptyRows[empty - 1] >= cursor) {
+            empty--;
+        }
+        sources.add(new ArraySource(emptyRows, empty));
+        if (lowRow >= highRow) {
+            return Merge.of(sources);
+        }
+
+        Source best = new RangeSource(highRow, lowRow);
+        long bestRows = highRow - lowRow;
+        if (query.hasTypeFilter() || query.hasAmountFilter()) {
+            List<Source> lists = new ArrayList<>();
+            long rows = 0;
+            int first = LatencyHistogram.bucketOf(query.getMinAmount());
+            int last = LatencyHistogram.bucketOf(query.getMaxAmount());
+            for (int type = 0; type < TYPES.length && lists.size() <= MAX_LISTS; type++) {
+                if (query.matchesType(TYPES[type])) {
+                    for (int bucket = first; bucket <= last; bucket++) {
+                        rows += addList(lists, byTypeAndAmount[type * AMOUNT_BUCKETS + bucket], lowRow, highRow);
+                    }
+                }
+            }
+            if (lists.size() <= MAX_LISTS && rows < bestRows) {
+                best = Merge.of(lists);
+                bestRows = rows;
+            }
+        }
+        if (filter.matching != null && filter.matching.length <= MAX_LISTS) {
+            List<Source> lists = new ArrayList<>();
+            long rows = 0;
+            for (int description : filter.matching) {
+                rows += addList(lists, byDescription[description], lowRow, highRow);
+            }
+            if (rows < bestRows) {
+                best = Merge.of(lists);
+            }
+        }
+        sources.add(best);
+        return Merge.of(sources);
+    }
+
+    private static long addList(List<Source> lists, Postings postings, long lowRow, long highRow) {
+        if (postings == null) {
+            return 0;
+        }
+        int end = postings.lowerBound(highRow, postings.size());
+        int start = postings.lowerBound(lowRow, end);
+        if (start < end) {
+            lists.add(new ListSource(postings, start, end));
+        }
+        return end - start;
+    }
+
+    /**
+     * @return first block whose entry is at least the value, or the block count
+     */
+    private int firstBlock(long[] entries, long value) {
+        int low = 0;
+        int high = blocks;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Intersect the description lists of every word, smallest list first
+     * @return ids of the tokenized descriptions containing all the words, ascending
+     */
+    private int[] matchingDescriptions(String[] words) {
+        Postings[] lists = new Postings[words.length];
+        for (int i = 0; i < words.length; i++) {
+            lists[i] = descriptionsByWord.get(words[i]);
+            if (lists[i] == null) {
+                return new int[0];
+            }
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+        int[] positions = new int[lists.length];
+        int[] matches = new int[lists[0].size()];
+        int count = 0;
+        candidates:
+        for (int i = 0; i < lists[0].size(); i++) {
+            int description = lists[0].get(i);
+            for (int list = 1; list < lists.length; list++) {
+                positions[list] = lists[list].lowerBound(description, positions[list], lists[list].size());
+                if (positions[list] == lists[list].size()) {
+                    break candidates;
+                }
+                if (lists[list].get(positions[list]) != description) {
+                    continue candidates;
+                }
+            }
+            matches[count++] = description;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    // Following the store
+
+    /**
+     * Index complete rows in order up to end. A row still in flight stops
+     * the follower until it completes, or until STALL_NANOS have passed,
+     * after which it is skipped and checked by every search instead.
+     * Discarded rows never complete, so they are skipped at once.
+     */
+    private synchronized void catchUp(long end) {
+        long row = indexedRows;
+        for (; row < end; row++) {
+            if (store.isComplete(row)) {
+                index(row);
+            } else if (store.isDiscarded(row)) {
+                continue;
+            } else if (row != stalledRow) {
+                stalledRow = row;
+                stalledSince = System.nanoTime();
+                break;
+            } else if (System.nanoTime() - stalledSince < STALL_NANOS) {
+                break;
+            } else {
+                emptyRows = Arrays.copyOf(emptyRows, emptyRows.length + 1);
+                emptyRows[emptyRows.length - 1] = row;
+            }
+        }
+        indexedRows = row;
+    }
+
+    private void index(long row) {
+        if (row > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The search index holds up to " + Integer.MAX_VALUE + " rows");
+        }
+        int slot = store.type(row).ordinal() * AMOUNT_BUCKETS + LatencyHistogram.bucketOf(store.amount(row));
+        if (byTypeAndAmount[slot] == null) {
+            byTypeAndAmount[slot] = new Postings();
+        }
+        byTypeAndAmount[slot].add((int) row);
+
+        int description = store.descriptionId(row);
+        while (tokenizedDescriptions <= description) {
+            tokenize(tokenizedDescriptions++);
+        }
+        byDescription[description].add((int) row);
+
+        int block = (int) (row >>> BLOCK_SHIFT);
+        while (blocks <= block) {
+            if (blocks == newestUpTo.length) {
+                newestUpTo = Arrays.copyOf(newestUpTo, blocks * 2);
+                oldestFrom = Arrays.copyOf(oldestFrom, blocks * 2);
+            }
+            newestUpTo[blocks] = blocks == 0 ? Long.MIN_VALUE : newestUpTo[blocks - 1];
+            oldestFrom[blocks] = Long.MAX_VALUE;
+            blocks++;
+        }
+        long micros = store.epochMicros(row);
+        newestUpTo[block] = Math.max(newestUpTo[block], micros);
+        // Timestamps almost always grow with the row, so this loop rarely goes back a block
+        for (int i = block; i >= 0 && oldestFrom[i] > micros; i--) {
+            oldestFrom[i] = micros;
+        }
+    }
+
+    private void tokenize(int description) {
+        if (description == byDescription.length) {
+            byDescription = Arrays.copyOf(byDescription, description * 2);
+        }
+        byDescription[description] = new Postings();
+        for (String word : TransactionQuery.words(store.descriptionText(description))) {
+            Postings descriptions = descriptionsByWord.computeIfAbsent(word, w -> new Postings());
+            int size = descriptions.size();
+            if (size == 0 || descriptions.get(size - 1) != description) {
+                descriptions.add(description);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        follower.shutdownNow();
+    }
+
+    /**
+     * Filters of one search, checked against store rows
+     */
+    private final class Filter {
+        private final TransactionQuery query;
+        private final int[] matching; // Matching tokenized descriptions, null without a text filter
+        private final BitSet descriptions = new BitSet();
+        private final int tokenized;
+
+        Filter(TransactionQuery query) {
+            this.query = query;
+            this.tokenized = tokenizedDescriptions;
+            this.matching = query.getWords().length > 0 ? matchingDescriptions(query.getWords()) : null;
+            if (matching != null) {
+                for (int description : matching) {
+                    descriptions.set(description);
+                }
+            }
+        }
+
+        boolean matches(long row) {
+            if (!store.isComplete(row) || !query.matchesType(store.type(row))) {
+                return false;
+            }
+            long amount = store.amount(row);
+            long micros = store.epochMicros(row);
+            if (amount < query.getMinAmount() || amount > query.getMaxAmount()
+                || micros < query.getFromMicros() || micros >= query.getToMicros()) {
+                return false;
+            }
+            if (query.getAccountId() >= 0 && store.accountId(row) != query.getAccountId()) {
+                return false;
+            }
+            return query.getWords().length == 0 || matchesWords(store.descriptionId(row));
+        }
+
+        private boolean matchesWords(int description) {
+            if (description < tokenized) {
+                return descriptions.get(description);
+            }
+            // Interned after the search started, so not in the word lists yet
+            List<String> words = Arrays.asList(TransactionQuery.words(store.descriptionText(description)));
+            return words.containsAll(Arrays.asList(query.getWords()));
+        }
+    }
+
+    /**
+     * Growable list of ints, appended by one thread under the index lock
+     * and read by any thread up to the size it saw
+     */
+    static final class Postings {
+        private int[] values = new int[4];
+        private volatile int size;
+
+        void add(int value) {
+            int index = size;
+            if (index == values.length) {
+                values = Arrays.copyOf(values, index * 2);
+            }
+            values[index] = value;
+            size = index + 1; // Publishes the new entry to readers
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int lowerBound(long value, int end) {
+            return lowerBound(value, 0, end);
+        }
+
+        /**
+         * @return first position from start to end holding at least the value, or end
+         */
+        int lowerBound(long value, int start, int end) {
+            int[] current = values;
+            int low = start;
+            int high = end;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (current[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    // Candidate rows, produced newest first; row is -1 once a source is exhausted
+
+    private abstract static class Source {
+        long row = -1;
+
+        abstract void advance();
+    }
+
+    private static final class RangeSource extends Source {
+        private final long low;
+
+        RangeSource(long high, long low) {
+            this.low = low;
+            this.row = high > low ? high - 1 : -1;
+        }
+
+        @Override
+        void advance() {
+            row = row > low ? row - 1 : -1;
+        }
+    }
+
+    private static final class ArraySource extends Source {
+        private final long[] rows;
+        private int position;
+
+        ArraySource(long[] rows, int end) {
+            this.rows = rows;
+            this.position = end;
+            advance();
+        }
+
+        @Override
+        void advance() {
+            row = position > 0 ? rows[--position] : -1;
+        }
+    }
+
+    private static final class ListSource extends Source {
+        private final Postings postings;
+        private final int start;
+        private int position;
+
+        ListSource(Postings postings, int start, int end) {
+            this.postings = postings;
+            this.start = start;
+            this.position = end;
+            advance();
+        }
+
+        @Override
+        void advance() {
+            row = position > start ? postings.get(--position) : -1;
+        }
+    }
+
+    /**
+     * Sources merged through a binary heap ordered by their current row
+     */
+    private static final class Merge extends Source {
+        private final Source[] heap;
+        private int size;
+
+        private Merge(List<Source> sources) {
+            heap = new Source[sources.size()];
+            for (Source source : sources) {
+                if (source.row >= 0) {
+                    heap[size++] = source;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+            row = size > 0 ? heap[0].row : -1;
+        }
+
+        static Source of(List<Source> sources) {
+            return sources.size() == 1 ? sources.get(0) : new Merge(sources);
+        }
+
+        @Override
+        void advance() {
+            if (size == 0) {
+                return;
+            }
+            heap[0].advance();
+            if (heap[0].row < 0) {
+                heap[0] = heap[--size];
+            }
+            if (size > 0) {
+                siftDown(0);
+                row = heap[0].row;
+            } else {
+                row = -1;
+            }
+        }
+
+        private void siftDown(int index) {
+            Source source = heap[index];
+            while (true) {
+                int child = index * 2 + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1].row > heap[child].row) {
+                    child++;
+                }
+                if (heap[child].row <= source.row) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = source;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * TransactionQuery class holding the filters of a transaction search
+ * Demonstrates a small criteria object that the TransactionIndex turns
+ * into index lookups, so callers never write scans of their own
+ *
+ * Every filter is optional and filters combine with AND. Text matches
+ * descriptions that contain every word of the text, ignoring case, so
+ * "transfer to chitra" finds every "Transfer to Chitra".
+ */
+public class TransactionQuery {
+    private int typeMask = -1;
+    private long minAmount = Long.MIN_VALUE;
+    private long maxAmount = Long.MAX_VALUE;
+    private long fromMicros = Long.MIN_VALUE;
+    private long toMicros = Long.MAX_VALUE;
+    private String[] words = new String[0];
+    private int accountId = -1;
+
+    /**
+     * Only match the given types
+     */
+    public TransactionQuery types(Transaction.TransactionType... types) {
+        typeMask = 0;
+        for (Transaction.TransactionType type : types) {
+            typeMask |= 1 << type.ordinal();
+        }
+        return this;
+    }
+
+    /**
+     * Only match amounts from min to max cents, both inclusive
+     */
+    public TransactionQuery amountBetween(long min, long max) {
+        if (min > max) {
+            throw new IllegalArgumentException("Minimum amount is above the maximum");
+        }
+        minAmount = min;
+        maxAmount = max;
+        return this;
+    }
+
+    /**
+     * Only match timestamps from fromMicros inclusive to toMicros exclusive
+     */
+    public TransactionQuery between(long fromMicros, long toMicros) {
+        if (fromMicros > toMicros) {
+            throw new IllegalArgumentException("Start time is after the end time");
+        }
+        this.fromMicros = fromMicros;
+        this.toMicros = toMicros;
+        return this;
+    }
+
+    /**
+     * Only match the calendar days from first to last, both inclusive, in
+     * the system time zone
+     * @param first First day, or null for no start
+     * @param last Last day, or null for no end
+     */
+    public TransactionQuery between(LocalDate first, LocalDate last) {
+        ZoneId zone = ZoneId.systemDefault();
+        return between(first == null ? Long.MIN_VALUE : first.atStartOfDay(zone).toEpochSecond() * 1_000_000,
+                       last == null ? Long.MAX_VALUE : last.plusDays(1).atStartOfDay(zone).toEpochSecond() * 1_000_000);
+    }
+
+    /**
+     * Only match descriptions containing every word of the text
+     */
+    public TransactionQuery text(String text) {
+        words = words(text);
+        return this;
+    }
+
+    /**
+     * Only match one account's transactions
+     */
+    public TransactionQuery account(Account account) {
+        accountId = account.getAccountId();
+        return this;
+    }
+
+    /**
+     * Split text into lower-case words of letters and digits
+     */
+    static String[] words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    boolean matchesType(Transaction.TransactionType type) {
+        return (typeMask & 1 << type.ordinal()) != 0;
+    }
+
+    boolean hasTypeFilter() {
+        return typeMask != -1;
+    }
+
+    boolean hasAmountFilter() {
+        return minAmount != Long.MIN_VALUE || maxAmount != Long.MAX_VALUE;
+    }
+
+    long getMinAmount() {
+        return minAmount;
+    }
+
+    long getMaxAmount() {
+        return maxAmount;
+    }
+
+    long getFromMicros() {
+        return fromMicros;
+    }
+
+    long getToMicros() {
+        return toMicros;
+    }
+
+    String[] getWords() {
+        return words;
+    }
+
+    int getAccountId() {
+        return accountId;
+    }
+}
@@ -0,0 +1,337 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Transaction store backed by memory-mapped files of fixed-width records
+ * Demonstrates keeping a very large ledger off the Java heap
+ *
+ * Each record is 48 bytes:
+ *   0  long  transaction number (written last, 0 while the row is in flight,
+ *            -1 once it is discarded)
+ *   8  int   account id
+ *   12 byte  transaction type
+ *   13 byte  flags: OPENING for the deposit an account was opened with
+ *   16 long  amount in cents
+ *   24 long  balance after in cents
+ *   32 long  timestamp in epoch microseconds
+ *   40 int   description id in the DescriptionDictionary
+ *
+ * The row of a transaction is its transaction number minus
+ * FIRST_TRANSACTION_NUMBER, so replaying the same posting twice rewrites
+ * the same row.
+ */
+public class TransactionStore implements Closeable {
+    public static final long FIRST_TRANSACTION_NUMBER = 1001;
+    public static final int RECORD_SIZE = 48;
+    public static final byte OPENING = 1;
+    private static final int SEGMENT_SHIFT = 20; // 1M rows, 48 MB per segment file
+    private static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_ROWS - 1;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final long DISCARDED = -1;
+
+    private static final int NUMBER = 0;
+    private static final int ACCOUNT_ID = 8;
+    private static final int TYPE = 12;
+    private static final int FLAGS = 13;
+    private static final int AMOUNT = 16;
+    private static final int BALANCE_AFTER = 24;
+    private static final int TIMESTAMP = 32;
+    private static final int DESCRIPTION = 40;
+
+    private final Path directory;
+    private final boolean temporary;
+    private final DescriptionDictionary descriptions;
+    private final AtomicLong nextRow = new AtomicLong();
+    private final Transaction.TransactionType[] types = Transaction.TransactionType.values();
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * Open (or create) a store in a directory
+     * @param directory Directory holding the segment and dictionary files
+     */
+    public TransactionStore(Path directory) throws IOException {
+        this(directory, false);
+    }
+
+    private TransactionStore(Path directory, boolean temporary) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.temporary = temporary;
+        this.descriptions = new DescriptionDictionary(directory.resolve("descriptions.dat"));
+    }
+
+    /**
+     * Create a store in a new temporary directory that is deleted on close
+     */
+    public static TransactionStore temporary() {
+        try {
+            return new TransactionStore(Files.createTempDirectory("ledger"), true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a temporary transaction store", e);
+        }
+    }
+
+    /**
+     * Append a new transaction stamped with the current time
+     * @return row of the new transaction
+     */
+    public long append(int accountId, Transaction.TransactionType type, long amount,
+                       long balanceAfter, String description) {
+        return append(accountId, type, amount, balanceAfter, description, (byte) 0);
+    }
+
+    /**
+     * Append a new transaction with flags, e.g. OPENING
+     * @return row of the new transaction
+     */
+    public long append(int accountId, Transaction.TransactionType type, long amount,
+                       long balanceAfter, String description, byte flags) {
+        long row = nextRow.getAndIncrement();
+        Instant now = Instant.now();
+        write(row, accountId, type, amount, balanceAfter,
+              now.getEpochSecond() * 1_000_000 + now.getNano() / 1000, description, flags);
+        return row;
+    }
+
+    /**
+     * Write a transaction recovered from the journal at its original row
+     * @return row of the transaction
+     */
+    public long put(long transactionNumber, int accountId, Transaction.TransactionType type, long amount,
+                    long balanceAfter, long epochMicros, String description) {
+        return put(transactionNumber, accountId, type, amount, balanceAfter, epochMicros, description, (byte) 0);
+    }
+
+    /**
+     * Write a recovered transaction with flags, e.g. OPENING
+     * @return row of the transaction
+     */
+    public long put(long transactionNumber, int accountId, Transaction.TransactionType type, long amount,
+                    long balanceAfter, long epochMicros, String description, byte flags) {
+        long row = transactionNumber - FIRST_TRANSACTION_NUMBER;
+        nextRow.accumulateAndGet(row + 1, Math::max);
+        write(row, accountId, type, amount, balanceAfter, epochMicros, description, flags);
+        return row;
+    }
+
+    private void write(long row, int accountId, Transaction.TransactionType type, long amount,
+                       long balanceAfter, long epochMicros, String description, byte flags) {
+        MappedByteBuffer segment = segment(row);
+        int offset = offset(row);
+        segment.putInt(offset + ACCOUNT_ID, accountId);
+        segment.put(offset + TYPE, (byte) type.ordinal());
+        segment.put(offset + FLAGS, flags);
+        segment.putLong(offset + AMOUNT, amount);
+        segment.putLong(offset + BALANCE_AFTER, balanceAfter);
+        segment.putLong(offset + TIMESTAMP, epochMicros);
+        segment.putInt(offset + DESCRIPTION, descriptions.intern(description == null ? "" : description));
+        // The number goes in last with release semantics; readers treat 0 as in flight
+        LONGS.setRelease(segment, offset + NUMBER, row + FIRST_TRANSACTION_NUMBER);
+    }
+
+    /**
+     * Mark a row as never to be completed, e.g. because its posting could
+     * not be journaled, or its frame was lost in a crash; readers skip it
+     */
+    public void discard(long row) {
+        LONGS.setRelease(segment(row), offset(row) + NUMBER, DISCARDED);
+    }
+
+    /**
+     * Empty the rows at and after size() that are still in the segment
+     * files, e.g. written before a crash but never journaled, so rows
+     * handed out again start in flight
+     */
+    public void truncate() {
+        long row = size();
+        for (int index = (int) (row >>> SEGMENT_SHIFT); Files.exists(segmentFile(index)); index++) {
+            MappedByteBuffer segment = segment(row);
+            for (; row < (long) (index + 1) << SEGMENT_SHIFT; row++) {
+                if ((long) LONGS.getAcquire(segment, offset(row) + NUMBER) != 0) {
+                    LONGS.setRelease(segment, offset(row) + NUMBER, 0L);
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure new rows start after the given row count, e.g. after loading
+     * a checkpoint that covers rows already on disk
+     */
+    public void advanceTo(long rows) {
+        nextRow.accumulateAndGet(rows, Math::max);
+    }
+
+    /**
+     * @return number of rows handed out so far, including any still in flight
+     */
+    public long size() {
+        return nextRow.get();
+    }
+
+    /**
+     * Get a view of the transaction at a row
+     */
+    public Transaction get(long row) {
+        return new Transaction(this, row);
+    }
+
+    /**
+     * Visit every complete transaction in row order. The same view object
+     * is moved from row to row, so callers must not keep it.
+     * @param action Action to run for each transaction
+     */
+    public void forEach(Consumer<Transaction> action) {
+        long end = size();
+        Transaction view = new Transaction(this, 0);
+        for (long row = 0; row < end; row++) {
+            if (isComplete(row)) {
+                view.moveTo(row);
+                action.accept(view);
+            }
+        }
+    }
+
+    /**
+     * @return true if the row has been fully written
+     */
+    public boolean isComplete(long row) {
+        return transactionNumber(row) != 0;
+    }
+
+    public long transactionNumber(long row) {
+        if (row >= nextRow.get()) {
+            return 0;
+        }
+        long number = (long) LONGS.getAcquire(segment(row), offset(row) + NUMBER);
+        return number != DISCARDED ? number : 0;
+    }
+
+    /**
+     * @return true if the row was discarded and will never be complete
+     */
+    public boolean isDiscarded(long row) {
+        return row < nextRow.get() && (long) LONGS.getAcquire(segment(row), offset(row) + NUMBER) == DISCARDED;
+    }
+
+    public int accountId(long row) {
+        return segment(row).getInt(offset(row) + ACCOUNT_ID);
+    }
+
+    public Transaction.TransactionType type(long row) {
+        return types[segment(row).get(offset(row) + TYPE)];
+    }
+
+    /**
+     * @return true if the row is the deposit an account was opened with
+     */
+    public boolean isOpening(long row) {
+        return (segment(row).get(offset(row) + FLAGS) & OPENING) != 0;
+    }
+
+    public long amount(long row) {
+        return segment(row).getLong(offset(row) + AMOUNT);
+    }
+
+    public long balanceAfter(long row) {
+        return segment(row).getLong(offset(row) + BALANCE_AFTER);
+    }
+
+    public long epochMicros(long row) {
+        return segment(row).getLong(offset(row) + TIMESTAMP);
+    }
+
+    public String description(long row) {
+        return descriptions.get(descriptionId(row));
+    }
+
+    /**
+     * @return id of the row's description in the DescriptionDictionary
+     */
+    int descriptionId(long row) {
+        return segment(row).getInt(offset(row) + DESCRIPTION);
+    }
+
+    /**
+     * @return description text for an id returned by descriptionId
+     */
+    String descriptionText(int id) {
+        return descriptions.get(id);
+    }
+
+    private static int offset(long row) {
+        return (int) (row & SEGMENT_MASK) * RECORD_SIZE;
+    }
+
+    private MappedByteBuffer segment(long row) {
+        int index = (int) (row >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] current = segments;
+        if (index < current.length) {
+            return current[index];
+        }
+        return mapSegments(index);
+    }
+
+    private synchronized MappedByteBuffer mapSegments(int index) {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length) {
+            return current[index];
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+        try {
+            for (int i = current.length; i <= index; i++) {
+                try (FileChannel channel = FileChannel.open(segmentFile(i), StandardOpenOption.CREATE,
+                                                            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_ROWS * RECORD_SIZE);
+                    grown[i].order(ByteOrder.nativeOrder());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map transaction store segment " + index, e);
+        }
+        segments = grown;
+        return grown[index];
+    }
+
+    private Path segmentFile(int index) {
+        return directory.resolve(String.format("segment-%05d.dat", index));
+    }
+
+    /**
+     * Force every mapped segment to disk
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        descriptions.close();
+        if (temporary) {
+            segments = new MappedByteBuffer[0];
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        } else {
+            force();
+        }
+    }
+}
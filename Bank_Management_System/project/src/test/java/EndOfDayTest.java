@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that the end-of-day batch journals its postings before applying them
+ * While interest and fees are posted, other threads withdraw whole balances,
+ * interest included. Replaying the journal after a simulated crash must
+ * not find a withdrawal ahead of the interest it spent, and must rebuild
+ * every balance. A run whose journal cannot be written changes nothing.
+ *
+ * Usage: EndOfDayTest [accounts] [days]
+ */
+public class EndOfDayTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        recoversAfterConcurrentWithdrawals(accounts, days);
+        failedJournalChangesNothing();
+    }
+
+    private static void recoversAfterConcurrentWithdrawals(int count, int days) throws Exception {
+        Path file = Files.createTempFile("ledger", ".journal");
+        try {
+            Account[] accounts = new Account[count];
+            long[] balances = new long[count];
+            try (Ledger ledger = new Ledger(new Journal(file, Journal.Durability.PER_BATCH, 10))) {
+                for (int i = 0; i < count; i++) {
+                    accounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(5000));
+                }
+                // 1% a day, so every run credits interest a withdrawal can spend at once
+                EndOfDayProcessor processor = new EndOfDayProcessor(ledger, null, 2, 36_500, Money.ofDollars(1),
+                                                                    Money.ofDollars(1_000_000));
+                boolean[] finished = new boolean[1];
+                TestSupport.runThreads(4, thread -> {
+                    if (thread == 0) {
+                        try {
+                            for (int day = 0; day < days; day++) {
+                                processor.run(LocalDate.of(2026, 1, 22 + day % 10));
+                            }
+                        } finally {
+                            synchronized (finished) {
+                                finished[0] = true;
+                            }
+                        }
+                        return;
+                    }
+                    SplittableRandom random = new SplittableRandom(thread);
+                    while (true) {
+                        synchronized (finished) {
+                            if (finished[0]) {
+                                return;
+                            }
+                        }
+                        Account account = accounts[random.nextInt(count)];
+                        long balance = account.getBalance();
+                        if (balance > 0 && ledger.withdraw(account, balance, "Whole balance").isSuccess()) {
+                            ledger.deposit(account, Money.ofDollars(5000), "Top up");
+                        }
+                    }
+                });
+                for (int i = 0; i < count; i++) {
+                    balances[i] = accounts[i].getBalance();
+                }
+            }
+
+            // Nothing was checkpointed, so the journal alone rebuilds the ledger, as after a crash
+            try (Ledger recovered = new Ledger(new Journal(file, Journal.Durability.PER_BATCH, 10))) {
+                recovered.recover();
+                for (int i = 0; i < count; i++) {
+                    long balance = recovered.findAccount(accounts[i].getAccountNumber()).getBalance();
+                    TestSupport.check(balance == balances[i], "%s recovers to %d, expected %d",
+                                      accounts[i].getAccountNumber(), balance, balances[i]);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void failedJournalChangesNothing() throws Exception {
+        Path file = Files.createTempFile("ledger", ".journal");
+        try (Ledger ledger = new Ledger(new Journal(file, Journal.Durability.PER_BATCH, 10))) {
+            Account account = ledger.openAccount("Test Holder", Money.ofDollars(100));
+            int transactions = ledger.transactionCount(account);
+            ledger.getJournal().close(); // Every later write fails
+            EndOfDayProcessor processor = new EndOfDayProcessor(ledger, null, 1, 36_500, 0, 0);
+            boolean failed = false;
+            try {
+                processor.run(LocalDate.of(2026, 1, 22));
+            } catch (IOException e) {
+                failed = true;
+            }
+            TestSupport.check(failed, "End of day returned with a closed journal");
+            TestSupport.check(account.getBalance() == Money.ofDollars(100), "Balance %d after a failed run",
+                              account.getBalance());
+            TestSupport.check(ledger.transactionCount(account) == transactions,
+                              "%d transactions after a failed run, expected %d", ledger.transactionCount(account),
+                              transactions);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that promoting a follower loses no acknowledged posting
+ * A leader and a follower replicate over loopback TCP in this process, and
+ * each posting waits for the follower's acknowledgement (acks=1). After
+ * the leader is stopped and the follower promoted, every account and
+ * balance the leader acknowledged is in the new leader, which takes
+ * postings of its own, and in its journal on disk.
+ *
+ * Usage: FailoverTest [threads] [operations per thread]
+ */
+public class FailoverTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        promotionKeepsAcknowledgedPostings(threads, operations);
+    }
+
+    private static void promotionKeepsAcknowledgedPostings(int threads, int operations) throws Exception {
+        Path leaderFile = Files.createTempFile("leader", ".journal");
+        Path followerFile = Files.createTempFile("follower", ".journal");
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (Ledger leaderLedger = new Ledger(new Journal(leaderFile, Journal.Durability.PER_BATCH, 10));
+             Ledger followerLedger = new Ledger(new Journal(followerFile, Journal.Durability.PER_BATCH, 10))) {
+            ReplicationLeader leader = new ReplicationLeader(leaderLedger.getJournal(), loopback, 1, 10_000);
+            ReplicaNode follower = ReplicaNode.follower(followerLedger, loopback, List.of(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), leader.getPort())), 0, 10_000);
+            try {
+                while (leader.getFollowers().isEmpty()) {
+                    Thread.sleep(10);
+                }
+
+                Account[] accounts = new Account[8];
+                for (int i = 0; i < accounts.length; i++) {
+                    accounts[i] = leaderLedger.openAccount("Holder " + i, Money.ofDollars(1000));
+                }
+                TestSupport.runThreads(threads, thread -> {
+                    SplittableRandom random = new SplittableRandom(thread);
+                    for (int n = 0; n < operations; n++) {
+                        Account source = accounts[random.nextInt(accounts.length)];
+                        if (random.nextBoolean()) {
+                            leaderLedger.deposit(source, 1 + random.nextInt(10_000), "Replicated deposit");
+                        } else {
+                            leaderLedger.transfer(source, accounts[random.nextInt(accounts.length)],
+                                                  1 + random.nextInt(10_000));
+                        }
+                    }
+                });
+                // Every posting above returned only once the follower acknowledged it
+                leader.close();
+                follower.promote();
+
+                Ledger promoted = follower.getLedger();
+                for (Account account : accounts) {
+                    Account copy = promoted.findAccount(account.getAccountNumber());
+                    TestSupport.check(copy != null, "%s is missing after promotion", account.getAccountNumber());
+                    TestSupport.check(copy.getBalance() == account.getBalance(),
+                                      "%s has %d after promotion, the leader acknowledged %d",
+                                      account.getAccountNumber(), copy.getBalance(), account.getBalance());
+                    TestSupport.check(promoted.transactionCount(copy) == leaderLedger.transactionCount(account),
+                                      "%s has %d transactions after promotion, the leader had %d",
+                                      account.getAccountNumber(), promoted.transactionCount(copy),
+                                      leaderLedger.transactionCount(account));
+                }
+                Account first = promoted.findAccount(accounts[0].getAccountNumber());
+                long before = first.getBalance();
+                TestSupport.check(promoted.deposit(first, 100, "After promotion").isSuccess()
+                                  && first.getBalance() == before + 100, "The promoted leader refused a deposit");
+            } finally {
+                follower.close();
+                leader.close();
+            }
+
+            // The promoted leader's journal alone recovers the same balances
+            try (Ledger recovered = new Ledger(new Journal(followerFile, Journal.Durability.PER_BATCH, 10))) {
+                recovered.recover();
+                for (Account account : followerLedger.getAccounts()) {
+                    Account copy = recovered.findAccount(account.getAccountNumber());
+                    TestSupport.check(copy != null && copy.getBalance() == account.getBalance(),
+                                      "%s recovers to %s, expected %d", account.getAccountNumber(),
+                                      copy != null ? copy.getBalance() : "nothing", account.getBalance());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(leaderFile);
+            Files.deleteIfExists(followerFile);
+        }
+    }
+}
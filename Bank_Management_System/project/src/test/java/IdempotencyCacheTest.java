@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that IdempotencyCache never evicts a key whose posting is in flight
+ * With one entry per segment, new keys fill every segment while a slow
+ * posting holds its key. They must wait for it rather than evict it, so a
+ * retry of the slow request still waits for the original outcome instead
+ * of posting a second time.
+ */
+public class IdempotencyCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        pendingKeysAreNotEvicted();
+        unconfirmedPostingKeepsItsKey();
+    }
+
+    private static void pendingKeysAreNotEvicted() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(64, 3_600); // One entry per segment
+        AtomicInteger postings = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread slow = new Thread(() -> cache.execute(1001, "slow", IdempotencyCache.Operation.DEPOSIT, 100, 0, () -> {
+            postings.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return PostingStatus.SUCCESS;
+        }), "slow-posting");
+        slow.start();
+        started.await();
+
+        // Enough keys that several hash to the slow key's segment
+        Thread others = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                cache.execute(1002, "other-" + i, IdempotencyCache.Operation.DEPOSIT, 100, 0,
+                              () -> PostingStatus.SUCCESS);
+            }
+        }, "other-keys");
+        others.start();
+        awaitBlockedOrDone(others);
+
+        Thread retry = new Thread(() -> cache.execute(1001, "slow", IdempotencyCache.Operation.DEPOSIT, 100, 0,
+                                                      () -> {
+                                                          postings.incrementAndGet();
+                                                          return PostingStatus.SUCCESS;
+                                                      }), "retry");
+        retry.start();
+        awaitBlockedOrDone(retry);
+        TestSupport.check(postings.get() == 1, "A retry posted again while the first request was in flight");
+        TestSupport.check(others.isAlive(), "New keys evicted a key that was still posting");
+
+        release.countDown();
+        slow.join();
+        retry.join();
+        others.join();
+    }
+
+    private static void unconfirmedPostingKeepsItsKey() throws Exception {
+        Path file = Files.createTempFile("ledger", ".journal");
+        try (Ledger ledger = new Ledger(new Journal(file, Journal.Durability.PER_BATCH, 10))) {
+            Account account = ledger.openAccount("Test Holder", Money.ofDollars(100));
+            // Frames are written and forced, but no follower ever acknowledges them
+            ledger.getJournal().setReplicator(new Journal.Replicator() {
+                @Override
+                public void appended(long position) {
+                }
+
+                @Override
+                public void awaitReplicated(long position) throws IOException {
+                    throw new IOException("No follower acknowledged position " + position);
+                }
+            });
+            PostingStatus first = ledger.deposit(account, Money.ofDollars(20), "Test deposit", "unconfirmed");
+            PostingStatus retry = ledger.deposit(account, Money.ofDollars(20), "Test deposit", "unconfirmed");
+            TestSupport.check(first == PostingStatus.UNCONFIRMED && retry == PostingStatus.UNCONFIRMED,
+                              "Deposit returned %s, its retry %s", first, retry);
+            TestSupport.check(account.getBalance() == Money.ofDollars(120), "Balance %d after a deposit and its retry",
+                              account.getBalance());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Wait until a thread has finished or is waiting on a monitor
+     */
+    private static void awaitBlockedOrDone(Thread thread) throws InterruptedException {
+        while (thread.isAlive() && thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
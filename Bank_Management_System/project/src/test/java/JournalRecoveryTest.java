@@ -0,0 +1,157 @@
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a Ledger's journal replays to the balances it applied
+ * Concurrent transfers are journaled in the order each account applied
+ * them, so replaying the journal never takes a balance below zero and ends
+ * at the live balances. A posting whose frame cannot be written leaves the
+ * balances and history as they were, and store rows whose frames a crash
+ * cut off are not recovered into history, totals or search.
+ *
+ * Usage: JournalRecoveryTest [threads] [operations per thread]
+ */
+public class JournalRecoveryTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        replayFollowsApplyOrder(threads, operations);
+        failedWriteChangesNothing();
+        unjournaledRowsAreDiscarded();
+    }
+
+    private static void replayFollowsApplyOrder(int threads, int operations) throws Exception {
+        Path file = Files.createTempFile("bank", ".journal");
+        try {
+            Map<Integer, Long> live = new HashMap<>();
+            try (Ledger ledger = new Ledger(new Journal(file, Journal.Durability.TIMED, 1000))) {
+                Account[] accounts = new Account[16];
+                for (int i = 0; i < accounts.length; i++) {
+                    accounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(100));
+                }
+                TestSupport.runThreads(threads, thread -> {
+                    SplittableRandom random = new SplittableRandom(thread);
+                    for (int n = 0; n < operations; n++) {
+                        Account source = accounts[random.nextInt(accounts.length)];
+                        Account target = accounts[random.nextInt(accounts.length)];
+                        // Most of a balance at a time, so transfers often depend on the one just credited
+                        ledger.transfer(source, target, 1 + random.nextInt((int) Money.ofDollars(80)));
+                    }
+                });
+                for (Account account : accounts) {
+                    live.put(account.getAccountId(), account.getBalance());
+                }
+            }
+
+            Map<Integer, Long> replayed = new HashMap<>();
+            try (Journal journal = new Journal(file, Journal.Durability.TIMED, 1000)) {
+                journal.replay(new Journal.Handler() {
+                    @Override
+                    public void accountOpened(int accountId, String accountHolderName, long openingBalance) {
+                        replayed.put(accountId, openingBalance);
+                    }
+
+                    @Override
+                    public void posted(long transactionNumber, int accountId, Transaction.TransactionType type,
+                                       long amount, long balanceAfter, long epochMicros, String description) {
+                        long balance = replayed.get(accountId) + type.balanceEffect(amount);
+                        TestSupport.check(balance >= 0, "Replay takes ACC%d to %d", accountId, balance);
+                        TestSupport.check(balance == balanceAfter, "Replay gives ACC%d %d, its row recorded %d",
+                                          accountId, balance, balanceAfter);
+                        replayed.put(accountId, balance);
+                    }
+                });
+            }
+            TestSupport.check(replayed.equals(live), "Replayed balances %s, live balances %s", replayed, live);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void failedWriteChangesNothing() throws Exception {
+        Path file = Files.createTempFile("bank", ".journal");
+        Journal journal = new Journal(file, Journal.Durability.TIMED, 1000);
+        try (Ledger ledger = new Ledger(journal)) {
+            Account source = ledger.openAccount("Source Holder", Money.ofDollars(100));
+            Account target = ledger.openAccount("Target Holder", Money.ofDollars(100));
+            journal.close(); // Every later write fails
+
+            expectFailure(() -> ledger.deposit(source, Money.ofDollars(1), "Test deposit"));
+            expectFailure(() -> ledger.withdraw(source, Money.ofDollars(1), "Test withdrawal"));
+            expectFailure(() -> ledger.transfer(source, target, Money.ofDollars(1)));
+
+            for (Account account : List.of(source, target)) {
+                TestSupport.check(account.getBalance() == Money.ofDollars(100), "%s balance changed to %d",
+                                  account.getAccountNumber(), account.getBalance());
+                TestSupport.check(ledger.latestTransactions(account, 10).size() == 1,
+                                  "%s history kept a posting that was not journaled", account.getAccountNumber());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void unjournaledRowsAreDiscarded() throws Exception {
+        Path directory = Files.createTempDirectory("bank");
+        try {
+            TransactionStore store = new TransactionStore(directory.resolve("transactions"));
+            Journal journal = new Journal(directory.resolve("bank.journal"), Journal.Durability.TIMED, 1000);
+            Checkpointer checkpointer = new Checkpointer(directory.resolve("snapshots"), journal, store);
+            int accountId;
+            try (Ledger ledger = new Ledger(store, journal, checkpointer)) {
+                ledger.recover();
+                Account account = ledger.openAccount("Crash Holder", Money.ofDollars(100));
+                accountId = account.getAccountId();
+                // Rows as a crash leaves them: in the store, with no journal frame
+                store.append(accountId, Transaction.TransactionType.DEPOSIT, 777, 0, "Lost in crash");
+                ledger.deposit(account, Money.ofDollars(1), "Kept deposit");
+                checkpointer.checkpoint(); // Covers the kept deposit but not the row before it
+                ledger.deposit(account, Money.ofDollars(2), "Replayed deposit");
+                store.append(accountId, Transaction.TransactionType.DEPOSIT, 777, 0, "Lost in crash");
+            }
+
+            try (Ledger ledger = Ledger.open(directory, Journal.Durability.TIMED, 1000, 0)) {
+                Account account = ledger.findAccount("ACC" + accountId);
+                long expected = Money.ofDollars(103);
+                TestSupport.check(account.getBalance() == expected, "Recovered balance %d, expected %d",
+                                  account.getBalance(), expected);
+                LedgerAggregates.Snapshot totals = ledger.aggregates();
+                long deposits = totals.count(Transaction.TransactionType.DEPOSIT);
+                long deposited = totals.sum(Transaction.TransactionType.DEPOSIT);
+                TestSupport.check(deposits == 3 && deposited == expected, "Recovered %d deposits of %d in total",
+                                  deposits, deposited);
+                long history = 0;
+                for (Transaction transaction : ledger.latestTransactions(account, Integer.MAX_VALUE)) {
+                    history += transaction.getType().balanceEffect(transaction.getAmount());
+                }
+                TestSupport.check(history == expected, "Recovered history adds up to %d, expected %d", history,
+                                  expected);
+                TestSupport.check(ledger.search(new TransactionQuery().text("Lost in crash"),
+                                                TransactionIndex.FIRST_PAGE, 10).getTransactions().isEmpty(),
+                                  "Search finds a row that was never journaled");
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    private static void expectFailure(Runnable posting) {
+        try {
+            posting.run();
+        } catch (UncheckedIOException expected) {
+            return;
+        }
+        throw new AssertionError("Posting succeeded without its journal frame");
+    }
+}
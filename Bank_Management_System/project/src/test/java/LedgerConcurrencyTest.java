@@ -0,0 +1,91 @@
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Stress test for concurrent postings through a Ledger
+ * Many threads transfer between random pairs of accounts, in both
+ * directions at once, and money must be conserved with no balance going
+ * negative. Concurrent deposits into one account must each record the
+ * balance their own update produced, so no two rows share a balance-after.
+ *
+ * Usage: LedgerConcurrencyTest [threads] [operations per thread]
+ */
+public class LedgerConcurrencyTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        transfersConserveMoney(threads, operations);
+        depositsRecordTheirOwnBalances(threads, operations);
+    }
+
+    private static void transfersConserveMoney(int threads, int operations) throws Exception {
+        try (Ledger ledger = new Ledger()) {
+            Account[] accounts = new Account[64];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(1000));
+            }
+            long expected = TestSupport.totalBalance(ledger.getAccounts());
+            long[] accepted = new long[threads];
+
+            TestSupport.runThreads(threads, thread -> {
+                SplittableRandom random = new SplittableRandom(thread);
+                for (int n = 0; n < operations; n++) {
+                    Account source = accounts[random.nextInt(accounts.length)];
+                    Account target = accounts[random.nextInt(accounts.length)];
+                    // Large enough that some transfers find the balance short
+                    if (ledger.transfer(source, target, 1 + random.nextInt((int) Money.ofDollars(500))).isSuccess()) {
+                        accepted[thread]++;
+                    }
+                }
+            });
+
+            long transfers = 0;
+            for (long count : accepted) {
+                transfers += count;
+            }
+            TestSupport.check(transfers > 0, "No transfer was accepted");
+            TestSupport.check(TestSupport.totalBalance(ledger.getAccounts()) == expected,
+                              "Total balance %d after %d transfers, expected %d",
+                              TestSupport.totalBalance(ledger.getAccounts()), transfers, expected);
+            for (Account account : accounts) {
+                TestSupport.check(account.getBalance() >= 0, "%s has a negative balance %d",
+                                  account.getAccountNumber(), account.getBalance());
+                // Every balance change is in the account's history
+                long replayed = 0;
+                List<Transaction> history = ledger.latestTransactions(account, Integer.MAX_VALUE);
+                for (Transaction transaction : history) {
+                    replayed += transaction.getType().balanceEffect(transaction.getAmount());
+                }
+                TestSupport.check(replayed == account.getBalance(), "%s history adds up to %d, balance is %d",
+                                  account.getAccountNumber(), replayed, account.getBalance());
+            }
+        }
+    }
+
+    private static void depositsRecordTheirOwnBalances(int threads, int operations) throws Exception {
+        try (Ledger ledger = new Ledger()) {
+            long opening = Money.ofDollars(1);
+            Account account = ledger.openAccount("Shared Holder", opening);
+
+            TestSupport.runThreads(threads, thread -> {
+                for (int n = 0; n < operations; n++) {
+                    TestSupport.check(ledger.deposit(account, 1, "Test deposit").isSuccess(), "Deposit rejected");
+                }
+            });
+
+            long deposits = (long) threads * operations;
+            TestSupport.check(account.getBalance() == opening + deposits, "Balance %d after %d deposits of 1 cent",
+                              account.getBalance(), deposits);
+            // Each deposit added one cent, so each must have recorded a different balance
+            boolean[] seen = new boolean[(int) deposits + 1];
+            for (Transaction transaction : ledger.latestTransactions(account, Integer.MAX_VALUE)) {
+                int step = (int) (transaction.getBalanceAfter() - opening);
+                TestSupport.check(step >= 0 && step <= deposits && !seen[step],
+                                  "Balance-after %d recorded twice or out of range", transaction.getBalanceAfter());
+                seen[step] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Checks Money.parse on well-formed amounts and on malformed ones
+ * Grouping separators are accepted only between groups of three digits,
+ * so a European-style "1,5" is rejected instead of parsing as fifteen
+ * dollars.
+ */
+public class MoneyTest {
+
+    public static void main(String[] args) {
+        parsesAmounts();
+        rejectsMisplacedSeparators();
+    }
+
+    private static void parsesAmounts() {
+        expect("0", 0);
+        expect("20", 2000);
+        expect("$20", 2000);
+        expect("-3.5", -350);
+        expect(" 1,500.25 ", 150025);
+        expect("12,345", 1234500);
+        expect("1,234,567.89", 123456789);
+        expect("1500.25", 150025);
+        expect(".75", 75);
+    }
+
+    private static void rejectsMisplacedSeparators() {
+        for (String text : new String[] {"1,5", "1,,5", "1,,500", "1,50.00", "1,5000", "1234,567", "1,",
+                                         ",500", "1,234,56", "$,100", "1,.50"}) {
+            try {
+                long cents = Money.parse(text);
+                throw new AssertionError(String.format("\"%s\" parsed as %d cents", text, cents));
+            } catch (NumberFormatException expected) {
+                // Rejected as it should be
+            }
+        }
+    }
+
+    private static void expect(String text, long cents) {
+        long parsed = Money.parse(text);
+        TestSupport.check(parsed == cents, "\"%s\" parsed as %d cents, expected %d", text, parsed, cents);
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks that a PostingPipeline survives a journal failure
+ * Once an append fails, the commands it held and every later one complete
+ * with JOURNAL_FAILED and nothing more is applied. awaitCompletion and
+ * publish then throw instead of waiting forever, and close returns.
+ */
+public class PostingPipelineTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        journalFailureStopsThePipeline();
+    }
+
+    private static void journalFailureStopsThePipeline() throws Exception {
+        Path file = Files.createTempFile("bank", ".journal");
+        Journal journal = new Journal(file, Journal.Durability.TIMED, 1000);
+        Map<Long, PostingStatus> outcomes = new ConcurrentHashMap<>();
+        try (Ledger ledger = new Ledger(journal)) {
+            Account account = ledger.openAccount("Pipeline Holder", Money.ofDollars(100));
+            PostingPipeline pipeline = new PostingPipeline(ledger, 64, outcomes::put);
+
+            long recorded = pipeline.deposit(account, Money.ofDollars(1), "Recorded deposit");
+            pipeline.awaitCompletion(recorded);
+            TestSupport.check(outcomes.get(recorded) == PostingStatus.SUCCESS, "Deposit completed with %s",
+                              outcomes.get(recorded));
+
+            journal.close(); // Every later append fails
+            long failed = pipeline.deposit(account, Money.ofDollars(2), "Unrecorded deposit");
+            expectFailure(() -> pipeline.awaitCompletion(failed));
+            pipeline.awaitCompletion(recorded); // Recorded before the failure, so it does not throw
+            TestSupport.check(outcomes.get(failed) == PostingStatus.JOURNAL_FAILED, "Deposit completed with %s",
+                              outcomes.get(failed));
+            expectFailure(() -> pipeline.withdraw(account, Money.ofDollars(1), "Rejected withdrawal"));
+            long balance = account.getBalance();
+
+            pipeline.close();
+            TestSupport.check(account.getBalance() == balance, "Balance changed after the pipeline stopped");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void expectFailure(Runnable action) {
+        try {
+            action.run();
+        } catch (UncheckedIOException expected) {
+            return;
+        }
+        throw new AssertionError("The pipeline went on after its journal failed");
+    }
+}
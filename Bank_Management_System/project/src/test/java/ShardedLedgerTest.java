@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a ShardedLedger stops cleanly when a shard's journal fails
+ * A transfer whose credit cannot be journaled must make awaitSettled and
+ * close throw rather than wait forever, and reopening the ledger from its
+ * journals must deliver the credit exactly once, conserving money.
+ */
+public class ShardedLedgerTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        failedCreditSettlesAfterRestart();
+    }
+
+    private static void failedCreditSettlesAfterRestart() throws Exception {
+        Path directory = Files.createTempDirectory("bank");
+        try {
+            int sourceId;
+            int targetId;
+            long total;
+            ShardedLedger ledger = ShardedLedger.open(directory, 2, Journal.Durability.TIMED, 1000);
+            try {
+                Account source = ledger.openAccount("Source Holder", Money.ofDollars(100));
+                Account target = ledger.openAccount("Target Holder", Money.ofDollars(100));
+                while (ledger.shardOf(target.getAccountId()) == ledger.shardOf(source.getAccountId())) {
+                    target = ledger.openAccount("Target Holder", Money.ofDollars(100));
+                }
+                sourceId = source.getAccountId();
+                targetId = target.getAccountId();
+                total = TestSupport.totalBalance(ledger.getAccounts());
+
+                // Every append by the target's shard now fails, so the credit is never journaled
+                ledger.getShard(ledger.shardOf(targetId)).getJournal().close();
+                PostingStatus status = ledger.transfer(source, target, Money.ofDollars(10)).get(10, TimeUnit.SECONDS);
+                TestSupport.check(status.isSuccess(), "Transfer completed with %s", status);
+                TestSupport.check(throwsWithin(ledger::awaitSettled), "awaitSettled returned with a failed shard");
+            } finally {
+                TestSupport.check(throwsWithin(() -> {
+                    try {
+                        ledger.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }), "close returned without reporting the failed shard");
+            }
+
+            try (ShardedLedger reopened = ShardedLedger.open(directory, 2, Journal.Durability.TIMED, 1000)) {
+                reopened.awaitSettled();
+                long recovered = TestSupport.totalBalance(reopened.getAccounts());
+                TestSupport.check(recovered == total, "Total %d after restart, expected %d", recovered, total);
+                long source = reopened.findAccount(sourceId).getBalance();
+                long target = reopened.findAccount(targetId).getBalance();
+                TestSupport.check(source == Money.ofDollars(90) && target == Money.ofDollars(110),
+                                  "Source %d and target %d after restart", source, target);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * @return true if the action throws UncheckedIOException within ten seconds
+     */
+    private static boolean throwsWithin(Runnable action) throws Exception {
+        try {
+            CompletableFuture.runAsync(action).get(10, TimeUnit.SECONDS);
+            return false;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof UncheckedIOException;
+        }
+    }
+}
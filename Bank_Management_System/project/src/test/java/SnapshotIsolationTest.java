@@ -0,0 +1,90 @@
+import java.util.SplittableRandom;
+
+/**
+ * Checks that a BalanceSnapshot reads balances as of the moment it opened
+ * Balances read from an open snapshot stay the same while other threads
+ * post to the accounts, however many versions those postings install, and
+ * every snapshot opened while money moves between accounts adds up to the
+ * same total, never showing half a transfer.
+ *
+ * Usage: SnapshotIsolationTest [threads] [operations per thread]
+ */
+public class SnapshotIsolationTest {
+
+    public static void main(String[] args) throws Exception {
+        TestSupport.setTestLimits();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        snapshotIgnoresLaterPostings();
+        snapshotsStayStableUnderTransfers(threads, operations);
+    }
+
+    private static void snapshotIgnoresLaterPostings() throws Exception {
+        try (Ledger ledger = new Ledger()) {
+            Account first = ledger.openAccount("First Holder", Money.ofDollars(100));
+            Account second = ledger.openAccount("Second Holder", Money.ofDollars(100));
+            try (BalanceSnapshot snapshot = ledger.snapshot()) {
+                ledger.deposit(first, Money.ofDollars(5), "Test deposit");
+                ledger.transfer(first, second, Money.ofDollars(30));
+                Account later = ledger.openAccount("Later Holder", Money.ofDollars(1));
+
+                TestSupport.check(snapshot.balanceOf(first) == Money.ofDollars(100)
+                                  && snapshot.balanceOf(second) == Money.ofDollars(100),
+                                  "Snapshot reads %d and %d", snapshot.balanceOf(first), snapshot.balanceOf(second));
+                TestSupport.check(first.getBalance() == Money.ofDollars(75)
+                                  && second.getBalance() == Money.ofDollars(130),
+                                  "Live balances %d and %d", first.getBalance(), second.getBalance());
+                TestSupport.check(!snapshot.includes(later), "Snapshot includes an account opened after it");
+                TestSupport.check(snapshot.totalBalance() == Money.ofDollars(200), "Snapshot total %d",
+                                  snapshot.totalBalance());
+            }
+        }
+    }
+
+    private static void snapshotsStayStableUnderTransfers(int threads, int operations) throws Exception {
+        try (Ledger ledger = new Ledger()) {
+            Account[] accounts = new Account[32];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = ledger.openAccount("Holder " + i, Money.ofDollars(1000));
+            }
+            long total = TestSupport.totalBalance(ledger.getAccounts());
+            try (BalanceSnapshot snapshot = ledger.snapshot()) {
+                long[] expected = new long[accounts.length];
+                for (int i = 0; i < accounts.length; i++) {
+                    expected[i] = snapshot.balanceOf(accounts[i]);
+                }
+
+                // Thread 0 reads while the others transfer
+                TestSupport.runThreads(threads, thread -> {
+                    SplittableRandom random = new SplittableRandom(thread);
+                    for (int n = 0; n < operations; n++) {
+                        if (thread == 0) {
+                            int i = random.nextInt(accounts.length);
+                            long balance = snapshot.balanceOf(accounts[i]);
+                            TestSupport.check(balance == expected[i], "%s read %d in the snapshot, then %d",
+                                              accounts[i].getAccountNumber(), expected[i], balance);
+                            if (n % 1000 == 0) {
+                                try (BalanceSnapshot current = ledger.snapshot()) {
+                                    TestSupport.check(current.totalBalance() == total,
+                                                      "Snapshot at epoch %d totals %d, expected %d",
+                                                      current.getEpoch(), current.totalBalance(), total);
+                                }
+                            }
+                        } else {
+                            Account source = accounts[random.nextInt(accounts.length)];
+                            Account target = accounts[random.nextInt(accounts.length)];
+                            ledger.transfer(source, target, 1 + random.nextInt((int) Money.ofDollars(100)));
+                        }
+                    }
+                });
+
+                for (int i = 0; i < accounts.length; i++) {
+                    TestSupport.check(snapshot.balanceOf(accounts[i]) == expected[i],
+                                      "%s changed in the snapshot after the transfers", accounts[i].getAccountNumber());
+                }
+                TestSupport.check(snapshot.totalBalance() == total, "Snapshot total %d, expected %d",
+                                  snapshot.totalBalance(), total);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Runs every test and reports which ones failed
+ * Exits with status 1 if any test failed, so scripts can gate on it
+ */
+public class TestSuite {
+
+    /**
+     * One test's entry point
+     */
+    private interface Test {
+        void run() throws Exception;
+    }
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        run("MoneyTest", () -> MoneyTest.main(new String[0]));
+        run("LedgerConcurrencyTest", () -> LedgerConcurrencyTest.main(new String[0]));
+        run("JournalRecoveryTest", () -> JournalRecoveryTest.main(new String[0]));
+        run("PostingPipelineTest", () -> PostingPipelineTest.main(new String[0]));
+        run("EndOfDayTest", () -> EndOfDayTest.main(new String[0]));
+        run("ShardedLedgerTest", () -> ShardedLedgerTest.main(new String[0]));
+        run("IdempotencyCacheTest", () -> IdempotencyCacheTest.main(new String[0]));
+        run("SnapshotIsolationTest", () -> SnapshotIsolationTest.main(new String[0]));
+        run("FailoverTest", () -> FailoverTest.main(new String[0]));
+        if (failures > 0) {
+            System.out.printf("%d test(s) failed%n", failures);
+            System.exit(1);
+        }
+        System.out.println("All tests passed");
+    }
+
+    private static void run(String name, Test test) {
+        long start = System.nanoTime();
+        try {
+            test.run();
+            System.out.printf("PASS %s (%,d ms)%n", name, (System.nanoTime() - start) / 1_000_000);
+        } catch (Throwable e) {
+            failures++;
+            System.out.printf("FAIL %s: %s%n", name, e);
+            e.printStackTrace(System.out);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers shared by the checks under src/test/java
+ * Every test class has a main method that throws AssertionError at the
+ * first failed check, so it can be run on its own or from TestSuite
+ */
+public final class TestSupport {
+
+    private TestSupport() {
+    }
+
+    /**
+     * A thread's share of a concurrent test
+     */
+    public interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Raise the default rolling limits so tests can post freely; call
+     * before the first Account is created, as the limits are read once
+     */
+    public static void setTestLimits() {
+        if (System.getProperty("bank.limits") == null) {
+            System.setProperty("bank.limits", "deposit:24h:21474836.47,withdrawal:24h:21474836.47,"
+                                              + "transfer:24h:21474836.47");
+        }
+    }
+
+    /**
+     * Fail the test unless a condition holds
+     * @param format Message format, as for String.format
+     */
+    public static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+
+    /**
+     * Run a worker on several threads, released together, and wait for all
+     * of them; the first failure of any thread is rethrown
+     */
+    public static void runThreads(int threads, Worker worker) throws Exception {
+        List<Thread> started = new ArrayList<>(threads);
+        Throwable[] failure = new Throwable[1];
+        Object start = new Object();
+        boolean[] released = new boolean[1];
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            Thread runner = new Thread(() -> {
+                try {
+                    synchronized (start) {
+                        while (!released[0]) {
+                            start.wait();
+                        }
+                    }
+                    worker.run(thread);
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        if (failure[0] == null) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            }, "test-" + thread);
+            runner.start();
+            started.add(runner);
+        }
+        synchronized (start) {
+            released[0] = true;
+            start.notifyAll();
+        }
+        for (Thread runner : started) {
+            runner.join();
+        }
+        synchronized (failure) {
+            if (failure[0] instanceof Exception) {
+                throw (Exception) failure[0];
+            }
+            if (failure[0] instanceof Error) {
+                throw (Error) failure[0];
+            }
+        }
+    }
+
+    /**
+     * @return sum of every account's balance in cents
+     */
+    public static long totalBalance(Iterable<Account> accounts) {
+        long total = 0;
+        for (Account account : accounts) {
+            total += account.getBalance();
+        }
+        return total;
+    }
+}
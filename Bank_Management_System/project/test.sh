@@ -0,0 +1,19 @@
+#!/bin/bash
+
+# Compile the application and tests, then run every test or one test class
+# Usage: ./test.sh                run TestSuite
+#        ./test.sh <TestClass>    run one test
+echo "Compiling tests..."
+mkdir -p out/test
+javac -encoding UTF-8 -d out/test src/main/java/*.java src/test/java/*.java
+
+if [ $? -ne 0 ]; then
+    echo "Compilation failed!"
+    exit 1
+fi
+
+if [ $# -eq 0 ]; then
+    java -cp out/test TestSuite
+else
+    java -cp out/test "$@"
+fi